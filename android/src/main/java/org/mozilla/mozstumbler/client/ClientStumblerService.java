@@ -17,7 +17,7 @@ import android.support.v4.content.LocalBroadcastManager;
 import org.mozilla.mozstumbler.R;
 import org.mozilla.mozstumbler.client.util.NotificationUtil;
 import org.mozilla.mozstumbler.service.AppGlobals;
-import org.mozilla.mozstumbler.service.stumblerthread.Reporter;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
 import org.mozilla.mozstumbler.service.stumblerthread.StumblerService;
 import org.mozilla.mozstumbler.service.utils.BatteryCheckReceiver;
 import org.mozilla.mozstumbler.service.utils.BatteryCheckReceiver.BatteryCheckCallback;
@@ -135,8 +135,8 @@ public class ClientStumblerService extends StumblerService {
 
     public void stopScanning() {
         if (mScanManager.stopScanning()) {
-            Intent flush = new Intent(Reporter.ACTION_FLUSH_TO_BUNDLE);
-            LocalBroadcastManager.getInstance(this).sendBroadcastSync(flush);
+            // Through the bus, so the flush comes after any results still queued for the Reporter
+            ObservationBus.getInstance().publishFlushRequest();
         }
 
         if (mBatteryChecker != null) {
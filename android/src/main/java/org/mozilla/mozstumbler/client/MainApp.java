@@ -53,6 +53,8 @@ import org.mozilla.mozstumbler.service.uploadthread.AsyncUploaderMLS;
 import org.mozilla.mozstumbler.service.utils.NetworkInfo;
 import org.mozilla.mozstumbler.svclocator.ServiceConfig;
 import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.AcraErrorReporter;
+import org.mozilla.mozstumbler.svclocator.services.IErrorReporter;
 import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
 import org.mozilla.mozstumbler.svclocator.services.SystemClock;
 import org.mozilla.mozstumbler.svclocator.services.log.DebugLogger;
@@ -148,6 +150,7 @@ public class MainApp extends Application
         result.put(ISystemClock.class, ServiceConfig.load(SystemClock.class.getName()));
         result.put(ILocationService.class, ServiceConfig.load(MLSLocationService.class.getName()));
         result.put(ISimulatorService.class, ServiceConfig.load(SimulatorService.class.getName()));
+        result.put(IErrorReporter.class, ServiceConfig.load(AcraErrorReporter.class.getName()));
 
         if (BuildConfig.BUILD_TYPE.equals("unittest")) {
             result.put(ILogger.class, ServiceConfig.load(UnittestLogger.class.getName()));
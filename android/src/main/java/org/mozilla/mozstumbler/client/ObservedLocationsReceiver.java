@@ -17,7 +17,9 @@ import android.support.v4.content.LocalBroadcastManager;
 import org.json.JSONException;
 import org.mozilla.mozstumbler.client.mapview.MapFragment;
 import org.mozilla.mozstumbler.client.mapview.ObservationPoint;
+import org.mozilla.mozstumbler.client.mapview.ObservationPointStore;
 import org.mozilla.mozstumbler.service.core.logging.ClientLog;
+import org.mozilla.mozstumbler.service.core.offline.IOfflineLocationService;
 import org.mozilla.mozstumbler.service.stumblerthread.Reporter;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.StumblerBundle;
 import org.mozilla.mozstumbler.service.utils.NetworkInfo;
@@ -26,6 +28,7 @@ import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -40,13 +43,15 @@ public class ObservedLocationsReceiver extends BroadcastReceiver {
     private static final int MAX_QUEUED_MLS_POINTS_TO_FETCH = 10;
     private static final long FREQ_FETCH_MLS_MS = 5 * 1000;
     private static ObservedLocationsReceiver sInstance;
-    private final List<ObservationPoint> mCollectionPoints = Collections.synchronizedList(new LinkedList<ObservationPoint>());
+    // Every point of the session, off the Java heap
+    private final ObservationPointStore mPointStore = new ObservationPointStore();
+    private Location mLastPointLocation;
     private final List<ObservationPoint> mQueuedForMLS =
             Collections.synchronizedList(new LinkedList<ObservationPoint>());
     private final Handler mHandler = new Handler(Looper.getMainLooper());
 
-    // Upper bound on the size of the linked lists of points, for memory and performance safety.
-    // On older devices, store fewer observations
+    // Upper bound on the size of the queue of points waiting for MLS, for memory and performance safety.
+    // On older devices, queue fewer observations
     private final int MAX_SIZE_OF_POINT_LISTS = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) ?
             5000 : 2500;
     private WeakReference<MapFragment> mMapActivity = new WeakReference<MapFragment>(null);
@@ -66,9 +71,9 @@ public class ObservedLocationsReceiver extends BroadcastReceiver {
         return sInstance;
     }
 
-    public synchronized List<ObservationPoint> getObservationPoints_callerMustLock() {
-        return mCollectionPoints;
-   }
+    public ObservationPointStore getObservationPointStore() {
+        return mPointStore;
+    }
 
     // Must call when map activity stopped, to clear the reference to the map activity object
     public void removeMapActivity() {
@@ -99,24 +104,80 @@ public class ObservedLocationsReceiver extends BroadcastReceiver {
                 synchronized (mQueuedForMLS) {
                     queued = new LinkedList<ObservationPoint>(mQueuedForMLS);
                 }
+                IOfflineLocationService offline = prefs.useOfflineGeo() ?
+                        (IOfflineLocationService) ServiceLocator.getInstance().getService(IOfflineLocationService.class) :
+                        null;
+                List<ObservationPoint> offlinePoints = new ArrayList<ObservationPoint>();
+                List<List<String>> offlineQueries = new ArrayList<List<String>>();
+
                 Iterator<ObservationPoint> li = queued.iterator();
-                while (li.hasNext() && count < MAX_QUEUED_MLS_POINTS_TO_FETCH) {
+                while (li.hasNext() && (offline != null || count < MAX_QUEUED_MLS_POINTS_TO_FETCH)) {
                     ObservationPoint obs = li.next();
                     if (obs.needsToFetchMLS() && mContext != null) {
+                        if (offline != null) {
+                            // Resolved locally, so there's no need to throttle these.
+                            List<String> bssids = obs.startOfflineFetch();
+                            if (bssids != null) {
+                                offlinePoints.add(obs);
+                                offlineQueries.add(bssids);
+                            }
+                            continue;
+                        }
                         obs.fetchMLS(networkInfo.isConnected(),
                                      networkInfo.isWifiAvailable());
                         count++;
                     } else {
-                        if (getMapActivity() != null && obs.pointMLS != null) {
-                            getMapActivity().newMLSPoint(obs);
+                        if (obs.pointMLS != null) {
+                            if (obs.mStoreIndex >= 0) {
+                                mPointStore.setMLS(obs.mStoreIndex, obs.pointMLS.getLatitude(),
+                                        obs.pointMLS.getLongitude());
+                            }
+                            if (getMapActivity() != null) {
+                                getMapActivity().newMLSPoint(obs);
+                            }
                         }
                         li.remove();
                     }
                 }
+
+                if (!offlinePoints.isEmpty()) {
+                    fetchOffline(offline, offlinePoints, offlineQueries);
+                }
             }
         }
     };
 
+    /*
+     Resolve the queued points in one batch. Results are handed back to the points on the main
+     thread, where the next run of mFetchMLSRunnable passes them on to the map.
+     */
+    private void fetchOffline(IOfflineLocationService offline,
+                              final List<ObservationPoint> points,
+                              List<List<String>> queries) {
+        offline.searchBatch(queries, new IOfflineLocationService.BatchSearchCallback() {
+            @Override
+            public void onResult(final int index, final Location location) {
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        ObservationPoint obs = points.get(index);
+                        if (location != null) {
+                            obs.setMLSResponseLocation(location);
+                        } else {
+                            // The offline data won't change, don't ask again.
+                            obs.errorMLSResponse(true);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onBatchComplete() {
+                Log.d(LOG_TAG, "Offline batch of " + points.size() + " points resolved");
+            }
+        });
+    }
+
     // Must be called by map activity when it is showing to get points displayed
     public synchronized void setMapActivity(MapFragment m) {
         mMapActivity = new WeakReference<MapFragment>(m);
@@ -149,7 +210,7 @@ public class ObservedLocationsReceiver extends BroadcastReceiver {
         if (position == null) {
             return;
         }
-        ObservationPoint observation = new ObservationPoint(position);
+        final ObservationPoint observation = new ObservationPoint(position);
         observation.mTrackSegment = bundle.getTrackSegment();
 
         try {
@@ -167,17 +228,11 @@ public class ObservedLocationsReceiver extends BroadcastReceiver {
             ClientLog.w(LOG_TAG, "Failed to convert bundle to JSON: " + e);
         }
 
-        synchronized(mCollectionPoints) {
-            while (mCollectionPoints.size() > MAX_SIZE_OF_POINT_LISTS) {
-                mCollectionPoints.remove(0);
-            }
-
-            if (mCollectionPoints.size() > 0 && !observation.pointGPS.hasBearing()) {
-                final Location previous = mCollectionPoints.get(mCollectionPoints.size() - 1).pointGPS;
-                observation.pointGPS.setBearing(previous.bearingTo(observation.pointGPS));
-            }
-            mCollectionPoints.add(observation);
+        if (mLastPointLocation != null && !observation.pointGPS.hasBearing()) {
+            observation.pointGPS.setBearing(mLastPointLocation.bearingTo(observation.pointGPS));
         }
+        mLastPointLocation = observation.pointGPS;
+        observation.mStoreIndex = mPointStore.append(observation);
 
         if (getMapActivity() == null) {
             return;
@@ -187,19 +242,17 @@ public class ObservedLocationsReceiver extends BroadcastReceiver {
             getMapActivity().getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    addObservationPointToMap();
+                    addObservationPointToMap(observation);
                 }
             });
         }
     }
 
-    private void addObservationPointToMap() {
+    private void addObservationPointToMap(ObservationPoint observation) {
         if (getMapActivity() == null) {
             return;
         }
 
-        synchronized (mCollectionPoints) {
-            getMapActivity().newObservationPoint(mCollectionPoints.get(mCollectionPoints.size() - 1));
-        }
+        getMapActivity().newObservationPoint(observation);
     }
 }
@@ -629,6 +629,7 @@ public class MapFragment extends android.support.v4.app.Fragment
         removeLayer(mCoverageTilesOverlayLowZoom);
 
         mMap.getTileProvider().clearTileCache();
+        ClientLog.d(LOG_TAG, BitmapPool.getInstance().toString());
         BitmapPool.getInstance().clearBitmapPool();
     }
 
@@ -774,20 +775,24 @@ public class MapFragment extends android.support.v4.app.Fragment
                         public void run() {
                             try {
                                 IHttpUtil httpUtil = (IHttpUtil) ServiceLocator.getInstance().getService(IHttpUtil.class);
+                                // Closing the stream releases the HTTP request slot, so always close it
                                 java.util.Scanner scanner = new java.util.Scanner(httpUtil.getUrlAsStream(COVERAGE_REDIRECT_URL), "UTF-8");
-                                if (scanner.hasNext()) {
-                                    scanner.useDelimiter("\\A");
-                                    String result = scanner.next();
-                                    try {
-                                        sCoverageUrl = new JSONObject(result).getString("tiles_url");
-                                        removeLayer(mCoverageTilesOverlayHighZoom);
-                                        removeLayer(mCoverageTilesOverlayLowZoom);
-                                        mCoverageTilesOverlayHighZoom = mCoverageTilesOverlayLowZoom = null;
-                                    } catch (JSONException ex) {
-                                        AppGlobals.guiLogInfo("Failed to get coverage url: " + ex.toString());
+                                try {
+                                    if (scanner.hasNext()) {
+                                        scanner.useDelimiter("\\A");
+                                        String result = scanner.next();
+                                        try {
+                                            sCoverageUrl = new JSONObject(result).getString("tiles_url");
+                                            removeLayer(mCoverageTilesOverlayHighZoom);
+                                            removeLayer(mCoverageTilesOverlayLowZoom);
+                                            mCoverageTilesOverlayHighZoom = mCoverageTilesOverlayLowZoom = null;
+                                        } catch (JSONException ex) {
+                                            AppGlobals.guiLogInfo("Failed to get coverage url: " + ex.toString());
+                                        }
                                     }
+                                } finally {
+                                    scanner.close();
                                 }
-                                scanner.close();
                             } catch (Exception ex) {
                                 // this will catch java.net.UnknownHostException when offline
                                 if (AppGlobals.isDebug) {
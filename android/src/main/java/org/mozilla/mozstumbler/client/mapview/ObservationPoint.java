@@ -18,6 +18,8 @@ import org.mozilla.mozstumbler.svclocator.ServiceLocator;
 import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
+import java.util.List;
+
 public class ObservationPoint implements AsyncGeolocate.MLSLocationGetterCallback {
 
     private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
@@ -28,6 +30,8 @@ public class ObservationPoint implements AsyncGeolocate.MLSLocationGetterCallbac
     public int mWifiCount;
     public int mCellCount;
     public int mTrackSegment;
+    // Index in the ObservationPointStore, -1 if not stored
+    public int mStoreIndex = -1;
     private JSONObject mMLSQuery;
     private boolean mIsMLSLocationQueryRunning;
 
@@ -71,6 +75,18 @@ public class ObservationPoint implements AsyncGeolocate.MLSLocationGetterCallbac
         new AsyncGeolocate(this, mMLSQuery).execute();
     }
 
+    /*
+     Mark the query as running and return its BSSIDs, to be resolved by the offline location
+     service. Returns null if there is nothing to fetch.
+     */
+    public List<String> startOfflineFetch() {
+        if (mMLSQuery == null || pointMLS != null || mIsMLSLocationQueryRunning) {
+            return null;
+        }
+        mIsMLSLocationQueryRunning = true;
+        return MLSJSONObject.extractBSSIDs(mMLSQuery);
+    }
+
     public boolean needsToFetchMLS() {
         return pointMLS == null && mMLSQuery != null;
     }
@@ -0,0 +1,202 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.client.mapview;
+
+import android.graphics.Point;
+
+import org.mozilla.mozstumbler.service.utils.BucketGrid;
+import org.mozilla.osmdroid.util.TileSystem;
+import org.mozilla.osmdroid.views.util.constants.MapViewConstants;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ A spatial index of the ObservationPointStore, so the map only has to look at the points on screen.
+
+ Each point is projected once, to mercator pixels at MapViewConstants.MAXIMUM_ZOOMLEVEL (the same
+ "projected" coordinates Projection.toProjectedPixels() uses), and kept in int arrays. For each
+ zoom level that is drawn, points are aggregated into buckets the size of a dot on screen,
+ keeping the one with the most types of scan in each. The buckets of a level are a BucketGrid,
+ so a viewport query only visits the grid tiles it overlaps.
+
+ Points the store gained since the last query are added on the next one. A zoom level's buckets
+ are built on first use, then kept up to date as points are added. Only the most recently used
+ MAX_LEVELS are kept.
+
+ Not thread safe, ObservationPointsOverlay uses it from the main thread only.
+ */
+public class ObservationPointIndex {
+    static final int MAX_LEVELS = 4;
+
+    public static final class Bucket {
+        // index in the store of the point drawn for the bucket
+        public int point;
+        // projected coordinates of point
+        public final Point projected = new Point();
+    }
+
+    private final class Level {
+        final int zoom;
+        final BucketGrid<Bucket> grid;
+        long lastUsed;
+
+        Level(int zoom, int bucketSizePx) {
+            this.zoom = zoom;
+            grid = new BucketGrid<Bucket>(Math.max(1, bucketSizePx) << (MapViewConstants.MAXIMUM_ZOOMLEVEL - zoom));
+        }
+
+        void add(int i) {
+            Bucket bucket = grid.get(mX[i], mY[i]);
+            if (bucket == null) {
+                bucket = new Bucket();
+                grid.put(mX[i], mY[i], bucket);
+            } else if (typeBits(i) <= typeBits(bucket.point)) {
+                return;
+            }
+            bucket.point = i;
+            bucket.projected.set(mX[i], mY[i]);
+        }
+    }
+
+    private final ObservationPointStore mStore;
+    // Projected coordinates of the points indexed so far
+    private int[] mX = new int[1024];
+    private int[] mY = new int[1024];
+    private int mCount;
+    private final Level[] mLevels = new Level[MAX_LEVELS];
+    private int mBucketSizePx;
+    private int mProjectedTileSize = TileSystem.getTileSize();
+    private long mUseCount;
+    private final Point mReusePoint = new Point();
+
+    public ObservationPointIndex(ObservationPointStore store) {
+        mStore = store;
+    }
+
+    private int typeBits(int i) {
+        int wifiBit = mStore.getWifiCount(i) > 0 ? 2 : 0;
+        int cellBit = mStore.getCellCount(i) > 0 ? 1 : 0;
+        return cellBit | wifiBit;
+    }
+
+    private void project(int i) {
+        TileSystem.LatLongToPixelXY(mStore.getLatitude(i), mStore.getLongitude(i),
+                MapViewConstants.MAXIMUM_ZOOMLEVEL, mReusePoint);
+        mX[i] = mReusePoint.x;
+        mY[i] = mReusePoint.y;
+    }
+
+    public ObservationPointStore getStore() {
+        return mStore;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /*
+     Index the points appended to the store since the last call.
+     */
+    public void update() {
+        final int count = mStore.size();
+        if (count > mX.length) {
+            final int capacity = Math.max(count, mX.length * 2);
+            mX = Arrays.copyOf(mX, capacity);
+            mY = Arrays.copyOf(mY, capacity);
+        }
+        for (int i = mCount; i < count; i++) {
+            project(i);
+            if (typeBits(i) == 0) {
+                continue;
+            }
+            for (Level level : mLevels) {
+                if (level != null) {
+                    level.add(i);
+                }
+            }
+        }
+        mCount = count;
+    }
+
+    private void clearLevels() {
+        for (int i = 0; i < mLevels.length; i++) {
+            mLevels[i] = null;
+        }
+    }
+
+    private Level getLevel(int zoom, int bucketSizePx) {
+        if (bucketSizePx != mBucketSizePx) {
+            mBucketSizePx = bucketSizePx;
+            clearLevels();
+        }
+        if (TileSystem.getTileSize() != mProjectedTileSize) {
+            // The tile source changed, and with it the projected coordinates
+            mProjectedTileSize = TileSystem.getTileSize();
+            clearLevels();
+            for (int i = 0; i < mCount; i++) {
+                project(i);
+            }
+        }
+        update();
+
+        int oldest = 0;
+        for (int i = 0; i < mLevels.length; i++) {
+            final Level level = mLevels[i];
+            if (level != null && level.zoom == zoom) {
+                level.lastUsed = ++mUseCount;
+                return level;
+            }
+            if (level == null) {
+                oldest = i;
+                break;
+            }
+            if (level.lastUsed < mLevels[oldest].lastUsed) {
+                oldest = i;
+            }
+        }
+
+        final Level level = new Level(zoom, bucketSizePx);
+        for (int i = 0; i < mCount; i++) {
+            if (typeBits(i) != 0) {
+                level.add(i);
+            }
+        }
+        level.lastUsed = ++mUseCount;
+        mLevels[oldest] = level;
+        return level;
+    }
+
+    /*
+     Build the buckets for zoom ahead of the first query.
+     */
+    public void prepare(int zoom, int bucketSizePx) {
+        getLevel(zoom, bucketSizePx);
+    }
+
+    /*
+     Add to out the buckets at zoom in the tiles overlapping the rectangle, in projected
+     coordinates. The rectangle may extend past the edges of the map, it wraps around
+     horizontally. The buckets returned may be a little outside the rectangle.
+     */
+    public void query(int zoom, int bucketSizePx, long left, long top, long right, long bottom, List<Bucket> out) {
+        final Level level = getLevel(zoom, bucketSizePx);
+        if (level.grid.isEmpty()) {
+            return;
+        }
+        final long mapSize = (long) TileSystem.MapSize(MapViewConstants.MAXIMUM_ZOOMLEVEL);
+        final long width = Math.min(right - left, mapSize - 1);
+
+        long start = left % mapSize;
+        if (start < 0) {
+            start += mapSize;
+        }
+        final long end = start + width;
+        level.grid.query(start, top, Math.min(end, mapSize - 1), bottom, out);
+        if (end >= mapSize) {
+            level.grid.query(0, top, end - mapSize, bottom, out);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.client.mapview;
+
+import android.location.Location;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ Every observation point of the session, append-only and off the Java heap.
+
+ Points are stored in direct ByteBuffer chunks of CHUNK_SIZE points, a column per field within
+ each chunk. Coordinates are degrees x 1e6 as ints. A point costs RECORD_BYTES, so a whole
+ day of stumbling is a few MB of native memory, and the heap doesn't grow with it.
+
+ Appending and setMLS() are done from the main thread. Anything may read concurrently: a point
+ is fully written before the count that includes it is published, and points never move or
+ change apart from their MLS location, which is read and written under the store's lock.
+ */
+public class ObservationPointStore {
+    public static final int CHUNK_SIZE = 4096;
+    public static final int NO_MLS = Integer.MIN_VALUE;
+
+    // Column offsets, in bytes per point
+    private static final int COL_LAT = 0;              // int, degrees x 1e6
+    private static final int COL_LON = 4;              // int, degrees x 1e6
+    private static final int COL_TIME = 8;             // long, ms
+    private static final int COL_BEARING = 16;         // float
+    private static final int COL_ACCURACY = 20;        // float, NaN if none
+    private static final int COL_ALTITUDE = 24;        // float, NaN if none
+    private static final int COL_WIFIS = 28;           // int
+    private static final int COL_CELLS = 32;           // int
+    private static final int COL_TRACK_SEGMENT = 36;   // int
+    private static final int COL_MLS_LAT = 40;         // int, degrees x 1e6, NO_MLS if none
+    private static final int COL_MLS_LON = 44;         // int, degrees x 1e6
+    public static final int RECORD_BYTES = 48;
+
+    private volatile ByteBuffer[] mChunks = new ByteBuffer[0];
+    private volatile int mCount;
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(degrees * 1e6);
+    }
+
+    private static double fromE6(int e6) {
+        return e6 / 1e6;
+    }
+
+    // Each column takes (its width x CHUNK_SIZE) bytes of a chunk, in the order of the offsets above
+    private static int offset(int col, int i) {
+        final int width = (col == COL_TIME) ? 8 : 4;
+        return col * CHUNK_SIZE + (i % CHUNK_SIZE) * width;
+    }
+
+    private ByteBuffer chunk(int i) {
+        return mChunks[i / CHUNK_SIZE];
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /*
+     Returns the index of the new point.
+     */
+    public synchronized int append(ObservationPoint point) {
+        final int i = mCount;
+        if (i / CHUNK_SIZE >= mChunks.length) {
+            final ByteBuffer[] chunks = Arrays.copyOf(mChunks, mChunks.length + 1);
+            chunks[chunks.length - 1] = ByteBuffer.allocateDirect(RECORD_BYTES * CHUNK_SIZE)
+                    .order(ByteOrder.nativeOrder());
+            mChunks = chunks;
+        }
+
+        final ByteBuffer b = chunk(i);
+        final Location gps = point.pointGPS;
+        b.putInt(offset(COL_LAT, i), toE6(gps.getLatitude()));
+        b.putInt(offset(COL_LON, i), toE6(gps.getLongitude()));
+        b.putLong(offset(COL_TIME, i), gps.getTime());
+        b.putFloat(offset(COL_BEARING, i), gps.getBearing());
+        b.putFloat(offset(COL_ACCURACY, i), gps.hasAccuracy() ? gps.getAccuracy() : Float.NaN);
+        b.putFloat(offset(COL_ALTITUDE, i), gps.hasAltitude() ? (float) gps.getAltitude() : Float.NaN);
+        b.putInt(offset(COL_WIFIS, i), point.mWifiCount);
+        b.putInt(offset(COL_CELLS, i), point.mCellCount);
+        b.putInt(offset(COL_TRACK_SEGMENT, i), point.mTrackSegment);
+        b.putInt(offset(COL_MLS_LAT, i), NO_MLS);
+        b.putInt(offset(COL_MLS_LON, i), NO_MLS);
+
+        mCount = i + 1;
+        return i;
+    }
+
+    public synchronized void setMLS(int i, double latitude, double longitude) {
+        checkIndex(i);
+        final ByteBuffer b = chunk(i);
+        b.putInt(offset(COL_MLS_LON, i), toE6(longitude));
+        b.putInt(offset(COL_MLS_LAT, i), toE6(latitude));
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= mCount) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + mCount);
+        }
+    }
+
+    public int getLatitudeE6(int i) {
+        return chunk(i).getInt(offset(COL_LAT, i));
+    }
+
+    public int getLongitudeE6(int i) {
+        return chunk(i).getInt(offset(COL_LON, i));
+    }
+
+    public double getLatitude(int i) {
+        return fromE6(getLatitudeE6(i));
+    }
+
+    public double getLongitude(int i) {
+        return fromE6(getLongitudeE6(i));
+    }
+
+    public long getTime(int i) {
+        return chunk(i).getLong(offset(COL_TIME, i));
+    }
+
+    public float getBearing(int i) {
+        return chunk(i).getFloat(offset(COL_BEARING, i));
+    }
+
+    public boolean hasAccuracy(int i) {
+        return !Float.isNaN(getAccuracy(i));
+    }
+
+    public float getAccuracy(int i) {
+        return chunk(i).getFloat(offset(COL_ACCURACY, i));
+    }
+
+    public boolean hasAltitude(int i) {
+        return !Float.isNaN(getAltitude(i));
+    }
+
+    public float getAltitude(int i) {
+        return chunk(i).getFloat(offset(COL_ALTITUDE, i));
+    }
+
+    public int getWifiCount(int i) {
+        return chunk(i).getInt(offset(COL_WIFIS, i));
+    }
+
+    public int getCellCount(int i) {
+        return chunk(i).getInt(offset(COL_CELLS, i));
+    }
+
+    public int getTrackSegment(int i) {
+        return chunk(i).getInt(offset(COL_TRACK_SEGMENT, i));
+    }
+
+    public synchronized boolean hasMLS(int i) {
+        return chunk(i).getInt(offset(COL_MLS_LAT, i)) != NO_MLS;
+    }
+
+    /*
+     Fills latLon with the MLS location of point i and returns true, or returns false if it has none.
+     */
+    public synchronized boolean getMLS(int i, double[] latLon) {
+        final ByteBuffer b = chunk(i);
+        final int lat = b.getInt(offset(COL_MLS_LAT, i));
+        if (lat == NO_MLS) {
+            return false;
+        }
+        latLon[0] = fromE6(lat);
+        latLon[1] = fromE6(b.getInt(offset(COL_MLS_LON, i)));
+        return true;
+    }
+
+    /*
+     A cursor over the points stored when it was created.
+     */
+    public Cursor cursor() {
+        return new Cursor(this, mCount);
+    }
+
+    public static final class Cursor {
+        private final ObservationPointStore mStore;
+        private final int mCount;
+        private int mPosition = -1;
+        private final double[] mMLS = new double[2];
+        private boolean mHasMLS;
+
+        private Cursor(ObservationPointStore store, int count) {
+            mStore = store;
+            mCount = count;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public int getPosition() {
+            return mPosition;
+        }
+
+        public boolean moveToNext() {
+            if (mPosition + 1 >= mCount) {
+                mPosition = mCount;
+                return false;
+            }
+            mPosition++;
+            mHasMLS = mStore.getMLS(mPosition, mMLS);
+            return true;
+        }
+
+        public double getLatitude() {
+            return mStore.getLatitude(mPosition);
+        }
+
+        public double getLongitude() {
+            return mStore.getLongitude(mPosition);
+        }
+
+        public long getTime() {
+            return mStore.getTime(mPosition);
+        }
+
+        public float getBearing() {
+            return mStore.getBearing(mPosition);
+        }
+
+        public boolean hasAccuracy() {
+            return mStore.hasAccuracy(mPosition);
+        }
+
+        public float getAccuracy() {
+            return mStore.getAccuracy(mPosition);
+        }
+
+        public boolean hasAltitude() {
+            return mStore.hasAltitude(mPosition);
+        }
+
+        public float getAltitude() {
+            return mStore.getAltitude(mPosition);
+        }
+
+        public int getWifiCount() {
+            return mStore.getWifiCount(mPosition);
+        }
+
+        public int getCellCount() {
+            return mStore.getCellCount(mPosition);
+        }
+
+        public int getTrackSegment() {
+            return mStore.getTrackSegment(mPosition);
+        }
+
+        // The MLS location as it was when the cursor moved to this point
+        public boolean hasMLS() {
+            return mHasMLS;
+        }
+
+        public double getMLSLatitude() {
+            return mMLS[0];
+        }
+
+        public double getMLSLongitude() {
+            return mMLS[1];
+        }
+    }
+}
@@ -19,13 +19,9 @@ import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 import org.mozilla.osmdroid.views.MapView;
 import org.mozilla.osmdroid.views.Projection;
 import org.mozilla.osmdroid.views.overlay.Overlay;
+import org.mozilla.osmdroid.views.util.constants.MapViewConstants;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.ListIterator;
 
 class ObservationPointsOverlay extends Overlay {
     private static final String LOG_TAG = LoggerUtil.makeLogTag(ObservationPointsOverlay.class);
@@ -41,8 +37,13 @@ class ObservationPointsOverlay extends Overlay {
     private final Paint mBlackMLSLinePaint = new Paint();
     private final int mSize3px;
     public boolean mOnMapShowMLS;
-    LinkedHashMap<Integer, ObservationPoint> mHashedGrid;
-    private Point mHashedGridAnchorPoint = new Point(0, 0);
+    // Reused by draw(), main thread only
+    private final ArrayList<ObservationPointIndex.Bucket> mVisibleBuckets = new ArrayList<ObservationPointIndex.Bucket>();
+    private final Point mTopLeft = new Point();
+    private final Point mBottomRight = new Point();
+    private final double[] mMLSLatLon = new double[2];
+    private final ObservationPointIndex mPointIndex =
+            new ObservationPointIndex(ObservedLocationsReceiver.getInstance().getObservationPointStore());
 
     ObservationPointsOverlay(Context ctx) {
         super(ctx);
@@ -83,13 +84,7 @@ class ObservationPointsOverlay extends Overlay {
             return;
         }
 
-        if (!isMlsPointUpdate) {
-            final Projection pj = mapView.getProjection();
-            final Point point = pj.toPixels(obsPoint.pointGPS.getLatitude(), obsPoint.pointGPS.getLongitude(), null);
-            // add to hashed grid
-            addToGridHash(obsPoint, point, new Point(mapView.getScrollX(), mapView.getScrollY()));
-        }
-
+        // ObservedLocationsReceiver has already stored the point, the index picks it up on the next draw
         mapView.postInvalidate();
     }
 
@@ -109,117 +104,85 @@ class ObservationPointsOverlay extends Overlay {
         c.drawCircle(p.x, p.y, size, mWifiPaint);
     }
 
-    private void addToGridHash(ObservationPoint obsPoint, Point screenPoint, Point currentScroll) {
-        if (obsPoint.mCellCount == 0 && obsPoint.mWifiCount == 0) {
-            return;
-        }
-        int hash = hashedGridPoint(screenPoint.x, screenPoint.y, currentScroll.x, currentScroll.y);
-        ObservationPoint gp = mHashedGrid.get(hash);
-        if (gp == null || toTypeBitField(obsPoint) > toTypeBitField(gp)) {
-            mHashedGrid.put(hash, obsPoint);
-        }
+    private int getBucketSizePx() {
+        return mSize3px * 2;
     }
 
     public void zoomChanged(MapView mapView) {
-        mHashedGrid = new LinkedHashMap<Integer, ObservationPoint>();
-        mHashedGridAnchorPoint = new Point(mapView.getScrollX(), mapView.getScrollY());
-        final Projection pj = mapView.getProjection();
-        List<ObservationPoint> points = ObservedLocationsReceiver.getInstance().getObservationPoints_callerMustLock();
-        synchronized (points) {
-            final Iterator<ObservationPoint> i = points.iterator();
-            final Point gps = new Point();
-            ObservationPoint point;
-            Point zero = new Point(0, 0);
-            while (i.hasNext()) {
-                point = i.next();
-                pj.toPixels(point.pointGPS.getLatitude(), point.pointGPS.getLongitude(), gps);
-                addToGridHash(point, gps, zero);
-            }
-        }
-    }
-
-    private int hashedGridPoint(int x, int y, int scrollX, int scrollY) {
-        x = (int) Math.round((x - mHashedGridAnchorPoint.x + scrollX) / (mSize3px * 2.0));
-        y = (int) Math.round((y - mHashedGridAnchorPoint.y + scrollY) / (mSize3px * 2.0));
-        return x * 10000 + y;
-    }
-
-    private int toTypeBitField(ObservationPoint point) {
-        int wifiBit = point.mWifiCount > 0 ? 2 : 0;
-        int cellBit = point.mCellCount > 0 ? 1 : 0;
-        return cellBit | wifiBit;
+        mPointIndex.prepare(mapView.getProjection().getZoomLevel(), getBucketSizePx());
     }
 
     protected void draw(Canvas c, MapView osmv, boolean shadow) {
         final long endTime = SystemClock.uptimeMillis() + DRAW_TIME_MILLIS;
-        List<ObservationPoint> points = ObservedLocationsReceiver.getInstance().getObservationPoints_callerMustLock();
-        synchronized (points) {
-            if (shadow || points.size() < 1) {
-                return;
-            }
+        final ObservationPointStore store = mPointIndex.getStore();
+        if (shadow || store.size() < 1) {
+            return;
+        }
+
+        final Projection pj = osmv.getProjection();
+        final float radiusInnerRing = mSize3px;
+
+        int count = 0;
+        // The overlay occupies the entire screen, so this returns the screen (0,0,w,h).
+        Rect clip = c.getClipBounds();
+
+        // Only the buckets around the screen, the screen rect covers the map when it is rotated
+        final Rect screen = pj.getScreenRect();
+        pj.toMercatorPixels(screen.left, screen.top, mTopLeft);
+        pj.toMercatorPixels(screen.right, screen.bottom, mBottomRight);
+        final int shift = MapViewConstants.MAXIMUM_ZOOMLEVEL - pj.getZoomLevel();
+        final long margin = mSize3px;
+        mVisibleBuckets.clear();
+        mPointIndex.query(pj.getZoomLevel(), getBucketSizePx(),
+                (mTopLeft.x - margin) << shift, (mTopLeft.y - margin) << shift,
+                (mBottomRight.x + margin) << shift, (mBottomRight.y + margin) << shift,
+                mVisibleBuckets);
+
+        if (mVisibleBuckets.isEmpty()) {
+            return;
+        }
+
+        final Point gps = new Point();
 
-            final Projection pj = osmv.getProjection();
-            final float radiusInnerRing = mSize3px;
+        for (ObservationPointIndex.Bucket bucket : mVisibleBuckets) {
+            pj.toPixelsFromProjected(bucket.projected, gps);
 
-            int count = 0;
-            // The overlay occupies the entire screen, so this returns the screen (0,0,w,h).
-            Rect clip = c.getClipBounds();
+            if (!clip.contains(gps.x, gps.y)) {
+                continue;
+            }
+
+            boolean hasWifiScan = store.getWifiCount(bucket.point) > 0;
+            boolean hasCellScan = store.getCellCount(bucket.point) > 0;
 
-            if (mHashedGrid == null || mHashedGrid.size() < 1) {
-                return;
+            if (hasCellScan && hasWifiScan) {
+                drawDot(c, gps, radiusInnerRing, mGreenPaint, mBlackStrokePaint);
+            } else if (hasWifiScan) {
+                drawWifiScan(c, gps);
+            } else if (hasCellScan) {
+                drawCellScan(c, gps);
             }
 
-            final Point gps = new Point();
-
-            ArrayList<HashMap.Entry<Integer, ObservationPoint>> arrayList =
-                    new ArrayList<HashMap.Entry<Integer, ObservationPoint>>(mHashedGrid.entrySet());
-            ListIterator<HashMap.Entry<Integer, ObservationPoint>> revIterator =
-                    arrayList.listIterator(mHashedGrid.size());
-            while (revIterator.hasPrevious()) {
-                HashMap.Entry<Integer, ObservationPoint> entry = revIterator.previous();
-                ObservationPoint point = entry.getValue();
-                pj.toPixels(point.pointGPS.getLatitude(), point.pointGPS.getLongitude(), gps);
-
-                if (!clip.contains(gps.x, gps.y)) {
-                    continue;
-                }
-
-                boolean hasWifiScan = point.mWifiCount > 0;
-                boolean hasCellScan = point.mCellCount > 0;
-
-                if (hasCellScan && hasWifiScan) {
-                    drawDot(c, gps, radiusInnerRing, mGreenPaint, mBlackStrokePaint);
-                } else if (hasWifiScan) {
-                    drawWifiScan(c, gps);
-                } else if (hasCellScan) {
-                    drawCellScan(c, gps);
-                }
-
-                if ((++count % TIME_CHECK_MULTIPLE == 0) && (SystemClock.uptimeMillis() > endTime)) {
-                    break;
-                }
+            if ((++count % TIME_CHECK_MULTIPLE == 0) && (SystemClock.uptimeMillis() > endTime)) {
+                break;
             }
+        }
+
+        if (!mOnMapShowMLS) {
+            return;
+        }
 
-            if (!mOnMapShowMLS) {
-                return;
+        // Draw as a 2nd layer over the observation points
+        final Point mls = new Point();
+        for (ObservationPointIndex.Bucket bucket : mVisibleBuckets) {
+            if (store.getMLS(bucket.point, mMLSLatLon)) {
+                pj.toPixelsFromProjected(bucket.projected, gps);
+                pj.toPixels(mMLSLatLon[0], mMLSLatLon[1], mls);
+                drawDot(c, mls, radiusInnerRing - 1, mRedPaint, mBlackStrokePaintThin);
+                c.drawLine(gps.x, gps.y, mls.x, mls.y, mBlackMLSLinePaint);
             }
 
-            // Draw as a 2nd layer over the observation points
-            final Point mls = new Point();
-            revIterator = arrayList.listIterator(mHashedGrid.size());
-            while (revIterator.hasPrevious()) {
-                HashMap.Entry<Integer, ObservationPoint> entry = revIterator.previous();
-                ObservationPoint point = entry.getValue();
-                if (point.pointMLS != null) {
-                    pj.toPixels(point.pointGPS.getLatitude(), point.pointGPS.getLongitude(), gps);
-                    pj.toPixels(point.pointMLS.getLatitude(), point.pointMLS.getLongitude(), mls);
-                    drawDot(c, mls, radiusInnerRing - 1, mRedPaint, mBlackStrokePaintThin);
-                    c.drawLine(gps.x, gps.y, mls.x, mls.y, mBlackMLSLinePaint);
-                }
-
-                if ((++count % TIME_CHECK_MULTIPLE == 0) && (SystemClock.uptimeMillis() > endTime)) {
-                    break;
-                }
+            if ((++count % TIME_CHECK_MULTIPLE == 0) && (SystemClock.uptimeMillis() > endTime)) {
+                break;
             }
         }
     }
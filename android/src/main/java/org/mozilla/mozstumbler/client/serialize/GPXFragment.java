@@ -28,21 +28,19 @@ import org.joda.time.format.DateTimeFormatter;
 import org.mozilla.mozstumbler.R;
 import org.mozilla.mozstumbler.client.MainApp;
 import org.mozilla.mozstumbler.client.ObservedLocationsReceiver;
-import org.mozilla.mozstumbler.client.mapview.ObservationPoint;
+import org.mozilla.mozstumbler.client.mapview.ObservationPointStore;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.lang.ref.WeakReference;
-import java.util.LinkedList;
-import java.util.List;
 
 public class GPXFragment extends Fragment
         implements GpxObservationPointSerializer.IListener {
 
     private final String LOG_TAG = LoggerUtil.makeLogTag(GPXFragment.class);
 
-    private LinkedList<ObservationPoint> mPointsToWrite;
+    private ObservationPointStore mPointStore;
     private WeakReference<ProgressDialog> mProgressDialog;
     private TextView mSavedFileLocation;
 
@@ -53,10 +51,7 @@ public class GPXFragment extends Fragment
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         mRootView = inflater.inflate(R.layout.fragment_gpx, container, false);
-        List<ObservationPoint> points = ObservedLocationsReceiver.getInstance().getObservationPoints_callerMustLock();
-        synchronized (points) {
-            mPointsToWrite = new LinkedList<ObservationPoint>(points);
-        }
+        mPointStore = ObservedLocationsReceiver.getInstance().getObservationPointStore();
         mProgressDialog = new WeakReference<ProgressDialog>(null);
         mSavedFileLocation = (TextView) mRootView.findViewById(R.id.textViewSavedFile);
 
@@ -107,7 +102,7 @@ public class GPXFragment extends Fragment
         View buttonSave = mRootView.findViewById(R.id.buttonSave);
 
         buttonLoad.setEnabled(!mIsRunning);
-        buttonSave.setEnabled(!mIsRunning && !mPointsToWrite.isEmpty());
+        buttonSave.setEnabled(!mIsRunning && mPointStore.size() > 0);
 
         if (!mIsRunning) {
             String[] files = getFileList();
@@ -139,7 +134,7 @@ public class GPXFragment extends Fragment
     private void onClickSave(View v) {
         stopScanning();
 
-        if (mPointsToWrite == null) {
+        if (mPointStore == null) {
             return;
         }
 
@@ -150,15 +145,16 @@ public class GPXFragment extends Fragment
         mIsRunning = true;
         setButtonsEnabledState();
 
+        final ObservationPointStore.Cursor points = mPointStore.cursor();
         final DateTime date = DateTime.now();
         final DateTimeFormatter dtf = DateTimeFormat.forPattern("yyyy-MM-dd-HH:mm:ss");
-        final String name = "date-" + dtf.print(date) + "_obs-" + mPointsToWrite.size() + ".gpx";
+        final String name = "date-" + dtf.print(date) + "_obs-" + points.getCount() + ".gpx";
         final File dir = getActivity().getExternalFilesDir(null);
         final File file = new File(dir, name);
 
         String msg = String.format(getString(R.string.saving_gpx), file != null ? file.toString() : "null");
         showProgress(true, msg);
-        GpxObservationPointSerializer obs = new GpxObservationPointSerializer(this, file, mPointsToWrite);
+        GpxObservationPointSerializer obs = new GpxObservationPointSerializer(this, file, points);
         obs.execute();
     }
 
@@ -4,13 +4,12 @@
 
 package org.mozilla.mozstumbler.client.serialize;
 
-import android.location.Location;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.util.Log;
 
 import org.mozilla.mozstumbler.BuildConfig;
-import org.mozilla.mozstumbler.client.mapview.ObservationPoint;
+import org.mozilla.mozstumbler.client.mapview.ObservationPointStore;
 import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 import org.simpleframework.xml.Attribute;
@@ -34,14 +33,14 @@ import java.util.TimeZone;
 public class GpxObservationPointSerializer extends AsyncTask<Void, Void, Boolean> {
     private static final String LOG_TAG = LoggerUtil.makeLogTag(GpxObservationPointSerializer.class);
     final WeakReference<IListener> mObservationPointSerializerListener;
-    private final LinkedList<ObservationPoint> mPointList;
+    private final ObservationPointStore.Cursor mPointCursor;
     private File mFile;
 
     GpxObservationPointSerializer(IListener listener, File file,
-                                  LinkedList<ObservationPoint> pointList) {
+                                  ObservationPointStore.Cursor pointCursor) {
         mObservationPointSerializerListener = new WeakReference<IListener>(listener);
         mFile = file;
-        mPointList = pointList;
+        mPointCursor = pointCursor;
     }
 
     synchronized boolean writeOut(File outFile) {
@@ -58,26 +57,27 @@ public class GpxObservationPointSerializer extends AsyncTask<Void, Void, Boolean
         gpx.trk.add(trk);
 
         Trkseg seg;
-        for (ObservationPoint observationPoint : mPointList) {
-            if (observationPoint.mTrackSegment < 0) {
+        final ObservationPointStore.Cursor cursor = mPointCursor;
+        while (cursor.moveToNext()) {
+            final int trackSegment = cursor.getTrackSegment();
+            if (trackSegment < 0) {
                 continue;
             }
 
-            while (trk.trkseg.size() <= observationPoint.mTrackSegment) {
+            while (trk.trkseg.size() <= trackSegment) {
                 trk.trkseg.add(new Trkseg());
             }
-            seg = trk.trkseg.get(observationPoint.mTrackSegment);
+            seg = trk.trkseg.get(trackSegment);
 
-            Location loc = observationPoint.pointGPS;
             Trkpt pt = new Trkpt();
-            pt.lat = loc.getLatitude();
-            pt.lon = loc.getLongitude();
-            pt.time = df.format(new Date(loc.getTime()));
-            if (loc.hasAltitude()) {
-                pt.geoidheight = loc.getAltitude();
+            pt.lat = cursor.getLatitude();
+            pt.lon = cursor.getLongitude();
+            pt.time = df.format(new Date(cursor.getTime()));
+            if (cursor.hasAltitude()) {
+                pt.geoidheight = (double) cursor.getAltitude();
             }
-            if (loc.hasAccuracy()) {
-                pt.pdop = loc.getAccuracy();
+            if (cursor.hasAccuracy()) {
+                pt.pdop = cursor.getAccuracy();
             }
             seg.trkpt.add(pt);
         }
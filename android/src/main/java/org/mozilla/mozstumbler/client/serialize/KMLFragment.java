@@ -29,20 +29,21 @@ import org.mozilla.mozstumbler.R;
 import org.mozilla.mozstumbler.client.MainApp;
 import org.mozilla.mozstumbler.client.ObservedLocationsReceiver;
 import org.mozilla.mozstumbler.client.mapview.ObservationPoint;
+import org.mozilla.mozstumbler.client.mapview.ObservationPointStore;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.lang.ref.WeakReference;
 import java.util.LinkedList;
-import java.util.List;
 
 public class KMLFragment extends Fragment
         implements ObservationPointSerializer.IListener {
 
     private final String LOG_TAG = LoggerUtil.makeLogTag(KMLFragment.class);
 
-    private LinkedList<ObservationPoint> mPointsToWrite;
+    private ObservationPointStore mPointStore;
+    private LinkedList<ObservationPoint> mPointsRead;
     private WeakReference<ProgressDialog> mProgressDialog;
     private TextView mSavedFileLocation;
 
@@ -53,10 +54,8 @@ public class KMLFragment extends Fragment
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         mRootView = inflater.inflate(R.layout.fragment_kml, container, false);
-        List<ObservationPoint> points = ObservedLocationsReceiver.getInstance().getObservationPoints_callerMustLock();
-        synchronized (points) {
-            mPointsToWrite = new LinkedList<ObservationPoint>(points);
-        }
+        mPointStore = ObservedLocationsReceiver.getInstance().getObservationPointStore();
+        mPointsRead = new LinkedList<ObservationPoint>();
         mProgressDialog = new WeakReference<ProgressDialog>(null);
         mSavedFileLocation = (TextView) mRootView.findViewById(R.id.textViewSavedFile);
 
@@ -107,7 +106,7 @@ public class KMLFragment extends Fragment
         View buttonSave = mRootView.findViewById(R.id.buttonSave);
 
         buttonLoad.setEnabled(!mIsRunning);
-        buttonSave.setEnabled(!mIsRunning && !mPointsToWrite.isEmpty());
+        buttonSave.setEnabled(!mIsRunning && mPointStore.size() > 0);
 
         if (!mIsRunning) {
             String[] files = getFileList();
@@ -143,7 +142,7 @@ public class KMLFragment extends Fragment
     private void onClickSave(View v) {
         stopScanning();
 
-        if (mPointsToWrite == null) {
+        if (mPointStore == null) {
             return;
         }
 
@@ -154,15 +153,15 @@ public class KMLFragment extends Fragment
         mIsRunning = true;
         setButtonsEnabledState();
 
+        final ObservationPointStore.Cursor points = mPointStore.cursor();
         final DateTime date = DateTime.now();
         final DateTimeFormatter dtf = DateTimeFormat.forPattern("yyyy-MM-dd-HH:mm:ss");
-        final String name = "date-" + dtf.print(date) + "_obs-" + mPointsToWrite.size() + ".kml";
+        final String name = "date-" + dtf.print(date) + "_obs-" + points.getCount() + ".kml";
         final File dir = getActivity().getExternalFilesDir(null);
         final File file = new File(dir, name);
 
         showProgress(true, getString(R.string.saving_kml) + " to " + (file != null ? file.toString() : "null")); // TODO: l10n
-        ObservationPointSerializer obs = new ObservationPointSerializer(this,
-                ObservationPointSerializer.Mode.WRITE, file, mPointsToWrite);
+        ObservationPointSerializer obs = new ObservationPointSerializer(this, file, points);
         obs.execute();
     }
 
@@ -216,7 +215,7 @@ public class KMLFragment extends Fragment
             showProgress(true, getString(R.string.loading_kml));
             ObservationPointSerializer obs = new ObservationPointSerializer(this,
                     ObservationPointSerializer.Mode.READ,
-                    new File(getActivity().getExternalFilesDir(null), filename), mPointsToWrite);
+                    new File(getActivity().getExternalFilesDir(null), filename), mPointsRead);
             obs.execute();
             return;
         }
@@ -309,7 +308,7 @@ public class KMLFragment extends Fragment
                 File file = new File(getActivity().getExternalFilesDir(null), files[position]);
                 ObservationPointSerializer obs = new ObservationPointSerializer(KMLFragment.this,
                         ObservationPointSerializer.Mode.READ,
-                        file, mPointsToWrite);
+                        file, mPointsRead);
                 obs.execute();
                 mLoadFileDialog.setOnDismissListener(null);
                 mLoadFileDialog.dismiss();
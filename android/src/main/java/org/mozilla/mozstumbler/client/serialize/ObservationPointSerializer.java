@@ -26,6 +26,7 @@ import com.ekito.simpleKML.model.TimeStamp;
 
 import org.joda.time.DateTime;
 import org.mozilla.mozstumbler.client.mapview.ObservationPoint;
+import org.mozilla.mozstumbler.client.mapview.ObservationPointStore;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.io.File;
@@ -57,7 +58,10 @@ public class ObservationPointSerializer extends AsyncTask<Void, Void, Boolean> {
     private static final String COLOR_HAS_BOTH = "ff00ff00"; // green
     private static final String COLOR_HAS_NONE = "aa000000"; // transparent black
     final WeakReference<IListener> mObservationPointSerializerListener;
+    // Points read in, for Mode.READ
     private final LinkedList<ObservationPoint> mPointList;
+    // Points to write out, for Mode.WRITE
+    private final ObservationPointStore.Cursor mPointCursor;
     private File mFile;
     private Mode mMode;
 
@@ -66,9 +70,18 @@ public class ObservationPointSerializer extends AsyncTask<Void, Void, Boolean> {
         mObservationPointSerializerListener = new WeakReference<IListener>(listener);
         mFile = file;
         mPointList = pointList;
+        mPointCursor = null;
         mMode = mode;
     }
 
+    ObservationPointSerializer(IListener listener, File file, ObservationPointStore.Cursor pointCursor) {
+        mObservationPointSerializerListener = new WeakReference<IListener>(listener);
+        mFile = file;
+        mPointList = null;
+        mPointCursor = pointCursor;
+        mMode = Mode.WRITE;
+    }
+
     void addStyle(Document doc, String iconHref, String styleName, Float scale) {
         Icon icon = new Icon();
         icon.setHref(iconHref);
@@ -117,46 +130,46 @@ public class ObservationPointSerializer extends AsyncTask<Void, Void, Boolean> {
         List<Feature> gpsFeatures = new LinkedList<Feature>();
         List<Feature> mlsFeatures = new LinkedList<Feature>();
         int idCounter = 0;
-        for (ObservationPoint observationPoint : mPointList) {
-            if (observationPoint.pointGPS.getProvider().equals(KML_PROVIDER)) {
-                // This was previously read in, don't write out again
-                continue;
-            }
+        // Points read in from KML are never stored, so they aren't written out again
+        final ObservationPointStore.Cursor cursor = mPointCursor;
+        while (cursor.moveToNext()) {
             idCounter++;
+            final int wifiCount = cursor.getWifiCount();
+            final int cellCount = cursor.getCellCount();
 
             Point point = new Point();
             point.setId("p" + idCounter); // used to match with MLS point
-            point.setCoordinates(observationPoint.getGPSCoordinate());
+            point.setCoordinates(new Coordinate(cursor.getLongitude(), cursor.getLatitude(), 0.0));
             Placemark placemark = new Placemark();
             placemark.setName(GPS_NAME);
-            DateTime dateTime = new DateTime(observationPoint.pointGPS.getTime());
+            DateTime dateTime = new DateTime(cursor.getTime());
             TimeStamp time = new TimeStamp();
             time.setWhen(dateTime.toString() /* Date auto formats to RFC 3339 */);
             placemark.setTimePrimitive(time);
 
             String color = COLOR_HAS_NONE;
-            if (observationPoint.mWifiCount > 0 && observationPoint.mCellCount > 0) {
+            if (wifiCount > 0 && cellCount > 0) {
                 color = COLOR_HAS_BOTH;
-            } else if (observationPoint.mWifiCount > 0) {
+            } else if (wifiCount > 0) {
                 color = COLOR_HAS_WIFI;
-            } else if (observationPoint.mCellCount > 0) {
+            } else if (cellCount > 0) {
                 color = COLOR_HAS_CELLS;
             }
 
-            setHeadingAndColor(placemark, observationPoint.pointGPS.getBearing(), color);
+            setHeadingAndColor(placemark, cursor.getBearing(), color);
 
             List<Data> dataList = new LinkedList<Data>();
             Data data = new Data();
             data.setName(WIFIS);
-            data.setValue(String.valueOf(observationPoint.mWifiCount));
+            data.setValue(String.valueOf(wifiCount));
             dataList.add(data);
             data = new Data();
             data.setName(CELLS);
-            data.setValue(String.valueOf(observationPoint.mCellCount));
+            data.setValue(String.valueOf(cellCount));
             dataList.add(data);
             data = new Data();
             data.setName(TRACK_SEGMENT);
-            data.setValue(String.valueOf(observationPoint.mTrackSegment));
+            data.setValue(String.valueOf(cursor.getTrackSegment()));
             dataList.add(data);
 
             ExtendedData extendedData = new ExtendedData();
@@ -167,14 +180,14 @@ public class ObservationPointSerializer extends AsyncTask<Void, Void, Boolean> {
             placemark.setGeometryList(geometryList);
             gpsFeatures.add(placemark);
 
-            if (observationPoint.pointMLS != null) {
+            if (cursor.hasMLS()) {
                 placemark = new Placemark();
                 placemark.setStyleUrl("#" + STYLE_NAME_RED_CIRCLE);
                 placemark.setName(MLS_NAME);
                 placemark.setTimePrimitive(time);
                 point = new Point();
                 point.setId("p" + idCounter); // used to match with gps point
-                point.setCoordinates(observationPoint.getMLSCoordinate());
+                point.setCoordinates(new Coordinate(cursor.getMLSLongitude(), cursor.getMLSLatitude(), 0.0));
                 geometryList = new LinkedList<Geometry>();
                 geometryList.add(point);
                 placemark.setGeometryList(geometryList);
@@ -6,6 +6,7 @@ package org.mozilla.mozstumbler.client.subactivities;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.v4.app.Fragment;
@@ -33,14 +34,20 @@ import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.Prefs;
 import org.mozilla.mozstumbler.service.core.http.IHttpUtil;
 import org.mozilla.mozstumbler.service.core.logging.ClientLog;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageManager;
 import org.mozilla.mozstumbler.service.stumblerthread.motiondetection.LocationChangeSensor;
 import org.mozilla.mozstumbler.service.stumblerthread.motiondetection.MotionSensor;
+import org.mozilla.mozstumbler.service.stumblerthread.trace.TraceRecorder;
+import org.mozilla.mozstumbler.service.stumblerthread.trace.TraceReplayer;
 import org.mozilla.mozstumbler.service.utils.BatteryCheckReceiver;
 import org.mozilla.mozstumbler.svclocator.ServiceLocator;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.mozilla.mozstumbler.client.ClientDataStorageManager.sdcardArchivePath;
 
@@ -107,6 +114,8 @@ public class DeveloperActivity extends ActionBarActivity {
     // For misc developer options
     public static class DeveloperOptions extends Fragment {
         private final String LOG_TAG = LoggerUtil.makeLogTag(DeveloperOptions.class);
+        // How long the replay's stand-in server takes to answer, about a geosubmit round trip
+        private static final long REPLAY_POST_LATENCY_MS = 100;
 
         private View mRootView;
 
@@ -120,10 +129,13 @@ public class DeveloperActivity extends ActionBarActivity {
             setupOfflineGeoToggle();
             setupHighPowerMode();
             setupSaveJSONLogs();
+            setupRecordTrace();
+            setupReplayTrace();
             setupSimulationPreference();
             setupLocationChangeSpinners();
             setupMinPauseTime();
             setupPassiveMode();
+            setupPipelineMetrics();
             return mRootView;
         }
 
@@ -213,6 +225,90 @@ public class DeveloperActivity extends ActionBarActivity {
             });
         }
 
+        private void setupRecordTrace() {
+            boolean recordTrace = Prefs.getInstance(mRootView.getContext()).isRecordTrace();
+            CheckBox button = (CheckBox) mRootView.findViewById(R.id.toggleRecordTrace);
+            button.setChecked(recordTrace);
+            button.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+                @Override
+                public void onCheckedChanged(CompoundButton compoundButton, boolean isChecked) {
+                    Prefs.getInstance(mRootView.getContext()).setRecordTrace(isChecked);
+                }
+            });
+        }
+
+        private void setupReplayTrace() {
+            final Button replayBtn = (Button) mRootView.findViewById(R.id.buttonReplayTrace);
+            replayBtn.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    final Context ctx = mRootView.getContext();
+                    final List<File> traces = TraceRecorder.listTraces(DataStorageManager.getSystemStorageDir(ctx));
+                    if (traces.isEmpty()) {
+                        Toast.makeText(ctx, ctx.getString(R.string.replay_trace_none), Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+
+                    final String[] names = new String[traces.size()];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = traces.get(i).getName();
+                    }
+                    final AlertDialog.Builder b = new AlertDialog.Builder(getActivity());
+                    b.setTitle(R.string.replay_trace);
+                    b.setItems(names, new DialogInterface.OnClickListener() {
+                        public void onClick(DialogInterface dialog, int item) {
+                            replayTrace(traces.get(item));
+                        }
+                    });
+                    b.create().show();
+                }
+            });
+        }
+
+        // Replays at max speed, then shows the results. TraceReplayer refuses while stumbling.
+        private void replayTrace(final File trace) {
+            final Context ctx = getActivity().getApplicationContext();
+            Toast.makeText(ctx, ctx.getString(R.string.replay_trace_started), Toast.LENGTH_SHORT).show();
+            new AsyncTask<Void, Void, String>() {
+                @Override
+                protected String doInBackground(Void... params) {
+                    try {
+                        return new TraceReplayer(ctx, TraceReplayer.MAX_SPEED, REPLAY_POST_LATENCY_MS)
+                                .replay(trace).toString();
+                    } catch (IOException e) {
+                        ClientLog.w(LOG_TAG, "Replay of " + trace + " failed: " + e);
+                        return "Replay failed: " + e.getMessage();
+                    } catch (IllegalStateException e) {
+                        return e.getMessage();
+                    }
+                }
+
+                @Override
+                protected void onPostExecute(String summary) {
+                    if (!isAdded()) {
+                        return;
+                    }
+                    final AlertDialog.Builder b = new AlertDialog.Builder(getActivity());
+                    b.setTitle(R.string.replay_trace_result_title);
+                    b.setMessage(trace.getName() + "\n\n" + summary);
+                    b.setPositiveButton(android.R.string.ok, null);
+                    b.create().show();
+                }
+            }.execute();
+        }
+
+        private void setupPipelineMetrics() {
+            final TextView metricsText = (TextView) mRootView.findViewById(R.id.textPipelineMetrics);
+            final Button refreshBtn = (Button) mRootView.findViewById(R.id.buttonRefreshPipelineMetrics);
+            metricsText.setText(PipelineMetrics.getInstance().snapshot().toString());
+            refreshBtn.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    metricsText.setText(PipelineMetrics.getInstance().snapshot().toString());
+                }
+            });
+        }
+
         private void onToggleSimulation(boolean isChecked) {
             Prefs.getInstance(mRootView.getContext()).setSimulateStumble(isChecked);
         }
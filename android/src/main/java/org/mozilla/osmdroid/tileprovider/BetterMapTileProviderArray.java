@@ -91,6 +91,8 @@ public class BetterMapTileProviderArray extends MapTileProviderBase {
             // Creat a MapTileRequestState that has a pointer to
             // an array of providers
             final MapTileRequestState state = new MapTileRequestState(pTile, mTileProviderList.toArray(providerArray), this);
+            // Evicted recently, the loader can decode it without going to disk
+            state.setTileData(mTileCache.takeTileData(pTile));
             mWorking.put(pTile, state);
             //long ts = System.currentTimeMillis();
             //Log.i(LOG_TAG, "This: ["+this+"] " + ts + " mWorking Put: ["+pTile+"]");
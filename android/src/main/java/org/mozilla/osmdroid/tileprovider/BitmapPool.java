@@ -4,87 +4,199 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /*
- * @TODO: vng 
- * This is crazy. We don't know how much heap or native memory is on
- * the device, so we don't know how many Bitmap instances we can
- * reliably hold on to. 
+ * Bitmaps of evicted tiles, kept to be decoded into again (BitmapFactory.Options.inBitmap).
  *
- * mPool is an unbounded LinkedList and everytime the LRUMapTileCache
- * evicts a tile, it goes back into the pool.
+ * Bitmaps are bucketed by (width, height, config), so a lookup doesn't scan the pool, and
+ * the pool is bounded to a byte budget: by default 1/MAX_HEAP_FRACTION of the heap limit,
+ * which is what ActivityManager.getMemoryClass() reports. When a returned bitmap takes the
+ * pool over budget, the least recently returned bitmaps are recycled until it fits.
+ *
+ * Hits, misses and evictions are counted to tune the budget.
  */
 public class BitmapPool {
+    static final int MAX_HEAP_FRACTION = 8;
+
     private static BitmapPool sInstance;
-    final LinkedList<Bitmap> mPool = new LinkedList<Bitmap>();
 
-    public static BitmapPool getInstance() {
+    private static final class Key {
+        int width;
+        int height;
+        Bitmap.Config config;
+        // Not part of the key, the size of the bitmap this was made for
+        int bytes;
+
+        Key set(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + (config == null ? 0 : config.hashCode());
+        }
+    }
+
+    private final long mMaxSizeBytes;
+    private long mSizeBytes;
+    // Most recently returned last, within each bucket and overall
+    private final HashMap<Key, ArrayDeque<Bitmap>> mBuckets = new HashMap<Key, ArrayDeque<Bitmap>>();
+    private final LinkedHashMap<Bitmap, Key> mLru = new LinkedHashMap<Bitmap, Key>();
+    private final Key mLookupKey = new Key();
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public static synchronized BitmapPool getInstance() {
         if (sInstance == null) {
-            sInstance = new BitmapPool();
+            sInstance = new BitmapPool(Runtime.getRuntime().maxMemory() / MAX_HEAP_FRACTION);
         }
 
         return sInstance;
     }
 
+    BitmapPool(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    private static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
     public void returnDrawableToPool(ReusableBitmapDrawable drawable) {
         Bitmap b = drawable.tryRecycle();
         if (b != null && b.isMutable()) {
-            synchronized (mPool) {
-                mPool.addLast(b);
+            put(b);
+        }
+    }
+
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || mLru.containsKey(bitmap)) {
+            return;
+        }
+        final int size = sizeOf(bitmap);
+        if (size > mMaxSizeBytes) {
+            mEvictions++;
+            bitmap.recycle();
+            return;
+        }
+
+        final Key key = new Key().set(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        key.bytes = size;
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.addLast(bitmap);
+        mLru.put(bitmap, key);
+        mSizeBytes += size;
+        trimTo(mMaxSizeBytes);
+    }
+
+    private void trimTo(long maxSizeBytes) {
+        final Iterator<Map.Entry<Bitmap, Key>> it = mLru.entrySet().iterator();
+        while (mSizeBytes > maxSizeBytes && it.hasNext()) {
+            final Map.Entry<Bitmap, Key> eldest = it.next();
+            it.remove();
+            // The eldest overall is also the eldest of its bucket
+            final ArrayDeque<Bitmap> bucket = mBuckets.get(eldest.getValue());
+            bucket.pollFirst();
+            if (bucket.isEmpty()) {
+                mBuckets.remove(eldest.getValue());
             }
+            final Bitmap bitmap = eldest.getKey();
+            mSizeBytes -= eldest.getValue().bytes;
+            mEvictions++;
+            bitmap.recycle();
         }
     }
 
-    public void applyReusableOptions(final BitmapFactory.Options aBitmapOptions) {
+    /*
+     * Decode into a pooled bitmap of the given size, if there is one.
+     * Before KitKat, inBitmap is only used if the decoded image has exactly its size.
+     */
+    public void applyReusableOptions(final BitmapFactory.Options aBitmapOptions, int aWidth, int aHeight) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-            aBitmapOptions.inBitmap = obtainBitmapFromPool();
+            aBitmapOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            aBitmapOptions.inBitmap = obtainSizedBitmapFromPool(aWidth, aHeight, Bitmap.Config.ARGB_8888);
             aBitmapOptions.inSampleSize = 1;
             aBitmapOptions.inMutable = true;
         }
     }
 
-    public Bitmap obtainBitmapFromPool() {
-        synchronized (mPool) {
-            if (mPool.isEmpty()) {
-                return null;
-            } else {
-                final Bitmap bitmap = mPool.removeFirst();
-                if (bitmap.isRecycled()) {
-                    return obtainBitmapFromPool(); // recurse
-                } else {
-                    return bitmap;
-                }
-            }
-        }
+    public Bitmap obtainSizedBitmapFromPool(final int aWidth, final int aHeight) {
+        return obtainSizedBitmapFromPool(aWidth, aHeight, Bitmap.Config.ARGB_8888);
     }
 
-    public Bitmap obtainSizedBitmapFromPool(final int aWidth, final int aHeight) {
-        synchronized (mPool) {
-            if (mPool.isEmpty()) {
-                return null;
-            } else {
-                for (final Bitmap bitmap : mPool) {
-                    if (bitmap.isRecycled()) {
-                        mPool.remove(bitmap);
-                        return obtainSizedBitmapFromPool(aWidth, aHeight); // recurse to prevent ConcurrentModificationException
-                    } else if (bitmap.getWidth() == aWidth && bitmap.getHeight() == aHeight) {
-                        mPool.remove(bitmap);
-                        return bitmap;
-                    }
-                }
+    public synchronized Bitmap obtainSizedBitmapFromPool(final int aWidth, final int aHeight, Bitmap.Config aConfig) {
+        final ArrayDeque<Bitmap> bucket = mBuckets.get(mLookupKey.set(aWidth, aHeight, aConfig));
+        while (bucket != null && !bucket.isEmpty()) {
+            final Bitmap bitmap = bucket.pollLast();
+            mSizeBytes -= mLru.remove(bitmap).bytes;
+            if (bucket.isEmpty()) {
+                mBuckets.remove(mLookupKey);
+            }
+            // Recycled by someone else while pooled
+            if (!bitmap.isRecycled()) {
+                mHits++;
+                return bitmap;
             }
         }
-
+        mMisses++;
         return null;
     }
 
-    public void clearBitmapPool() {
-        synchronized (sInstance.mPool) {
-            while (!sInstance.mPool.isEmpty()) {
-                Bitmap bitmap = sInstance.mPool.remove();
-                bitmap.recycle();
-            }
-        }
+    public synchronized void clearBitmapPool() {
+        trimTo(0);
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public long getMaxSizeBytes() {
+        return mMaxSizeBytes;
+    }
+
+    public synchronized int getBitmapCount() {
+        return mLru.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "BitmapPool %d bitmaps, %d/%d KB, %d hits, %d misses, %d evictions",
+                mLru.size(), mSizeBytes / 1024, mMaxSizeBytes / 1024, mHits, mMisses, mEvictions);
     }
 }
@@ -6,117 +6,297 @@ import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.core.logging.ClientLog;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /*
- * This is an LRUCache to hold onto Drawable instances for TileOverlay instances.
+ * This is an LRU cache of tiles for TileOverlay instances, in two tiers:
  *
- * Note that when tiles are evicted from cache,  we attempt to push them back into
- * the BitmapPool if they are recyclable.
+ *  - Drawables, up to the capacity set by ensureCapacity(). Each keeps the compressed bytes it
+ *    was decoded from, taken off the ReusableBitmapDrawable by put().
+ *  - The compressed bytes of tiles evicted from the first tier. A tile that is needed again can
+ *    be decoded from these (see MapTileRequestState.getTileData()) instead of read from disk.
  *
- * It is important to note that this class is tightly coupled to the BitmapPool to cache
- * Bitmap instances.
+ * The compressed bytes of both tiers share one budget of 1/MAX_TILE_DATA_HEAP_FRACTION of the
+ * heap limit. Over budget, the least recently used bytes are dropped first, whichever tier holds
+ * them. A drawable that drops its bytes stays cached, but is evicted without a second tier entry.
  *
- * The ensureCapacity method grows the LRUMapTileCache to hold onto instances of Bitmaps, but
- * those bitmaps are recycled into the BitmapPool.
- *
- *  If the LRUMapTileCache evicts tiles very quickly, the eldest tiles are pushed immediately back
- *  into the BitmapPool.
- *
- *  The code in BitmapPool should really be merged into this class.
+ * The tile loader threads and the UI thread use this on every frame, so get() and put() take
+ * no lock: entries live in ConcurrentHashMaps and are stamped with a use counter instead of
+ * being reordered in a list. When a tier goes over its bound, the thread that notices evicts
+ * the least recently used entries. Only one thread trims at a time, the others carry on, so
+ * a tier may briefly hold a few entries more than its bound.
  *
+ * Note that when tiles are evicted from the first tier, we attempt to push their bitmaps back
+ * into the BitmapPool if they are recyclable.
  */
 public class LRUMapTileCache {
     private static final String LOG_TAG = LoggerUtil.makeLogTag(LRUMapTileCache.class);
-    private int mCapacity = 0;
-    private InnerLRUMapTileCache innerCache;
+    static final int MAX_TILE_DATA_HEAP_FRACTION = 32;
+    // Trim the compressed bytes below their budget, so they aren't trimmed on every put
+    private static final float TILE_DATA_TRIM_RATIO = 0.75f;
+
+    private static class Entry<V> {
+        final MapTile tile;
+        final V value;
+        volatile long lastUsed;
+
+        Entry(MapTile tile, V value, long lastUsed) {
+            this.tile = tile;
+            this.value = value;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // A first tier entry, with the compressed bytes of its drawable until they are taken
+    private static class TileEntry extends Entry<Drawable> {
+        private byte[] mTileData;
+
+        TileEntry(MapTile tile, Drawable value, long lastUsed) {
+            super(tile, value, lastUsed);
+            if (value instanceof ReusableBitmapDrawable) {
+                final ReusableBitmapDrawable drawable = (ReusableBitmapDrawable) value;
+                mTileData = drawable.getTileData();
+                drawable.setTileData(null);
+            }
+        }
+
+        synchronized int tileDataLength() {
+            return (mTileData == null) ? 0 : mTileData.length;
+        }
+
+        synchronized byte[] takeTileData() {
+            final byte[] data = mTileData;
+            mTileData = null;
+            return data;
+        }
+    }
+
+    // A snapshot of an entry and its stamp, so sorting doesn't see stamps change
+    private static class Candidate {
+        final Entry<?> entry;
+        final long lastUsed;
+
+        Candidate(Entry<?> entry) {
+            this.entry = entry;
+            lastUsed = entry.lastUsed;
+        }
+    }
+
+    private static final Comparator<Candidate> OLDEST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate lhs, Candidate rhs) {
+            return (lhs.lastUsed < rhs.lastUsed) ? -1 : ((lhs.lastUsed == rhs.lastUsed) ? 0 : 1);
+        }
+    };
+
+    private final ConcurrentHashMap<MapTile, TileEntry> mTiles =
+            new ConcurrentHashMap<MapTile, TileEntry>();
+    private final ConcurrentHashMap<MapTile, Entry<byte[]>> mTileData =
+            new ConcurrentHashMap<MapTile, Entry<byte[]>>();
+    private final AtomicLong mUseCounter = new AtomicLong();
+    // The compressed bytes held by both tiers
+    private final AtomicLong mTileDataBytes = new AtomicLong();
+    private final long mMaxTileDataBytes;
+    private final ReentrantLock mTrimLock = new ReentrantLock();
+    private volatile int mCapacity = 0;
 
     public LRUMapTileCache(int capacity) {
+        this(capacity, Runtime.getRuntime().maxMemory() / MAX_TILE_DATA_HEAP_FRACTION);
+    }
+
+    LRUMapTileCache(int capacity, long maxTileDataBytes) {
+        mMaxTileDataBytes = maxTileDataBytes;
         ensureCapacity(capacity);
     }
 
+    /*
+     * Growing keeps the tiles already cached, shrinking is not supported.
+     */
     public synchronized void ensureCapacity(final int aCapacity) {
         if (aCapacity > mCapacity) {
             ClientLog.d(LOG_TAG, "Tile cache increased from " + mCapacity + " to " + aCapacity);
             mCapacity = aCapacity;
-            innerCache = new InnerLRUMapTileCache(mCapacity);
-            System.gc();
         }
     }
 
+    public int getCapacity() {
+        return mCapacity;
+    }
+
     public void clear() {
-        innerCache.clear();
+        // remove them all individually so that they get recycled
+        for (TileEntry entry : mTiles.values()) {
+            if (mTiles.remove(entry.tile, entry)) {
+                dropTileData(entry);
+                recycle(entry.value);
+            }
+        }
+        for (Entry<byte[]> entry : mTileData.values()) {
+            if (mTileData.remove(entry.tile, entry)) {
+                mTileDataBytes.addAndGet(-entry.value.length);
+            }
+        }
     }
 
     public boolean containsKey(MapTile key) {
-        return innerCache.containsKey(key);
+        return mTiles.containsKey(key);
     }
 
     public Drawable get(MapTile key) {
-        return innerCache.get(key);
+        final TileEntry entry = mTiles.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastUsed = mUseCounter.incrementAndGet();
+        return entry.value;
     }
 
     public void put(MapTile key, Drawable value) {
-        innerCache.put(key, value);
+        final TileEntry entry = new TileEntry(key, value, mUseCounter.incrementAndGet());
+        mTileDataBytes.addAndGet(entry.tileDataLength());
+        final TileEntry old = mTiles.put(key, entry);
+        if (old != null) {
+            dropTileData(old);
+        }
+        // The new entry carries its own bytes while it is cached
+        removeTileData(key);
+        if (mTiles.size() > mCapacity || mTileDataBytes.get() > mMaxTileDataBytes) {
+            trim();
+        }
     }
 
-    private class InnerLRUMapTileCache extends LinkedHashMap<MapTile, Drawable> {
-
-        // This load factor is the same as what is defined in java.util.HashMap
-        final static float DEFAULT_LOAD_FACTOR = (float) 0.75;
-
-        final static boolean LRU_USES_ACCESS_ORDER = true;
+    public int size() {
+        return mTiles.size();
+    }
 
-        private static final long serialVersionUID = -541142277575493335L;
+    /*
+     * Remove and return the compressed bytes of an evicted tile, or null if there are none.
+     */
+    public byte[] takeTileData(MapTile key) {
+        return removeTileData(key);
+    }
 
+    /*
+     * The compressed bytes held by both tiers.
+     */
+    public long getTileDataBytes() {
+        return mTileDataBytes.get();
+    }
 
-        public InnerLRUMapTileCache(final int aCapacity) {
-            // The default implementation of HashMap defines
+    private byte[] removeTileData(MapTile key) {
+        final Entry<byte[]> entry = mTileData.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        mTileDataBytes.addAndGet(-entry.value.length);
+        return entry.value;
+    }
 
-            // Tile eviction happens at approximately 0.75 * total capacity,
-            // so doubling the capacity of the underlying LinkedHashMap should hold onto tiles
-            // long enough that we are not constantly constantly pushing tiles out into the
-            // BitmapPool.
-            super(aCapacity * 2, DEFAULT_LOAD_FACTOR, LRU_USES_ACCESS_ORDER);
+    private void dropTileData(TileEntry entry) {
+        final byte[] data = entry.takeTileData();
+        if (data != null) {
+            mTileDataBytes.addAndGet(-data.length);
         }
+    }
 
+    private void putTileData(MapTile key, byte[] data) {
+        if (data.length > mMaxTileDataBytes) {
+            return;
+        }
+        final Entry<byte[]> old = mTileData.put(key, new Entry<byte[]>(key, data, mUseCounter.incrementAndGet()));
+        mTileDataBytes.addAndGet(data.length - ((old == null) ? 0 : old.value.length));
+    }
 
-        @Override
-        public Drawable remove(final Object aKey) {
-            final Drawable drawable = super.remove(aKey);
-
-            // @TODO: vng is there ever a case where this is not true?
-            // BitmapTileSourceBase seems like the only place where drawables are created.
-            // This seems like a case where all the interfaces pass around the super class of Drawable,
-            // but in reality, we're always actually using ReusableBitmapDrawable instances.
-            if (drawable instanceof ReusableBitmapDrawable) {
-                BitmapPool.getInstance().returnDrawableToPool((ReusableBitmapDrawable) drawable);
+    @SuppressWarnings("unchecked")
+    private static Candidate[] oldestFirst(Map<MapTile, ? extends Entry<?>>... maps) {
+        int size = 0;
+        for (Map<MapTile, ? extends Entry<?>> map : maps) {
+            size += map.size();
+        }
+        final Candidate[] candidates = new Candidate[size];
+        int count = 0;
+        for (Map<MapTile, ? extends Entry<?>> map : maps) {
+            for (Entry<?> entry : map.values()) {
+                if (count == candidates.length) {
+                    break;
+                }
+                candidates[count++] = new Candidate(entry);
             }
-            return drawable;
         }
+        final Candidate[] result = (count == candidates.length) ? candidates : Arrays.copyOf(candidates, count);
+        Arrays.sort(result, OLDEST_FIRST);
+        return result;
+    }
 
-        @Override
-        public void clear() {
-            // remove them all individually so that they get recycled
-            while (!isEmpty()) {
-                remove(keySet().iterator().next());
+    @SuppressWarnings("unchecked")
+    private void trim() {
+        if (!mTrimLock.tryLock()) {
+            // Another thread is trimming
+            return;
+        }
+        try {
+            final int excess = mTiles.size() - mCapacity;
+            if (excess > 0) {
+                final Candidate[] candidates = oldestFirst(mTiles);
+                for (int i = 0; i < excess && i < candidates.length; i++) {
+                    evict((TileEntry) candidates[i].entry);
+                }
             }
 
-            // and then clear
-            super.clear();
+            if (mTileDataBytes.get() > mMaxTileDataBytes) {
+                final long target = (long) (mMaxTileDataBytes * TILE_DATA_TRIM_RATIO);
+                for (Candidate candidate : oldestFirst(mTileData, mTiles)) {
+                    if (mTileDataBytes.get() <= target) {
+                        break;
+                    }
+                    if (candidate.entry instanceof TileEntry) {
+                        // Still cached, it will be evicted without a second tier entry
+                        dropTileData((TileEntry) candidate.entry);
+                        continue;
+                    }
+                    final Entry<byte[]> entry = (Entry<byte[]>) candidate.entry;
+                    if (mTileData.remove(entry.tile, entry)) {
+                        mTileDataBytes.addAndGet(-entry.value.length);
+                    }
+                }
+            }
+        } finally {
+            mTrimLock.unlock();
         }
+    }
 
-        @Override
-        protected boolean removeEldestEntry(final java.util.Map.Entry<MapTile, Drawable> aEldest) {
-            if (size() > mCapacity) {
-                final MapTile eldest = aEldest.getKey();
-                if (AppGlobals.isDebug) {
-                    ClientLog.d(LOG_TAG, "Remove old tile: " + eldest);
-                }
-                remove(eldest);
-                // don't return true because we've already removed it
+    private void evict(TileEntry entry) {
+        if (!mTiles.remove(entry.tile, entry)) {
+            // Replaced or removed since the snapshot
+            return;
+        }
+        if (AppGlobals.isDebug) {
+            ClientLog.d(LOG_TAG, "Remove old tile: " + entry.tile);
+        }
+
+        final Drawable drawable = entry.value;
+        final byte[] data = entry.takeTileData();
+        if (data != null) {
+            mTileDataBytes.addAndGet(-data.length);
+            if (!ExpirableBitmapDrawable.isDrawableExpired(drawable)) {
+                putTileData(entry.tile, data);
             }
-            return false;
+        }
+        recycle(drawable);
+    }
+
+    private static void recycle(Drawable drawable) {
+        // @TODO: vng is there ever a case where this is not true?
+        // BitmapTileSourceBase seems like the only place where drawables are created.
+        // This seems like a case where all the interfaces pass around the super class of Drawable,
+        // but in reality, we're always actually using ReusableBitmapDrawable instances.
+        if (drawable instanceof ReusableBitmapDrawable) {
+            BitmapPool.getInstance().returnDrawableToPool((ReusableBitmapDrawable) drawable);
         }
     }
 }
@@ -17,8 +17,8 @@ public class MapTileCache implements OSMConstants {
     // Fields
     // ===========================================================
 
-    protected final Object mCachedTilesLockObject = new Object();
-    protected LRUMapTileCache mCachedTiles;
+    // Safe for concurrent use, it needs no lock
+    protected final LRUMapTileCache mCachedTiles;
 
     // ===========================================================
     // Constructors
@@ -40,25 +40,26 @@ public class MapTileCache implements OSMConstants {
     // ===========================================================
 
     public void ensureCapacity(final int aCapacity) {
-        synchronized (mCachedTilesLockObject) {
-            mCachedTiles.ensureCapacity(aCapacity);
-        }
+        mCachedTiles.ensureCapacity(aCapacity);
     }
 
     public Drawable getMapTile(final MapTile aTile) {
-        synchronized (mCachedTilesLockObject) {
-            return this.mCachedTiles.get(aTile);
-        }
+        return this.mCachedTiles.get(aTile);
     }
 
     public void putTile(final MapTile aTile, final Drawable aDrawable) {
         if (aDrawable != null) {
-            synchronized (mCachedTilesLockObject) {
-                this.mCachedTiles.put(aTile, aDrawable);
-            }
+            this.mCachedTiles.put(aTile, aDrawable);
         }
     }
 
+    /**
+     * @return the compressed bytes of a recently evicted tile, or null. They are removed from the cache.
+     */
+    public byte[] takeTileData(final MapTile aTile) {
+        return this.mCachedTiles.takeTileData(aTile);
+    }
+
     // ===========================================================
     // Methods from SuperClass/Interfaces
     // ===========================================================
@@ -68,15 +69,11 @@ public class MapTileCache implements OSMConstants {
     // ===========================================================
 
     public boolean containsTile(final MapTile aTile) {
-        synchronized (mCachedTilesLockObject) {
-            return this.mCachedTiles.containsKey(aTile);
-        }
+        return this.mCachedTiles.containsKey(aTile);
     }
 
     public void clear() {
-        synchronized (mCachedTilesLockObject) {
-            this.mCachedTiles.clear();
-        }
+        this.mCachedTiles.clear();
     }
 
     // ===========================================================
@@ -12,6 +12,8 @@ public class MapTileRequestState {
     private final MapTile mMapTile;
     private final IMapTileProviderCallback mCallback;
     private MapTileModuleProviderBase mCurrentProvider;
+    // Compressed tile from the memory cache, if it had one
+    private volatile byte[] mTileData;
 
     public MapTileRequestState(final MapTile mapTile,
                                final MapTileModuleProviderBase[] providers,
@@ -30,6 +32,14 @@ public class MapTileRequestState {
         return mCallback;
     }
 
+    public byte[] getTileData() {
+        return mTileData;
+    }
+
+    public void setTileData(byte[] tileData) {
+        mTileData = tileData;
+    }
+
     public boolean isEmpty() {
         return mProviderQueue.isEmpty();
     }
@@ -15,6 +15,8 @@ public class ReusableBitmapDrawable extends ExpirableBitmapDrawable {
 
     private boolean mBitmapRecycled = false;
     private int mUsageRefCount = 0;
+    // The compressed tile this was decoded from, until LRUMapTileCache.put() takes it
+    private byte[] mTileData;
 
     public ReusableBitmapDrawable(Bitmap pBitmap) {
         super(pBitmap);
@@ -45,6 +47,14 @@ public class ReusableBitmapDrawable extends ExpirableBitmapDrawable {
         return null;
     }
 
+    public void setTileData(byte[] tileData) {
+        mTileData = tileData;
+    }
+
+    public byte[] getTileData() {
+        return mTileData;
+    }
+
     public boolean isBitmapValid() {
         synchronized (this) {
             return !mBitmapRecycled;
@@ -46,6 +46,21 @@ class SmartFSTileLoader extends AbstractTileLoader {
             return null;
         }
 
+        final byte[] cachedTileData = pState.getTileData();
+        if (cachedTileData != null) {
+            // Evicted from the memory cache recently, no need to touch the disk
+            pState.setTileData(null);
+            try {
+                final Drawable drawable = tileSource.getDrawable(cachedTileData);
+                if (drawable != null) {
+                    return drawable;
+                }
+            } catch (final BitmapTileSourceBase.LowMemoryException e) {
+                ClientLog.w(LOG_TAG, "LowMemoryException decoding cached MapTile: " + tile + " : " + e);
+                throw new CantContinueException(e);
+            }
+        }
+
         File sTileFile = new File(OSMConstants.TILE_PATH_BASE,
                 tileSource.getTileRelativeFilenameString(tile) + OSMConstants.MERGED_FILE_EXT);
 
@@ -101,7 +101,7 @@ public abstract class BitmapTileSourceBase
             // default implementation will load the file as a bitmap and create
             // a BitmapDrawable from it
             BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-            BitmapPool.getInstance().applyReusableOptions(bitmapOptions);
+            BitmapPool.getInstance().applyReusableOptions(bitmapOptions, mTileSizePixels, mTileSizePixels);
             final Bitmap bitmap = BitmapFactory.decodeByteArray(tileBytes, 0, tileBytes.length, bitmapOptions);
             if (bitmap != null) {
 
@@ -144,7 +144,9 @@ public abstract class BitmapTileSourceBase
                     */
                 }
 
-                return new ReusableBitmapDrawable(bitmap);
+                final ReusableBitmapDrawable drawable = new ReusableBitmapDrawable(bitmap);
+                drawable.setTileData(tileBytes);
+                return drawable;
             }
         } catch (final OutOfMemoryError e) {
             ClientLog.e(LOG_TAG, "OutOfMemoryError loading bitmap", e);
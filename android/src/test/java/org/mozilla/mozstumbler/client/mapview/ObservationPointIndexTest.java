@@ -0,0 +1,106 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.client.mapview;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.osmdroid.util.TileSystem;
+import org.mozilla.osmdroid.views.util.constants.MapViewConstants;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ObservationPointIndexTest {
+
+    private static final int BUCKET_PX = 6;
+    private static final long WORLD = TileSystem.MapSize(MapViewConstants.MAXIMUM_ZOOMLEVEL);
+
+    private final ObservationPointStore store = new ObservationPointStore();
+    private final ObservationPointIndex index = new ObservationPointIndex(store);
+
+    private int add(double lat, double lon, int wifis, int cells) {
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setLatitude(lat);
+        location.setLongitude(lon);
+        ObservationPoint point = new ObservationPoint(location);
+        point.mWifiCount = wifis;
+        point.mCellCount = cells;
+        return store.append(point);
+    }
+
+    private List<ObservationPointIndex.Bucket> queryAll(int zoom) {
+        List<ObservationPointIndex.Bucket> out = new ArrayList<ObservationPointIndex.Bucket>();
+        index.query(zoom, BUCKET_PX, 0, 0, WORLD - 1, WORLD - 1, out);
+        return out;
+    }
+
+    @Test
+    public void testNearbyPointsShareABucketWhenZoomedOut() {
+        add(45.5, -73.5, 0, 1);
+        int both = add(45.50001, -73.50001, 3, 1);
+        add(45.50002, -73.50002, 2, 0);
+        add(45.5, -73.5, 0, 0); // no scans, never drawn
+
+        List<ObservationPointIndex.Bucket> buckets = queryAll(3);
+        assertEquals(1, buckets.size());
+        assertEquals(both, buckets.get(0).point);
+
+        assertEquals(3, queryAll(MapViewConstants.MAXIMUM_ZOOMLEVEL).size());
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testQueryOnlyReturnsNearbyTiles() {
+        add(45.5, -73.5, 1, 0);   // Montreal
+        add(-33.9, 151.2, 1, 0);  // Sydney
+        add(51.5, -0.1, 1, 0);    // London
+
+        final int zoom = 12;
+        final int shift = MapViewConstants.MAXIMUM_ZOOMLEVEL - zoom;
+        android.graphics.Point p = TileSystem.LatLongToPixelXY(45.5, -73.5, zoom, null);
+        List<ObservationPointIndex.Bucket> out = new ArrayList<ObservationPointIndex.Bucket>();
+        index.query(zoom, BUCKET_PX, (long) (p.x - 500) << shift, (long) (p.y - 500) << shift,
+                (long) (p.x + 500) << shift, (long) (p.y + 500) << shift, out);
+        assertEquals(1, out.size());
+        assertEquals(45.5, store.getLatitude(out.get(0).point), 0.0001);
+    }
+
+    @Test
+    public void testQueryWrapsAroundTheDateLine() {
+        add(10, 179.9, 1, 0);
+        add(10, -179.9, 1, 0);
+
+        final int zoom = 10;
+        final int shift = MapViewConstants.MAXIMUM_ZOOMLEVEL - zoom;
+        android.graphics.Point p = TileSystem.LatLongToPixelXY(10, 179.9, zoom, null);
+        List<ObservationPointIndex.Bucket> out = new ArrayList<ObservationPointIndex.Bucket>();
+        index.query(zoom, BUCKET_PX, (long) (p.x - 200) << shift, (long) (p.y - 200) << shift,
+                (long) (p.x + 200) << shift, (long) (p.y + 200) << shift, out);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    public void testBucketsFollowTheStore() {
+        add(45.5, -73.5, 1, 0);
+        assertEquals(1, queryAll(15).size());
+
+        // The level is already built, new points in the store go straight into it
+        add(40.7, -74.0, 1, 0);
+        assertEquals(2, queryAll(15).size());
+        assertEquals(2, index.size());
+
+        // Other levels are built from all the points
+        assertEquals(1, queryAll(2).size());
+    }
+}
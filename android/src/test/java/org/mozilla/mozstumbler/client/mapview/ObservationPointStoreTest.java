@@ -0,0 +1,112 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.client.mapview;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ObservationPointStoreTest {
+
+    private final ObservationPointStore store = new ObservationPointStore();
+
+    private static ObservationPoint point(double lat, double lon, long time) {
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setLatitude(lat);
+        location.setLongitude(lon);
+        location.setTime(time);
+        return new ObservationPoint(location);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ObservationPoint point = point(45.501234, -73.567891, 1420070400000L);
+        point.pointGPS.setBearing(90.5f);
+        point.pointGPS.setAccuracy(12.0f);
+        point.mWifiCount = 7;
+        point.mCellCount = 2;
+        point.mTrackSegment = 3;
+        assertEquals(0, store.append(point));
+
+        assertEquals(1, store.size());
+        assertEquals(45.501234, store.getLatitude(0), 1e-6);
+        assertEquals(-73.567891, store.getLongitude(0), 1e-6);
+        assertEquals(1420070400000L, store.getTime(0));
+        assertEquals(90.5f, store.getBearing(0));
+        assertTrue(store.hasAccuracy(0));
+        assertEquals(12.0f, store.getAccuracy(0));
+        assertFalse(store.hasAltitude(0));
+        assertEquals(7, store.getWifiCount(0));
+        assertEquals(2, store.getCellCount(0));
+        assertEquals(3, store.getTrackSegment(0));
+        assertFalse(store.hasMLS(0));
+    }
+
+    @Test
+    public void testAppendsAcrossChunks() {
+        final int count = ObservationPointStore.CHUNK_SIZE * 2 + 10;
+        for (int i = 0; i < count; i++) {
+            ObservationPoint point = point(i / 1e4, -i / 1e4, i);
+            point.mWifiCount = i;
+            assertEquals(i, store.append(point));
+        }
+
+        assertEquals(count, store.size());
+        for (int i = 0; i < count; i += 97) {
+            assertEquals(i / 1e4, store.getLatitude(i), 1e-6);
+            assertEquals(-i / 1e4, store.getLongitude(i), 1e-6);
+            assertEquals(i, store.getTime(i));
+            assertEquals(i, store.getWifiCount(i));
+        }
+    }
+
+    @Test
+    public void testSetMLS() {
+        store.append(point(10, 20, 0));
+        store.append(point(11, 21, 0));
+        store.setMLS(1, 11.5, 21.5);
+
+        double[] latLon = new double[2];
+        assertFalse(store.getMLS(0, latLon));
+        assertTrue(store.getMLS(1, latLon));
+        assertEquals(11.5, latLon[0], 1e-6);
+        assertEquals(21.5, latLon[1], 1e-6);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSetMLSOnMissingPoint() {
+        store.setMLS(0, 1, 1);
+    }
+
+    @Test
+    public void testCursorSeesThePointsWhenCreated() {
+        store.append(point(1, 1, 1));
+        store.append(point(2, 2, 2));
+        store.setMLS(0, 1.5, 1.5);
+
+        ObservationPointStore.Cursor cursor = store.cursor();
+        store.append(point(3, 3, 3));
+
+        assertEquals(2, cursor.getCount());
+        assertTrue(cursor.moveToNext());
+        assertEquals(1.0, cursor.getLatitude(), 1e-6);
+        assertTrue(cursor.hasMLS());
+        assertEquals(1.5, cursor.getMLSLongitude(), 1e-6);
+        assertTrue(cursor.moveToNext());
+        assertEquals(2L, cursor.getTime());
+        assertFalse(cursor.hasMLS());
+        assertFalse(cursor.moveToNext());
+    }
+}
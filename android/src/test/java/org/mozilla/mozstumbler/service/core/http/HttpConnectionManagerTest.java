@@ -0,0 +1,173 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class HttpConnectionManagerTest {
+
+    private static final String BODY = "{\"tiles_url\": \"https://example.com/tiles/\"}";
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final byte[] body = BODY.getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.createContext("/missing", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static int available(String url) throws IOException {
+        return HttpConnectionManager.getInstance().availablePermits(new URL(url));
+    }
+
+    @Test
+    public void testSocketFactoryIsShared() throws IOException {
+        HttpConnectionManager manager = HttpConnectionManager.getInstance();
+        HttpsURLConnection a = (HttpsURLConnection) manager.openConnection(new URL("https://location.services.mozilla.com/v1/geosubmit"));
+        HttpsURLConnection b = (HttpsURLConnection) manager.openConnection(new URL("https://tiles.services.mozilla.com/0/0/0.png"));
+        assertNotNull(a.getSSLSocketFactory());
+        assertTrue(a.getSSLSocketFactory() instanceof NoSSLv3SocketFactory);
+        assertSame(a.getSSLSocketFactory(), b.getSSLSocketFactory());
+    }
+
+    @Test
+    public void testNoSystemPropertiesChanged() {
+        String maxConnections = System.getProperty("http.maxConnections");
+        new HttpConnectionManager(2);
+        assertEquals(maxConnections, System.getProperty("http.maxConnections"));
+    }
+
+    @Test
+    public void testPermitsArePerHostAndBlock() throws Exception {
+        final HttpConnectionManager manager = new HttpConnectionManager(2);
+        final URL url = new URL("https://a.example.com/1");
+        final URL other = new URL("https://b.example.com/1");
+
+        manager.acquire(url);
+        manager.acquire(new URL("https://a.example.com/2"));
+        assertEquals(0, manager.availablePermits(url));
+        assertEquals(2, manager.availablePermits(other));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    manager.acquire(url);
+                    acquired.countDown();
+                } catch (IOException e) {
+                    // fails the test by never counting down
+                }
+            }
+        });
+        waiter.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+        manager.release(url);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test
+    public void testReleaseOnCloseReleasesOnce() throws IOException {
+        HttpConnectionManager manager = new HttpConnectionManager(2);
+        URL url = new URL("https://a.example.com/1");
+        manager.acquire(url);
+        InputStream in = manager.releaseOnClose(url, new ByteArrayInputStream(new byte[1]));
+        in.close();
+        in.close();
+        assertEquals(2, manager.availablePermits(url));
+    }
+
+    @Test
+    public void testHttpUtilReturnsPermits() throws IOException {
+        final int max = HttpConnectionManager.MAX_CONNECTIONS_PER_HOST;
+        HttpUtil httpUtil = new HttpUtil("test");
+
+        // Released when the caller closes the stream, even without reading it
+        InputStream in = httpUtil.getUrlAsStream(baseUrl + "/ok");
+        assertEquals(max - 1, available(baseUrl));
+        in.close();
+        assertEquals(max, available(baseUrl));
+
+        try {
+            httpUtil.getUrlAsStream(baseUrl + "/missing");
+            fail("A 404 must throw");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(max, available(baseUrl));
+
+        assertEquals(BODY, httpUtil.getUrlAsString(baseUrl + "/ok"));
+        assertEquals(max, available(baseUrl));
+
+        IResponse response = httpUtil.get(baseUrl + "/ok", null);
+        assertEquals(200, response.httpStatusCode());
+        assertEquals(max, available(baseUrl));
+
+        response = httpUtil.get(baseUrl + "/missing", null);
+        assertEquals(404, response.httpStatusCode());
+        assertEquals(max, available(baseUrl));
+
+        // More requests than permits, one after the other, never run out
+        for (int i = 0; i < max * 3; i++) {
+            httpUtil.getUrlAsStream(baseUrl + "/ok").close();
+        }
+        assertEquals(max, available(baseUrl));
+    }
+}
@@ -50,4 +50,9 @@ public class MockHttpUtil implements IHttpUtil {
     public IResponse post(String urlString, byte[] data, Map<String, String> headers, boolean precompressed) {
         return null;
     }
+
+    @Override
+    public IResponse post(String urlString, RequestBody body, Map<String, String> headers, boolean precompressed) {
+        return null;
+    }
 }
@@ -0,0 +1,94 @@
+package org.mozilla.mozstumbler.service.core.offline;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class CityTileIndexTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("citytileindex", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    private File writeCsv(String contents) throws IOException {
+        File csv = new File(dir, OrderedCityTiles.ORDERED_CITY_CSV);
+        FileWriter writer = new FileWriter(csv);
+        writer.write(contents);
+        writer.close();
+        return csv;
+    }
+
+    @Test
+    public void testConvertAndLoad() throws IOException {
+        File csv = writeCsv("10, 20\n11,20\n 12 , 21\n10,20\n");
+        File bin = new File(dir, OrderedCityTiles.ORDERED_CITY_INDEX);
+        CityTileIndex.convert(csv, bin);
+
+        CityTileIndex index = CityTileIndex.load(bin);
+        assertEquals(4, index.size());
+        assertEquals(12, index.getTileX(2));
+        assertEquals(21, index.getTileY(2));
+        assertEquals(1, index.getTileID(11, 20));
+        // Duplicate co-ordinates map to the last line
+        assertEquals(3, index.getTileID(10, 20));
+        assertEquals(-1, index.getTileID(9, 9));
+    }
+
+    @Test
+    public void testExtraColumnsAreIgnored() throws IOException {
+        File csv = writeCsv("10, 20, 1538\n11,21,\n");
+        File bin = new File(dir, OrderedCityTiles.ORDERED_CITY_INDEX);
+        CityTileIndex.convert(csv, bin);
+
+        CityTileIndex index = CityTileIndex.load(bin);
+        assertEquals(2, index.size());
+        assertEquals(0, index.getTileID(10, 20));
+        assertEquals(1, index.getTileID(11, 21));
+    }
+
+    @Test
+    public void testOrderedCityTilesWritesIndex() throws IOException {
+        File csv = writeCsv("1,1\n1,2\n");
+        OrderedCityTiles tiles = new OrderedCityTiles(csv);
+        assertEquals(1, tiles.getTileID(1, 2));
+        assertTrue(new File(dir, OrderedCityTiles.ORDERED_CITY_INDEX).exists());
+
+        // Later startups only need the index
+        csv.delete();
+        tiles = new OrderedCityTiles(csv);
+        assertEquals(2, tiles.size());
+        assertEquals(1, tiles.getTileID(1, 2));
+    }
+
+    @Test
+    public void testTruncatedIndexIsRejected() throws IOException {
+        File bin = new File(dir, OrderedCityTiles.ORDERED_CITY_INDEX);
+        FileOutputStream out = new FileOutputStream(bin);
+        out.write(new byte[]{0x4D, 0x5A, 0x43, 0x54, 0, 0, 0, 1, 0, 0, 0, 5, 0, 0, 0, 5});
+        out.close();
+        try {
+            CityTileIndex.load(bin);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.mozilla.mozstumbler.service.core.offline;
+
+import android.location.Location;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class LocationServiceTest {
+
+    // Looking this BSSID up throws
+    private static final String BAD_BSSID = "bad";
+
+    private LocationService service;
+
+    @Before
+    public void setUp() throws IOException {
+        // A 3x3 city, tile ids 0..8 in row order, as in TileScorerTest
+        File dir = File.createTempFile("locationservice", "test");
+        dir.delete();
+        dir.mkdirs();
+        File csv = new File(dir, OrderedCityTiles.ORDERED_CITY_CSV);
+        FileWriter writer = new FileWriter(csv);
+        for (int y = 20; y <= 22; y++) {
+            for (int x = 10; x <= 12; x++) {
+                writer.write(x + ", " + y + "\n");
+            }
+        }
+        writer.close();
+
+        final HashMap<String, int[]> index = new HashMap<String, int[]>();
+        index.put("a", new int[] {4});
+        index.put("b", new int[] {4});
+        index.put("c", new int[] {0});
+        service = new LocationService(new TileSearch.TileIndex() {
+            @Override
+            public void addHits(String bssid, TileScorer.Accumulator points) {
+                if (BAD_BSSID.equals(bssid)) {
+                    throw new IllegalStateException("corrupt trie");
+                }
+                int[] tiles = index.get(bssid);
+                if (tiles != null) {
+                    for (int tile : tiles) {
+                        points.addHit(tile);
+                    }
+                }
+            }
+        }, new OrderedCityTiles(csv));
+    }
+
+    private static final List<String> SOLVABLE = Arrays.asList("a", "b");
+    private static final List<String> UNSOLVABLE = Arrays.asList("c");
+
+    /*
+     Records every callback, and fails the test on anything but one result per index followed
+     by one onBatchComplete().
+     */
+    private static class RecordingCallback implements IOfflineLocationService.BatchSearchCallback {
+        final AtomicReferenceArray<Location> results;
+        final AtomicIntegerArray counts;
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger completions = new AtomicInteger();
+        volatile int deliveredAtCompletion = -1;
+        final CountDownLatch done = new CountDownLatch(1);
+
+        RecordingCallback(int total) {
+            results = new AtomicReferenceArray<Location>(total);
+            counts = new AtomicIntegerArray(total);
+        }
+
+        @Override
+        public void onResult(int index, Location location) {
+            results.set(index, location);
+            counts.incrementAndGet(index);
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public void onBatchComplete() {
+            deliveredAtCompletion = delivered.get();
+            completions.incrementAndGet();
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            // Give a wrongly repeated onBatchComplete() the chance to happen
+            Thread.sleep(50);
+            assertEquals(1, completions.get());
+            assertEquals(counts.length(), deliveredAtCompletion);
+            for (int i = 0; i < counts.length(); i++) {
+                assertEquals("index " + i, 1, counts.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testLocate() {
+        Location location = service.locate(SOLVABLE);
+        assertNotNull(location);
+        SmartTile tile = new SmartTile(11, 21);
+        assertEquals(tile.tile2lat(), location.getLatitude());
+        assertEquals(tile.tile2lon(), location.getLongitude());
+
+        assertNull(service.locate(UNSOLVABLE));
+    }
+
+    @Test
+    public void testChunkSize() {
+        // Never less than one query per chunk
+        assertEquals(1, LocationService.chunkSize(1, 4));
+        assertEquals(1, LocationService.chunkSize(15, 4));
+        // A few chunks per thread
+        assertEquals(62, LocationService.chunkSize(1000, 4));
+        assertEquals(250, LocationService.chunkSize(1000, 1));
+    }
+
+    @Test
+    public void testBatchDeliversEveryIndexOnce() throws InterruptedException {
+        // Enough queries for several chunks per thread, with a partial last chunk
+        final int total = 1003;
+        List<List<String>> queries = new ArrayList<List<String>>();
+        for (int i = 0; i < total; i++) {
+            queries.add(i % 3 == 0 ? UNSOLVABLE : SOLVABLE);
+        }
+
+        RecordingCallback callback = new RecordingCallback(total);
+        service.searchBatch(queries, callback);
+        callback.await();
+
+        for (int i = 0; i < total; i++) {
+            if (i % 3 == 0) {
+                assertNull("index " + i, callback.results.get(i));
+            } else {
+                assertNotNull("index " + i, callback.results.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyBatchCompletesOnce() throws InterruptedException {
+        RecordingCallback callback = new RecordingCallback(0);
+        service.searchBatch(new ArrayList<Collection<String>>(), callback);
+        callback.await();
+    }
+
+    @Test
+    public void testFailedQueryStillCompletes() throws InterruptedException {
+        List<List<String>> queries = new ArrayList<List<String>>();
+        for (int i = 0; i < 100; i++) {
+            queries.add(i == 42 ? Arrays.asList("a", BAD_BSSID) : SOLVABLE);
+        }
+
+        RecordingCallback callback = new RecordingCallback(queries.size());
+        service.searchBatch(queries, callback);
+        callback.await();
+
+        assertNull(callback.results.get(42));
+        assertNotNull(callback.results.get(41));
+        assertNotNull(callback.results.get(43));
+    }
+
+    @Test
+    public void testFailedCallbackStillCompletes() throws InterruptedException {
+        final int total = 100;
+        List<List<String>> queries = new ArrayList<List<String>>();
+        for (int i = 0; i < total; i++) {
+            queries.add(SOLVABLE);
+        }
+
+        RecordingCallback callback = new RecordingCallback(total) {
+            @Override
+            public void onResult(int index, Location location) {
+                super.onResult(index, location);
+                if (index % 10 == 0) {
+                    throw new IllegalStateException("callback failed");
+                }
+            }
+        };
+        service.searchBatch(queries, callback);
+        // The rest of each chunk is still delivered
+        callback.await();
+    }
+}
@@ -0,0 +1,94 @@
+package org.mozilla.mozstumbler.service.core.offline;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class TileScorerTest {
+
+    private OrderedCityTiles cityTiles;
+    private TileScorer scorer;
+
+    @Before
+    public void setUp() throws IOException {
+        // A 3x3 city, tile ids 0..8 in row order:
+        //   0 1 2
+        //   3 4 5
+        //   6 7 8
+        File dir = File.createTempFile("tilescorer", "test");
+        dir.delete();
+        dir.mkdirs();
+        File csv = new File(dir, OrderedCityTiles.ORDERED_CITY_CSV);
+        FileWriter writer = new FileWriter(csv);
+        for (int y = 20; y <= 22; y++) {
+            for (int x = 10; x <= 12; x++) {
+                writer.write(x + ", " + y + "\n");
+            }
+        }
+        writer.close();
+
+        cityTiles = new OrderedCityTiles(csv);
+        scorer = new TileScorer(cityTiles);
+    }
+
+    private int score(int... hits) {
+        TileScorer.Accumulator acc = scorer.begin();
+        for (int tile : hits) {
+            acc.addHit(tile);
+        }
+        return scorer.score(acc);
+    }
+
+    @Test
+    public void testCityTileLookups() {
+        assertEquals(9, cityTiles.size());
+        assertEquals(4, cityTiles.getTileID(11, 21));
+        assertEquals(-1, cityTiles.getTileID(13, 21));
+        assertEquals(12, cityTiles.getTileX(5));
+        assertEquals(21, cityTiles.getTileY(5));
+    }
+
+    @Test
+    public void testAdjacentTiles() {
+        int[] adjacent = new int[8];
+        assertEquals(8, scorer.adjacentTiles(4, adjacent));
+        assertEquals(3, scorer.adjacentTiles(0, adjacent));
+        assertEquals(1, adjacent[0]);
+        assertEquals(3, adjacent[1]);
+        assertEquals(4, adjacent[2]);
+    }
+
+    @Test
+    public void testUniqueSolution() {
+        assertEquals(4, score(4, 4, 0));
+        // A single hit isn't enough
+        assertEquals(TileScorer.NO_SOLUTION, score(4, 0));
+    }
+
+    @Test
+    public void testTieBrokenByNeighbours() {
+        // 0 and 8 are tied, but 0 has a neighbour with points
+        assertEquals(0, score(0, 0, 8, 8, 1));
+    }
+
+    @Test
+    public void testTieWithoutAdjacentTiles() {
+        assertEquals(TileScorer.NO_SOLUTION, score(3, 3, 5, 5));
+    }
+
+    @Test
+    public void testAccumulatorIsClearedBetweenQueries() {
+        assertEquals(4, score(4, 4, 4));
+        assertEquals(2, score(2, 2));
+    }
+}
@@ -0,0 +1,185 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ObservationBusTest {
+
+    static class RecordingListener implements ObservationBus.GpsListener,
+            ObservationBus.PressureListener, ObservationBus.FlushListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        volatile Thread lastThread;
+
+        @Override
+        public void onNewLocation(Location location, long timeMs) {
+            record("location " + timeMs);
+        }
+
+        @Override
+        public void onLocationLost(long timeMs) {
+            record("lost " + timeMs);
+        }
+
+        @Override
+        public void onPressureScanned(float hPa) {
+            record("pressure " + hPa);
+        }
+
+        @Override
+        public void onFlushRequested() {
+            record("flush");
+        }
+
+        void record(String event) {
+            lastThread = Thread.currentThread();
+            events.add(event);
+        }
+    }
+
+    @Test
+    public void testDirectDelivery() {
+        ObservationBus bus = new ObservationBus(8);
+        RecordingListener listener = new RecordingListener();
+        bus.register(listener, ObservationBus.Delivery.DIRECT);
+        // A second registration is ignored
+        bus.register(listener, ObservationBus.Delivery.DIRECT);
+
+        bus.publishNewLocation(new Location("gps"), 1);
+        bus.publishPressure(1000f);
+        bus.publishLocationLost(2);
+        bus.publishFlushRequest();
+
+        assertEquals(4, listener.events.size());
+        assertEquals("location 1", listener.events.get(0));
+        assertEquals("pressure 1000.0", listener.events.get(1));
+        assertEquals("lost 2", listener.events.get(2));
+        assertEquals("flush", listener.events.get(3));
+        assertEquals(Thread.currentThread(), listener.lastThread);
+
+        bus.unregister(listener);
+        bus.publishFlushRequest();
+        assertEquals(4, listener.events.size());
+    }
+
+    @Test
+    public void testQueuedDeliveryIsInOrderOnStumblerThread() throws InterruptedException {
+        ObservationBus bus = new ObservationBus(8);
+        final CountDownLatch done = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onFlushRequested() {
+                super.onFlushRequested();
+                done.countDown();
+            }
+        };
+        bus.register(listener, ObservationBus.Delivery.STUMBLER_THREAD);
+
+        bus.publishLocationLost(1);
+        bus.publishLocationLost(2);
+        bus.publishFlushRequest();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, listener.events.size());
+        assertEquals("lost 1", listener.events.get(0));
+        assertEquals("lost 2", listener.events.get(1));
+        assertFalse(Thread.currentThread() == listener.lastThread);
+        assertEquals(0, bus.getDroppedEventCount());
+    }
+
+    @Test
+    public void testFullQueueDropsScansButNotGpsOrFlush() throws InterruptedException {
+        ObservationBus bus = new ObservationBus(2);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onLocationLost(long timeMs) {
+                super.onLocationLost(timeMs);
+                if (timeMs == 1) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        bus.register(listener, ObservationBus.Delivery.STUMBLER_THREAD);
+
+        // The stumbler thread takes the first event and blocks in the listener
+        bus.publishLocationLost(1);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // Fill the queue, then overflow it
+        bus.publishPressure(1f);
+        bus.publishPressure(2f);
+        bus.publishPressure(3f);
+        assertEquals(1, bus.getDroppedEventCount());
+
+        // GPS and flush events are queued past the capacity
+        bus.publishNewLocation(new Location("gps"), 4);
+        bus.publishLocationLost(5);
+        bus.publishFlushRequest();
+        assertEquals(1, bus.getDroppedEventCount());
+        assertEquals(5, bus.getQueuedEventCount());
+
+        release.countDown();
+        assertTrue(bus.drain(5000));
+
+        assertEquals(6, listener.events.size());
+        assertEquals("lost 1", listener.events.get(0));
+        assertEquals("pressure 1.0", listener.events.get(1));
+        assertEquals("pressure 2.0", listener.events.get(2));
+        assertEquals("location 4", listener.events.get(3));
+        assertEquals("lost 5", listener.events.get(4));
+        assertEquals("flush", listener.events.get(5));
+    }
+
+    @Test
+    public void testDrainWaitsForQueuedEvents() throws InterruptedException {
+        ObservationBus bus = new ObservationBus(8);
+        // Nothing queued for, nothing to wait for
+        assertTrue(bus.drain(0));
+
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onLocationLost(long timeMs) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onLocationLost(timeMs);
+            }
+        };
+        bus.register(listener, ObservationBus.Delivery.STUMBLER_THREAD);
+        for (int i = 0; i < 5; i++) {
+            bus.publishLocationLost(i);
+        }
+
+        assertTrue(bus.drain(5000));
+        assertEquals(5, listener.events.size());
+        assertEquals(0, bus.getQueuedEventCount());
+    }
+}
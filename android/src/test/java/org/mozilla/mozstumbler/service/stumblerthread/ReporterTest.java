@@ -1,10 +1,13 @@
 package org.mozilla.mozstumbler.service.stumblerthread;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.location.Location;
 import android.net.wifi.ScanResult;
+import android.support.v4.content.LocalBroadcastManager;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -13,9 +16,7 @@ import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageMa
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.StorageIsEmptyTracker;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.StumblerBundle;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.GPSScanner;
-import org.mozilla.mozstumbler.service.stumblerthread.scanners.WifiScanner;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
-import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellScanner;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 
@@ -71,8 +72,7 @@ public class ReporterTest {
         return scan;
     }
 
-    public static Intent getLocationIntent(double lat, double lon) {
-
+    public static Location getLocation(double lat, double lon) {
         if (lat == 0) {
             lat = 20;
         }
@@ -82,6 +82,11 @@ public class ReporterTest {
         Location location = new Location("mock");
         location.setLongitude(lat);
         location.setLatitude(lon);
+        return location;
+    }
+
+    public static Intent getLocationIntent(double lat, double lon) {
+        Location location = getLocation(lat, lon);
         Intent i = new Intent(GPSScanner.ACTION_GPS_UPDATED);
         i.putExtra(Intent.EXTRA_SUBJECT, GPSScanner.SUBJECT_NEW_LOCATION);
         i.putExtra(GPSScanner.NEW_LOCATION_ARG_LOCATION, location);
@@ -106,8 +111,7 @@ public class ReporterTest {
         // The Reporter class needs a reference to a context
         rp.startup(ctx);
 
-        Intent gpsUpdated = getLocationIntent(0, 0);
-        rp.onReceive(ctx, gpsUpdated);
+        rp.onNewLocation(getLocation(0, 0), System.currentTimeMillis());
         assertTrue(null != rp.getGPSLocation());
     }
 
@@ -125,15 +129,13 @@ public class ReporterTest {
 
         // This should push the reporter into a state that forces a
         // flush on the next wifi record.
-        Intent wifiIntent = getWifiIntent(bssidArray);
-        rp.onReceive(ctx, wifiIntent);
+        rp.onWifiScanned(getScanResults(bssidArray), System.currentTimeMillis());
         assertEquals(StumblerBundle.MAX_WIFIS_PER_LOCATION - 1,
-                rp.mBundle.getUnmodifiableWifiData().size());
+                rp.mBundle.getWifiCount());
 
         bssidArray = new String[]{Long.toHexString(0xabcd99999999L)};
-        wifiIntent = getWifiIntent(bssidArray);
         // This will force a flush and the bundle should go to null
-        rp.onReceive(ctx, wifiIntent);
+        rp.onWifiScanned(getScanResults(bssidArray), System.currentTimeMillis());
         assertNull(rp.mBundle);
     }
 
@@ -147,42 +149,47 @@ public class ReporterTest {
             cellIdList.add(cell);
         }
 
-        Intent cellIntent = getCellIntent(cellIdList);
-        rp.onReceive(ctx, cellIntent);
+        rp.onCellsScanned(cellIdList, System.currentTimeMillis());
         assertEquals(StumblerBundle.MAX_CELLS_PER_LOCATION - 1,
-                rp.mBundle.getUnmodifiableCellData().size());
+                rp.mBundle.getCellCount());
 
         cellIdList.clear();
         CellInfo cell = createCellInfo(1, 1, 2000 + StumblerBundle.MAX_CELLS_PER_LOCATION + 1,
                 1600199 + StumblerBundle.MAX_CELLS_PER_LOCATION + 1, 19);
         cellIdList.add(cell);
-        cellIntent = getCellIntent(cellIdList);
         // This will force a flush and the bundle should go to null
-        rp.onReceive(ctx, cellIntent);
+        rp.onCellsScanned(cellIdList, System.currentTimeMillis());
         assertEquals(null, rp.mBundle);
     }
 
-    private Intent getCellIntent(ArrayList<CellInfo> cells) {
-        long curTime = System.currentTimeMillis();
-        Intent intent = new Intent(CellScanner.ACTION_CELLS_SCANNED);
-        intent.putParcelableArrayListExtra(CellScanner.ACTION_CELLS_SCANNED_ARG_CELLS, cells);
-        intent.putExtra(CellScanner.ACTION_CELLS_SCANNED_ARG_TIME, curTime);
-        return intent;
+    @Test
+    public void testShutdownDeliversQueuedScans() {
+        final StumblerBundle[] flushed = new StumblerBundle[1];
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                flushed[0] = intent.getParcelableExtra(Reporter.NEW_BUNDLE_ARG_BUNDLE);
+            }
+        };
+        LocalBroadcastManager.getInstance(ctx).registerReceiver(receiver,
+                new IntentFilter(Reporter.ACTION_NEW_BUNDLE));
+
+        // Queued for the stumbler thread, shutdown must not lose it
+        ObservationBus.getInstance().publishWifiScan(
+                getScanResults(new String[]{"abcd12345678"}), System.currentTimeMillis());
+        rp.shutdown();
+
+        assertNull(rp.mBundle);
+        assertEquals(1, flushed[0].getWifiCount());
+        LocalBroadcastManager.getInstance(ctx).unregisterReceiver(receiver);
     }
 
-    private Intent getWifiIntent(String[] bssids) {
+    private ArrayList<ScanResult> getScanResults(String[] bssids) {
         ArrayList<ScanResult> scanResults = new ArrayList<ScanResult>();
-
-        ScanResult scan;
         for (String bssid : bssids) {
-            scan = createScanResult(bssid, "caps", 3, 11, 10);
-            scanResults.add(scan);
+            scanResults.add(createScanResult(bssid, "caps", 3, 11, 10));
         }
-
-        Intent i = new Intent(WifiScanner.ACTION_WIFIS_SCANNED);
-        i.putParcelableArrayListExtra(WifiScanner.ACTION_WIFIS_SCANNED_ARG_RESULTS, scanResults);
-        i.putExtra(WifiScanner.ACTION_WIFIS_SCANNED_ARG_TIME, System.currentTimeMillis());
-        return i;
+        return scanResults;
     }
 
     private Application getApplicationContext() {
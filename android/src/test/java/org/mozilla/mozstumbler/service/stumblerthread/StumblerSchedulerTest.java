@@ -0,0 +1,100 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class StumblerSchedulerTest {
+
+    private final StumblerScheduler scheduler = new StumblerScheduler();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testTasksShareOneThread() throws InterruptedException {
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final CountDownLatch ran = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread());
+                    ran.countDown();
+                }
+            }, 0);
+        }
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertEquals(1, threads.size());
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger();
+        ScheduledFuture<?> future = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        }, 200);
+        future.cancel(false);
+
+        final CountDownLatch later = new CountDownLatch(1);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                later.countDown();
+            }
+        }, 400);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, count.get());
+    }
+
+    @Test
+    public void testPeriodicTaskSurvivesException() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(3);
+        ScheduledFuture<?> future = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+                throw new IllegalStateException("test");
+            }
+        }, 0, 10);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        future.cancel(false);
+    }
+
+    @Test
+    public void testRestartsAfterShutdown() throws InterruptedException {
+        scheduler.shutdown();
+        final CountDownLatch ran = new CountDownLatch(1);
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 0);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+}
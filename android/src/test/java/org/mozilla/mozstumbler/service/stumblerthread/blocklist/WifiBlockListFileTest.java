@@ -0,0 +1,152 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.mozstumbler.service.utils.MacAddress;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class WifiBlockListFileTest {
+
+    private Context ctx;
+
+    @Before
+    public void setUp() {
+        ctx = Robolectric.application;
+        WifiBlockListFile.getFile(ctx).delete();
+        WifiBlockList.setActive(null);
+    }
+
+    @After
+    public void tearDown() {
+        WifiBlockListFile.getFile(ctx).delete();
+        WifiBlockList.setActive(null);
+    }
+
+    private static byte[] blockList(int version, String prefix) {
+        return ("{\"version\": " + version + ", " +
+                "\"ssid_prefixes\": [\"" + prefix + "\"], " +
+                "\"bssid_ouis\": [\"00:1a:2b\"]}").getBytes();
+    }
+
+    @Test
+    public void testDefaultListWithoutFile() {
+        WifiBlockListFile.loadActive(ctx);
+        assertEquals(DefaultWifiBlockList.VERSION, WifiBlockList.getActive().getVersion());
+        assertTrue(WifiBlockList.getActive().isBlockedSSID("AndroidAP"));
+        assertTrue(WifiBlockList.getActive().isBlockedSSID("Coach_ShuttleWiFi"));
+        assertFalse(WifiBlockList.getActive().isBlockedSSID("Home Network"));
+    }
+
+    @Test
+    public void testUpdateIsSavedAndSwappedIn() throws IOException, JSONException {
+        WifiBlockListFile.loadActive(ctx);
+
+        assertTrue(WifiBlockListFile.update(ctx, blockList(2, "BusNet")));
+        assertEquals(2, WifiBlockList.getActive().getVersion());
+        assertTrue(WifiBlockList.getActive().isBlockedSSID("BusNet 42"));
+        assertTrue(WifiBlockList.getActive().isBlockedOUI(MacAddress.parse("001a2b000001")));
+        // The file replaces the built in list
+        assertFalse(WifiBlockList.getActive().isBlockedSSID("AndroidAP"));
+
+        // Older and equal versions are ignored
+        assertFalse(WifiBlockListFile.update(ctx, blockList(1, "Other")));
+        assertFalse(WifiBlockListFile.update(ctx, blockList(2, "Other")));
+        assertFalse(WifiBlockList.getActive().isBlockedSSID("Other"));
+
+        // And the saved file is what a restart loads
+        WifiBlockList.setActive(null);
+        WifiBlockListFile.loadActive(ctx);
+        assertEquals(2, WifiBlockList.getActive().getVersion());
+        assertTrue(WifiBlockList.getActive().isBlockedSSID("BusNet 42"));
+    }
+
+    @Test
+    public void testBadUpdateIsRejected() throws IOException {
+        WifiBlockListFile.loadActive(ctx);
+        try {
+            WifiBlockListFile.update(ctx, "{\"ssid_prefixes\": []}".getBytes());
+            fail("A block list without a version must be rejected");
+        } catch (JSONException e) {
+            // expected
+        }
+        assertFalse(WifiBlockListFile.getFile(ctx).exists());
+        assertEquals(DefaultWifiBlockList.VERSION, WifiBlockList.getActive().getVersion());
+    }
+
+    @Test
+    public void testConcurrentUpdatesKeepFileAndActiveListInStep() throws Exception {
+        WifiBlockListFile.loadActive(ctx);
+
+        final int updates = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread[] threads = new Thread[updates];
+        for (int i = 0; i < updates; i++) {
+            final int version = i + 1;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        WifiBlockListFile.update(ctx, blockList(version, "Net" + version));
+                    } catch (Exception e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        assertEquals(updates, WifiBlockList.getActive().getVersion());
+        // The newest list is also the one on disk
+        WifiBlockList.setActive(null);
+        WifiBlockListFile.loadActive(ctx);
+        assertEquals(updates, WifiBlockList.getActive().getVersion());
+        assertTrue(WifiBlockList.getActive().isBlockedSSID("Net" + updates));
+    }
+
+    @Test
+    public void testInstallDefault() {
+        WifiBlockListFile.installDefault();
+        assertEquals(DefaultWifiBlockList.VERSION, WifiBlockList.getActive().getVersion());
+        assertTrue(WifiBlockList.getActive().isBlockedSSID("AndroidAP"));
+    }
+
+    @Test
+    public void testInstallOnlyMovesForward() {
+        WifiBlockList v3 = WifiBlockList.compile(new DefaultWifiBlockList(), 3);
+        WifiBlockList v2 = WifiBlockList.compile(new DefaultWifiBlockList(), 2);
+        assertTrue(WifiBlockList.install(v3));
+        assertFalse(WifiBlockList.install(v2));
+        assertEquals(3, WifiBlockList.getActive().getVersion());
+    }
+}
@@ -0,0 +1,91 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.mozstumbler.service.utils.MacAddress;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class WifiBlockListTest {
+
+    static WifiBlockList compile(final String[] prefixes, final String[] suffixes, final String[] ouis) {
+        return WifiBlockList.compile(new WifiBlockListInterface() {
+            @Override
+            public String[] getSsidPrefixList() {
+                return prefixes;
+            }
+
+            @Override
+            public String[] getSsidSuffixList() {
+                return suffixes;
+            }
+
+            @Override
+            public String[] getBssidOuiList() {
+                return ouis;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        WifiBlockList.setActive(null);
+    }
+
+    @Test
+    public void testSSIDPrefixesAndSuffixes() {
+        WifiBlockList blockList = compile(new String[]{"AndroidAP", "iPhone", ""},
+                                          new String[]{"Hotspot", "_bus"},
+                                          null);
+        assertTrue(blockList.isBlockedSSID("AndroidAP1234"));
+        assertTrue(blockList.isBlockedSSID("iPhone"));
+        assertFalse(blockList.isBlockedSSID("iPhon"));
+        assertTrue(blockList.isBlockedSSID("My Hotspot"));
+        assertTrue(blockList.isBlockedSSID("line_7_bus"));
+        assertFalse(blockList.isBlockedSSID("Hotspot cafe"));
+        // The empty prefix is ignored, it would block everything
+        assertFalse(blockList.isBlockedSSID("cafe"));
+        assertFalse(blockList.isBlockedSSID(""));
+    }
+
+    @Test
+    public void testOUIs() {
+        WifiBlockList blockList = compile(null, null, new String[]{"00:1a:2b", "AABBCC", "not an oui"});
+        assertTrue(blockList.isBlockedOUI(MacAddress.parse("00:1a:2b:00:00:01")));
+        assertTrue(blockList.isBlockedOUI(MacAddress.parse("aabbccddeeff")));
+        assertFalse(blockList.isBlockedOUI(MacAddress.parse("aabbcdddeeff")));
+    }
+
+    @Test
+    public void testBSSIDBlockList() {
+        assertTrue(BSSIDBlockList.contains(MacAddress.INVALID, null));
+        assertTrue(BSSIDBlockList.contains(MacAddress.parse("000000000000"), "000000000000"));
+        assertTrue(BSSIDBlockList.contains(MacAddress.parse("ffffffffffff"), "ffffffffffff"));
+        assertFalse(BSSIDBlockList.contains(MacAddress.parse("001a2b000001"), "001a2b000001"));
+
+        WifiBlockList.setActive(compile(null, null, new String[]{"001a2b"}));
+        assertTrue(BSSIDBlockList.contains(MacAddress.parse("001a2b000001"), "001a2b000001"));
+    }
+
+    @Test
+    public void testCanonicalizeBSSID() {
+        final String canonical = "0123456789ab";
+        assertSame(canonical, BSSIDBlockList.canonicalizeBSSID(canonical));
+        assertEquals(canonical, BSSIDBlockList.canonicalizeBSSID("01:23:45:67:89:AB"));
+        assertEquals(canonical, BSSIDBlockList.canonicalizeBSSID("01-23-45-67-89-ab"));
+        assertEquals("", BSSIDBlockList.canonicalizeBSSID("01:23:45:67:89"));
+        assertEquals("", BSSIDBlockList.canonicalizeBSSID(null));
+    }
+}
@@ -0,0 +1,73 @@
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ReportFileListTest {
+
+    private File reportsDir;
+
+    @Before
+    public void setUp() throws IOException {
+        File base = File.createTempFile("reportfilelist", "test");
+        base.delete();
+        reportsDir = new File(base, "reports");
+        reportsDir.mkdirs();
+    }
+
+    private File writeReport(String name, int bytes) throws IOException {
+        File f = new File(reportsDir, name);
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(new byte[bytes]);
+        out.close();
+        return f;
+    }
+
+    @Test
+    public void testCountsAreMaintainedIncrementally() throws IOException {
+        ReportFileList list = new ReportFileList(reportsDir);
+        assertTrue(list.isDirEmpty());
+
+        list.add(writeReport("report-t100-r4-w25-c7.gz", 10));
+        list.add(writeReport("report-t200-r2-w5-c1.gz", 20));
+        assertEquals(6, list.mReportCount);
+        assertEquals(30, list.mWifiCount);
+        assertEquals(8, list.mCellCount);
+        assertEquals(30, list.mFilesOnDiskBytes);
+
+        new File(reportsDir, "report-t100-r4-w25-c7.gz").delete();
+        list.remove("report-t100-r4-w25-c7.gz");
+        assertEquals(2, list.mReportCount);
+        assertEquals(20, list.mFilesOnDiskBytes);
+        assertEquals(1, list.getFiles().length);
+    }
+
+    @Test
+    public void testManifestIsReconciledOnLoad() throws IOException {
+        ReportFileList list = new ReportFileList(reportsDir);
+        list.add(writeReport("report-t100-r4-w25-c7.gz", 10));
+        list.add(writeReport("report-t200-r2-w5-c1.gz", 20));
+
+        // Changes made behind the index's back
+        new File(reportsDir, "report-t100-r4-w25-c7.gz").delete();
+        writeReport("report-t300-r1-w1-c1.gz", 5);
+
+        ReportFileList reloaded = new ReportFileList(reportsDir);
+        assertEquals(2, reloaded.getFileCount());
+        assertEquals(3, reloaded.mReportCount);
+        assertEquals(25, reloaded.mFilesOnDiskBytes);
+        assertEquals("report-t200-r2-w5-c1.gz", reloaded.getFiles()[0].getName());
+    }
+}
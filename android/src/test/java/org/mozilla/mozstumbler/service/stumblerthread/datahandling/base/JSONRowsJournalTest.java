@@ -0,0 +1,72 @@
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class JSONRowsJournalTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("journal", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    @Test
+    public void testPendingRowsAreReplayedFirst() {
+        JSONRowsJournal journal = new JSONRowsJournal(dir, "reports");
+        journal.append("a".getBytes());
+        journal.append("b".getBytes());
+        journal.moveActiveToPending();
+        journal.append("c".getBytes());
+
+        List<byte[]> rows = new JSONRowsJournal(dir, "reports").readAll();
+        assertEquals(3, rows.size());
+        assertEquals("a", new String(rows.get(0)));
+        assertEquals("b", new String(rows.get(1)));
+        assertEquals("c", new String(rows.get(2)));
+    }
+
+    @Test
+    public void testDiscard() {
+        JSONRowsJournal journal = new JSONRowsJournal(dir, "reports");
+        journal.append("a".getBytes());
+        journal.moveActiveToPending();
+        journal.append("b".getBytes());
+
+        journal.discardPending();
+        assertEquals(1, journal.readAll().size());
+
+        journal.discardActive();
+        assertEquals(0, journal.readAll().size());
+    }
+
+    @Test
+    public void testTruncatedRecordIsDropped() throws IOException {
+        JSONRowsJournal journal = new JSONRowsJournal(dir, "reports");
+        journal.append("complete".getBytes());
+
+        // Simulate the process dying in the middle of writing a record
+        FileOutputStream out = new FileOutputStream(new File(dir, "reports.journal"), true);
+        out.write(new byte[]{0, 0, 0, 20, 'x', 'y'});
+        out.close();
+
+        List<byte[]> rows = journal.readAll();
+        assertEquals(1, rows.size());
+        assertEquals("complete", new String(rows.get(0)));
+    }
+}
@@ -0,0 +1,137 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.scanners;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.mozstumbler.service.core.metrics.MetricsSnapshot;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ScanCadenceTest {
+
+    private final ScanCadence cadence = new ScanCadence();
+
+    private void repeatRoute() {
+        for (int i = 0; i < 20; i++) {
+            cadence.onBundleFlushed(10, 0);
+        }
+    }
+
+    @Test
+    public void testNewTerritoryUsesFixedRates() {
+        assertEquals(ScanCadence.WIFI_MIN_UPDATE_TIME_MS, cadence.getWifiIntervalMs());
+        assertEquals(ScanCadence.MAX_SCANS_PER_GPS, cadence.getMaxWifiScansPerFix());
+        assertEquals(ScanCadence.CELL_MIN_UPDATE_TIME_MS, cadence.getCellIntervalMs());
+        assertEquals(ScanCadence.GPS_MIN_UPDATE_DISTANCE_M, cadence.getGpsMinDistanceM());
+
+        cadence.setHighPower(true);
+        assertEquals(ScanCadence.HIGH_POWER_WIFI_MIN_UPDATE_TIME_MS, cadence.getWifiIntervalMs());
+        assertEquals(ScanCadence.HIGH_POWER_MAX_SCANS_PER_GPS, cadence.getMaxWifiScansPerFix());
+        assertEquals(ScanCadence.HIGH_POWER_GPS_MIN_UPDATE_DISTANCE_M, cadence.getGpsMinDistanceM());
+    }
+
+    @Test
+    public void testRepeatedRouteBacksOff() {
+        repeatRoute();
+        assertEquals(1, cadence.getMaxWifiScansPerFix());
+        assertEquals(1, cadence.getMaxCellScansPerFix());
+        assertTrue(cadence.getWifiIntervalMs() > ScanCadence.WIFI_MIN_UPDATE_TIME_MS * 2);
+        assertEquals(ScanCadence.GPS_MIN_UPDATE_DISTANCE_M * 2, cadence.getGpsMinDistanceM());
+
+        // New APs again bring back the fixed rates
+        for (int i = 0; i < 50; i++) {
+            cadence.onBundleFlushed(10, 10);
+        }
+        assertEquals(ScanCadence.WIFI_MIN_UPDATE_TIME_MS, cadence.getWifiIntervalMs());
+        assertEquals(ScanCadence.MAX_SCANS_PER_GPS, cadence.getMaxWifiScansPerFix());
+    }
+
+    @Test
+    public void testSpeedAndBattery() {
+        // ~1 m/s from the distance between fixes, walking pace
+        cadence.onLocation(45.0, -73.0, 1000, -1);
+        cadence.onLocation(45.0001, -73.0, 12000, -1);
+        final long walking = cadence.getWifiIntervalMs();
+        assertTrue(walking > ScanCadence.WIFI_MIN_UPDATE_TIME_MS);
+
+        cadence.onLocation(45.0, -73.0, 13000, 20);
+        assertEquals(ScanCadence.WIFI_MIN_UPDATE_TIME_MS, cadence.getWifiIntervalMs());
+
+        cadence.setBatteryLow(true);
+        assertEquals(Math.round(ScanCadence.WIFI_MIN_UPDATE_TIME_MS * ScanCadence.LOW_BATTERY_BACKOFF),
+                     cadence.getWifiIntervalMs());
+
+        // Never slower than the maximum
+        repeatRoute();
+        cadence.onLocation(45.0, -73.0, 14000, 0);
+        assertEquals(ScanCadence.MAX_WIFI_INTERVAL_MS, cadence.getWifiIntervalMs());
+    }
+
+    @Test
+    public void testStats() {
+        cadence.onScanRound();
+        cadence.onScanRound();
+        cadence.onWifiScan();
+        cadence.onWifiScan();
+        cadence.onWifiScan();
+        cadence.onCellScan();
+        cadence.onBundleFlushed(4, 3);
+
+        ScanCadence.Stats stats = cadence.getStats();
+        assertEquals(3, stats.wifiScans);
+        assertEquals(2 * ScanCadence.MAX_SCANS_PER_GPS - 3, stats.wifiScansSaved);
+        assertEquals(1, stats.cellScans);
+        assertEquals(2 * ScanCadence.MAX_SCANS_PER_GPS - 1, stats.cellScansSaved);
+        assertEquals(3, stats.newAPs);
+        assertEquals(1.0f, stats.getNewAPsPerWifiScan());
+
+        cadence.reset();
+        assertEquals(0, cadence.getStats().wifiScans);
+        assertEquals(0.0f, cadence.getStats().getNewAPsPerWifiScan());
+    }
+
+    @Test
+    public void testResetStatsKeepsTheRoute() {
+        repeatRoute();
+        cadence.onScanRound();
+        cadence.onWifiScan();
+        final long backedOff = cadence.getWifiIntervalMs();
+
+        cadence.resetStats();
+        assertEquals(0, cadence.getStats().wifiScans);
+        assertEquals(0, cadence.getStats().wifiScansSaved);
+        assertEquals(backedOff, cadence.getWifiIntervalMs());
+        assertEquals(1, cadence.getMaxWifiScansPerFix());
+    }
+
+    @Test
+    public void testStatsArePublishedAsMetrics() {
+        repeatRoute();
+        cadence.onScanRound();
+        cadence.onWifiScan();
+        cadence.onCellScan();
+        cadence.onBundleFlushed(4, 2);
+
+        MetricsSnapshot snapshot = PipelineMetrics.getInstance().snapshot();
+        ScanCadence.Stats stats = cadence.getStats();
+        assertEquals(Math.round(stats.novelty * 100), snapshot.getGauge(PipelineMetrics.SCAN_NOVELTY_PCT));
+        assertEquals(stats.wifiIntervalMs, snapshot.getGauge(PipelineMetrics.SCAN_WIFI_INTERVAL_MS));
+        assertEquals(1, snapshot.getGauge(PipelineMetrics.SCAN_WIFI_SCANS));
+        assertEquals(ScanCadence.MAX_SCANS_PER_GPS - 1, snapshot.getGauge(PipelineMetrics.SCAN_WIFI_SCANS_SAVED));
+        assertEquals(stats.cellIntervalMs, snapshot.getGauge(PipelineMetrics.SCAN_CELL_INTERVAL_MS));
+        assertEquals(1, snapshot.getGauge(PipelineMetrics.SCAN_CELL_SCANS));
+        assertEquals(2, snapshot.getGauge(PipelineMetrics.SCAN_NEW_APS));
+
+        cadence.resetStats();
+        assertEquals(0, PipelineMetrics.getInstance().snapshot().getGauge(PipelineMetrics.SCAN_WIFI_SCANS));
+    }
+}
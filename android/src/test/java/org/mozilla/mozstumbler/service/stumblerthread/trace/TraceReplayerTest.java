@@ -0,0 +1,200 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import android.content.Context;
+import android.location.Location;
+import android.net.wifi.ScanResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageManager;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
+import org.mozilla.mozstumbler.service.uploadthread.AsyncUploader;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static org.mozilla.mozstumbler.service.stumblerthread.ReporterTest.createCellInfo;
+import static org.mozilla.mozstumbler.service.stumblerthread.ReporterTest.createScanResult;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class TraceReplayerTest {
+
+    private static final long STARTED = 1400000000000L;
+    private static final int FIXES = 20;
+
+    private Context ctx;
+
+    @Before
+    public void setUp() {
+        ctx = Robolectric.application;
+        Prefs.getInstance(ctx).setSimulateStumble(false);
+        Prefs.getInstance(ctx).setSaveStumbleLogs(false);
+        DataStorageManager.sInstance = null;
+    }
+
+    private static Location location(int i) {
+        Location location = new Location("gps");
+        location.setLatitude(45 + i * 0.0001);
+        location.setLongitude(-75 - i * 0.0001);
+        location.setTime(STARTED + i * 1000);
+        location.setAccuracy(5);
+        location.setAltitude(100.5);
+        return location;
+    }
+
+    /*
+     A drive of FIXES fixes a second apart, each with a wifi scan and a cell scan.
+     */
+    private static byte[] makeTrace() throws IOException, JSONException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, STARTED);
+        for (int i = 0; i < FIXES; i++) {
+            final long time = STARTED + i * 1000;
+            writer.write(TraceEvent.KIND_LOCATION, time, new JSONObject()
+                    .put(TraceRecorder.KEY_TIME, time)
+                    .put(TraceRecorder.KEY_LOCATION, TraceRecorder.toJSON(location(i))));
+
+            JSONArray wifis = new JSONArray();
+            for (int j = 0; j < 3; j++) {
+                String bssid = String.format("01:23:45:67:%02x:%02x", i, j);
+                wifis.put(TraceRecorder.toJSON(createScanResult(bssid, "", -60 - j, 2412, 0)));
+            }
+            writer.write(TraceEvent.KIND_WIFI, time + 100,
+                    new JSONObject().put(TraceRecorder.KEY_TIME, time + 100).put(TraceRecorder.KEY_RESULTS, wifis));
+
+            JSONArray cells = new JSONArray();
+            cells.put(createCellInfo(302, 720, 10000 + i, 20000 + i, 15).toJSONObject());
+            writer.write(TraceEvent.KIND_CELL, time + 200,
+                    new JSONObject().put(TraceRecorder.KEY_TIME, time + 200).put(TraceRecorder.KEY_CELLS, cells));
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testReplayUploadsEveryReport() throws IOException, JSONException {
+        DataStorageManager appStorage = DataStorageManager.createGlobalInstance(ctx, null);
+        final AtomicInteger appEvents = new AtomicInteger();
+        ObservationBus.GpsListener appListener = new ObservationBus.GpsListener() {
+            @Override
+            public void onNewLocation(Location location, long timeMs) {
+                appEvents.incrementAndGet();
+            }
+
+            @Override
+            public void onLocationLost(long timeMs) {
+                appEvents.incrementAndGet();
+            }
+        };
+        ObservationBus.getInstance().register(appListener, ObservationBus.Delivery.DIRECT);
+
+        TraceReplayer replayer = new TraceReplayer(ctx, TraceReplayer.MAX_SPEED, 0);
+        TraceReplayer.Result result;
+        try {
+            result = replayer.replay(new TraceReader(new ByteArrayInputStream(makeTrace())));
+        } finally {
+            ObservationBus.getInstance().unregister(appListener);
+        }
+
+        assertEquals(FIXES * 3, result.eventCount);
+        assertEquals((FIXES - 1) * 1000 + 200, result.traceDurationMs);
+        assertEquals(0, result.droppedEventCount);
+        assertTrue(result.uploadCount >= 1);
+        assertTrue(result.postCount >= 1);
+        assertTrue(result.bytesUploaded > 0);
+        assertEquals(result.postCount, result.postDurationsMs.size());
+        assertEquals(0, result.reportsLeft);
+
+        // The app's bus and storage never see the replay
+        assertEquals(0, appEvents.get());
+        assertSame(appStorage, DataStorageManager.getInstance());
+        assertEquals(0, appStorage.getQueuedReportCount());
+    }
+
+    @Test
+    public void testReplayRecordedTrace() throws IOException, JSONException {
+        File dir = new File(ctx.getFilesDir(), TraceRecorder.TRACE_DIR);
+        dir.mkdirs();
+        File older = new File(dir, "trace-t" + STARTED + TraceRecorder.TRACE_SUFFIX);
+        File newer = new File(dir, "trace-t" + (STARTED + 1000) + TraceRecorder.TRACE_SUFFIX);
+        for (File file : new File[] {older, newer}) {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(makeTrace());
+            out.close();
+        }
+
+        List<File> traces = TraceRecorder.listTraces(ctx.getFilesDir().getPath());
+        assertEquals(2, traces.size());
+        assertEquals(newer, traces.get(0));
+
+        TraceReplayer.Result result = new TraceReplayer(ctx, TraceReplayer.MAX_SPEED, 0).replay(traces.get(0));
+        assertEquals(FIXES * 3, result.eventCount);
+        assertEquals(0, result.reportsLeft);
+    }
+
+    @Test
+    public void testRefusesDuringUpload() throws IOException, JSONException {
+        AsyncUploader.isUploading.set(true);
+        try {
+            new TraceReplayer(ctx, TraceReplayer.MAX_SPEED, 0)
+                    .replay(new TraceReader(new ByteArrayInputStream(makeTrace())));
+            fail("Replay must wait for the upload");
+        } catch (IllegalStateException e) {
+            // expected
+        } finally {
+            AsyncUploader.isUploading.set(false);
+        }
+    }
+
+    @Test
+    public void testLocationRoundTrip() throws JSONException {
+        Location location = location(3);
+        location.setBearing(90);
+        Location replayed = TraceReplayer.toLocation(TraceRecorder.toJSON(location));
+
+        assertEquals(location.getProvider(), replayed.getProvider());
+        assertEquals(location.getLatitude(), replayed.getLatitude(), 0);
+        assertEquals(location.getLongitude(), replayed.getLongitude(), 0);
+        assertEquals(location.getTime(), replayed.getTime());
+        assertEquals(location.getAccuracy(), replayed.getAccuracy(), 0);
+        assertEquals(location.getAltitude(), replayed.getAltitude(), 0);
+        assertEquals(location.getBearing(), replayed.getBearing(), 0);
+        assertTrue(!replayed.hasSpeed());
+    }
+
+    @Test
+    public void testScanRoundTrip() throws JSONException {
+        ScanResult scan = createScanResult("01:23:45:67:89:ab", "[WPA2-PSK-CCMP]", -70, 5180, 0);
+        ScanResult replayed = TraceReplayer.toScanResult(TraceRecorder.toJSON(scan));
+        assertEquals(scan.BSSID, replayed.BSSID);
+        assertEquals(scan.capabilities, replayed.capabilities);
+        assertEquals(scan.level, replayed.level);
+        assertEquals(scan.frequency, replayed.frequency);
+
+        CellInfo cell = createCellInfo(302, 720, 10000, 20000, 15);
+        assertEquals(cell, CellInfo.fromJSONObject(cell.toJSONObject()));
+    }
+}
@@ -0,0 +1,294 @@
+package org.mozilla.mozstumbler.service.uploadthread;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.mozstumbler.service.core.http.HTTPResponse;
+import org.mozilla.mozstumbler.service.core.http.IResponse;
+import org.mozilla.mozstumbler.service.core.http.ISubmitService;
+import org.mozilla.mozstumbler.service.core.http.RequestBody;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.ReportBatch;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.JSONRowsStorageManager;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
+import org.mozilla.mozstumbler.service.utils.Zipper;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class AsyncUploaderTest {
+
+    private static final AsyncUploadParam ON_WIFI = new AsyncUploadParam(false, true);
+    private static final AsyncUploadParam ON_CELL = new AsyncUploadParam(false, false);
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("uploader", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    /*
+     Serves a fixed list of batches in order, and records what happens to them.
+     */
+    private class FakeStorage extends JSONRowsStorageManager {
+        final List<SerializedJSONRows> batches = new ArrayList<SerializedJSONRows>();
+        final List<SerializedJSONRows> deleted = Collections.synchronizedList(new ArrayList<SerializedJSONRows>());
+        final AtomicInteger savesToDisk = new AtomicInteger();
+        private int mNext;
+
+        FakeStorage() {
+            super(dir.getPath(), null, 1024 * 1024, 1, "rows");
+        }
+
+        @Override
+        public synchronized SerializedJSONRows getFirstBatch() {
+            mNext = 0;
+            return getNextBatch();
+        }
+
+        @Override
+        public synchronized SerializedJSONRows getNextBatch() {
+            return (mNext < batches.size()) ? batches.get(mNext++) : null;
+        }
+
+        @Override
+        public boolean delete(SerializedJSONRows data) {
+            deleted.add(data);
+            return true;
+        }
+
+        @Override
+        public void saveAllInMemoryToDisk() {
+            savesToDisk.incrementAndGet();
+        }
+    }
+
+    private static ReportBatch batch(int n) {
+        byte[] data = Zipper.zipData(("{\"items\":[{\"n\":" + n + "}]}").getBytes());
+        return new ReportBatch(data, SerializedJSONRows.StorageState.ON_DISK, 1, 1, 0);
+    }
+
+    private static ReportBatch corruptBatch() {
+        return new ReportBatch("not gzipped".getBytes(), SerializedJSONRows.StorageState.ON_DISK, 1, 1, 0);
+    }
+
+    private static int batchNumber(byte[] data) {
+        String json = Zipper.unzipData(data);
+        return Integer.parseInt(json.substring(json.indexOf(':', json.indexOf("\"n\"")) + 1, json.indexOf('}')));
+    }
+
+    /*
+     Answers 200, or the status set for a batch, after a short delay so POSTs overlap.
+     */
+    private static class FakeSubmitter implements ISubmitService {
+        final Map<Integer, Integer> statuses = new HashMap<Integer, Integer>();
+        final List<Integer> started = Collections.synchronizedList(new ArrayList<Integer>());
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public IResponse submit(byte[] data, Map<String, String> headers, boolean precompressed) {
+            final int n = batchNumber(data);
+            started.add(n);
+            threads.add(Thread.currentThread().getName());
+            final int current = inFlight.incrementAndGet();
+            int max;
+            while (current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current)) {
+                // retry
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            final Integer status = statuses.get(n);
+            return new HTTPResponse((status == null) ? 200 : status,
+                    new HashMap<String, List<String>>(), new byte[0], data.length);
+        }
+
+        @Override
+        public IResponse submit(RequestBody body, Map<String, String> headers, boolean precompressed) {
+            throw new UnsupportedOperationException("No merged batches in these tests");
+        }
+    }
+
+    private static class TestUploader extends AsyncUploader {
+        private final ISubmitService mSubmitter;
+
+        TestUploader(JSONRowsStorageManager storage, ISubmitService submitter) {
+            super(storage);
+            mSubmitter = submitter;
+        }
+
+        @Override
+        protected ISubmitService getSubmitter() {
+            return mSubmitter;
+        }
+
+        @Override
+        protected HashMap<String, String> getHeaders(AsyncUploadParam param) {
+            return new HashMap<String, String>();
+        }
+    }
+
+    @Test
+    public void testPipelinedUploadsEveryBatchOnceInOrder() {
+        final int total = 30;
+        FakeStorage storage = new FakeStorage();
+        for (int i = 0; i < total; i++) {
+            storage.batches.add(batch(i));
+        }
+        FakeSubmitter submitter = new FakeSubmitter();
+
+        assertTrue(new TestUploader(storage, submitter).uploadNow(ON_WIFI));
+
+        assertEquals(total, submitter.started.size());
+        assertEquals(total, new HashSet<Integer>(submitter.started).size());
+        // Batches are taken in storage order, a poster can only be overtaken by the others
+        for (int i = 0; i < total; i++) {
+            int position = submitter.started.indexOf(i);
+            assertTrue("batch " + i + " started at " + position,
+                    Math.abs(position - i) < AsyncUploader.MAX_UPLOADS_IN_FLIGHT);
+        }
+        assertTrue(submitter.maxInFlight.get() > 1);
+        assertTrue(submitter.maxInFlight.get() <= AsyncUploader.MAX_UPLOADS_IN_FLIGHT);
+
+        assertEquals(total, storage.deleted.size());
+        assertEquals(0, storage.savesToDisk.get());
+    }
+
+    @Test
+    public void testPipelinedFailures() {
+        FakeStorage storage = new FakeStorage();
+        for (int i = 0; i < 12; i++) {
+            storage.batches.add((i == 9) ? corruptBatch() : batch(i));
+        }
+        FakeSubmitter submitter = new FakeSubmitter();
+        submitter.statuses.put(5, 500);
+        submitter.statuses.put(7, 400);
+
+        assertTrue(new TestUploader(storage, submitter).uploadNow(ON_WIFI));
+
+        // The corrupt batch is never posted
+        assertEquals(11, submitter.started.size());
+        assertFalse(submitter.started.contains(9));
+
+        // Everything but the server error is deleted: sent, rejected or corrupt
+        assertEquals(11, storage.deleted.size());
+        assertFalse(storage.deleted.contains(storage.batches.get(5)));
+        assertTrue(storage.deleted.contains(storage.batches.get(7)));
+        assertTrue(storage.deleted.contains(storage.batches.get(9)));
+        // And the in-memory reports are saved once, after every poster is done
+        assertEquals(1, storage.savesToDisk.get());
+    }
+
+    @Test
+    public void testSequentialSkipsCorruptBatch() {
+        FakeStorage storage = new FakeStorage();
+        storage.batches.add(batch(0));
+        storage.batches.add(corruptBatch());
+        storage.batches.add(batch(2));
+        FakeSubmitter submitter = new FakeSubmitter();
+
+        assertTrue(new TestUploader(storage, submitter).uploadNow(ON_CELL));
+
+        assertEquals(2, submitter.started.size());
+        assertEquals(0, (int) submitter.started.get(0));
+        assertEquals(2, (int) submitter.started.get(1));
+        assertEquals(1, submitter.maxInFlight.get());
+        assertEquals(3, storage.deleted.size());
+        assertTrue(storage.deleted.contains(storage.batches.get(1)));
+    }
+
+    /*
+     Streams merged bodies like HttpUtil, which answers null when writing the body fails.
+     */
+    private static class StreamingSubmitter implements ISubmitService {
+        final List<String> bodies = new ArrayList<String>();
+
+        @Override
+        public IResponse submit(byte[] data, Map<String, String> headers, boolean precompressed) {
+            bodies.add(Zipper.unzipData(data));
+            return new HTTPResponse(200, new HashMap<String, List<String>>(), new byte[0], data.length);
+        }
+
+        @Override
+        public IResponse submit(RequestBody body, Map<String, String> headers, boolean precompressed) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                body.writeTo(out);
+            } catch (IOException e) {
+                return null;
+            }
+            bodies.add(out.toString());
+            return new HTTPResponse(200, new HashMap<String, List<String>>(), new byte[0], out.size());
+        }
+    }
+
+    @Test
+    public void testMergedUploadDropsSourceCorruptPastItsPrefix() {
+        FakeStorage storage = new FakeStorage();
+        storage.batches.add(batch(0));
+        ReportBatch good = batch(1);
+        // The start of the gzip stream is fine, so the batch is only found corrupt while streaming
+        ReportBatch truncated = new ReportBatch(Arrays.copyOf(good.data, good.data.length - 8),
+                SerializedJSONRows.StorageState.ON_DISK, 1, 1, 0);
+        storage.batches.add(truncated);
+        storage.batches.add(batch(2));
+        StreamingSubmitter submitter = new StreamingSubmitter();
+
+        TestUploader uploader = new TestUploader(storage, submitter) {
+            @Override
+            protected ReportBatchMerger createBatchMerger() {
+                return new ReportBatchMerger(100, Integer.MAX_VALUE);
+            }
+        };
+        assertTrue(uploader.uploadNow(ON_CELL));
+
+        // The other two are sent again, together
+        assertEquals(Arrays.asList("{\"items\":[{\"n\":0},{\"n\":2}]}"), submitter.bodies);
+        assertEquals(3, storage.deleted.size());
+        assertTrue(storage.deleted.contains(truncated));
+        assertEquals(0, storage.savesToDisk.get());
+    }
+
+    @Test
+    public void testPipelineThreadsAreReused() {
+        FakeStorage storage = new FakeStorage();
+        for (int i = 0; i < 10; i++) {
+            storage.batches.add(batch(i));
+        }
+        FakeSubmitter first = new FakeSubmitter();
+        assertTrue(new TestUploader(storage, first).uploadNow(ON_WIFI));
+
+        FakeSubmitter second = new FakeSubmitter();
+        assertTrue(new TestUploader(storage, second).uploadNow(ON_WIFI));
+
+        Set<String> all = new HashSet<String>(first.threads);
+        all.addAll(second.threads);
+        // The reader and the posters of both runs fit in one run's worth of threads
+        assertTrue(all.toString(), all.size() <= AsyncUploader.MAX_UPLOADS_IN_FLIGHT + 1);
+    }
+}
@@ -0,0 +1,156 @@
+package org.mozilla.mozstumbler.service.uploadthread;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.ReportBatch;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
+import org.mozilla.mozstumbler.service.utils.Zipper;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ReportBatchMergerTest {
+
+    private ReportBatch makeBatch(String items, int reports) {
+        byte[] data = Zipper.zipData(("{\"items\":[" + items + "]}").getBytes());
+        return new ReportBatch(data, SerializedJSONRows.StorageState.ON_DISK, reports, reports, 0);
+    }
+
+    @Test
+    public void testMergeKeepsEveryItemAndSource() throws Exception {
+        ReportBatch a = makeBatch("{\"a\":1},{\"a\":2}", 2);
+        ReportBatch b = makeBatch("{\"b\":1}", 1);
+
+        SerializedJSONRows merged = ReportBatchMerger.merge(Arrays.asList(a, b));
+        assertTrue(merged instanceof ReportBatchMerger.MergedReportBatch);
+
+        ReportBatchMerger.MergedReportBatch mergedBatch = (ReportBatchMerger.MergedReportBatch) merged;
+        assertEquals(2, mergedBatch.sources.size());
+        assertEquals(3, mergedBatch.reportCount);
+
+        JSONArray items = new JSONObject(writeBody(mergedBatch)).getJSONArray("items");
+        assertEquals(3, items.length());
+        assertEquals(1, items.getJSONObject(2).getInt("b"));
+    }
+
+    @Test
+    public void testEmptySourcesAreSkipped() throws Exception {
+        ReportBatch a = makeBatch("", 0);
+        ReportBatch b = makeBatch("{\"b\":1}", 1);
+        ReportBatch c = makeBatch("", 0);
+
+        ReportBatchMerger.MergedReportBatch merged =
+                (ReportBatchMerger.MergedReportBatch) ReportBatchMerger.merge(Arrays.asList(a, b, c));
+        assertEquals(3, merged.sources.size());
+        assertEquals("{\"items\":[{\"b\":1}]}", writeBody(merged));
+    }
+
+    @Test
+    public void testBodyStreamsEverySourceInOrder() throws Exception {
+        // Larger than the copy buffer, so the held back suffix spans reads
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) {
+                big.append(',');
+            }
+            big.append("{\"c\":").append(i).append('}');
+        }
+        ReportBatch a = makeBatch("{\"a\":\"]}\"}", 1);
+        ReportBatch b = makeBatch(big.toString(), 2000);
+        ReportBatch c = makeBatch("{}", 1);
+        ReportBatch d = makeBatch("{\"d\":[1,2]}", 1);
+
+        ReportBatchMerger.MergedReportBatch merged =
+                (ReportBatchMerger.MergedReportBatch) ReportBatchMerger.merge(Arrays.asList(a, b, c, d));
+        final String expected = "{\"items\":[{\"a\":\"]}\"}," + big + ",{},{\"d\":[1,2]}]}";
+        assertEquals(expected, writeBody(merged));
+        // The body can be written again, i.e. for a retry
+        assertEquals(expected, writeBody(merged));
+
+        JSONArray items = new JSONObject(writeBody(merged)).getJSONArray("items");
+        assertEquals(2003, items.length());
+        assertEquals("]}", items.getJSONObject(0).getString("a"));
+        assertEquals(1999, items.getJSONObject(2000).getInt("c"));
+        assertEquals(0, items.getJSONObject(2001).length());
+        assertEquals(2, items.getJSONObject(2002).getJSONArray("d").getInt(1));
+    }
+
+    private String writeBody(ReportBatchMerger.MergedReportBatch batch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batch.getBody().writeTo(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testRowBudget() {
+        ReportBatchMerger merger = new ReportBatchMerger(3, Integer.MAX_VALUE);
+        ReportBatch a = makeBatch("{\"a\":1},{\"a\":2}", 2);
+        ReportBatch b = makeBatch("{\"b\":1},{\"b\":2}", 2);
+
+        assertTrue(merger.fits(a));
+        merger.add(a);
+        assertFalse(merger.fits(b));
+
+        // A single source is passed through untouched
+        assertSame(a, merger.finish());
+        assertTrue(merger.isEmpty());
+    }
+
+    @Test
+    public void testCorruptBatchIsNotMergeable() {
+        ReportBatch corrupt = new ReportBatch(new byte[]{1, 2, 3},
+                SerializedJSONRows.StorageState.ON_DISK, 1, 1, 1);
+        assertFalse(ReportBatchMerger.isMergeable(corrupt));
+
+        ReportBatch notGeosubmit = new ReportBatch(Zipper.zipData("[1,2,3]".getBytes()),
+                SerializedJSONRows.StorageState.ON_DISK, 1, 1, 1);
+        assertFalse(ReportBatchMerger.isMergeable(notGeosubmit));
+    }
+
+    @Test
+    public void testSourceCorruptPastItsPrefixFailsTheBody() throws Exception {
+        ReportBatch a = makeBatch("{\"a\":1}", 1);
+        ReportBatch good = makeBatch("{\"b\":1},{\"b\":2}", 2);
+        // Only the start of the gzip stream survives
+        ReportBatch truncated = new ReportBatch(Arrays.copyOf(good.data, good.data.length - 8),
+                SerializedJSONRows.StorageState.ON_DISK, 2, 2, 0);
+        ReportBatch unterminated = new ReportBatch(Zipper.zipData("{\"items\":[{}".getBytes()),
+                SerializedJSONRows.StorageState.ON_DISK, 1, 1, 0);
+        assertTrue(ReportBatchMerger.isMergeable(truncated));
+        assertTrue(ReportBatchMerger.isMergeable(unterminated));
+
+        ReportBatchMerger.MergedReportBatch merged = (ReportBatchMerger.MergedReportBatch)
+                ReportBatchMerger.merge(Arrays.asList(a, truncated, unterminated));
+        assertTrue(merged.getCorruptSources().isEmpty());
+        try {
+            writeBody(merged);
+            fail("A truncated source must fail the body");
+        } catch (ReportBatchMerger.CorruptBatchException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList(truncated), merged.getCorruptSources());
+
+        ReportBatchMerger.MergedReportBatch rest = (ReportBatchMerger.MergedReportBatch)
+                ReportBatchMerger.merge(Arrays.asList(a, unterminated));
+        try {
+            writeBody(rest);
+            fail("A source that doesn't close the items array must fail the body");
+        } catch (ReportBatchMerger.CorruptBatchException e) {
+            // expected
+        }
+        assertEquals(Arrays.asList(unterminated), rest.getCorruptSources());
+    }
+}
@@ -0,0 +1,38 @@
+package org.mozilla.mozstumbler.service.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class GzipStreamWriterTest {
+
+    @Test
+    public void testOutputIsReadableByZipper() {
+        GzipStreamWriter writer = new GzipStreamWriter();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            String row = "{\"row\":" + i + "},";
+            expected.append(row);
+            writer.write(row.getBytes());
+        }
+        assertEquals(expected.toString(), Zipper.unzipData(writer.finish()));
+    }
+
+    @Test
+    public void testWriterIsReusedAfterFinish() {
+        GzipStreamWriter writer = new GzipStreamWriter();
+        writer.write("first".getBytes());
+        writer.finish();
+
+        writer.write("second".getBytes());
+        assertEquals("second", Zipper.unzipData(writer.finish()));
+
+        // An empty member is still valid gzip
+        assertEquals("", Zipper.unzipData(writer.finish()));
+    }
+}
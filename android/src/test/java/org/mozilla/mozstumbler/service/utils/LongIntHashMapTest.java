@@ -0,0 +1,43 @@
+package org.mozilla.mozstumbler.service.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class LongIntHashMapTest {
+
+    @Test
+    public void testPutAndGetAcrossRehash() {
+        LongIntHashMap map = new LongIntHashMap(4, -1);
+        for (int i = 0; i < 1000; i++) {
+            map.put(((long) i << 32) | (i * 7), i);
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map.get(((long) i << 32) | (i * 7)));
+        }
+        assertEquals(-1, map.get(12345L));
+        assertFalse(map.containsKey(12345L));
+    }
+
+    @Test
+    public void testOverwrite() {
+        LongIntHashMap map = new LongIntHashMap(16, 0);
+        map.put(-5L, 1);
+        map.put(-5L, 2);
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(-5L));
+        assertTrue(map.containsKey(-5L));
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, map.get(-5L));
+    }
+}
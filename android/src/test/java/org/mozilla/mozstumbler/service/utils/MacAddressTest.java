@@ -0,0 +1,40 @@
+package org.mozilla.mozstumbler.service.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class MacAddressTest {
+
+    @Test
+    public void testParse() {
+        assertEquals(0x0123456789abL, MacAddress.parse("0123456789ab"));
+        assertEquals(0x0123456789abL, MacAddress.parse("01:23:45:67:89:AB"));
+        assertEquals(0x0123456789abL, MacAddress.parse("01-23-45-67-89-ab"));
+        assertEquals(0x0123456789abL, MacAddress.parse("0123.4567.89ab"));
+        assertEquals(0xffffffffffffL, MacAddress.parse("ff:ff:ff:ff:ff:ff"));
+        assertEquals(0L, MacAddress.parse("000000000000"));
+    }
+
+    @Test
+    public void testParseInvalid() {
+        assertEquals(MacAddress.INVALID, MacAddress.parse(null));
+        assertEquals(MacAddress.INVALID, MacAddress.parse(""));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("0123456789a"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("0123456789abc"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("0123456789ag"));
+        assertEquals(MacAddress.INVALID, MacAddress.parse("01 23 45 67 89 ab"));
+    }
+
+    @Test
+    public void testFormat() {
+        assertEquals("0123456789ab", MacAddress.format(0x0123456789abL));
+        assertEquals("000000000000", MacAddress.format(0));
+        assertEquals("ffffffffffff", MacAddress.format(0xffffffffffffL));
+    }
+}
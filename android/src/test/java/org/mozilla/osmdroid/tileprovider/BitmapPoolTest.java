@@ -0,0 +1,91 @@
+package org.mozilla.osmdroid.tileprovider;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class BitmapPoolTest {
+
+    private static Bitmap bitmap(int size) {
+        return Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    }
+
+    private static long bytes(Bitmap b) {
+        return b.getRowBytes() * b.getHeight();
+    }
+
+    @Test
+    public void testObtainsBySizeAndConfig() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap small = bitmap(128);
+        Bitmap large = bitmap(256);
+        pool.put(small);
+        pool.put(large);
+
+        assertNull(pool.obtainSizedBitmapFromPool(256, 256, Bitmap.Config.RGB_565));
+        assertSame(large, pool.obtainSizedBitmapFromPool(256, 256));
+        assertNull(pool.obtainSizedBitmapFromPool(256, 256));
+        assertSame(small, pool.obtainSizedBitmapFromPool(128, 128));
+
+        assertEquals(2, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(0, pool.getSizeBytes());
+    }
+
+    @Test
+    public void testTrimsTheLeastRecentlyReturned() {
+        Bitmap first = bitmap(256);
+        Bitmap second = bitmap(256);
+        Bitmap third = bitmap(256);
+        BitmapPool pool = new BitmapPool(bytes(first) * 2);
+        pool.put(first);
+        pool.put(second);
+        pool.put(third);
+
+        assertEquals(2, pool.getBitmapCount());
+        assertEquals(1, pool.getEvictionCount());
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+        assertTrue(pool.getSizeBytes() <= pool.getMaxSizeBytes());
+
+        // Most recently returned first
+        assertSame(third, pool.obtainSizedBitmapFromPool(256, 256));
+        assertSame(second, pool.obtainSizedBitmapFromPool(256, 256));
+    }
+
+    @Test
+    public void testSkipsRecycledBitmaps() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap recycled = bitmap(256);
+        Bitmap ok = bitmap(256);
+        pool.put(ok);
+        pool.put(recycled);
+        recycled.recycle();
+
+        assertSame(ok, pool.obtainSizedBitmapFromPool(256, 256));
+        assertEquals(0, pool.getBitmapCount());
+    }
+
+    @Test
+    public void testClear() {
+        BitmapPool pool = new BitmapPool(Long.MAX_VALUE);
+        Bitmap b = bitmap(256);
+        pool.put(b);
+        pool.clearBitmapPool();
+
+        assertTrue(b.isRecycled());
+        assertEquals(0, pool.getSizeBytes());
+        assertNull(pool.obtainSizedBitmapFromPool(256, 256));
+    }
+}
@@ -0,0 +1,126 @@
+package org.mozilla.osmdroid.tileprovider;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class LRUMapTileCacheTest {
+
+    private static MapTile tile(int x) {
+        return new MapTile(10, x, 0);
+    }
+
+    private static ReusableBitmapDrawable drawable(byte[] tileData) {
+        ReusableBitmapDrawable drawable =
+                new ReusableBitmapDrawable(Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888));
+        drawable.setTileData(tileData);
+        return drawable;
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LRUMapTileCache cache = new LRUMapTileCache(2, 1000);
+        cache.put(tile(1), drawable(null));
+        cache.put(tile(2), drawable(null));
+        cache.get(tile(1));
+        cache.put(tile(3), drawable(null));
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.containsKey(tile(1)));
+        assertFalse(cache.containsKey(tile(2)));
+        assertTrue(cache.containsKey(tile(3)));
+    }
+
+    @Test
+    public void testGrowingKeepsTiles() {
+        LRUMapTileCache cache = new LRUMapTileCache(2, 1000);
+        ReusableBitmapDrawable first = drawable(null);
+        cache.put(tile(1), first);
+        cache.put(tile(2), drawable(null));
+
+        cache.ensureCapacity(3);
+        assertEquals(3, cache.getCapacity());
+        assertSame(first, cache.get(tile(1)));
+        cache.put(tile(3), drawable(null));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testEvictedTilesKeepTheirBytes() {
+        LRUMapTileCache cache = new LRUMapTileCache(1, 1000);
+        byte[] data = new byte[100];
+        cache.put(tile(1), drawable(data));
+        cache.put(tile(2), drawable(new byte[100]));
+
+        assertFalse(cache.containsKey(tile(1)));
+        // Both the evicted tile and the cached one are counted
+        assertEquals(200, cache.getTileDataBytes());
+        assertSame(data, cache.takeTileData(tile(1)));
+        assertNull(cache.takeTileData(tile(1)));
+        assertEquals(100, cache.getTileDataBytes());
+    }
+
+    @Test
+    public void testCachedTilesCountTheirBytes() {
+        LRUMapTileCache cache = new LRUMapTileCache(3, 1000);
+        ReusableBitmapDrawable drawable = drawable(new byte[100]);
+        cache.put(tile(1), drawable);
+        // The cache holds the bytes now, not the drawable
+        assertNull(drawable.getTileData());
+        assertEquals(100, cache.getTileDataBytes());
+
+        // Replacing a tile replaces its bytes
+        cache.put(tile(1), drawable(new byte[50]));
+        assertEquals(50, cache.getTileDataBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getTileDataBytes());
+    }
+
+    @Test
+    public void testCachedTilesStayWithinBudget() {
+        LRUMapTileCache cache = new LRUMapTileCache(3, 250);
+        for (int i = 0; i < 3; i++) {
+            cache.put(tile(i), drawable(new byte[100]));
+        }
+
+        // The oldest tiles drop their bytes but stay cached
+        assertEquals(3, cache.size());
+        assertTrue(cache.getTileDataBytes() <= 250);
+
+        // So only the newest is kept when they are evicted
+        for (int i = 3; i < 6; i++) {
+            cache.put(tile(i), drawable(null));
+        }
+        assertNull(cache.takeTileData(tile(0)));
+        assertEquals(100, cache.takeTileData(tile(2)).length);
+    }
+
+    @Test
+    public void testTileBytesStayWithinBudget() {
+        LRUMapTileCache cache = new LRUMapTileCache(1, 250);
+        for (int i = 0; i < 5; i++) {
+            cache.put(tile(i), drawable(new byte[100]));
+        }
+
+        assertTrue(cache.getTileDataBytes() <= 250);
+        // The most recently evicted tile is kept
+        assertEquals(100, cache.takeTileData(tile(3)).length);
+        assertNull(cache.takeTileData(tile(0)));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTileDataBytes());
+    }
+}
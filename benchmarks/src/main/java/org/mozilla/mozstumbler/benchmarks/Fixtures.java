@@ -0,0 +1,134 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.benchmarks;
+
+import org.json.JSONException;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.BundleRecords;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.MLSJSONObject;
+import org.mozilla.mozstumbler.service.utils.MacAddress;
+import org.mozilla.mozstumbler.svclocator.ServiceConfig;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.JavaSystemClock;
+import org.mozilla.mozstumbler.svclocator.services.log.ConsoleLogger;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ Synthetic data shaped like what the stumbler produces on a device. Everything is generated
+ from a seeded Random, so runs are comparable across commits.
+ */
+public final class Fixtures {
+    public static final long SEED = 0x5eedL;
+    // StumblerBundle.MAX_WIFIS_PER_LOCATION
+    private static final int MAX_WIFIS = 200;
+
+    private Fixtures() {
+    }
+
+    /*
+     Bind the services the stumbler code looks up, as MainApp does on a device.
+     */
+    public static void installServices() {
+        ServiceConfig config = new ServiceConfig();
+        config.put(ILogger.class, new ConsoleLogger());
+        config.put(ISystemClock.class, new JavaSystemClock());
+        ServiceLocator.newRoot(config);
+    }
+
+    /*
+     A BSSID as a device reports it: canonical, or with delimiters and upper case digits.
+     */
+    public static String bssid(Random random, boolean canonical) {
+        final long mac = random.nextLong() & 0xffffffffffffL;
+        if (canonical) {
+            return String.format(Locale.US, "%012x", mac);
+        }
+        StringBuilder sb = new StringBuilder(17);
+        for (int i = 5; i >= 0; i--) {
+            sb.append(String.format(Locale.US, "%02X", (mac >>> (i * 8)) & 0xff));
+            if (i > 0) {
+                sb.append(':');
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     The raw values of one report, as the scanners hand them to StumblerBundle.
+     */
+    public static final class Observation {
+        public double latitude;
+        public double longitude;
+        public long time;
+        public float heading;
+        public float speed;
+        public float altitude;
+        public float accuracy;
+        public String[] bssids;
+        public int[] frequencies;
+        public int[] wifiLevels;
+        public int[] cellIds;
+        public int[] areaCodes;
+        public int[] cellLevels;
+    }
+
+    public static Observation observation(Random random, int wifiCount, int cellCount) {
+        Observation o = new Observation();
+        o.latitude = 43.0 + random.nextDouble();
+        o.longitude = -79.0 - random.nextDouble();
+        o.time = 1400000000000L + random.nextInt(1000000000);
+        o.heading = random.nextFloat() * 360;
+        o.speed = random.nextFloat() * 30;
+        o.altitude = 100 + random.nextFloat() * 50;
+        o.accuracy = 5 + random.nextFloat() * 20;
+
+        o.bssids = new String[wifiCount];
+        o.frequencies = new int[wifiCount];
+        o.wifiLevels = new int[wifiCount];
+        for (int i = 0; i < wifiCount; i++) {
+            o.bssids[i] = bssid(random, true);
+            o.frequencies[i] = random.nextBoolean() ? 2412 + 5 * random.nextInt(13) : 5180 + 20 * random.nextInt(8);
+            o.wifiLevels[i] = -40 - random.nextInt(55);
+        }
+
+        o.cellIds = new int[cellCount];
+        o.areaCodes = new int[cellCount];
+        o.cellLevels = new int[cellCount];
+        for (int i = 0; i < cellCount; i++) {
+            o.cellIds[i] = random.nextInt(1 << 28);
+            o.areaCodes[i] = random.nextInt(1 << 16);
+            o.cellLevels[i] = -50 - random.nextInt(60);
+        }
+        return o;
+    }
+
+    /*
+     The observation as the StumblerBundle records it, through the same BundleRecords calls.
+     */
+    public static BundleRecords toRecords(Observation o) {
+        BundleRecords records = new BundleRecords(MAX_WIFIS);
+        records.setFix(o.latitude, o.longitude, o.time, o.heading, o.speed);
+        records.setAltitude(o.altitude);
+        records.setAccuracy(o.accuracy);
+        for (int i = 0; i < o.bssids.length; i++) {
+            records.addWifi(MacAddress.parse(o.bssids[i]), o.bssids[i], o.frequencies[i], o.wifiLevels[i],
+                    BundleRecords.NO_AGE);
+        }
+        for (int i = 0; i < o.cellIds.length; i++) {
+            // CellInfo.getCellIdentity()
+            final String key = "lte 302 720 " + o.areaCodes[i] + " " + o.cellIds[i] + " -1";
+            records.addCell(key, "lte", 302, 720, o.areaCodes[i], o.cellIds[i], -1,
+                    o.cellLevels[i], -1, -1);
+        }
+        return records;
+    }
+
+    public static MLSJSONObject geosubmit(Random random, int wifiCount, int cellCount) throws JSONException {
+        return toRecords(observation(random, wifiCount, cellCount)).toMLSGeosubmit();
+    }
+}
@@ -0,0 +1,128 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.offline;
+
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ LocationService.locate(): the TileSearch and TileScorer it runs, and the coordinates of the
+ winning tile from the memory mapped OrderedCityTiles. The marisa trie is a JNI library built
+ for Android, so a HashMap of BSSID to tile ids stands in for it as the TileIndex; the lookups
+ are a small part of a query next to the scoring.
+
+ The city is CITY_SIZE x CITY_SIZE tiles. Each query is bssidsPerQuery access points seen
+ around one spot, each of them known in a few tiles near it, with some noise tiles further out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationSearchBenchmark {
+    private static final int CITY_SIZE = 200;
+    private static final int QUERY_COUNT = 256;
+
+    @Param({"5", "20", "60"})
+    public int bssidsPerQuery;
+
+    private final Map<String, int[]> mTrie = new HashMap<String, int[]>();
+    private List<List<String>> mQueries;
+    private OrderedCityTiles mCityTiles;
+    private TileSearch mSearch;
+    private int mNext;
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.installServices();
+
+        File dir = File.createTempFile("citytiles", "bench");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        File csv = new File(dir, OrderedCityTiles.ORDERED_CITY_CSV);
+        csv.deleteOnExit();
+        new File(dir, OrderedCityTiles.ORDERED_CITY_INDEX).deleteOnExit();
+        FileWriter writer = new FileWriter(csv);
+        try {
+            for (int y = 0; y < CITY_SIZE; y++) {
+                for (int x = 0; x < CITY_SIZE; x++) {
+                    writer.write(x + ", " + y + "\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        mCityTiles = new OrderedCityTiles(csv);
+        mSearch = new TileSearch(new TileSearch.TileIndex() {
+            @Override
+            public void addHits(String bssid, TileScorer.Accumulator points) {
+                final int[] tiles = mTrie.get(bssid);
+                if (tiles == null) {
+                    return;
+                }
+                for (int tile_id : tiles) {
+                    points.addHit(tile_id);
+                }
+            }
+        }, new TileScorer(mCityTiles));
+
+        Random random = new Random(Fixtures.SEED);
+        mQueries = new ArrayList<List<String>>(QUERY_COUNT);
+        for (int q = 0; q < QUERY_COUNT; q++) {
+            final int cx = 2 + random.nextInt(CITY_SIZE - 4);
+            final int cy = 2 + random.nextInt(CITY_SIZE - 4);
+            final List<String> query = new ArrayList<String>(bssidsPerQuery);
+            for (int i = 0; i < bssidsPerQuery; i++) {
+                final String bssid = Fixtures.bssid(random, true);
+                final int[] tiles = new int[1 + random.nextInt(4)];
+                for (int t = 0; t < tiles.length; t++) {
+                    if (t == tiles.length - 1 && random.nextInt(4) == 0) {
+                        // Seen somewhere else entirely, i.e. an AP that moved
+                        tiles[t] = random.nextInt(CITY_SIZE * CITY_SIZE);
+                    } else {
+                        tiles[t] = (cy + random.nextInt(5) - 2) * CITY_SIZE + (cx + random.nextInt(5) - 2);
+                    }
+                }
+                mTrie.put(bssid, tiles);
+                query.add(bssid);
+            }
+            mQueries.add(query);
+        }
+    }
+
+    @Benchmark
+    public SmartTile locate() {
+        final List<String> query = mQueries.get(mNext);
+        mNext = (mNext + 1) % QUERY_COUNT;
+
+        final int tile_id = mSearch.locateTile(query);
+        if (tile_id == TileScorer.NO_SOLUTION) {
+            return null;
+        }
+        return mCityTiles.getCoord(tile_id);
+    }
+}
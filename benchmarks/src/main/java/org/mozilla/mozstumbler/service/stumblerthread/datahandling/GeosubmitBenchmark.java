@@ -0,0 +1,78 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
+
+import org.json.JSONException;
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ The cost of a report between the scanners and storage. record is StumblerBundle filling its
+ BundleRecords from a scan, build is StumblerBundle.toMLSGeosubmit(). serialize and addRow are
+ what DataStorageManager.insert() then does with the report.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeosubmitBenchmark {
+
+    @Param({"5", "30"})
+    public int wifis;
+
+    private Fixtures.Observation mObservation;
+    private BundleRecords mRecords;
+    private MLSJSONObject mReport;
+    private byte[] mSerialized;
+    private ReportBatchBuilder mBuilder;
+
+    @Setup
+    public void setUp() throws JSONException {
+        Fixtures.installServices();
+        mObservation = Fixtures.observation(new Random(Fixtures.SEED), wifis, 2);
+        mRecords = Fixtures.toRecords(mObservation);
+        mReport = mRecords.toMLSGeosubmit();
+        mSerialized = mReport.toString().getBytes();
+        mBuilder = new ReportBatchBuilder();
+    }
+
+    @Benchmark
+    public BundleRecords record() {
+        return Fixtures.toRecords(mObservation);
+    }
+
+    @Benchmark
+    public MLSJSONObject build() throws JSONException {
+        return mRecords.toMLSGeosubmit();
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return mReport.toString().getBytes();
+    }
+
+    @Benchmark
+    public boolean addRow() {
+        if (mBuilder.entriesCount() == ReportBatchBuilder.MAX_ROWS_IN_MEMORY) {
+            mBuilder.finalizeToJSONRowsObject();
+        }
+        return mBuilder.addRow(mReport, mSerialized);
+    }
+}
@@ -0,0 +1,74 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Filling a builder with a full batch of reports and finalizing it, as
+ JSONRowsStorageManager.insertRow() and saveAllInMemoryToDisk() do, in both the queued and
+ the streaming mode. peek measures generateJSON(true), which the developer screens use to show
+ the pending rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JSONRowsObjectBuilderBenchmark {
+
+    @Param({"false", "true"})
+    public boolean streamRows;
+
+    private final JSONObject[] mRows = new JSONObject[JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY];
+    private final byte[][] mSerializedRows = new byte[JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY][];
+    private JSONRowsObjectBuilder mFullBuilder;
+
+    @Setup
+    public void setUp() throws JSONException {
+        Fixtures.installServices();
+        Random random = new Random(Fixtures.SEED);
+        for (int i = 0; i < mRows.length; i++) {
+            mRows[i] = Fixtures.geosubmit(random, 20, 2);
+            mSerializedRows[i] = mRows[i].toString().getBytes();
+        }
+
+        mFullBuilder = new JSONRowsObjectBuilder(false);
+        for (JSONObject row : mRows) {
+            mFullBuilder.addRow(row);
+        }
+    }
+
+    @Benchmark
+    public SerializedJSONRows fillAndFinalize() {
+        JSONRowsObjectBuilder builder = new JSONRowsObjectBuilder(streamRows);
+        for (int i = 0; i < mRows.length; i++) {
+            builder.addRow(mRows[i], mSerializedRows[i]);
+        }
+        return builder.finalizeToJSONRowsObject();
+    }
+
+    @Benchmark
+    public String peek() {
+        return mFullBuilder.generateJSON(true);
+    }
+}
@@ -0,0 +1,88 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ The observation points overlay's grid: hashing a session's points into buckets for one zoom
+ level, and the viewport query made on every draw.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketGridBenchmark {
+
+    // Projected pixels at the maximum zoom level, about a city across
+    private static final long AREA = 1L << 24;
+    // A dot of 10px at zoom 15, in pixels at zoom 22
+    private static final long BUCKET_SIZE = 10L << 7;
+    // A 1080x1920 screen at zoom 15
+    private static final long VIEW_WIDTH = 1080L << 7;
+    private static final long VIEW_HEIGHT = 1920L << 7;
+
+    // Observation points in the session
+    @Param({"1000", "50000"})
+    public int points;
+
+    private long[] mX;
+    private long[] mY;
+    private BucketGrid<long[]> mGrid;
+    private final ArrayList<long[]> mOut = new ArrayList<long[]>();
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0x5eedL);
+        mX = new long[points];
+        mY = new long[points];
+        for (int i = 0; i < points; i++) {
+            mX[i] = AREA + (long) (random.nextDouble() * AREA);
+            mY[i] = AREA + (long) (random.nextDouble() * AREA);
+        }
+        mGrid = build();
+    }
+
+    private BucketGrid<long[]> build() {
+        BucketGrid<long[]> grid = new BucketGrid<long[]>(BUCKET_SIZE);
+        for (int i = 0; i < points; i++) {
+            if (grid.get(mX[i], mY[i]) == null) {
+                grid.put(mX[i], mY[i], new long[] {mX[i], mY[i]});
+            }
+        }
+        return grid;
+    }
+
+    @Benchmark
+    public BucketGrid<long[]> hash() {
+        return build();
+    }
+
+    @Benchmark
+    public int query() {
+        // Pan across the area, one viewport per call
+        final int i = mNext++ % points;
+        mOut.clear();
+        mGrid.query(mX[i], mY[i], mX[i] + VIEW_WIDTH, mY[i] + VIEW_HEIGHT, mOut);
+        return mOut.size();
+    }
+}
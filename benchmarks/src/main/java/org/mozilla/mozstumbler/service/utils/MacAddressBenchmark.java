@@ -0,0 +1,68 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ BSSID canonicalization, as WifiScanner does for every scan result through
+ BSSIDBlockList.canonicalizeBSSID().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacAddressBenchmark {
+    private static final int COUNT = 1024;
+
+    private final String[] mCanonical = new String[COUNT];
+    private final String[] mDelimited = new String[COUNT];
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(Fixtures.SEED);
+        for (int i = 0; i < COUNT; i++) {
+            mCanonical[i] = Fixtures.bssid(random, true);
+            mDelimited[i] = Fixtures.bssid(random, false);
+        }
+    }
+
+    private int next() {
+        final int i = mNext;
+        mNext = (i + 1) % COUNT;
+        return i;
+    }
+
+    @Benchmark
+    public String canonicalizeCanonical() {
+        return MacAddress.canonicalize(mCanonical[next()]);
+    }
+
+    @Benchmark
+    public String canonicalizeDelimited() {
+        return MacAddress.canonicalize(mDelimited[next()]);
+    }
+
+    @Benchmark
+    public long parse() {
+        return MacAddress.parse(mDelimited[next()]);
+    }
+}
@@ -0,0 +1,67 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+import org.json.JSONException;
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Gzipping a batch of reports for storage and upload, and reading it back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZipperBenchmark {
+
+    // Reports per batch, JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY is the usual size
+    @Param({"1", "50"})
+    public int rows;
+
+    private byte[] mJSON;
+    private byte[] mZipped;
+
+    @Setup
+    public void setUp() throws JSONException {
+        Fixtures.installServices();
+        Random random = new Random(Fixtures.SEED);
+        StringBuilder sb = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(Fixtures.geosubmit(random, 20, 2).toString());
+        }
+        sb.append("]}");
+        mJSON = sb.toString().getBytes();
+        mZipped = Zipper.zipData(mJSON);
+    }
+
+    @Benchmark
+    public byte[] zipData() {
+        return Zipper.zipData(mJSON);
+    }
+
+    @Benchmark
+    public String unzipData() {
+        return Zipper.unzipData(mZipped);
+    }
+}
@@ -0,0 +1,63 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.svclocator;
+
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.JavaSystemClock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/*
+ A clock read through the ServiceLocator, as LocationChangeSensor and the storage managers do
+ it, against calling the clock directly and against the reflective proxy other services get.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceLocatorBenchmark {
+    private ISystemClock mDirect;
+    private ISystemClock mBound;
+    private ISystemClock mProxied;
+
+    @Setup
+    public void setUp() {
+        Fixtures.installServices();
+        mDirect = new JavaSystemClock();
+        mBound = (ISystemClock) ServiceLocator.getInstance().getService(ISystemClock.class);
+        mProxied = (ISystemClock) Proxy.newProxyInstance(ISystemClock.class.getClassLoader(),
+                new Class<?>[]{ISystemClock.class},
+                new DynamicProxy(ISystemClock.class));
+    }
+
+    @Benchmark
+    public long direct() {
+        return mDirect.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long bound() {
+        return mBound.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long proxied() {
+        return mProxied.currentTimeMillis();
+    }
+}
@@ -0,0 +1,83 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.osmdroid.tileprovider.modules;
+
+import org.mozilla.mozstumbler.benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ Reading and writing the map tile cache files, as the tile loader does for every tile drawn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializableTileBenchmark {
+
+    // Size of the PNG, a sparse coverage tile is small and a street map tile is larger
+    @Param({"2048", "32768"})
+    public int tileBytes;
+
+    private byte[] mTileData;
+    private byte[] mFileBytes;
+    private File mFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        Fixtures.installServices();
+        mTileData = new byte[tileBytes];
+        new Random(Fixtures.SEED).nextBytes(mTileData);
+        mFile = File.createTempFile("tile", ".png.merge");
+        SerializableTile tile = new SerializableTile(mTileData, "\"5b1d5c1f-1d34\"");
+        tile.saveFile(mFile);
+        mFileBytes = new byte[(int) mFile.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+        try {
+            in.readFully(mFileBytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public boolean parse() {
+        return new SerializableTile(mTileData, null).fromBytes(mFileBytes);
+    }
+
+    @Benchmark
+    public boolean load() {
+        return new SerializableTile(mTileData, null).fromFile(mFile);
+    }
+
+    @Benchmark
+    public boolean save() {
+        return new SerializableTile(mTileData, "\"5b1d5c1f-1d34\"").saveFile(mFile);
+    }
+}
@@ -0,0 +1,170 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ A fixed size, lock-free histogram of non-negative values, in the style of HdrHistogram:
+ values below SUB_BUCKETS get a bucket each, above that every power of two is split into
+ SUB_BUCKETS linear buckets, so any value is reported to within 1/SUB_BUCKETS (6.25%) of itself.
+
+ record() is a handful of atomic adds and never allocates, so it is cheap enough for the
+ stumbler thread and the upload loop. Values above MAX_TRACKABLE_VALUE are counted in the
+ last bucket, min, max and the sum are always exact.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^36 microseconds is about 19 hours, 2^36 bytes is 64 GB
+    private static final int MAX_MAGNITUDE = 36;
+    public static final long MAX_TRACKABLE_VALUE = (1L << MAX_MAGNITUDE) - 1;
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        if (value > MAX_TRACKABLE_VALUE) {
+            return BUCKET_COUNT - 1;
+        }
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    // The highest value that lands in the bucket
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    /*
+     Negative values are counted as 0, i.e. for a clock that stepped backwards.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(bucketIndex(value));
+        mSum.addAndGet(value);
+
+        long min = mMin.get();
+        while (value < min && !mMin.compareAndSet(min, value)) {
+            min = mMin.get();
+        }
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mSum.set(0);
+        mMin.set(Long.MAX_VALUE);
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    /*
+     Values recorded while the snapshot is taken may or may not be in it, and may be in the
+     buckets but not yet in the sum; this is fine for monitoring.
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mBuckets.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return Snapshot.EMPTY;
+        }
+        return new Snapshot(counts, count, mSum.get(), mMin.get(), mMax.get());
+    }
+
+    public static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(null, 0, 0, 0, 0);
+
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+
+        Snapshot(long[] counts, long count, long sum, long min, long max) {
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMin = min;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMin() {
+            return mMin;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        /*
+         The smallest bucket bound at or below which percentile % of the values fall, e.g.
+         getValueAtPercentile(99) is the p99. Never more than the max, 0 if there are no values.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            final double p = Math.min(Math.max(percentile, 0), 100);
+            final long rank = Math.max(1, (long) Math.ceil(p / 100 * mCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.max(mMin, Math.min(bucketUpperBound(i), mMax));
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            if (mCount == 0) {
+                return "n=0";
+            }
+            return "n=" + mCount +
+                    " p50=" + getValueAtPercentile(50) +
+                    " p90=" + getValueAtPercentile(90) +
+                    " p99=" + getValueAtPercentile(99) +
+                    " max=" + mMax;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.metrics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ The values of every PipelineMetrics metric at one point in time. Names are kept sorted, which
+ lists the stages in pipeline order.
+
+ Metrics that were never looked up read as 0 or as an empty histogram.
+ */
+public class MetricsSnapshot {
+    final TreeMap<String, Long> mCounters = new TreeMap<String, Long>();
+    final TreeMap<String, Long> mGauges = new TreeMap<String, Long>();
+    final TreeMap<String, LatencyHistogram.Snapshot> mHistograms =
+            new TreeMap<String, LatencyHistogram.Snapshot>();
+
+    MetricsSnapshot() {
+    }
+
+    public long getCounter(String name) {
+        final Long value = mCounters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    public long getGauge(String name) {
+        final Long value = mGauges.get(name);
+        return value == null ? 0 : value;
+    }
+
+    public LatencyHistogram.Snapshot getHistogram(String name) {
+        final LatencyHistogram.Snapshot value = mHistograms.get(name);
+        return value == null ? LatencyHistogram.Snapshot.EMPTY : value;
+    }
+
+    public Set<String> getCounterNames() {
+        return mCounters.keySet();
+    }
+
+    public Set<String> getGaugeNames() {
+        return mGauges.keySet();
+    }
+
+    public Set<String> getHistogramNames() {
+        return mHistograms.keySet();
+    }
+
+    /*
+     One metric per line, for the developer options and the logs.
+     */
+    @Override
+    public String toString() {
+        final TreeMap<String, String> lines = new TreeMap<String, String>();
+        for (Map.Entry<String, Long> e : mCounters.entrySet()) {
+            lines.put(e.getKey(), String.valueOf(e.getValue()));
+        }
+        for (Map.Entry<String, Long> e : mGauges.entrySet()) {
+            lines.put(e.getKey(), String.valueOf(e.getValue()));
+        }
+        for (Map.Entry<String, LatencyHistogram.Snapshot> e : mHistograms.entrySet()) {
+            lines.put(e.getKey(), e.getValue().toString());
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> line : lines.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(line.getKey()).append(": ").append(line.getValue());
+        }
+        return sb.toString();
+    }
+}
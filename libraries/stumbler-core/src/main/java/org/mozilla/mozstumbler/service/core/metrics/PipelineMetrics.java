@@ -0,0 +1,175 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ Counters, gauges and latency histograms for each stage of the stumbler pipeline:
+ scanner -> ObservationBus -> Reporter -> storage -> upload.
+
+ Instrumented code looks its metrics up once, i.e. into a static final field, and updates
+ them without locking. Metrics are created on first lookup and are never removed, reset()
+ zeroes them in place so the references stay valid.
+
+ Names are prefixed with their stage, and suffixed with their unit where they have one.
+ */
+public class PipelineMetrics {
+
+    // Time a scanner result spends queued for the stumbler thread, before the Reporter has it
+    public static final String BUS_QUEUE_WAIT_US = "bus.queue_wait_us";
+    public static final String BUS_EVENTS_DROPPED = "bus.events_dropped";
+
+    // Reporter.flush(), and the toMLSGeosubmit() part of it
+    public static final String REPORTER_FLUSH_US = "reporter.flush_us";
+    public static final String REPORTER_GEOSUBMIT_US = "reporter.geosubmit_us";
+    public static final String REPORTER_REPORTS = "reporter.reports";
+
+    // From the first row of a batch being added to the batch being written out or uploaded
+    public static final String STORAGE_IN_MEMORY_MS = "storage.in_memory_ms";
+    public static final String STORAGE_SAVE_US = "storage.save_us";
+    public static final String STORAGE_SAVE_BYTES = "storage.save_bytes";
+    public static final String STORAGE_READ_US = "storage.read_us";
+    public static final String STORAGE_BYTES_ON_DISK = "storage.bytes_on_disk";
+
+    public static final String UPLOAD_POST_US = "upload.post_us";
+    public static final String UPLOAD_BYTES_PER_OBSERVATION = "upload.bytes_per_observation";
+    public static final String UPLOAD_BYTES = "upload.bytes";
+    public static final String UPLOAD_FAILURES = "upload.failures";
+
+    // ScanCadence, scan counts are since scanning last started
+    public static final String SCAN_NOVELTY_PCT = "scan.novelty_pct";
+    public static final String SCAN_WIFI_INTERVAL_MS = "scan.wifi_interval_ms";
+    public static final String SCAN_WIFI_SCANS = "scan.wifi_scans";
+    public static final String SCAN_WIFI_SCANS_SAVED = "scan.wifi_scans_saved";
+    public static final String SCAN_CELL_INTERVAL_MS = "scan.cell_interval_ms";
+    public static final String SCAN_CELL_SCANS = "scan.cell_scans";
+    public static final String SCAN_CELL_SCANS_SAVED = "scan.cell_scans_saved";
+    public static final String SCAN_NEW_APS = "scan.new_aps";
+
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            mValue.addAndGet(delta);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        void reset() {
+            mValue.set(0);
+        }
+    }
+
+    public static class Gauge {
+        private volatile long mValue;
+
+        public void set(long value) {
+            mValue = value;
+        }
+
+        public long get() {
+            return mValue;
+        }
+
+        void reset() {
+            mValue = 0;
+        }
+    }
+
+    private static PipelineMetrics sInstance;
+
+    private final ConcurrentHashMap<String, Counter> mCounters = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentHashMap<String, Gauge> mGauges = new ConcurrentHashMap<String, Gauge>();
+    private final ConcurrentHashMap<String, LatencyHistogram> mHistograms =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public static synchronized PipelineMetrics getInstance() {
+        if (sInstance == null) {
+            sInstance = new PipelineMetrics();
+        }
+        return sInstance;
+    }
+
+    PipelineMetrics() {
+    }
+
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            final Counter created = new Counter();
+            counter = mCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = mGauges.get(name);
+        if (gauge == null) {
+            final Gauge created = new Gauge();
+            gauge = mGauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            final LatencyHistogram created = new LatencyHistogram();
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    public MetricsSnapshot snapshot() {
+        final MetricsSnapshot snapshot = new MetricsSnapshot();
+        for (Map.Entry<String, Counter> e : mCounters.entrySet()) {
+            snapshot.mCounters.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> e : mGauges.entrySet()) {
+            snapshot.mGauges.put(e.getKey(), e.getValue().get());
+        }
+        for (Map.Entry<String, LatencyHistogram> e : mHistograms.entrySet()) {
+            snapshot.mHistograms.put(e.getKey(), e.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    public void reset() {
+        for (Counter counter : mCounters.values()) {
+            counter.reset();
+        }
+        for (Gauge gauge : mGauges.values()) {
+            gauge.reset();
+        }
+        for (LatencyHistogram histogram : mHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /*
+     Microseconds since startNs, a System.nanoTime() reading.
+     */
+    public static long microsSince(long startNs) {
+        return (System.nanoTime() - startNs) / 1000;
+    }
+}
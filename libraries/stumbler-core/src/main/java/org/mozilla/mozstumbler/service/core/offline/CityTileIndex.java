@@ -0,0 +1,269 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.offline;
+
+import org.mozilla.mozstumbler.service.utils.LongIntHashMap;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ Binary form of ordered_city.csv, meant to be memory mapped instead of parsed.
+
+ Layout, all values big endian:
+
+   int    magic ("MZCT")
+   int    version
+   int    tileCount
+   int    keyCount
+   int    x[tileCount]       tile x by tile id
+   int    y[tileCount]       tile y by tile id
+   long   key[keyCount]      packed (x,y), sorted ascending
+   int    tileId[keyCount]   tile id of each key
+
+ Tile id -> co-ordinates is array access, co-ordinates -> tile id is a binary search over
+ the sorted keys. If a co-ordinate appears on more than one line of the CSV, the last line
+ wins, as it always did.
+ */
+public class CityTileIndex {
+    public static final int MAGIC = 0x4D5A4354;
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final IntBuffer mTileX;
+    private final IntBuffer mTileY;
+    private final LongBuffer mKeys;
+    private final IntBuffer mKeyTileIds;
+    private final int mTileCount;
+    private final int mKeyCount;
+
+    private CityTileIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a city tile index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported city tile index version " + buffer.getInt(4));
+        }
+        mTileCount = buffer.getInt(8);
+        mKeyCount = buffer.getInt(12);
+        if (mTileCount < 0 || mKeyCount < 0 || buffer.capacity() != sizeOf(mTileCount, mKeyCount)) {
+            throw new IOException("Truncated city tile index");
+        }
+
+        int offset = HEADER_SIZE;
+        mTileX = slice(buffer, offset, mTileCount * 4).asIntBuffer();
+        offset += mTileCount * 4;
+        mTileY = slice(buffer, offset, mTileCount * 4).asIntBuffer();
+        offset += mTileCount * 4;
+        mKeys = slice(buffer, offset, mKeyCount * 8).asLongBuffer();
+        offset += mKeyCount * 8;
+        mKeyTileIds = slice(buffer, offset, mKeyCount * 4).asIntBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice();
+    }
+
+    private static long sizeOf(int tileCount, int keyCount) {
+        return HEADER_SIZE + tileCount * 8L + keyCount * 12L;
+    }
+
+    /*
+     Memory map an index file written by write() or convert().
+     */
+    public static CityTileIndex load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // The mapping stays valid after the channel is closed.
+            return new CityTileIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /*
+     Build an index on the heap, for when it can't be written to disk.
+     */
+    public static CityTileIndex fromTiles(int[] tileX, int[] tileY, int tileCount) {
+        try {
+            return new CityTileIndex(encode(tileX, tileY, tileCount));
+        } catch (IOException e) {
+            // We just encoded it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void write(File file, int[] tileX, int[] tileY, int tileCount) throws IOException {
+        final ByteBuffer buffer = encode(tileX, tileY, tileCount);
+        final File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.getChannel().write(buffer);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp.getName());
+        }
+    }
+
+    /*
+     Convert ordered_city.csv to the binary format.
+     */
+    public static void convert(File csv, File index) throws IOException {
+        TileList tiles = readCsv(csv);
+        write(index, tiles.tileX, tiles.tileY, tiles.count);
+    }
+
+    /*
+     Command line converter, so the index can be built with the rest of the offline data:
+     java ...CityTileIndex ordered_city.csv ordered_city.bin
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CityTileIndex <ordered_city.csv> <ordered_city.bin>");
+            System.exit(1);
+        }
+        convert(new File(args[0]), new File(args[1]));
+    }
+
+    static class TileList {
+        int[] tileX = new int[1024];
+        int[] tileY = new int[1024];
+        int count;
+
+        void add(int x, int y) {
+            if (count == tileX.length) {
+                tileX = Arrays.copyOf(tileX, count * 2);
+                tileY = Arrays.copyOf(tileY, count * 2);
+            }
+            tileX[count] = x;
+            tileY[count] = y;
+            count++;
+        }
+    }
+
+    /*
+     Each line is "x, y", like SmartTile(String) any further columns are ignored. The line
+     number is the tile id.
+     */
+    static TileList readCsv(File csv) throws IOException {
+        TileList tiles = new TileList();
+        BufferedReader reader = new BufferedReader(new FileReader(csv));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int comma = line.indexOf(',');
+                if (comma < 0) {
+                    throw new IOException("Bad line " + (tiles.count + 1) + " in " + csv.getName());
+                }
+                int end = line.indexOf(',', comma + 1);
+                if (end < 0) {
+                    end = line.length();
+                }
+                try {
+                    tiles.add(Integer.parseInt(line.substring(0, comma).trim()),
+                              Integer.parseInt(line.substring(comma + 1, end).trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad line " + (tiles.count + 1) + " in " + csv.getName());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return tiles;
+    }
+
+    private static ByteBuffer encode(int[] tileX, int[] tileY, int tileCount) {
+        // Last line wins for duplicate co-ordinates
+        final LongIntHashMap idByKey = new LongIntHashMap(tileCount, -1);
+        for (int i = 0; i < tileCount; i++) {
+            idByKey.put(packCoord(tileX[i], tileY[i]), i);
+        }
+        final int keyCount = idByKey.size();
+        final long[] keys = new long[keyCount];
+        int k = 0;
+        for (int i = 0; i < tileCount; i++) {
+            final long key = packCoord(tileX[i], tileY[i]);
+            if (idByKey.get(key) == i) {
+                keys[k++] = key;
+            }
+        }
+        Arrays.sort(keys);
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) sizeOf(tileCount, keyCount));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(tileCount).putInt(keyCount);
+        for (int i = 0; i < tileCount; i++) {
+            buffer.putInt(tileX[i]);
+        }
+        for (int i = 0; i < tileCount; i++) {
+            buffer.putInt(tileY[i]);
+        }
+        for (long key : keys) {
+            buffer.putLong(key);
+        }
+        for (long key : keys) {
+            buffer.putInt(idByKey.get(key));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static long packCoord(int tile_x, int tile_y) {
+        return ((long) tile_x << 32) | (tile_y & 0xffffffffL);
+    }
+
+    public int size() {
+        return mTileCount;
+    }
+
+    public boolean isValidTileID(int tile_id) {
+        return tile_id >= 0 && tile_id < mTileCount;
+    }
+
+    public int getTileX(int tile_id) {
+        return mTileX.get(tile_id);
+    }
+
+    public int getTileY(int tile_id) {
+        return mTileY.get(tile_id);
+    }
+
+    /*
+     Returns -1 if there is no such tile.
+     */
+    public int getTileID(int tile_x, int tile_y) {
+        final long key = packCoord(tile_x, tile_y);
+        int low = 0;
+        int high = mKeyCount - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midKey = mKeys.get(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mKeyTileIds.get(mid);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,109 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.offline;
+
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+ The tiles of the offline city, in the order of ordered_city.csv. The line number of a tile
+ is its tile id.
+
+ The tiles are read from a memory mapped CityTileIndex (ordered_city.bin). When that is
+ missing or older than the CSV, the CSV is converted once, so later startups only map the
+ binary file.
+ */
+public class OrderedCityTiles {
+
+    public static final String ORDERED_CITY_CSV = "ordered_city.csv";
+    public static final String ORDERED_CITY_INDEX = "ordered_city.bin";
+    private static ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(OrderedCityTiles.class);
+
+    private static final CityTileIndex EMPTY_INDEX = CityTileIndex.fromTiles(new int[0], new int[0], 0);
+
+    private final CityTileIndex mIndex;
+
+    /*
+     csv is the ORDERED_CITY_CSV file, the binary index is kept next to it.
+     */
+    public OrderedCityTiles(File csv) {
+        mIndex = loadIndex(csv, new File(csv.getParentFile(), ORDERED_CITY_INDEX));
+    }
+
+    private static CityTileIndex loadIndex(File csv, File indexFile) {
+        final boolean hasCsv = csv.exists();
+        if (indexFile.exists() && (!hasCsv || indexFile.lastModified() >= csv.lastModified())) {
+            try {
+                return CityTileIndex.load(indexFile);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Can't load " + indexFile.getName() + ": " + e.toString());
+            }
+        }
+
+        if (!hasCsv) {
+            Log.e(LOG_TAG, "Can't open file", new IOException(csv.getPath() + " not found"));
+            return EMPTY_INDEX;
+        }
+
+        CityTileIndex.TileList tiles;
+        try {
+            tiles = CityTileIndex.readCsv(csv);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Can't read " + csv.getName(), e);
+            return EMPTY_INDEX;
+        }
+
+        try {
+            CityTileIndex.write(indexFile, tiles.tileX, tiles.tileY, tiles.count);
+            return CityTileIndex.load(indexFile);
+        } catch (IOException e) {
+            // Read only storage, just keep the index on the heap.
+            Log.w(LOG_TAG, "Can't write " + indexFile.getName() + ": " + e.toString());
+            return CityTileIndex.fromTiles(tiles.tileX, tiles.tileY, tiles.count);
+        }
+    }
+
+    public int size() {
+        return mIndex.size();
+    }
+
+    public boolean isValidTileID(int tile_id) {
+        return mIndex.isValidTileID(tile_id);
+    }
+
+    /*
+     Returns -1 if there is no such tile in the city.
+     */
+    public int getTileID(int tile_x, int tile_y) {
+        return mIndex.getTileID(tile_x, tile_y);
+    }
+
+    public int getTileID(SmartTile tc) {
+        return getTileID(tc.tile_x, tc.tile_y);
+    }
+
+    /*
+     The caller must check isValidTileID() first.
+     */
+    public int getTileX(int tile_id) {
+        return mIndex.getTileX(tile_id);
+    }
+
+    public int getTileY(int tile_id) {
+        return mIndex.getTileY(tile_id);
+    }
+
+    public SmartTile getCoord(int tile_id) {
+        if (!isValidTileID(tile_id)) {
+            return null;
+        }
+        return new SmartTile(getTileX(tile_id), getTileY(tile_id));
+    }
+}
@@ -4,12 +4,9 @@
 
 package org.mozilla.mozstumbler.service.core.offline;
 
-import android.location.Location;
-import android.location.LocationManager;
-
 /*
- This is a convenience class which can convert to and from slippy tiles coordinates to lat/lon
- by returning a Location object.
+ This is a convenience class which can convert to and from slippy tiles coordinates to lat/lon.
+ LocationService turns it into an android Location.
  */
 public class SmartTile {
     private static final double ZOOM = 18;
@@ -20,19 +17,28 @@ public class SmartTile {
      Create a tile based on lat/lon
      */
     public SmartTile(double lat, double lon) {
+        tile_x = lon2tileX(lon);
+        tile_y = lat2tileY(lat);
+    }
+
+    static int lon2tileX(double lon) {
         final int zoom = (int) ZOOM;
         int xtile = (int) Math.floor((lon + 180) / 360 * (1 << zoom));
-        int ytile = (int) Math.floor((1 - Math.log(Math.tan(Math.toRadians(lat)) + 1 / Math.cos(Math.toRadians(lat))) / Math.PI) / 2 * (1 << zoom));
         if (xtile < 0)
             xtile = 0;
         if (xtile >= (1 << zoom))
             xtile = ((1 << zoom) - 1);
+        return xtile;
+    }
+
+    static int lat2tileY(double lat) {
+        final int zoom = (int) ZOOM;
+        int ytile = (int) Math.floor((1 - Math.log(Math.tan(Math.toRadians(lat)) + 1 / Math.cos(Math.toRadians(lat))) / Math.PI) / 2 * (1 << zoom));
         if (ytile < 0)
             ytile = 0;
         if (ytile >= (1 << zoom))
             ytile = ((1 << zoom) - 1);
-        tile_x = xtile;
-        tile_y = ytile;
+        return ytile;
     }
 
     /*
@@ -57,19 +63,19 @@ public class SmartTile {
         return Integer.toString(tile_x) + "," + Integer.toString(tile_y);
     }
 
-    public Location getLocation() {
-        Location location = new Location(LocationManager.NETWORK_PROVIDER);
-        location.setAccuracy(150);
-        location.setLatitude(tile2lat());
-        location.setLongitude(tile2lon());
-        return location;
+    double tile2lon() {
+        return tile2lon(tile_x);
     }
 
-    double tile2lon() {
+    double tile2lat() {
+        return tile2lat(tile_y);
+    }
+
+    static double tile2lon(int tile_x) {
         return tile_x / Math.pow(2.0, ZOOM) * 360.0 - 180;
     }
 
-    double tile2lat() {
+    static double tile2lat(int tile_y) {
         double n = Math.PI - (2.0 * Math.PI * tile_y) / Math.pow(2.0, ZOOM);
         return Math.toDegrees(Math.atan(Math.sinh(n)));
     }
@@ -0,0 +1,210 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.offline;
+
+import java.util.Arrays;
+
+/*
+ Scores the tiles hit by the BSSIDs of a query and picks the best tile.
+
+ Each tile gets a point for every BSSID seen in it. The tile with the most points wins. Ties
+ are broken first by adding the (squared) points of each tied tile's neighbours. If tiles are
+ still tied, the result is the tile at the average position of the tied tiles that touch
+ another tied tile.
+
+ Scoring uses a per-thread Accumulator: the point array is reused across queries, and only the
+ tiles that were hit are tracked, scanned and cleared afterwards. A query allocates nothing.
+ */
+class TileScorer {
+    static final int TOTAL_POSSIBLE_TILES = 65536;
+    static final int NO_SOLUTION = -1;
+
+    private static final int MAX_ADJACENT_TILES = 8;
+    private static final int INITIAL_HIT_CAPACITY = 256;
+
+    private final OrderedCityTiles mCityTiles;
+
+    /*
+     Scratch space for one query. Only valid on the thread that called begin().
+     */
+    static class Accumulator {
+        final int[] points = new int[TOTAL_POSSIBLE_TILES];
+        // Tiles with points > 0, in the order they were first hit
+        int[] touched = new int[INITIAL_HIT_CAPACITY];
+        int touchedCount;
+        // Tiles sharing the max score, in ascending order
+        int[] maxTiles = new int[INITIAL_HIT_CAPACITY];
+        // Per entry of maxTiles, then reused for the final tie breaking set
+        int[] maxTileScratch = new int[INITIAL_HIT_CAPACITY];
+        int maxCount;
+        final int[] adjacent = new int[MAX_ADJACENT_TILES];
+
+        void addHit(int tile_id) {
+            if (tile_id < 0 || tile_id >= TOTAL_POSSIBLE_TILES) {
+                return;
+            }
+            if (points[tile_id]++ == 0) {
+                if (touchedCount == touched.length) {
+                    // The arrays only ever grow, so a thread settles at its largest query.
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                    maxTiles = new int[touched.length];
+                    maxTileScratch = new int[touched.length];
+                }
+                touched[touchedCount++] = tile_id;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                points[touched[i]] = 0;
+            }
+            touchedCount = 0;
+            maxCount = 0;
+        }
+
+        /*
+         Collect the tiles with the highest score into maxTiles, return the score.
+         */
+        int collectMaxTiles() {
+            int max = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                max = Math.max(max, points[touched[i]]);
+            }
+            maxCount = 0;
+            for (int i = 0; i < touchedCount; i++) {
+                if (points[touched[i]] == max) {
+                    maxTiles[maxCount++] = touched[i];
+                }
+            }
+            Arrays.sort(maxTiles, 0, maxCount);
+            return max;
+        }
+    }
+
+    private static final ThreadLocal<Accumulator> sAccumulator = new ThreadLocal<Accumulator>() {
+        @Override
+        protected Accumulator initialValue() {
+            return new Accumulator();
+        }
+    };
+
+    TileScorer(OrderedCityTiles cityTiles) {
+        mCityTiles = cityTiles;
+    }
+
+    /*
+     Returns this thread's accumulator, cleared.
+     */
+    Accumulator begin() {
+        Accumulator acc = sAccumulator.get();
+        acc.reset();
+        return acc;
+    }
+
+    /*
+     Returns the winning tile id, or NO_SOLUTION. The accumulator is cleared.
+     */
+    int score(Accumulator acc) {
+        try {
+            return computeScore(acc);
+        } finally {
+            acc.reset();
+        }
+    }
+
+    private int computeScore(Accumulator acc) {
+        final int[] points = acc.points;
+
+        int max = acc.collectMaxTiles();
+        if (max <= 1) {
+            return NO_SOLUTION;
+        }
+        if (acc.maxCount == 1) {
+            return acc.maxTiles[0];
+        }
+
+        // Tie breaker: square the points of the tied tiles, then add to each tied tile the
+        // points of its neighbours.
+        for (int i = 0; i < acc.maxCount; i++) {
+            final int tile = acc.maxTiles[i];
+            points[tile] *= points[tile];
+        }
+        for (int i = 0; i < acc.maxCount; i++) {
+            final int count = adjacentTiles(acc.maxTiles[i], acc.adjacent);
+            int adjPoints = 0;
+            for (int j = 0; j < count; j++) {
+                final int adj = acc.adjacent[j];
+                if (adj < TOTAL_POSSIBLE_TILES) {
+                    adjPoints += points[adj];
+                }
+            }
+            acc.maxTileScratch[i] = adjPoints;
+        }
+        for (int i = 0; i < acc.maxCount; i++) {
+            points[acc.maxTiles[i]] += acc.maxTileScratch[i];
+        }
+
+        acc.collectMaxTiles();
+        if (acc.maxCount == 1) {
+            return acc.maxTiles[0];
+        }
+
+        // Still tied: average the position of each tied tile that touches a tied tile after it.
+        int tieCount = 0;
+        for (int i = 0; i < acc.maxCount; i++) {
+            if (touchesLaterMaxTile(acc, i)) {
+                acc.maxTileScratch[tieCount++] = acc.maxTiles[i];
+            }
+        }
+        if (tieCount == 0) {
+            return NO_SOLUTION;
+        }
+
+        double final_lat = 0;
+        double final_lon = 0;
+        for (int i = 0; i < tieCount; i++) {
+            // Tiles in the set have neighbours, so they are valid tile ids.
+            final int tile = acc.maxTileScratch[i];
+            final_lat += (SmartTile.tile2lat(mCityTiles.getTileY(tile)) * 1.0 / tieCount);
+            final_lon += (SmartTile.tile2lon(mCityTiles.getTileX(tile)) * 1.0 / tieCount);
+        }
+        return mCityTiles.getTileID(SmartTile.lon2tileX(final_lon), SmartTile.lat2tileY(final_lat));
+    }
+
+    private boolean touchesLaterMaxTile(Accumulator acc, int index) {
+        final int count = adjacentTiles(acc.maxTiles[index], acc.adjacent);
+        for (int j = 0; j < count; j++) {
+            if (Arrays.binarySearch(acc.maxTiles, index + 1, acc.maxCount, acc.adjacent[j]) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     Fill result with the ids of the tiles around tile_id that are part of the city, return how
+     many were found. Edge tiles have fewer than 8 neighbours.
+     */
+    int adjacentTiles(int tile_id, int[] result) {
+        if (!mCityTiles.isValidTileID(tile_id)) {
+            return 0;
+        }
+        final int x = mCityTiles.getTileX(tile_id);
+        final int y = mCityTiles.getTileY(tile_id);
+        int count = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx == 0 && dy == 0) {
+                    continue;
+                }
+                final int adj = mCityTiles.getTileID(x + dx, y + dy);
+                if (adj != -1) {
+                    result[count++] = adj;
+                }
+            }
+        }
+        return count;
+    }
+}
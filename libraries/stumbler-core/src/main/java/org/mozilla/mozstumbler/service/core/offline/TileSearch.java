@@ -0,0 +1,41 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.offline;
+
+/*
+ The search of LocationService.locate(): add a hit for every tile each BSSID of the query was
+ seen in, and score the tiles. The BSSID to tiles index, the marisa trie on a device, is behind
+ TileIndex.
+
+ Safe to use from several threads at once, as long as the TileIndex is: each thread scores
+ with its own TileScorer accumulator.
+ */
+class TileSearch {
+    interface TileIndex {
+        /*
+         Add a hit to points for each tile the BSSID was seen in.
+         */
+        void addHits(String bssid, TileScorer.Accumulator points);
+    }
+
+    private final TileIndex mIndex;
+    private final TileScorer mScorer;
+
+    TileSearch(TileIndex index, TileScorer scorer) {
+        mIndex = index;
+        mScorer = scorer;
+    }
+
+    /*
+     Returns the tile id of the best tile, or TileScorer.NO_SOLUTION.
+     */
+    int locateTile(Iterable<String> bssids) {
+        TileScorer.Accumulator points = mScorer.begin();
+        for (String bssid : bssids) {
+            mIndex.addHits(bssid, points);
+        }
+        return mScorer.score(points);
+    }
+}
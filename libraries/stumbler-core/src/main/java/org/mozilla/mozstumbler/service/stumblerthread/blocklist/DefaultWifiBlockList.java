@@ -0,0 +1,74 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
+
+/*
+ The built in block list, used until a newer one is loaded from a file. These are SSIDs of
+ phones acting as hotspots, mobile routers and Wi-Fi on buses and trains: none of them stay
+ in one place, so they are useless for geolocation.
+ */
+public final class DefaultWifiBlockList implements WifiBlockListInterface {
+    public static final int VERSION = 0;
+
+    private static final String[] SSID_PREFIXES = {
+        "AndroidAP",
+        "AndroidHotspot",
+        "Android Hotspot",
+        "barnacle", // Android tether app
+        "Galaxy Note",
+        "Galaxy S",
+        "Galaxy Tab",
+        "HTC ",
+        "iPhone",
+        "LG-MS770",
+        "LG-MS870",
+        "LG VS910 4G",
+        "LG VS920 4G",
+        "MIFI",
+        "MiFi",
+        "myLGNet",
+        "myTouch 4G Hotspot",
+        "NOKIA Lumia",
+        "PhoneAP",
+        "SCH-I",
+        "Sprint MiFi",
+        "Verizon ",
+        "Verizon-",
+        "VirginMobile MiFi",
+        "VodafoneMobileWiFi-",
+        "FirefoxHotspot",
+    };
+
+    private static final String[] SSID_SUFFIXES = {
+        " ShuttleWiFi",
+        "_ShuttleWiFi",
+        "MacBook",
+        "MacBook Pro",
+        "MiFi",
+        "MyWi",
+        "Tether",
+        "iPad",
+        "iPhone",
+        "ipad",
+        "iphone",
+        "tether",
+        "adhoc",
+    };
+
+    @Override
+    public String[] getSsidPrefixList() {
+        return SSID_PREFIXES.clone();
+    }
+
+    @Override
+    public String[] getSsidSuffixList() {
+        return SSID_SUFFIXES.clone();
+    }
+
+    @Override
+    public String[] getBssidOuiList() {
+        return new String[0];
+    }
+}
@@ -0,0 +1,221 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
+
+import org.mozilla.mozstumbler.service.utils.MacAddress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ A WifiBlockListInterface compiled for matching at scan time:
+ - SSID prefixes into a trie, SSID suffixes into a trie of the reversed suffixes, so an SSID is
+   checked in one walk from each end, no matter how many entries there are.
+ - BSSID OUIs into a sorted int array for a binary search.
+
+ Instances are immutable and carry the version of the lists they were compiled from. The one in
+ use is swapped atomically: install() only replaces it with a newer version, so a slow load of
+ an old file can't undo a newer one.
+ */
+public final class WifiBlockList {
+
+    public static final int NO_VERSION = -1;
+    public static final WifiBlockList EMPTY = new WifiBlockList(new String[0], new String[0], new String[0], NO_VERSION);
+
+    private static final AtomicReference<WifiBlockList> sActive = new AtomicReference<WifiBlockList>(EMPTY);
+
+    private final int mVersion;
+    private final Trie mPrefixes;
+    private final Trie mReversedSuffixes;
+    private final int[] mOUIs;
+
+    private WifiBlockList(String[] prefixes, String[] suffixes, String[] ouis, int version) {
+        mVersion = version;
+        mPrefixes = new Trie(prefixes, false);
+        mReversedSuffixes = new Trie(suffixes, true);
+
+        int[] parsed = new int[ouis.length];
+        int count = 0;
+        for (String oui : ouis) {
+            final int value = MacAddress.parseOUI(oui);
+            if (value != (int) MacAddress.INVALID) {
+                parsed[count++] = value;
+            }
+        }
+        mOUIs = Arrays.copyOf(parsed, count);
+        Arrays.sort(mOUIs);
+    }
+
+    public static WifiBlockList compile(WifiBlockListInterface lists) {
+        return compile(lists, 0);
+    }
+
+    public static WifiBlockList compile(WifiBlockListInterface lists, int version) {
+        return new WifiBlockList(nonNull(lists.getSsidPrefixList()),
+                                 nonNull(lists.getSsidSuffixList()),
+                                 nonNull(lists.getBssidOuiList()),
+                                 version);
+    }
+
+    private static String[] nonNull(String[] list) {
+        return (list == null) ? new String[0] : list;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public static WifiBlockList getActive() {
+        return sActive.get();
+    }
+
+    /*
+     Unconditionally replace the active list, null means EMPTY.
+     */
+    public static void setActive(WifiBlockList blockList) {
+        sActive.set((blockList == null) ? EMPTY : blockList);
+    }
+
+    /*
+     Make blockList the active list if it is newer than the active one. Returns true if it was.
+     */
+    public static boolean install(WifiBlockList blockList) {
+        while (true) {
+            final WifiBlockList current = sActive.get();
+            if (blockList.mVersion <= current.mVersion) {
+                return false;
+            }
+            if (sActive.compareAndSet(current, blockList)) {
+                return true;
+            }
+        }
+    }
+
+    public boolean isBlockedSSID(String SSID) {
+        if (SSID == null) {
+            return false;
+        }
+        return mPrefixes.matchesStart(SSID) || mReversedSuffixes.matchesEnd(SSID);
+    }
+
+    /*
+     bssid as packed by MacAddress.parse()
+     */
+    public boolean isBlockedOUI(long bssid) {
+        return mOUIs.length > 0 && Arrays.binarySearch(mOUIs, MacAddress.getOUI(bssid)) >= 0;
+    }
+
+    /*
+     A character trie flattened into arrays. The edges of node n are
+     mEdgeChar/mEdgeTarget[mFirstEdge[n] .. mFirstEdge[n + 1]), sorted by character.
+     */
+    private static final class Trie {
+        private final int[] mFirstEdge;
+        private final char[] mEdgeChar;
+        private final int[] mEdgeTarget;
+        private final boolean[] mTerminal;
+
+        private static final class Node {
+            final List<Character> chars = new ArrayList<Character>();
+            final List<Node> children = new ArrayList<Node>();
+            boolean terminal;
+            int id;
+
+            Node child(char c) {
+                int i = chars.indexOf(c);
+                if (i < 0) {
+                    chars.add(c);
+                    children.add(new Node());
+                    i = chars.size() - 1;
+                }
+                return children.get(i);
+            }
+        }
+
+        Trie(String[] entries, boolean reversed) {
+            final Node root = new Node();
+            for (String entry : entries) {
+                if (entry == null || entry.length() == 0) {
+                    // An empty entry would match every SSID
+                    continue;
+                }
+                Node node = root;
+                final int length = entry.length();
+                for (int i = 0; i < length; i++) {
+                    node = node.child(entry.charAt(reversed ? length - 1 - i : i));
+                }
+                node.terminal = true;
+            }
+
+            // Number the nodes breadth first, then lay out each node's sorted edges
+            final List<Node> nodes = new ArrayList<Node>();
+            nodes.add(root);
+            for (int n = 0; n < nodes.size(); n++) {
+                final Node node = nodes.get(n);
+                node.id = n;
+                nodes.addAll(node.children);
+            }
+            int edgeCount = nodes.size() - 1;
+            mFirstEdge = new int[nodes.size() + 1];
+            mEdgeChar = new char[edgeCount];
+            mEdgeTarget = new int[edgeCount];
+            mTerminal = new boolean[nodes.size()];
+
+            int edge = 0;
+            for (int n = 0; n < nodes.size(); n++) {
+                final Node node = nodes.get(n);
+                mFirstEdge[n] = edge;
+                mTerminal[n] = node.terminal;
+                final char[] sorted = new char[node.chars.size()];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = node.chars.get(i);
+                }
+                Arrays.sort(sorted);
+                for (char c : sorted) {
+                    mEdgeChar[edge] = c;
+                    mEdgeTarget[edge] = node.children.get(node.chars.indexOf(c)).id;
+                    edge++;
+                }
+            }
+            mFirstEdge[nodes.size()] = edge;
+        }
+
+        private int next(int node, char c) {
+            final int i = Arrays.binarySearch(mEdgeChar, mFirstEdge[node], mFirstEdge[node + 1], c);
+            return (i < 0) ? -1 : mEdgeTarget[i];
+        }
+
+        boolean matchesStart(String s) {
+            int node = 0;
+            final int length = s.length();
+            for (int i = 0; i < length; i++) {
+                node = next(node, s.charAt(i));
+                if (node < 0) {
+                    return false;
+                }
+                if (mTerminal[node]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matchesEnd(String s) {
+            int node = 0;
+            for (int i = s.length() - 1; i >= 0; i--) {
+                node = next(node, s.charAt(i));
+                if (node < 0) {
+                    return false;
+                }
+                if (mTerminal[node]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
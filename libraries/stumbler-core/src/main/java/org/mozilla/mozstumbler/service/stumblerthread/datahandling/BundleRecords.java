@@ -0,0 +1,171 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ The contents of a StumblerBundle without the Android types: the GPS fix as plain values, the
+ wifi and cell records and the pressure, and the MLS JSON built from them. StumblerBundle copies
+ the Location, ScanResult and CellInfo values in.
+ */
+public final class BundleRecords {
+    // Age of a wifi observation that has none
+    public static final int NO_AGE = WifiRecords.NO_AGE;
+
+    private double mLatitude;
+    private double mLongitude;
+    private long mTime;
+    private float mBearing;
+    private float mSpeed;
+    private boolean mHasAltitude;
+    private double mAltitude;
+    private boolean mHasAccuracy;
+    private float mAccuracy;
+    private float mPressureHPA;
+    private final WifiRecords mWifiData;
+    private final CellRecords mCellData;
+
+    public BundleRecords(int maxWifis) {
+        mWifiData = new WifiRecords(maxWifis);
+        mCellData = new CellRecords();
+    }
+
+    public void setFix(double latitude, double longitude, long time, float bearing, float speed) {
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mTime = time;
+        mBearing = bearing;
+        mSpeed = speed;
+    }
+
+    public void setAltitude(double altitude) {
+        mHasAltitude = true;
+        mAltitude = altitude;
+    }
+
+    public void setAccuracy(float accuracy) {
+        mHasAccuracy = true;
+        mAccuracy = accuracy;
+    }
+
+    public void setPressure(float hPa) {
+        mPressureHPA = hPa;
+    }
+
+    public int getWifiCount() {
+        return mWifiData.size();
+    }
+
+    public long getWifiBSSID(int index) {
+        return mWifiData.getBSSID(index);
+    }
+
+    public boolean isWifiFull() {
+        return mWifiData.isFull();
+    }
+
+    /*
+     bssid is bssidText packed by MacAddress.parse(). Returns false if the BSSID is already
+     present, or there is no room.
+     */
+    public boolean addWifi(long bssid, String bssidText, int frequency, int level, int age) {
+        return mWifiData.add(bssid, bssidText, frequency, level, age);
+    }
+
+    public int getCellCount() {
+        return mCellData.size();
+    }
+
+    public String getCellKey(int index) {
+        return mCellData.getKey(index);
+    }
+
+    /*
+     The values of a CellInfo, radio is one of its CELL_RADIO_* constants. Returns false if the
+     key is already present.
+     */
+    public boolean addCell(String key, String radio, int mcc, int mnc, int lac, int cid, int psc,
+                           int signalStrength, int asu, int ta) {
+        return mCellData.add(key, radio, mcc, mnc, lac, cid, psc, signalStrength, asu, ta);
+    }
+
+    public MLSJSONObject toMLSGeosubmit() throws JSONException {
+        MLSJSONObject headerFields = new MLSJSONObject();
+        headerFields.put(DataStorageConstants.ReportsColumns.LAT, Math.floor(mLatitude * 1.0E6) / 1.0E6);
+        headerFields.put(DataStorageConstants.ReportsColumns.LON, Math.floor(mLongitude * 1.0E6) / 1.0E6);
+        headerFields.put(DataStorageConstants.ReportsColumns.TIME, mTime);
+        headerFields.put(DataStorageConstants.ReportsColumns.HEADING, mBearing);
+        headerFields.put(DataStorageConstants.ReportsColumns.SPEED, mSpeed);
+        if (mPressureHPA != 0.0) {
+            headerFields.put(DataStorageConstants.ReportsColumns.PRESSURE, mPressureHPA);
+        }
+
+        if (mCellData.size() > 0) {
+            headerFields.put(DataStorageConstants.ReportsColumns.CELL, mCellData.toJSON());
+        }
+
+        if (mWifiData.size() > 0) {
+            headerFields.put(DataStorageConstants.ReportsColumns.WIFI, mWifiData.toJSON(true));
+        }
+
+        if (mHasAltitude) {
+            headerFields.put(DataStorageConstants.ReportsColumns.ALTITUDE, (float) mAltitude);
+        }
+        if (mHasAccuracy) {
+            // Note that Android does not support an accuracy measurement specific to altitude
+            headerFields.put(DataStorageConstants.ReportsColumns.ACCURACY, mAccuracy);
+        }
+
+        return headerFields;
+    }
+
+    public JSONObject toMLSGeolocate() throws JSONException {
+        JSONObject headerFields = new JSONObject();
+
+        JSONObject fallbackPayload = new JSONObject();
+        fallbackPayload.put("lacf", false);
+        fallbackPayload.put("ipf", false);
+        headerFields.put("fallbacks", fallbackPayload);
+
+        headerFields.put(DataStorageConstants.ReportsColumns.LAT, Math.floor(mLatitude * 1.0E6) / 1.0E6);
+        headerFields.put(DataStorageConstants.ReportsColumns.LON, Math.floor(mLongitude * 1.0E6) / 1.0E6);
+        headerFields.put(DataStorageConstants.ReportsColumns.TIME, mTime);
+
+        /* Skip adding 'heading'
+
+            The heading field denotes the direction of travel of the device and is specified in
+            degrees, where 0° ≤ heading < 360°, counting clockwise relative to the true north.
+            If the device cannot provide heading information or the device is stationary,
+            the field should be omitted.
+
+            Adding heading is tricky and problematic.  We might be able to do this by taking a delta
+            between two relatively high precision locations, but I'm skeptical that the
+        */
+
+        if (mCellData.size() > 0) {
+            headerFields.put(DataStorageConstants.ReportsColumns.RADIO, mCellData.firstRadioType());
+            headerFields.put(DataStorageConstants.ReportsColumns.CELL, mCellData.toJSON());
+        }
+
+        if (mWifiData.size() > 0) {
+            headerFields.put(DataStorageConstants.ReportsColumns.WIFI, mWifiData.toJSON(false));
+        }
+
+        return headerFields;
+    }
+
+    /*
+     The wifi and cell records, for StumblerBundle.writeToParcel().
+     */
+    public void writeRecordsTo(DataOutput out) throws IOException {
+        mWifiData.writeTo(out);
+        mCellData.writeTo(out);
+    }
+}
@@ -0,0 +1,162 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ The cell observations of a StumblerBundle as parallel arrays, kept sorted by the cell key
+ (CellInfo.getCellIdentity()), like the TreeMap they replace.
+ */
+class CellRecords {
+    // The CellInfo.UNKNOWN_* values, for fields a cell didn't report
+    static final int UNKNOWN_CID = -1;
+    static final int UNKNOWN_SIGNAL_STRENGTH = -1000;
+    static final int UNKNOWN_ASU = -1;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private String[] mKeys;
+    // One of the CellInfo.CELL_RADIO_* constants
+    private String[] mRadio;
+    private int[] mMcc;
+    private int[] mMnc;
+    private int[] mLac;
+    private int[] mCid;
+    private int[] mPsc;
+    private int[] mSignalStrength;
+    private int[] mAsu;
+    private int[] mTa;
+    private int mCount;
+
+    CellRecords() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        if (mKeys == null) {
+            mKeys = new String[capacity];
+            mRadio = new String[capacity];
+            mMcc = new int[capacity];
+            mMnc = new int[capacity];
+            mLac = new int[capacity];
+            mCid = new int[capacity];
+            mPsc = new int[capacity];
+            mSignalStrength = new int[capacity];
+            mAsu = new int[capacity];
+            mTa = new int[capacity];
+        } else {
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mRadio = Arrays.copyOf(mRadio, capacity);
+            mMcc = Arrays.copyOf(mMcc, capacity);
+            mMnc = Arrays.copyOf(mMnc, capacity);
+            mLac = Arrays.copyOf(mLac, capacity);
+            mCid = Arrays.copyOf(mCid, capacity);
+            mPsc = Arrays.copyOf(mPsc, capacity);
+            mSignalStrength = Arrays.copyOf(mSignalStrength, capacity);
+            mAsu = Arrays.copyOf(mAsu, capacity);
+            mTa = Arrays.copyOf(mTa, capacity);
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    String getKey(int index) {
+        return mKeys[index];
+    }
+
+    /*
+     The radio type of the cell with the lowest key.
+     */
+    String firstRadioType() {
+        return mRadio[0];
+    }
+
+    /*
+     Returns false if the key is already present.
+     */
+    boolean add(String key, String radio, int mcc, int mnc, int lac, int cid, int psc,
+                int signalStrength, int asu, int ta) {
+        int index = Arrays.binarySearch(mKeys, 0, mCount, key);
+        if (index >= 0) {
+            return false;
+        }
+        index = -(index + 1);
+        if (mCount == mKeys.length) {
+            allocate(mCount * 2);
+        }
+        final int tail = mCount - index;
+        if (tail > 0) {
+            System.arraycopy(mKeys, index, mKeys, index + 1, tail);
+            System.arraycopy(mRadio, index, mRadio, index + 1, tail);
+            System.arraycopy(mMcc, index, mMcc, index + 1, tail);
+            System.arraycopy(mMnc, index, mMnc, index + 1, tail);
+            System.arraycopy(mLac, index, mLac, index + 1, tail);
+            System.arraycopy(mCid, index, mCid, index + 1, tail);
+            System.arraycopy(mPsc, index, mPsc, index + 1, tail);
+            System.arraycopy(mSignalStrength, index, mSignalStrength, index + 1, tail);
+            System.arraycopy(mAsu, index, mAsu, index + 1, tail);
+            System.arraycopy(mTa, index, mTa, index + 1, tail);
+        }
+        mKeys[index] = key;
+        mRadio[index] = radio;
+        mMcc[index] = mcc;
+        mMnc[index] = mnc;
+        mLac[index] = lac;
+        mCid[index] = cid;
+        mPsc[index] = psc;
+        mSignalStrength[index] = signalStrength;
+        mAsu[index] = asu;
+        mTa[index] = ta;
+        mCount++;
+        return true;
+    }
+
+    /*
+     Same fields as CellInfo.toJSONObject().
+     */
+    JSONArray toJSON() throws JSONException {
+        JSONArray cells = new JSONArray();
+        for (int i = 0; i < mCount; i++) {
+            JSONObject obj = new JSONObject();
+            obj.put("radioType", mRadio[i]);
+            // Bug #1510, cellId and locationAreaCode are always sent
+            obj.put("cellId", mCid[i]);
+            obj.put("locationAreaCode", mLac[i]);
+            obj.put("mobileCountryCode", mMcc[i]);
+            obj.put("mobileNetworkCode", mMnc[i]);
+            if (mSignalStrength[i] != UNKNOWN_SIGNAL_STRENGTH) obj.put("signalStrength", mSignalStrength[i]);
+            if (mTa[i] != UNKNOWN_CID) obj.put("timingAdvance", mTa[i]);
+            if (mPsc[i] != UNKNOWN_CID) obj.put("psc", mPsc[i]);
+            if (mAsu[i] != UNKNOWN_ASU) obj.put("asu", mAsu[i]);
+            cells.put(obj);
+        }
+        return cells;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mCount);
+        for (int i = 0; i < mCount; i++) {
+            out.writeUTF(mKeys[i]);
+            out.writeUTF(mRadio[i]);
+            out.writeInt(mMcc[i]);
+            out.writeInt(mMnc[i]);
+            out.writeInt(mLac[i]);
+            out.writeInt(mCid[i]);
+            out.writeInt(mPsc[i]);
+            out.writeInt(mSignalStrength[i]);
+            out.writeInt(mAsu[i]);
+            out.writeInt(mTa[i]);
+        }
+    }
+}
@@ -50,7 +50,14 @@ public class MLSJSONObject extends JSONObject {
     }
 
     public List<String> extractBSSIDs() {
-        JSONArray wifiRecords = this.optJSONArray(DataStorageConstants.ReportsColumns.WIFI);
+        return extractBSSIDs(this);
+    }
+
+    /*
+     Same as extractBSSIDs(), for a geolocate query that is a plain JSONObject.
+     */
+    public static List<String> extractBSSIDs(JSONObject query) {
+        JSONArray wifiRecords = query.optJSONArray(DataStorageConstants.ReportsColumns.WIFI);
         List<String> result = new ArrayList<String>();
         if (wifiRecords != null) {
             for (int i = 0; i < wifiRecords.length(); i++) {
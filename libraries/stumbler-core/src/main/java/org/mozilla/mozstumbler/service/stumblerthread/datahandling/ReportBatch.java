@@ -5,11 +5,13 @@
 package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
 
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
-import org.mozilla.mozstumbler.service.uploadthread.AsyncUploaderMLS;
 
 import java.util.HashMap;
 
 public class ReportBatch extends SerializedJSONRows {
+    // Keys of the tally, AsyncUploaderMLS reads the upload stats from these
+    public static final String OBSERVATIONS_TALLY = "observations", CELLS_TALLY = "cells", WIFIS_TALLY = "wifis";
+
     public final int reportCount;
     public final int wifiCount;
     public final int cellCount;
@@ -24,13 +26,13 @@ public class ReportBatch extends SerializedJSONRows {
     @Override
     public void tally(HashMap<String, Integer> tallyValues) {
         assert(tallyValues != null);
-        if (!tallyValues.containsKey(AsyncUploaderMLS.OBSERVATIONS_TALLY)) {
-            tallyValues.put(AsyncUploaderMLS.OBSERVATIONS_TALLY, 0);
-            tallyValues.put(AsyncUploaderMLS.CELLS_TALLY, 0);
-            tallyValues.put(AsyncUploaderMLS.WIFIS_TALLY, 0);
+        if (!tallyValues.containsKey(OBSERVATIONS_TALLY)) {
+            tallyValues.put(OBSERVATIONS_TALLY, 0);
+            tallyValues.put(CELLS_TALLY, 0);
+            tallyValues.put(WIFIS_TALLY, 0);
         }
-        tallyValues.put(AsyncUploaderMLS.OBSERVATIONS_TALLY, tallyValues.get(AsyncUploaderMLS.OBSERVATIONS_TALLY) + reportCount);
-        tallyValues.put(AsyncUploaderMLS.CELLS_TALLY, tallyValues.get(AsyncUploaderMLS.CELLS_TALLY) + cellCount);
-        tallyValues.put(AsyncUploaderMLS.WIFIS_TALLY, tallyValues.get(AsyncUploaderMLS.WIFIS_TALLY) + wifiCount);
+        tallyValues.put(OBSERVATIONS_TALLY, tallyValues.get(OBSERVATIONS_TALLY) + reportCount);
+        tallyValues.put(CELLS_TALLY, tallyValues.get(CELLS_TALLY) + cellCount);
+        tallyValues.put(WIFIS_TALLY, tallyValues.get(WIFIS_TALLY) + wifiCount);
     }
 }
@@ -0,0 +1,58 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
+
+import org.json.JSONObject;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.JSONRowsObjectBuilder;
+
+/*
+ ReportBatchBuilder accepts MLS GeoSubmit JSON blobs and serializes them to
+ string form.
+ */
+public class ReportBatchBuilder extends JSONRowsObjectBuilder {
+    // Running totals, so the counts are available without keeping the rows around.
+    private int mWifiCount;
+    private int mCellCount;
+
+    public ReportBatchBuilder() {
+        super();
+    }
+
+    public ReportBatchBuilder(boolean streamRows) {
+        super(streamRows);
+    }
+
+    public synchronized int getCellCount() {
+        return mCellCount;
+    }
+
+    public synchronized int getWifiCount() {
+        return mWifiCount;
+    }
+
+    @Override
+    public synchronized boolean addRow(JSONObject geoSubmitObj, byte[] serializedRow) {
+        if (!super.addRow(geoSubmitObj, serializedRow)) {
+            return false;
+        }
+        assert(geoSubmitObj instanceof MLSJSONObject);
+        mWifiCount += ((MLSJSONObject) geoSubmitObj).getWifiCount();
+        mCellCount += ((MLSJSONObject) geoSubmitObj).getCellCount();
+        return true;
+    }
+
+    @Override
+    public synchronized SerializedJSONRows finalizeToJSONRowsObject() {
+        int obs = entriesCount();
+        int wifis = getWifiCount();
+        int cells = getCellCount();
+        byte[] zippedbytes = finalizeToZippedBytes();
+        mWifiCount = mCellCount = 0;
+        return new ReportBatch(zippedbytes,
+                SerializedJSONRows.StorageState.IN_MEMORY,
+                obs, wifis, cells);
+    }
+}
@@ -0,0 +1,128 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ The wifi observations of a StumblerBundle as parallel arrays, one entry per BSSID, kept
+ sorted by the packed BSSID.
+
+ The sorted keys are also the index: a binary search finds duplicates, and the JSON comes
+ out in BSSID order without a separate sort. BSSIDs from the scanner are all in the same
+ (canonical) format, so this is the order the TreeMap of BSSID strings used to give.
+ */
+class WifiRecords {
+    static final int NO_AGE = Integer.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] mBSSIDs;
+    // The BSSID as given to add(), written to the JSON as-is
+    private String[] mBSSIDText;
+    private int[] mFrequency;
+    private int[] mLevel;
+    // Milliseconds between the GPS fix and the scan, or NO_AGE
+    private int[] mAge;
+    private int mCount;
+    private final int mMaxCount;
+
+    WifiRecords(int maxCount) {
+        mMaxCount = maxCount;
+        allocate(Math.min(INITIAL_CAPACITY, maxCount));
+    }
+
+    private void allocate(int capacity) {
+        if (mBSSIDs == null) {
+            mBSSIDs = new long[capacity];
+            mBSSIDText = new String[capacity];
+            mFrequency = new int[capacity];
+            mLevel = new int[capacity];
+            mAge = new int[capacity];
+        } else {
+            mBSSIDs = Arrays.copyOf(mBSSIDs, capacity);
+            mBSSIDText = Arrays.copyOf(mBSSIDText, capacity);
+            mFrequency = Arrays.copyOf(mFrequency, capacity);
+            mLevel = Arrays.copyOf(mLevel, capacity);
+            mAge = Arrays.copyOf(mAge, capacity);
+        }
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    boolean isFull() {
+        return mCount == mMaxCount;
+    }
+
+    long getBSSID(int index) {
+        return mBSSIDs[index];
+    }
+
+    /*
+     Returns false if the BSSID is already present, or there is no room.
+     */
+    boolean add(long bssid, String bssidText, int frequency, int level, int age) {
+        int index = Arrays.binarySearch(mBSSIDs, 0, mCount, bssid);
+        if (index >= 0 || isFull()) {
+            return false;
+        }
+        index = -(index + 1);
+        if (mCount == mBSSIDs.length) {
+            allocate(Math.min(mCount * 2, mMaxCount));
+        }
+        final int tail = mCount - index;
+        if (tail > 0) {
+            System.arraycopy(mBSSIDs, index, mBSSIDs, index + 1, tail);
+            System.arraycopy(mBSSIDText, index, mBSSIDText, index + 1, tail);
+            System.arraycopy(mFrequency, index, mFrequency, index + 1, tail);
+            System.arraycopy(mLevel, index, mLevel, index + 1, tail);
+            System.arraycopy(mAge, index, mAge, index + 1, tail);
+        }
+        mBSSIDs[index] = bssid;
+        mBSSIDText[index] = bssidText;
+        mFrequency[index] = frequency;
+        mLevel[index] = level;
+        mAge[index] = age;
+        mCount++;
+        return true;
+    }
+
+    JSONArray toJSON(boolean includeAge) throws JSONException {
+        JSONArray wifis = new JSONArray();
+        for (int i = 0; i < mCount; i++) {
+            JSONObject wifiEntry = new JSONObject();
+            wifiEntry.put("macAddress", mBSSIDText[i]);
+            if (mFrequency[i] != 0) {
+                wifiEntry.put("frequency", mFrequency[i]);
+            }
+            if (mLevel[i] != 0) {
+                wifiEntry.put("signalStrength", mLevel[i]);
+            }
+            if (includeAge && mAge[i] != NO_AGE) {
+                wifiEntry.put("age", mAge[i]);
+            }
+            wifis.put(wifiEntry);
+        }
+        return wifis;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mCount);
+        for (int i = 0; i < mCount; i++) {
+            out.writeLong(mBSSIDs[i]);
+            out.writeUTF(mBSSIDText[i]);
+            out.writeInt(mFrequency[i]);
+            out.writeInt(mLevel[i]);
+            out.writeInt(mAge[i]);
+        }
+    }
+}
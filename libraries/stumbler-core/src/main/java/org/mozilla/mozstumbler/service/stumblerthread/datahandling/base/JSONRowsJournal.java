@@ -0,0 +1,223 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
+
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.IErrorReporter;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+ Append-only write-ahead journal for the rows that are only held in memory by
+ JSONRowsStorageManager.
+
+ Each row is appended as a record of a 4 byte big-endian length followed by the row bytes.
+ Every append is a single write() to the file, so a killed process loses nothing; fsync is
+ batched (every SYNC_EVERY_N_ROWS rows or SYNC_INTERVAL_MS) to survive power loss without
+ syncing on every GPS fix.
+
+ Two files are used:
+ - the active journal, which mirrors the rows in the active JSONRowsObjectBuilder
+ - the pending journal, which mirrors the finalized in-memory rows that are waiting for upload.
+ Moving rows between the two states is a rename, rows are never rewritten.
+
+ On startup, JSONRowsStorageManager replays both files (pending first) and then discards them.
+ A truncated record at the tail, such as from a crash in the middle of a write, ends the replay.
+ */
+public class JSONRowsJournal {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(JSONRowsJournal.class);
+    private static final IErrorReporter errorReporter = (IErrorReporter) ServiceLocator
+            .getInstance()
+            .getService(IErrorReporter.class);
+
+    private static final ISystemClock clock = (ISystemClock) ServiceLocator
+            .getInstance()
+            .getService(ISystemClock.class);
+
+    static final int MAX_RECORD_BYTES = 1024 * 1024;
+    static final int SYNC_EVERY_N_ROWS = 5;
+    static final long SYNC_INTERVAL_MS = 10 * 1000;
+
+    private final File mActiveFile;
+    private final File mPendingFile;
+    private FileOutputStream mActiveStream;
+    private int mUnsyncedRows;
+    private long mLastSyncMs;
+
+    public JSONRowsJournal(File dir, String name) {
+        mActiveFile = new File(dir, name + ".journal");
+        mPendingFile = new File(dir, name + ".journal-pending");
+    }
+
+    /*
+     Returns false if the row could not be journaled. The row is still kept in memory by the caller,
+     it just won't survive the process being killed.
+     */
+    public synchronized boolean append(byte[] row) {
+        final byte[] record = new byte[4 + row.length];
+        record[0] = (byte) (row.length >>> 24);
+        record[1] = (byte) (row.length >>> 16);
+        record[2] = (byte) (row.length >>> 8);
+        record[3] = (byte) row.length;
+        System.arraycopy(row, 0, record, 4, row.length);
+
+        try {
+            if (mActiveStream == null) {
+                mActiveStream = new FileOutputStream(mActiveFile, true);
+                mLastSyncMs = clock.currentTimeMillis();
+            }
+            mActiveStream.write(record);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error appending to journal: " + e.toString());
+            errorReporter.handleSilentException(e);
+            closeActiveStream();
+            return false;
+        }
+
+        mUnsyncedRows++;
+        if (mUnsyncedRows >= SYNC_EVERY_N_ROWS ||
+            clock.currentTimeMillis() - mLastSyncMs >= SYNC_INTERVAL_MS) {
+            sync();
+        }
+        return true;
+    }
+
+    public synchronized void sync() {
+        if (mActiveStream == null || mUnsyncedRows == 0) {
+            return;
+        }
+        try {
+            mActiveStream.getFD().sync();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error syncing journal: " + e.toString());
+        }
+        mUnsyncedRows = 0;
+        mLastSyncMs = clock.currentTimeMillis();
+    }
+
+    /*
+     The active rows have been finalized into an in-memory batch. The rows stay journaled until
+     the batch is saved to disk or uploaded, see discardPending().
+     */
+    public synchronized void moveActiveToPending() {
+        sync();
+        closeActiveStream();
+        if (!mActiveFile.exists()) {
+            return;
+        }
+
+        if (!mPendingFile.exists()) {
+            if (mActiveFile.renameTo(mPendingFile)) {
+                return;
+            }
+        }
+
+        // A previous pending batch is still around, keep both sets of rows.
+        FileOutputStream out = null;
+        FileInputStream in = null;
+        try {
+            out = new FileOutputStream(mPendingFile, true);
+            in = new FileInputStream(mActiveFile);
+            final byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error moving active journal: " + e.toString());
+            errorReporter.handleSilentException(e);
+            return;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+        mActiveFile.delete();
+    }
+
+    /* The active rows are safely in a report file */
+    public synchronized void discardActive() {
+        closeActiveStream();
+        mActiveFile.delete();
+    }
+
+    /* The finalized in-memory rows are safely in a report file, or uploaded */
+    public synchronized void discardPending() {
+        mPendingFile.delete();
+    }
+
+    public synchronized void discardAll() {
+        discardActive();
+        discardPending();
+    }
+
+    /*
+     Returns every journaled row, pending rows first, in the order they were appended.
+     */
+    public synchronized List<byte[]> readAll() {
+        closeActiveStream();
+        List<byte[]> rows = new LinkedList<byte[]>();
+        readRecords(mPendingFile, rows);
+        readRecords(mActiveFile, rows);
+        return rows;
+    }
+
+    private static void readRecords(File file, List<byte[]> outRows) {
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                final int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    Log.w(LOG_TAG, "Corrupt journal record in " + file.getName() + ", dropping the remainder.");
+                    return;
+                }
+                final byte[] row = new byte[length];
+                in.readFully(row);
+                outRows.add(row);
+            }
+        } catch (EOFException e) {
+            // End of the journal, or a partially written last record.
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading journal: " + e.toString());
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void closeActiveStream() {
+        closeQuietly(mActiveStream);
+        mActiveStream = null;
+        mUnsyncedRows = 0;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException e) {
+            // eat it - nothing we can do here
+        }
+    }
+}
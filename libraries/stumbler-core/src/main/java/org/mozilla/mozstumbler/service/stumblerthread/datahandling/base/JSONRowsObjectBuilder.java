@@ -0,0 +1,171 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
+
+import org.json.JSONObject;
+import org.mozilla.mozstumbler.service.utils.GzipStreamWriter;
+import org.mozilla.mozstumbler.service.utils.Zipper;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class JSONRowsObjectBuilder {
+    // Once this size is reached, data should be persisted to disk
+    public static final int MAX_ROWS_IN_MEMORY = 50;
+
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static String LOG_TAG = LoggerUtil.makeLogTag(JSONRowsObjectBuilder.class);
+
+    private static final byte[] JSON_PREFIX = "{\"items\":[".getBytes();
+    private static final byte[] JSON_SEPARATOR = ",".getBytes();
+    private static final byte[] JSON_SUFFIX = "]}".getBytes();
+
+    protected ConcurrentLinkedQueue<JSONObject> mJSONEntries = new ConcurrentLinkedQueue<JSONObject>();
+
+    // In streaming mode, rows are serialized once in addRow() and gzipped straight into
+    // this writer instead of being queued in mJSONEntries.
+    private final GzipStreamWriter mStreamWriter;
+    private int mStreamedRowCount;
+
+    public JSONRowsObjectBuilder() {
+        this(false);
+    }
+
+    /*
+     Setting streamRows to true avoids holding the batch as JSONObjects, as a String and
+     as a zipped copy all at once. Peeking at the pending rows in streaming mode relies on
+     Deflater.SYNC_FLUSH, which requires API 19.
+     */
+    public JSONRowsObjectBuilder(boolean streamRows) {
+        mStreamWriter = streamRows ? new GzipStreamWriter() : null;
+    }
+
+    public boolean isStreaming() {
+        return mStreamWriter != null;
+    }
+
+    public synchronized int entriesCount() {
+        if (isStreaming()) {
+            return mStreamedRowCount;
+        }
+        return mJSONEntries.size();
+    }
+
+    /*
+     This dequeues all collected entries and generates a stringified JSON blob
+     Setting preserveentries to true will ensure that the entries are not lost after being
+     converted to a string.  You almost certainly want to set that flag to false though as you'll
+     eat memory.
+     */
+    public SerializedJSONRows  finalizeToJSONRowsObject() {
+        return new SerializedJSONRows(finalizeToZippedBytes(), SerializedJSONRows.StorageState.IN_MEMORY);
+    }
+
+    /*
+     Returns the gzipped JSON for all collected entries and clears them.
+     In streaming mode only the closing of the JSON and the gzip trailer are written here.
+     */
+    protected synchronized byte[] finalizeToZippedBytes() {
+        if (!isStreaming()) {
+            return Zipper.zipData(generateJSON(false).getBytes());
+        }
+
+        if (mStreamedRowCount == 0) {
+            mStreamWriter.write(JSON_PREFIX);
+        }
+        mStreamWriter.write(JSON_SUFFIX);
+        mStreamedRowCount = 0;
+        return mStreamWriter.finish();
+    }
+
+    protected String generateJSON(boolean preserve) {
+        ConcurrentLinkedQueue<JSONObject> jsonCollector = new ConcurrentLinkedQueue<JSONObject>();
+        JSONObject entry = null;
+        final String kPrefix = "{\"items\":[";
+        StringBuilder entriesString = new StringBuilder(kPrefix);
+
+        // Note that this is a blank separator for first iteration
+        String jsonSep = "";
+
+        entry = mJSONEntries.poll();
+        while (entry != null) {
+            if (preserve) {
+                jsonCollector.add(entry);
+            }
+            entriesString.append(jsonSep + entry.toString());
+            entry = mJSONEntries.poll();
+            jsonSep = ",";
+        }
+
+        // Restore the ejected entries if necessary
+        if (preserve) {
+            entry = jsonCollector.poll();
+            while (entry != null) {
+                mJSONEntries.add(entry);
+                entry = jsonCollector.poll();
+            }
+        }
+
+        return entriesString.toString() + "]}";
+    }
+
+    /*
+     Returns false if the row was dropped because the builder is full.
+     */
+    public boolean addRow(JSONObject geoSubmitObj) {
+        return addRow(geoSubmitObj, null);
+    }
+
+    /*
+     Same as addRow(JSONObject), for callers that already hold the serialized row so that
+     it isn't stringified a second time. serializedRow may be null.
+     */
+    public synchronized boolean addRow(JSONObject geoSubmitObj, byte[] serializedRow) {
+        if (entriesCount() == MAX_ROWS_IN_MEMORY) {
+            // This can happen in the event that serializing entries to disk fails
+            // and the entries list is never cleared.
+            return false;
+        }
+
+        if (!isStreaming()) {
+            mJSONEntries.add(geoSubmitObj);
+            return true;
+        }
+
+        mStreamWriter.write(mStreamedRowCount == 0 ? JSON_PREFIX : JSON_SEPARATOR);
+        if (serializedRow == null) {
+            serializedRow = geoSubmitObj.toString().getBytes();
+        }
+        mStreamWriter.write(serializedRow);
+        mStreamedRowCount++;
+        return true;
+    }
+
+    public boolean maxRowsReached() {
+        return entriesCount() == MAX_ROWS_IN_MEMORY;
+    }
+
+    /* Returns the serialized JSON or an empty byte array if entry count is 0 */
+    public synchronized byte[] peekBytes() {
+        if (entriesCount() == 0) {
+            return new byte[0];
+        }
+
+        if (!isStreaming()) {
+            return generateJSON(true).getBytes();
+        }
+
+        byte[] pending = mStreamWriter.peekUncompressed();
+        if (pending == null) {
+            Log.w(LOG_TAG, "Unable to read back the pending rows");
+            return new byte[0];
+        }
+        byte[] result = new byte[pending.length + JSON_SUFFIX.length];
+        System.arraycopy(pending, 0, result, 0, pending.length);
+        System.arraycopy(JSON_SUFFIX, 0, result, pending.length, JSON_SUFFIX.length);
+        return result;
+    }
+}
@@ -4,13 +4,13 @@
 
 package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
 
-import android.content.Context;
-
-import org.acra.ACRA;
+import org.json.JSONException;
 import org.json.JSONObject;
-import org.mozilla.mozstumbler.service.core.logging.ClientLog;
+import org.mozilla.mozstumbler.service.core.metrics.LatencyHistogram;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.StorageIsEmptyTracker;
 import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.IErrorReporter;
 import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
 import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
@@ -18,9 +18,7 @@ import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
 
 /* For managing the storage of rows of data, by storing each row as an entry in a
 JSON array.
@@ -32,7 +30,8 @@ Thse objects are then flushed to disk as files named according to the time they
 A goal of this class is provide persistence without writing to disk unnecessarily,
 and mask this behaviour from the caller so that it can work with in-memory or disk based
 chunks in the same fashion.
-Data loss can happen if the in-memory chunk is not written to disk (i.e. program kill).
+Rows that are only in memory are also appended to a JSONRowsJournal, so they are not lost
+if the process is killed; subclasses call replayJournal() once they are constructed.
 */
 public class JSONRowsStorageManager {
     protected static ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
@@ -41,6 +40,20 @@ public class JSONRowsStorageManager {
     protected static final ISystemClock clock = (ISystemClock) ServiceLocator
             .getInstance()
             .getService(ISystemClock.class);
+    protected static final IErrorReporter errorReporter = (IErrorReporter) ServiceLocator
+            .getInstance()
+            .getService(IErrorReporter.class);
+
+    private static final LatencyHistogram sInMemoryMs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.STORAGE_IN_MEMORY_MS);
+    private static final LatencyHistogram sSaveUs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.STORAGE_SAVE_US);
+    private static final LatencyHistogram sSaveBytes =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.STORAGE_SAVE_BYTES);
+    private static final LatencyHistogram sReadUs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.STORAGE_READ_US);
+    private static final PipelineMetrics.Gauge sBytesOnDisk =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.STORAGE_BYTES_ON_DISK);
 
     protected static final String SEP_TIME_MS = "-t";
     protected String FILENAME_PREFIX = "jsonrows";
@@ -54,40 +67,72 @@ public class JSONRowsStorageManager {
     protected SerializedJSONRows mInMemoryFinalizedJSONRowsObject;
     protected SerializedJSONRowsList mFileList;
     protected SerializedJSONRowsList.Iterator mJSONRowsObjectIterator;
-    protected Timer mFlushMemoryBuffersToDiskTimer;
+    protected final JSONRowsJournal mJournal;
+    // System.nanoTime() when the first row went into mInMemoryActiveJSONRows
+    private long mActiveRowsSinceNs;
 
-    protected JSONRowsStorageManager(Context c, StorageIsEmptyTracker tracker,
+    /*
+     baseDir is the directory the storage subdirectory and the journal are created in,
+     on Android this is Context.getFilesDir().
+     */
+    protected JSONRowsStorageManager(String baseDir, StorageIsEmptyTracker tracker,
                                      long maxBytesStoredOnDisk, int maxWeeksDataStored,
                                      String storageSubdirName) {
         mMaxBytesDiskStorage = maxBytesStoredOnDisk;
         mMaxWeeksStored = maxWeeksDataStored;
         mTracker = tracker;
-        final String baseDir = getSystemStorageDir(c);
         mStorageDir = new File(baseDir + "/" + storageSubdirName);
         if (!mStorageDir.exists()) {
             mStorageDir.mkdirs();
         }
 
         mFileList = createFileList(mStorageDir);
-        mFileList.update();
-    }
 
-    protected SerializedJSONRowsList createFileList(File storageDir) {
-        return new SerializedJSONRowsList(storageDir);
+        // The journal must live outside of mStorageDir, which only holds finished batches.
+        mJournal = new JSONRowsJournal(new File(baseDir), storageSubdirName);
     }
 
-    public static String getSystemStorageDir(Context c) {
-        File dir = c.getFilesDir();
+    /*
+     Recover rows that were journaled but never made it into a batch file, i.e. because the
+     process was killed. The recovered rows are written out as regular batch files.
+     */
+    protected synchronized void replayJournal() {
+        final List<byte[]> rows = mJournal.readAll();
+        if (rows.isEmpty()) {
+            mJournal.discardAll();
+            return;
+        }
 
-        if (!dir.exists()) {
-            boolean ok = dir.mkdirs();
-            if (!ok) {
-                ClientLog.w(LOG_TAG, "getSystemStorageDir: error in mkdirs()");
-                Log.e(LOG_TAG, "Error creating storage directory: ["+dir.getAbsolutePath()+"]");
+        Log.i(LOG_TAG, "Recovering " + rows.size() + " rows from the journal");
+        for (byte[] row : rows) {
+            final JSONObject json;
+            try {
+                json = createRowFromJournal(new String(row));
+            } catch (JSONException e) {
+                Log.w(LOG_TAG, "Dropping unreadable journal row: " + e.toString());
+                continue;
+            }
+            if (mInMemoryActiveJSONRows.entriesCount() == 0) {
+                mActiveRowsSinceNs = System.nanoTime();
+            }
+            mInMemoryActiveJSONRows.addRow(json, row);
+            if (mInMemoryActiveJSONRows.entriesCount() == JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY) {
+                saveToDisk(finalizeActiveRows());
             }
         }
 
-        return dir.getPath();
+        if (mInMemoryActiveJSONRows.entriesCount() > 0) {
+            saveToDisk(finalizeActiveRows());
+        }
+        mJournal.discardAll();
+    }
+
+    protected JSONObject createRowFromJournal(String row) throws JSONException {
+        return new JSONObject(row);
+    }
+
+    protected SerializedJSONRowsList createFileList(File storageDir) {
+        return new SerializedJSONRowsList(storageDir);
     }
 
     public synchronized byte[] getActiveInMemoryBufferRawBytes() {
@@ -99,7 +144,7 @@ public class JSONRowsStorageManager {
     }
 
     public synchronized boolean isDirEmpty() {
-        return (mFileList.mFiles == null || mFileList.mFiles.length < 1);
+        return mFileList.isDirEmpty();
     }
 
     public synchronized SerializedJSONRows getFirstBatch() {
@@ -113,7 +158,8 @@ public class JSONRowsStorageManager {
         mJSONRowsObjectIterator = mFileList.getIterator();
 
         if (inMemoryReportsCount > 0) {
-            mInMemoryFinalizedJSONRowsObject = mInMemoryActiveJSONRows.finalizeToJSONRowsObject();
+            mInMemoryFinalizedJSONRowsObject = finalizeActiveRows();
+            mJournal.moveActiveToPending();
             mInMemoryFinalizedJSONRowsObject.storageState = SerializedJSONRows.StorageState.IN_MEMORY;
             return mInMemoryFinalizedJSONRowsObject;
         } else {
@@ -126,15 +172,30 @@ public class JSONRowsStorageManager {
             return null;
         }
 
-        int index = mJSONRowsObjectIterator.nextIndex();
-        if (!mJSONRowsObjectIterator.isIndexValid(index)) {
-            return null;
+        while (true) {
+            int index = mJSONRowsObjectIterator.nextIndex();
+            if (!mJSONRowsObjectIterator.isIndexValid(index)) {
+                return null;
+            }
+            final long startNs = System.nanoTime();
+            SerializedJSONRows result = mJSONRowsObjectIterator.getAtCurrentIndex();
+            if (result != null) {
+                sReadUs.record(PipelineMetrics.microsSince(startNs));
+                return result;
+            }
+            // The file is gone or unreadable, drop it from the index and move on.
+            mFileList.remove(mJSONRowsObjectIterator.getNameAtCurrentIndex());
         }
-        SerializedJSONRows result = mJSONRowsObjectIterator.getAtCurrentIndex();
-        if (result == null) {
-            mFileList.update();
+    }
+
+    /*
+     Take the active rows out of memory as a batch, for writing out or uploading.
+     */
+    private SerializedJSONRows finalizeActiveRows() {
+        if (mInMemoryActiveJSONRows.entriesCount() > 0) {
+            sInMemoryMs.record(PipelineMetrics.microsSince(mActiveRowsSinceNs) / 1000);
         }
-        return result;
+        return mInMemoryActiveJSONRows.finalizeToJSONRowsObject();
     }
 
     protected File createFile(SerializedJSONRows unused) {
@@ -160,7 +221,7 @@ public class JSONRowsStorageManager {
         }
 
         long oldest = Long.MAX_VALUE;
-        for (File f : mFileList.mFiles) {
+        for (File f : mFileList.getFiles()) {
             final long t = getLongFromFilename(f.getName(), SEP_TIME_MS);
             if (t < oldest) {
                 oldest = t;
@@ -180,6 +241,7 @@ public class JSONRowsStorageManager {
 
         boolean result = saveToDisk(mInMemoryFinalizedJSONRowsObject);
         mInMemoryFinalizedJSONRowsObject = null;
+        mJournal.discardPending();
         return result;
     }
 
@@ -191,6 +253,7 @@ public class JSONRowsStorageManager {
         if (mFileList.mFilesOnDiskBytes > mMaxBytesDiskStorage) {
             return false;
         }
+        final long startNs = System.nanoTime();
         data.storageState = SerializedJSONRows.StorageState.ON_DISK;
         FileOutputStream fos = null;
         File f = createFile(data);
@@ -203,7 +266,7 @@ public class JSONRowsStorageManager {
             fos.write(data.data);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error writing reports to disk: " + e.toString());
-            ACRA.getErrorReporter().handleSilentException(e);
+            errorReporter.handleSilentException(e);
             // Try to remove the file safely if we can't save it.
             if (f.exists()) {
                 f.delete();
@@ -217,9 +280,12 @@ public class JSONRowsStorageManager {
                     // eat it - nothing we can do here
                 }
             }
-            mFileList.update();
         }
 
+        mFileList.add(f);
+        sSaveUs.record(PipelineMetrics.microsSince(startNs));
+        sSaveBytes.record(data.data.length);
+        sBytesOnDisk.set(mFileList.mFilesOnDiskBytes);
         return true;
     }
 
@@ -232,51 +298,59 @@ public class JSONRowsStorageManager {
             return;
         }
 
-        SerializedJSONRows json = mInMemoryActiveJSONRows.finalizeToJSONRowsObject();
+        SerializedJSONRows json = finalizeActiveRows();
 
         // Uncomment this block when debugging the report blobs
         //Log.d(LOG_TAG, "PII geosubmit report: " + report);
         // end debug blob
 
+        // If this fails the rows are dropped from memory anyway (i.e. the disk quota is hit),
+        // so there is nothing left for the journal to protect.
         saveToDisk(json);
+        mJournal.discardActive();
     }
 
     protected synchronized void insertRow(JSONObject json) {
         notifyStorageIsEmpty(false);
 
-        if (mFlushMemoryBuffersToDiskTimer != null) {
-            mFlushMemoryBuffersToDiskTimer.cancel();
-            mFlushMemoryBuffersToDiskTimer = null;
+        // The journal replaces the old flush-to-disk timer: rows are on disk as soon as they
+        // are inserted, and are folded into a batch file on the next startup if need be.
+        final byte[] row = json.toString().getBytes();
+        final boolean isFirstRow = mInMemoryActiveJSONRows.entriesCount() == 0;
+        if (!mInMemoryActiveJSONRows.addRow(json, row)) {
+            return;
         }
+        if (isFirstRow) {
+            mActiveRowsSinceNs = System.nanoTime();
+        }
+        mJournal.append(row);
 
-        mInMemoryActiveJSONRows.addRow(json);
-
-        if (mInMemoryActiveJSONRows.maxRowsReached()) {
+        // Always try to flush memory to storage if saving stumble logs is enabled.
+        if (mInMemoryActiveJSONRows.maxRowsReached() || isSaveStumbleLogs()) {
             // save to disk
             saveAllInMemoryToDisk();
-        } else {
-            // Schedule a timer to flush to disk after a few mins.
-            // If collection stops and wifi not available for uploading, the memory buffer is flushed to disk.
-            final int kMillis = 1000 * 60 * 3;
-            mFlushMemoryBuffersToDiskTimer = new Timer();
-            mFlushMemoryBuffersToDiskTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    saveAllInMemoryToDisk();
-                }
-            }, kMillis);
         }
     }
 
+    /*
+     Whether every row should be written out as soon as it is inserted, so it can be copied
+     to the stumble log.
+     */
+    protected boolean isSaveStumbleLogs() {
+        return false;
+    }
+
     public synchronized boolean delete(SerializedJSONRows data) {
         if (data == mInMemoryFinalizedJSONRowsObject) {
             mInMemoryFinalizedJSONRowsObject = null;
+            mJournal.discardPending();
             return true;
         }
 
         final File file = new File(mStorageDir, data.filename);
         boolean ok = file.delete();
-        mFileList.update();
+        mFileList.remove(data.filename);
+        sBytesOnDisk.set(mFileList.mFilesOnDiskBytes);
         return ok;
     }
 
@@ -287,15 +361,11 @@ public class JSONRowsStorageManager {
      We do *not* try to move these files into the sdcard as they are probably just corrupt anyway.
      */
     public synchronized void deleteAll() {
-        if (mFileList.mFiles == null) {
-            return;
-        }
-
-        for (File f : mFileList.mFiles) {
+        for (File f : mFileList.getFiles()) {
             f.delete();
+            mFileList.remove(f.getName());
         }
-
-        mFileList.update();
+        sBytesOnDisk.set(mFileList.mFilesOnDiskBytes);
     }
 
     private void notifyStorageIsEmpty(boolean isEmpty) {
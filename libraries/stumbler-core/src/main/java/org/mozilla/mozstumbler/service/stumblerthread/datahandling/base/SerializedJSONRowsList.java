@@ -0,0 +1,340 @@
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
+
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.IErrorReporter;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ In-memory index of the serialized row files in the storage directory.
+
+ The index is kept up to date by add() and remove() as files are written and deleted, so the
+ queue counters never need to walk the directory. It is persisted as an append-only manifest
+ next to the storage directory: each line is either "+<name> <bytes>" or "-<name>", and the
+ manifest is compacted once it holds many more lines than live entries.
+
+ On construction the manifest is loaded and reconciled against a single listing of the
+ directory (names only), so files written or removed behind our back are still picked up,
+ and only files missing from the manifest are stat()'d.
+ */
+public class SerializedJSONRowsList {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(SerializedJSONRowsList.class);
+    private static final IErrorReporter errorReporter = (IErrorReporter) ServiceLocator
+            .getInstance()
+            .getService(IErrorReporter.class);
+
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final int MIN_LINES_BEFORE_COMPACT = 64;
+
+    public static class Iterator {
+        protected final File[] files;
+        public int currentIndex = -1;
+
+        protected Iterator(SerializedJSONRowsList list) {
+            files = list.getFiles();
+        }
+
+        protected SerializedJSONRows create(File f, byte[] data) {
+            SerializedJSONRows serializedJSONRows = new SerializedJSONRows(data, SerializedJSONRows.StorageState.ON_DISK);
+            serializedJSONRows.filename = f.getName();
+            return serializedJSONRows;
+        }
+
+        public SerializedJSONRows getAtCurrentIndex() {
+            final File f = files[currentIndex];
+            byte[] data = null;
+            try {
+                data = readFile(f);
+            } catch (Exception e) {
+                return null;
+            }
+            return create(f, data);
+        }
+
+        public String getNameAtCurrentIndex() {
+            return files[currentIndex].getName();
+        }
+
+        public boolean isIndexValid(int index) {
+            return  index > -1 && index < files.length;
+        }
+
+        public int nextIndex() {
+            return ++currentIndex;
+        }
+
+        private static byte[] readFile(File file) throws IOException {
+            RandomAccessFile f = null;
+            try {
+                f = new RandomAccessFile(file, "r");
+                final byte[] data = new byte[(int) f.length()];
+                f.readFully(data);
+                return data;
+            } catch (IOException e) {
+                errorReporter.handleSilentException(e);
+                throw e;
+            } finally {
+                if (f != null) {
+                    try {
+                        f.close();
+                    } catch (IOException e) {
+                        // eat it
+                    }
+                }
+            }
+        }
+    }
+
+    // File name -> size in bytes, in the order the files were written.
+    private final LinkedHashMap<String, Long> mIndex = new LinkedHashMap<String, Long>();
+    private File[] mFilesSnapshot;
+    private int mManifestLines;
+
+    public long mFilesOnDiskBytes;
+    protected final File mStorageDir;
+    protected final File mManifest;
+
+    public SerializedJSONRowsList(File storageDir) {
+        mStorageDir = storageDir;
+        mManifest = new File(storageDir.getParentFile(), storageDir.getName() + MANIFEST_SUFFIX);
+        load();
+    }
+
+    public Iterator getIterator() {
+        return new Iterator(this);
+    }
+
+    /*
+     Returns a snapshot of the indexed files, oldest first.
+     */
+    public synchronized File[] getFiles() {
+        if (mFilesSnapshot == null) {
+            mFilesSnapshot = new File[mIndex.size()];
+            int i = 0;
+            for (String name : mIndex.keySet()) {
+                mFilesSnapshot[i++] = new File(mStorageDir, name);
+            }
+        }
+        return mFilesSnapshot.clone();
+    }
+
+    public synchronized int getFileCount() {
+        return mIndex.size();
+    }
+
+    public synchronized boolean isDirEmpty() {
+        return mIndex.isEmpty();
+    }
+
+    /*
+     Record a file that was just written to the storage directory.
+     */
+    public synchronized void add(File f) {
+        final String name = f.getName();
+        if (mIndex.containsKey(name)) {
+            return;
+        }
+        final long bytes = f.length();
+        putEntry(name, bytes);
+        appendToManifest("+" + name + " " + bytes);
+    }
+
+    /*
+     Forget a file that was deleted, or that can no longer be read.
+     */
+    public synchronized void remove(String name) {
+        if (!mIndex.containsKey(name)) {
+            return;
+        }
+        removeEntry(name);
+        appendToManifest("-" + name);
+    }
+
+    /*
+     Rebuild the index from a full scan of the storage directory.
+     This is expensive: it lists and stat()s every file. Use add() and remove() to keep the
+     index current.
+     */
+    public synchronized void update() {
+        clearEntries();
+        final File[] files = mStorageDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                putEntry(f.getName(), f.length());
+            }
+        }
+        writeManifest();
+    }
+
+    /*
+     Hooks for subclasses that keep aggregate values derived from the file names.
+     */
+    protected void onEntryAdded(String name, long bytes) {
+        mFilesOnDiskBytes += bytes;
+    }
+
+    protected void onEntryRemoved(String name, long bytes) {
+        mFilesOnDiskBytes -= bytes;
+    }
+
+    protected void onEntriesCleared() {
+        mFilesOnDiskBytes = 0;
+    }
+
+    private void putEntry(String name, long bytes) {
+        Log.d("StumblerFiles", name);
+        mIndex.put(name, bytes);
+        mFilesSnapshot = null;
+        onEntryAdded(name, bytes);
+    }
+
+    private void removeEntry(String name) {
+        final Long bytes = mIndex.remove(name);
+        mFilesSnapshot = null;
+        onEntryRemoved(name, bytes);
+    }
+
+    private void clearEntries() {
+        mIndex.clear();
+        mFilesSnapshot = null;
+        onEntriesCleared();
+    }
+
+    private void load() {
+        final LinkedHashMap<String, Long> manifest = readManifest();
+
+        final String[] names = mStorageDir.list();
+        if (names == null) {
+            return;
+        }
+        final Set<String> onDisk = new HashSet<String>(names.length);
+        for (String name : names) {
+            onDisk.add(name);
+        }
+
+        boolean stale = (manifest == null);
+        if (manifest != null) {
+            for (Map.Entry<String, Long> entry : manifest.entrySet()) {
+                if (onDisk.remove(entry.getKey())) {
+                    putEntry(entry.getKey(), entry.getValue());
+                } else {
+                    stale = true;
+                }
+            }
+        }
+        // Whatever is left was never recorded in the manifest
+        for (String name : onDisk) {
+            putEntry(name, new File(mStorageDir, name).length());
+            stale = true;
+        }
+
+        if (stale) {
+            writeManifest();
+        }
+    }
+
+    // Returns null if there is no usable manifest.
+    private LinkedHashMap<String, Long> readManifest() {
+        if (!mManifest.exists()) {
+            return null;
+        }
+
+        final LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(mManifest));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                mManifestLines++;
+                if (line.startsWith("+")) {
+                    final int sep = line.lastIndexOf(' ');
+                    result.put(line.substring(1, sep), Long.parseLong(line.substring(sep + 1)));
+                } else if (line.startsWith("-")) {
+                    result.remove(line.substring(1));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error reading manifest: " + e.toString());
+            return null;
+        } catch (RuntimeException e) {
+            // A torn last line, or garbage.  The directory listing is the source of truth.
+            Log.w(LOG_TAG, "Corrupt manifest: " + e.toString());
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+        return result;
+    }
+
+    private void appendToManifest(String line) {
+        if (mManifestLines > MIN_LINES_BEFORE_COMPACT && mManifestLines > mIndex.size() * 2) {
+            writeManifest();
+            return;
+        }
+
+        Writer writer = null;
+        try {
+            writer = new FileWriter(mManifest, true);
+            writer.write(line + "\n");
+            mManifestLines++;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error appending to manifest: " + e.toString());
+            // The next startup will reconcile against the directory
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private void writeManifest() {
+        final File tmp = new File(mManifest.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new FileWriter(tmp, false);
+            for (Map.Entry<String, Long> entry : mIndex.entrySet()) {
+                writer.write("+" + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(mManifest)) {
+                throw new IOException("Unable to rename " + tmp.getName());
+            }
+            mManifestLines = mIndex.size();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Error writing manifest: " + e.toString());
+            mManifest.delete();
+            tmp.delete();
+            mManifestLines = 0;
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException e) {
+            // eat it
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/*
+ One scanner result received by the Reporter, as recorded in a trace.
+
+ offsetMs is when it was received, in ms since the trace started, and is what replay is paced
+ by. data is the scanner result itself, in a form that depends on the kind, and is only
+ interpreted by the recorder and the replayer.
+ */
+public final class TraceEvent {
+    public static final String KIND_LOCATION = "gps";
+    public static final String KIND_LOCATION_LOST = "lost";
+    public static final String KIND_WIFI = "wifi";
+    public static final String KIND_CELL = "cell";
+    public static final String KIND_PRESSURE = "pressure";
+
+    private static final String KEY_OFFSET = "t";
+    private static final String KEY_KIND = "k";
+    private static final String KEY_DATA = "d";
+
+    public final String kind;
+    public final long offsetMs;
+    public final JSONObject data;
+
+    public TraceEvent(String kind, long offsetMs, JSONObject data) {
+        this.kind = kind;
+        this.offsetMs = offsetMs;
+        this.data = (data == null) ? new JSONObject() : data;
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_OFFSET, offsetMs);
+        json.put(KEY_KIND, kind);
+        json.put(KEY_DATA, data);
+        return json;
+    }
+
+    static TraceEvent fromJSON(JSONObject json) throws JSONException {
+        return new TraceEvent(json.getString(KEY_KIND), json.getLong(KEY_OFFSET), json.optJSONObject(KEY_DATA));
+    }
+}
@@ -0,0 +1,45 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+/*
+ Maps trace offsets to wall clock time for replay: at speed 1 events are replayed as far apart
+ as they were recorded, at speed N, N times closer together. MAX_SPEED doesn't wait at all.
+
+ Delays are measured from the start of replay, not from the previous event, so time lost to a
+ slow event is made up on the next ones instead of accumulating.
+ */
+public class TracePacer {
+    public static final double MAX_SPEED = 0;
+
+    private final double mSpeed;
+    private long mStartedMs;
+
+    public TracePacer(double speed) {
+        if (speed < 0 || Double.isNaN(speed) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Bad replay speed: " + speed);
+        }
+        mSpeed = speed;
+    }
+
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    public void start(long nowMs) {
+        mStartedMs = nowMs;
+    }
+
+    /*
+     How long to wait, at nowMs, before replaying the event at offsetMs.
+     */
+    public long getDelayMs(long offsetMs, long nowMs) {
+        if (mSpeed == MAX_SPEED) {
+            return 0;
+        }
+        final long dueMs = mStartedMs + (long) (offsetMs / mSpeed);
+        return Math.max(0, dueMs - nowMs);
+    }
+}
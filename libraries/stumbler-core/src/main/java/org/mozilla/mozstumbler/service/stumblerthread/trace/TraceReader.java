@@ -0,0 +1,87 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+/*
+ Reads back a trace written by TraceWriter, one event at a time, so a long drive doesn't have
+ to fit in memory. A trace cut short (never closed) ends at its last complete line.
+ */
+public class TraceReader implements Closeable {
+    private final BufferedReader mReader;
+    private final long mStartedMs;
+    private int mLine = 1;
+
+    public TraceReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public TraceReader(InputStream in) throws IOException {
+        mReader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new BufferedInputStream(in)), "UTF-8"));
+
+        final String line = mReader.readLine();
+        if (line == null) {
+            throw new IOException("Empty trace");
+        }
+        try {
+            JSONObject header = new JSONObject(line);
+            if (!TraceWriter.FORMAT.equals(header.optString(TraceWriter.KEY_FORMAT))) {
+                throw new IOException("Not a trace");
+            }
+            if (header.getInt(TraceWriter.KEY_VERSION) > TraceWriter.VERSION) {
+                throw new IOException("Unsupported trace version " + header.getInt(TraceWriter.KEY_VERSION));
+            }
+            mStartedMs = header.getLong(TraceWriter.KEY_STARTED);
+        } catch (JSONException e) {
+            throw new IOException("Bad trace header: " + e);
+        }
+    }
+
+    public long getStartedMs() {
+        return mStartedMs;
+    }
+
+    /*
+     Return the next event, or null at the end of the trace.
+     */
+    public TraceEvent next() throws IOException {
+        String line;
+        try {
+            line = mReader.readLine();
+        } catch (EOFException e) {
+            // Truncated gzip stream, the trace was never closed
+            return null;
+        }
+        if (line == null) {
+            return null;
+        }
+        mLine++;
+
+        try {
+            return TraceEvent.fromJSON(new JSONObject(line));
+        } catch (JSONException e) {
+            throw new IOException("Bad trace event on line " + mLine + ": " + e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
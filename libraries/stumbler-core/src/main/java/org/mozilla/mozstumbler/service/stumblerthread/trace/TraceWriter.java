@@ -0,0 +1,90 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ Writes a trace: gzipped, one JSON object per line. The first line is a header with the format
+ version and the wall clock time the trace started at, every other line is a TraceEvent.
+
+ The gzip stream is only finished on close(). A trace that was never closed (i.e. the process
+ was killed) is still readable by TraceReader, up to the last complete block.
+ */
+public class TraceWriter implements Closeable {
+    public static final String FORMAT = "mozstumbler-trace";
+    public static final int VERSION = 1;
+
+    static final String KEY_FORMAT = "format";
+    static final String KEY_VERSION = "version";
+    static final String KEY_STARTED = "started";
+
+    private final Writer mWriter;
+    private final long mStartedMs;
+    private long mLastOffsetMs;
+    private int mEventCount;
+
+    public TraceWriter(File file, long startedMs) throws IOException {
+        this(new FileOutputStream(file), startedMs);
+    }
+
+    public TraceWriter(OutputStream out, long startedMs) throws IOException {
+        mWriter = new OutputStreamWriter(new GZIPOutputStream(new BufferedOutputStream(out)), "UTF-8");
+        mStartedMs = startedMs;
+
+        JSONObject header = new JSONObject();
+        try {
+            header.put(KEY_FORMAT, FORMAT);
+            header.put(KEY_VERSION, VERSION);
+            header.put(KEY_STARTED, startedMs);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+        writeLine(header);
+    }
+
+    public long getStartedMs() {
+        return mStartedMs;
+    }
+
+    public synchronized int getEventCount() {
+        return mEventCount;
+    }
+
+    /*
+     Append an event received at timeMs, on the clock startedMs was taken from. Events are
+     expected in the order they were received, offsets never go backwards even if the clock does.
+     */
+    public synchronized void write(String kind, long timeMs, JSONObject data) throws IOException {
+        mLastOffsetMs = Math.max(mLastOffsetMs, timeMs - mStartedMs);
+        try {
+            writeLine(new TraceEvent(kind, mLastOffsetMs, data).toJSON());
+        } catch (JSONException e) {
+            throw new IOException("Can't write trace event: " + e);
+        }
+        mEventCount++;
+    }
+
+    private void writeLine(JSONObject json) throws IOException {
+        mWriter.write(json.toString());
+        mWriter.write('\n');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mWriter.close();
+    }
+}
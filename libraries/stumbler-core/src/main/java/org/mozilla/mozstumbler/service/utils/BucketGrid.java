@@ -0,0 +1,86 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ Square buckets over a plane of non-negative integer coordinates, hashed by their column and
+ row. Buckets are also grouped into tiles of TILE_BUCKETS x TILE_BUCKETS, so a query for a
+ rectangle only visits the tiles it overlaps, not every bucket.
+
+ The map overlay's ObservationPointIndex keeps one grid per zoom level, in projected pixels.
+
+ This class is not thread safe.
+ */
+public class BucketGrid<B> {
+    public static final int TILE_BUCKETS = 32;
+
+    private final long mBucketSize;
+    private final long mTileSize;
+    private final HashMap<Long, B> mBuckets = new HashMap<Long, B>();
+    private final HashMap<Long, ArrayList<B>> mTiles = new HashMap<Long, ArrayList<B>>();
+
+    public BucketGrid(long bucketSize) {
+        mBucketSize = bucketSize;
+        mTileSize = bucketSize * TILE_BUCKETS;
+    }
+
+    private static Long key(long x, long y) {
+        return (x << 32) | (y & 0xffffffffL);
+    }
+
+    public boolean isEmpty() {
+        return mBuckets.isEmpty();
+    }
+
+    public int size() {
+        return mBuckets.size();
+    }
+
+    /*
+     The bucket that (x, y) falls in, or null if there is none yet.
+     */
+    public B get(long x, long y) {
+        return mBuckets.get(key(x / mBucketSize, y / mBucketSize));
+    }
+
+    /*
+     Set the bucket that (x, y) falls in. It must not have one yet.
+     */
+    public void put(long x, long y, B bucket) {
+        final long bx = x / mBucketSize;
+        final long by = y / mBucketSize;
+        mBuckets.put(key(bx, by), bucket);
+        final Long tileKey = key(bx / TILE_BUCKETS, by / TILE_BUCKETS);
+        ArrayList<B> tile = mTiles.get(tileKey);
+        if (tile == null) {
+            tile = new ArrayList<B>();
+            mTiles.put(tileKey, tile);
+        }
+        tile.add(bucket);
+    }
+
+    /*
+     Add to out the buckets in the tiles overlapping the rectangle. The buckets returned may be
+     a little outside the rectangle.
+     */
+    public void query(long left, long top, long right, long bottom, List<B> out) {
+        final long tileLeft = Math.max(0, left) / mTileSize;
+        final long tileRight = Math.max(0, right) / mTileSize;
+        final long tileTop = Math.max(0, top) / mTileSize;
+        final long tileBottom = Math.max(0, bottom) / mTileSize;
+        for (long tx = tileLeft; tx <= tileRight; tx++) {
+            for (long ty = tileTop; ty <= tileBottom; ty++) {
+                final ArrayList<B> tile = mTiles.get(key(tx, ty));
+                if (tile != null) {
+                    out.addAll(tile);
+                }
+            }
+        }
+    }
+}
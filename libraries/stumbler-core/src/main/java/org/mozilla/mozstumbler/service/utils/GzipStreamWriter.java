@@ -0,0 +1,161 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ Incrementally gzips data into an in-memory buffer.
+
+ Unlike GZIPOutputStream, the Deflater and the output buffer are kept around and reused
+ for each gzip member, so a caller that builds many small gzip blobs (i.e. report batches)
+ doesn't churn through native zlib state and large byte arrays.
+
+ The output of finish() is a standard gzip member that Zipper.unzipData() can read.
+
+ This class is not thread safe, callers must synchronize access.
+ */
+public class GzipStreamWriter {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 mCrc = new CRC32();
+    private final byte[] mDeflateChunk = new byte[2048];
+
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private int mCount;
+    private boolean mHeaderWritten;
+
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    public void write(byte[] data, int offset, int length) {
+        if (!mHeaderWritten) {
+            writeHeader();
+        }
+        mCrc.update(data, offset, length);
+        mDeflater.setInput(data, offset, length);
+        while (!mDeflater.needsInput()) {
+            drainDeflater();
+        }
+    }
+
+    /*
+     Number of compressed bytes buffered so far, not including the gzip trailer.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /*
+     Writes the gzip trailer and returns the complete gzip member. The writer is reset
+     and can immediately be used for a new member.
+     */
+    public byte[] finish() {
+        if (!mHeaderWritten) {
+            writeHeader();
+        }
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            drainDeflater();
+        }
+
+        ensureCapacity(GZIP_TRAILER_SIZE);
+        writeIntLE((int) mCrc.getValue());
+        writeIntLE(mDeflater.getTotalIn());
+
+        byte[] result = Arrays.copyOf(mBuffer, mCount);
+        reset();
+        return result;
+    }
+
+    public void reset() {
+        mDeflater.reset();
+        mCrc.reset();
+        mCount = 0;
+        mHeaderWritten = false;
+    }
+
+    /*
+     Returns the uncompressed bytes written since the last reset, or null if they can't be
+     recovered.
+     This forces a SYNC_FLUSH of the deflater (requires API 19) and then inflates the buffer,
+     it is only meant for infrequent inspection of the pending data.
+     */
+    public byte[] peekUncompressed() {
+        if (!mHeaderWritten) {
+            return new byte[0];
+        }
+
+        int flushed;
+        do {
+            flushed = mDeflater.deflate(mDeflateChunk, 0, mDeflateChunk.length, Deflater.SYNC_FLUSH);
+            append(mDeflateChunk, flushed);
+        } while (flushed == mDeflateChunk.length);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(mBuffer, GZIP_HEADER_SIZE, mCount - GZIP_HEADER_SIZE);
+            byte[] result = new byte[mDeflater.getTotalIn()];
+            int read = 0;
+            while (read < result.length && !inflater.needsInput()) {
+                read += inflater.inflate(result, read, result.length - read);
+            }
+            return (read == result.length) ? result : null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void writeHeader() {
+        ensureCapacity(GZIP_HEADER_SIZE);
+        mBuffer[mCount++] = (byte) GZIP_MAGIC;
+        mBuffer[mCount++] = (byte) (GZIP_MAGIC >> 8);
+        mBuffer[mCount++] = Deflater.DEFLATED;
+        // flags, mtime(4), xfl, os are all zero, same as GZIPOutputStream
+        for (int i = 0; i < 7; i++) {
+            mBuffer[mCount++] = 0;
+        }
+        mHeaderWritten = true;
+    }
+
+    private void drainDeflater() {
+        int len = mDeflater.deflate(mDeflateChunk, 0, mDeflateChunk.length);
+        append(mDeflateChunk, len);
+    }
+
+    private void append(byte[] chunk, int len) {
+        if (len <= 0) {
+            return;
+        }
+        ensureCapacity(len);
+        System.arraycopy(chunk, 0, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    private void writeIntLE(int value) {
+        mBuffer[mCount++] = (byte) value;
+        mBuffer[mCount++] = (byte) (value >> 8);
+        mBuffer[mCount++] = (byte) (value >> 16);
+        mBuffer[mCount++] = (byte) (value >> 24);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mCount + extra <= mBuffer.length) {
+            return;
+        }
+        mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mCount + extra));
+    }
+}
@@ -0,0 +1,135 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+import java.util.Arrays;
+
+/*
+ A map of long keys to int values, using open addressing with linear probing over primitive
+ arrays. Lookups don't box or allocate, which is what this exists for.
+
+ Entries can't be removed. Long.MIN_VALUE is reserved to mark empty slots and can't be used
+ as a key.
+
+ This class is not thread safe for writes; concurrent reads of a map that is no longer
+ modified are fine.
+ */
+public class LongIntHashMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float MAX_LOAD = 0.5f;
+
+    private long[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize;
+    private final int mMissingValue;
+
+    /*
+     get() returns missingValue for keys that are not in the map.
+     */
+    public LongIntHashMap(int expectedSize, int missingValue) {
+        mMissingValue = missingValue;
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int get(long key) {
+        int i = indexOf(key);
+        while (true) {
+            final long k = mKeys[i];
+            if (k == key) {
+                return mValues[i];
+            }
+            if (k == EMPTY) {
+                return mMissingValue;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        int i = indexOf(key);
+        while (true) {
+            final long k = mKeys[i];
+            if (k == key) {
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Reserved key");
+        }
+        if (mSize + 1 > mKeys.length * MAX_LOAD) {
+            rehash(mKeys.length * 2);
+        }
+        if (insert(key, value)) {
+            mSize++;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mKeys, EMPTY);
+        mSize = 0;
+    }
+
+    // Returns true if the key is new.
+    private boolean insert(long key, int value) {
+        int i = indexOf(key);
+        while (true) {
+            final long k = mKeys[i];
+            if (k == EMPTY) {
+                mKeys[i] = key;
+                mValues[i] = value;
+                return true;
+            }
+            if (k == key) {
+                mValues[i] = value;
+                return false;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        final long[] keys = mKeys;
+        final int[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                insert(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    private int indexOf(long key) {
+        // Spread the bits, packed keys tend to differ only in their low bits.
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mMask;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
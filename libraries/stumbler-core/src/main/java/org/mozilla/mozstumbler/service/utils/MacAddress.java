@@ -0,0 +1,142 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.utils;
+
+/*
+ MAC addresses (BSSIDs) packed into the low 48 bits of a long.
+ */
+public final class MacAddress {
+    public static final long INVALID = -1;
+
+    private MacAddress() {
+    }
+
+    /*
+     Parse 12 hex digits, in either case, optionally delimited by ':', '-' or '.'.
+     Returns INVALID for anything else. Doesn't allocate.
+     */
+    public static long parse(String mac) {
+        if (mac == null) {
+            return INVALID;
+        }
+        long value = 0;
+        int digits = 0;
+        final int length = mac.length();
+        for (int i = 0; i < length; i++) {
+            final char c = mac.charAt(i);
+            final int nibble = hexValue(c);
+            if (nibble < 0) {
+                if (isDelimiter(c)) {
+                    continue;
+                }
+                return INVALID;
+            }
+            if (++digits > 12) {
+                return INVALID;
+            }
+            value = (value << 4) | nibble;
+        }
+        return digits == 12 ? value : INVALID;
+    }
+
+    /*
+     Parse an OUI, the first 3 bytes of a MAC address, as 6 hex digits with the same optional
+     delimiters as parse(). Returns INVALID for anything else.
+     */
+    public static int parseOUI(String oui) {
+        if (oui == null) {
+            return (int) INVALID;
+        }
+        int value = 0;
+        int digits = 0;
+        final int length = oui.length();
+        for (int i = 0; i < length; i++) {
+            final char c = oui.charAt(i);
+            final int nibble = hexValue(c);
+            if (nibble < 0) {
+                if (isDelimiter(c)) {
+                    continue;
+                }
+                return (int) INVALID;
+            }
+            if (++digits > 6) {
+                return (int) INVALID;
+            }
+            value = (value << 4) | nibble;
+        }
+        return digits == 6 ? value : (int) INVALID;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == ':' || c == '-' || c == '.';
+    }
+
+    public static int getOUI(long mac) {
+        return (int) (mac >>> 24);
+    }
+
+    /*
+     True if the string is already in the canonical form, 12 lower case hex digits.
+     */
+    public static boolean isCanonical(String mac) {
+        if (mac == null || mac.length() != 12) {
+            return false;
+        }
+        for (int i = 0; i < 12; i++) {
+            final char c = mac.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     The canonical form: 12 lower case hex digits, no delimiters.
+     */
+    public static String format(long mac) {
+        final char[] chars = new char[12];
+        for (int i = 11; i >= 0; i--) {
+            chars[i] = Character.forDigit((int) (mac & 0xf), 16);
+            mac >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /*
+     The canonical form of mac, or "" if it can't be parsed. mac is returned as is if it is
+     already canonical, so this only allocates for BSSIDs with delimiters or upper case digits.
+     */
+    public static String canonicalize(String mac) {
+        return canonicalize(mac, parse(mac));
+    }
+
+    /*
+     For callers that already parsed mac.
+     */
+    public static String canonicalize(String mac, long parsed) {
+        if (parsed == INVALID) {
+            return "";
+        }
+
+        if (isCanonical(mac)) {
+            return mac;
+        }
+
+        // Some devices may return BSSIDs with ':', '-' or '.' delimiters.
+        return format(parsed);
+    }
+}
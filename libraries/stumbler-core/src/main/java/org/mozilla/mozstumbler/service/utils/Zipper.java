@@ -4,8 +4,8 @@
 
 package org.mozilla.mozstumbler.service.utils;
 
-import android.util.Log;
-
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.io.BufferedReader;
@@ -18,6 +18,7 @@ import java.util.zip.GZIPOutputStream;
 
 public class Zipper {
 
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
     private static final String LOG_TAG = LoggerUtil.makeLogTag(Zipper.class);
 
     /*
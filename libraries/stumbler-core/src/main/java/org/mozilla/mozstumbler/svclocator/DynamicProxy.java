@@ -4,46 +4,34 @@
 
 package org.mozilla.mozstumbler.svclocator;
 
-import android.util.Log;
-
-import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
-
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
-public class DynamicProxy implements InvocationHandler {
-    private static final String LOG_TAG = LoggerUtil.makeLogTag(DynamicProxy.class);
-    private Object impl;
-    private Class<?> svcDefinition;
+/*
+ The binding behind the java.lang.reflect.Proxy that ServiceLocator hands out for services
+ without a typed binding. Calls go through Method.invoke(), which is fine for services that
+ aren't called in a loop.
+ */
+public class DynamicProxy extends ServiceBinding<Object> implements InvocationHandler {
 
     public DynamicProxy(Class<?> svcDef) {
-        this.svcDefinition = svcDef;
+        this(ServiceLocator.getInstance(), svcDef);
     }
 
-    /*
-    Gets an instance of the delegate
-     */
-    private synchronized Object getInstance() {
-        if (this.impl == null) {
-            this.impl = ServiceLocator.getInstance().getDirectService(this.svcDefinition);
-        }
-        return this.impl;
+    DynamicProxy(ServiceLocator locator, Class<?> svcDef) {
+        super(locator, svcDef);
     }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
 
-        Object obj = getInstance();
+        Object obj = getImpl();
 
         if (obj == null) {
             // return a reasonable default for primitive types
             // and a NULL for anything that's not primitive.
-
-            String errMsg = svcDefinition.getCanonicalName() + " service was called prior to initialization.";
-            Log.w(LOG_TAG, errMsg);
-            System.err.println(errMsg);
-
             Class<?> returnType = method.getReturnType();
             String canonName = returnType.getCanonicalName();
             if (returnType.isPrimitive()) {
@@ -86,6 +74,11 @@ public class DynamicProxy implements InvocationHandler {
                 throw new IllegalStateException(String.valueOf(method));
             }
         }
-        return method.invoke(obj, args);
+        try {
+            return method.invoke(obj, args);
+        } catch (InvocationTargetException e) {
+            // Throw what the service threw, not the reflection wrapper
+            throw e.getCause();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.svclocator;
+
+/*
+ A lazily bound reference to the implementation of a service.
+
+ The implementation is looked up on first use and kept in a volatile field, so once bound a
+ call costs one volatile read on top of the call itself. The ServiceLocator clears the field
+ whenever the service is replaced (putService() or newRoot()), and the next call binds to the
+ new implementation.
+
+ While the service isn't registered nothing is cached, and getImpl() returns null.
+ */
+public class ServiceBinding<T> {
+    private final ServiceLocator mLocator;
+    private final Class<?> mSvcDefinition;
+    private volatile T mImpl;
+
+    protected ServiceBinding(ServiceLocator locator, Class<?> svcDefinition) {
+        mLocator = locator;
+        mSvcDefinition = svcDefinition;
+    }
+
+    public Class<?> getServiceDefinition() {
+        return mSvcDefinition;
+    }
+
+    protected final T getImpl() {
+        final T impl = mImpl;
+        if (impl != null) {
+            return impl;
+        }
+        return bind();
+    }
+
+    @SuppressWarnings("unchecked")
+    private T bind() {
+        final T impl = (T) mLocator.bind(this);
+        if (impl == null) {
+            System.err.println(mSvcDefinition.getCanonicalName() + " service was called prior to initialization.");
+        }
+        return impl;
+    }
+
+    // Only called by the ServiceLocator, under its lock
+    @SuppressWarnings("unchecked")
+    void setImpl(Object impl) {
+        mImpl = (T) impl;
+    }
+}
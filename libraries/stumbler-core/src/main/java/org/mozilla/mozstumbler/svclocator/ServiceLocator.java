@@ -0,0 +1,114 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.mozstumbler.svclocator;
+
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.SystemClockBinding;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerBinding;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+
+public class ServiceLocator {
+
+    private static ServiceLocator instance = null;
+    private ServiceConfig svcMap = new ServiceConfig();
+    private ServiceLocator parentLocator = null;
+
+    // One binding, and the object handed out for it, per service interface
+    private final HashMap<Class<?>, ServiceBinding<?>> bindings = new HashMap<Class<?>, ServiceBinding<?>>();
+    private final HashMap<Class<?>, Object> services = new HashMap<Class<?>, Object>();
+
+    public ServiceLocator(ServiceLocator parent) {
+        parentLocator = parent;
+    }
+
+    public static synchronized void newRoot(ServiceConfig newMap) {
+        if (instance == null) {
+            instance = getInstance();
+        }
+        instance.setServiceConfig(newMap);
+    }
+
+    public static synchronized ServiceLocator getInstance() {
+        if (instance == null) {
+            instance = new ServiceLocator(null);
+        }
+        return instance;
+    }
+
+    private synchronized void setServiceConfig(ServiceConfig newMap) {
+        svcMap = newMap;
+        for (ServiceBinding<?> binding : bindings.values()) {
+            binding.setImpl(null);
+        }
+    }
+
+    /*
+     Call this method with an interface class to get a lazily bound reference to the service.
+     The same object is returned for every call, and it follows the service if it is replaced.
+
+     The hot services, ILogger and ISystemClock, get typed bindings that forward with a plain
+     interface call. Anything else gets a java.lang.reflect.Proxy.
+     */
+    public synchronized Object getService(Class<?> svcDefinition) {
+        Object service = services.get(svcDefinition);
+        if (service != null) {
+            return service;
+        }
+
+        final ServiceBinding<?> binding;
+        if (svcDefinition == ILogger.class) {
+            binding = new LoggerBinding(this);
+            service = binding;
+        } else if (svcDefinition == ISystemClock.class) {
+            binding = new SystemClockBinding(this);
+            service = binding;
+        } else {
+            binding = new DynamicProxy(this, svcDefinition);
+            service = Proxy.newProxyInstance(svcDefinition.getClassLoader(),
+                    new Class<?>[]{svcDefinition},
+                    (DynamicProxy) binding);
+        }
+        bindings.put(svcDefinition, binding);
+        services.put(svcDefinition, service);
+        return service;
+    }
+
+    /*
+     You almost certainly don't want to be calling this.  Use getService instead to get a lazily
+     bound proxy instance.
+     */
+    public synchronized Object getDirectService(Class<?> svcInterface) {
+        Object result = null;
+
+        if (svcMap.containsKey(svcInterface)) {
+            return svcMap.get(svcInterface);
+        }
+
+        if (parentLocator != null) {
+            result = parentLocator.getService(svcInterface);
+        }
+        return result;
+    }
+
+    public synchronized void putService(Class<?> svcInterface, Object obj) {
+        svcMap.put(svcInterface, obj);
+        final ServiceBinding<?> binding = bindings.get(svcInterface);
+        if (binding != null) {
+            binding.setImpl(null);
+        }
+    }
+
+    /*
+     Resolve the binding's service and cache it in the binding. This is done under the locator
+     lock so that a concurrent putService() can't be overwritten with the service it replaced.
+     */
+    synchronized Object bind(ServiceBinding<?> binding) {
+        final Object impl = getDirectService(binding.getServiceDefinition());
+        binding.setImpl(impl);
+        return impl;
+    }
+}
@@ -0,0 +1,12 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.mozstumbler.svclocator.services;
+
+/*
+ Reports exceptions that were handled, but that we want to hear about (i.e. failed writes to
+ storage). On Android this is ACRA; when unbound, the reports are dropped.
+ */
+public interface IErrorReporter {
+    public void handleSilentException(Throwable e);
+}
@@ -0,0 +1,22 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.mozstumbler.svclocator.services;
+
+/*
+ ISystemClock for a plain JVM, where there is no boot time to count from.
+ elapsedRealtime() is monotonic, measured from when the class was loaded.
+ */
+public class JavaSystemClock implements ISystemClock {
+    private static final long START_NANOS = System.nanoTime();
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return (System.nanoTime() - START_NANOS) / 1000000L;
+    }
+}
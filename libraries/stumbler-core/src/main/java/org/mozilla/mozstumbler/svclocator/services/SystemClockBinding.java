@@ -0,0 +1,31 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.mozstumbler.svclocator.services;
+
+import org.mozilla.mozstumbler.svclocator.ServiceBinding;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+
+/*
+ What ServiceLocator.getService(ISystemClock.class) returns: forwards to the registered clock
+ without going through reflection, the clock is read for every location and stored row.
+ Before a clock is registered the time reads as 0.
+ */
+public class SystemClockBinding extends ServiceBinding<ISystemClock> implements ISystemClock {
+
+    public SystemClockBinding(ServiceLocator locator) {
+        super(locator, ISystemClock.class);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        final ISystemClock impl = getImpl();
+        return impl == null ? 0 : impl.currentTimeMillis();
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        final ISystemClock impl = getImpl();
+        return impl == null ? 0 : impl.elapsedRealtime();
+    }
+}
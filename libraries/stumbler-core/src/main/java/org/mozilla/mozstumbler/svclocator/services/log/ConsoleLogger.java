@@ -0,0 +1,45 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.svclocator.services.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/*
+ ILogger for a plain JVM: debug and info go to stdout, warnings and errors to stderr.
+ */
+public class ConsoleLogger implements ILogger {
+
+    public void w(String logTag, String s) {
+        System.err.println("W: " + logTag + ", " + s);
+    }
+
+    @Override
+    public void e(String logTag, String s) {
+        System.err.println("E: " + logTag + ", " + s);
+    }
+
+    public String e(String logTag, String s, Throwable e) {
+        String msg;
+        if (e == null) {
+            msg = "";
+        } else {
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            e.printStackTrace(pw);
+            msg = sw.toString();
+        }
+        System.err.println("E: " + logTag + ", " + s + ":" + msg);
+        return msg;
+    }
+
+    public void i(String logTag, String s) {
+        System.out.println("i: " + logTag + ", " + s);
+    }
+
+    public void d(String logTag, String s) {
+        System.out.println("d: " + logTag + ", " + s);
+    }
+}
@@ -0,0 +1,61 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.svclocator.services.log;
+
+import org.mozilla.mozstumbler.svclocator.ServiceBinding;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+
+/*
+ What ServiceLocator.getService(ILogger.class) returns: forwards to the registered logger
+ without going through reflection, log calls are made all over the scanners and uploader.
+ Before a logger is registered the messages are dropped.
+ */
+public class LoggerBinding extends ServiceBinding<ILogger> implements ILogger {
+
+    public LoggerBinding(ServiceLocator locator) {
+        super(locator, ILogger.class);
+    }
+
+    @Override
+    public void w(String logTag, String s) {
+        final ILogger impl = getImpl();
+        if (impl != null) {
+            impl.w(logTag, s);
+        }
+    }
+
+    @Override
+    public void e(String logTag, String s) {
+        final ILogger impl = getImpl();
+        if (impl != null) {
+            impl.e(logTag, s);
+        }
+    }
+
+    @Override
+    public String e(String logTag, String s, Throwable e) {
+        final ILogger impl = getImpl();
+        if (impl != null) {
+            return impl.e(logTag, s, e);
+        }
+        return null;
+    }
+
+    @Override
+    public void i(String logTag, String s) {
+        final ILogger impl = getImpl();
+        if (impl != null) {
+            impl.i(logTag, s);
+        }
+    }
+
+    @Override
+    public void d(String logTag, String s) {
+        final ILogger impl = getImpl();
+        if (impl != null) {
+            impl.d(logTag, s);
+        }
+    }
+}
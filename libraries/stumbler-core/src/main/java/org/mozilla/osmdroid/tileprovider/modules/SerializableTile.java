@@ -1,9 +1,10 @@
 package org.mozilla.osmdroid.tileprovider.modules;
 
-import org.apache.http.util.ByteArrayBuffer;
-import org.mozilla.mozstumbler.service.core.logging.ClientLog;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -30,6 +31,7 @@ public class SerializableTile {
     public static final long CACHE_TILE_MS = 60 * 60 * 12 * 1000;
     final protected static char[] hexArray = "0123456789abcdef".toCharArray();
     private static final String LOG_TAG = LoggerUtil.makeLogTag(SerializableTile.class);
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
     final byte[] FILE_HEADER = {(byte) 0xde, (byte) 0xca, (byte) 0xfb, (byte) 0xad};
     byte[] tData = new byte[0];
     Map<String, String> headers = new HashMap<String, String>();
@@ -112,25 +114,25 @@ public class SerializableTile {
 
      */
     private byte[] asBytes() throws CharacterCodingException {
-        ByteArrayBuffer buff = new ByteArrayBuffer(10);
+        ByteArrayOutputStream buff = new ByteArrayOutputStream();
 
-        buff.append(FILE_HEADER, 0, FILE_HEADER.length);
-        buff.append(intAsBytes(headers.size()), 0, 4);
+        buff.write(FILE_HEADER, 0, FILE_HEADER.length);
+        buff.write(intAsBytes(headers.size()), 0, 4);
 
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             byte[] keyBytes = entry.getKey().getBytes();
             byte[] valueBytes = entry.getValue().getBytes();
-            buff.append(intAsBytes(keyBytes.length), 0, 4);
-            buff.append(intAsBytes(valueBytes.length), 0, 4);
-            buff.append(keyBytes, 0, keyBytes.length);
-            buff.append(valueBytes, 0, valueBytes.length);
+            buff.write(intAsBytes(keyBytes.length), 0, 4);
+            buff.write(intAsBytes(valueBytes.length), 0, 4);
+            buff.write(keyBytes, 0, keyBytes.length);
+            buff.write(valueBytes, 0, valueBytes.length);
         }
 
         if (tData == null || tData.length == 0) {
-            buff.append(intAsBytes(0), 0, 4);
+            buff.write(intAsBytes(0), 0, 4);
         } else {
-            buff.append(intAsBytes(tData.length), 0, 4);
-            buff.append(tData, 0, tData.length);
+            buff.write(intAsBytes(tData.length), 0, 4);
+            buff.write(tData, 0, tData.length);
         }
 
         return buff.toByteArray();
@@ -148,7 +150,7 @@ public class SerializableTile {
             fos.close();
             return true;
         } catch (IOException e) {
-            ClientLog.w(LOG_TAG, "Error writing SerializableTile to disk");
+            Log.w(LOG_TAG, "Error writing SerializableTile to disk");
             return false;
         }
     }
@@ -205,7 +207,7 @@ public class SerializableTile {
         try {
             fis.read(arr);
         } catch (IOException e) {
-            ClientLog.e(LOG_TAG, "Error reading file into array.", e);
+            Log.e(LOG_TAG, "Error reading file into array.", e);
         } finally {
             if (fis != null) {
                 try {
@@ -234,7 +236,7 @@ public class SerializableTile {
 
         bb.get(buffer, 0, 4);
         if (!Arrays.equals(buffer, FILE_HEADER)) {
-            ClientLog.w(LOG_TAG, "Unexpected header in tile file: [" + bytesToHex(buffer) + "]");
+            Log.w(LOG_TAG, "Unexpected header in tile file: [" + bytesToHex(buffer) + "]");
             return false;
         }
 
@@ -293,7 +295,7 @@ public class SerializableTile {
         bb.get(buffer, 0, 4);
         int contentLength = ByteBuffer.wrap(buffer).getInt();
         if (bb.remaining() != contentLength) {
-            ClientLog.w(LOG_TAG, "Remaining byte count does not match actual[" + bb.remaining() + "] vs expected[" + contentLength + "]");
+            Log.w(LOG_TAG, "Remaining byte count does not match actual[" + bb.remaining() + "] vs expected[" + contentLength + "]");
             // Force data to be null on errors.
             tData = null;
             return false;
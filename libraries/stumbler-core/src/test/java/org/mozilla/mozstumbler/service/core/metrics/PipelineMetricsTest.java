@@ -0,0 +1,142 @@
+package org.mozilla.mozstumbler.service.core.metrics;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class PipelineMetricsTest {
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        long previousUpper = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            final long upper = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpper + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upper));
+            previousUpper = upper;
+        }
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE, previousUpper);
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentilesAreWithinTheBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean(), 0.001);
+
+        final double precision = 1.0 / LatencyHistogram.SUB_BUCKETS;
+        for (double p : new double[] {50, 90, 99, 99.9}) {
+            final double exact = p * 100;
+            final long value = snapshot.getValueAtPercentile(p);
+            assertTrue(p + ": " + value, value >= exact && value <= exact * (1 + precision));
+        }
+        assertEquals(1, snapshot.getValueAtPercentile(0));
+        assertEquals(10000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(7);
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(4, snapshot.getCount());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(3, snapshot.getValueAtPercentile(50));
+        assertEquals(7, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testHugeValuesKeepTheirMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, histogram.snapshot().getMax());
+        assertEquals(Long.MAX_VALUE / 2, histogram.snapshot().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testSnapshot() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        assertSame(metrics.counter("a.count"), metrics.counter("a.count"));
+        assertSame(metrics.histogram("a.time_us"), metrics.histogram("a.time_us"));
+
+        metrics.counter("a.count").add(5);
+        metrics.counter("a.count").increment();
+        metrics.gauge("a.level").set(42);
+        metrics.histogram("a.time_us").record(100);
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(6, snapshot.getCounter("a.count"));
+        assertEquals(42, snapshot.getGauge("a.level"));
+        assertEquals(1, snapshot.getHistogram("a.time_us").getCount());
+        assertEquals(100, snapshot.getHistogram("a.time_us").getMax());
+
+        // Unknown metrics read as empty
+        assertEquals(0, snapshot.getCounter("b.count"));
+        assertEquals(0, snapshot.getHistogram("b.time_us").getCount());
+
+        assertEquals("a.count: 6\na.level: 42\na.time_us: n=1 p50=100 p90=100 p99=100 max=100",
+                snapshot.toString());
+
+        // Later updates don't change the snapshot
+        metrics.counter("a.count").increment();
+        assertEquals(6, snapshot.getCounter("a.count"));
+    }
+
+    @Test
+    public void testResetKeepsTheMetrics() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        PipelineMetrics.Counter counter = metrics.counter("a.count");
+        LatencyHistogram histogram = metrics.histogram("a.time_us");
+        counter.increment();
+        histogram.record(10);
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getCounter("a.count"));
+        assertEquals(0, metrics.snapshot().getHistogram("a.time_us").getCount());
+
+        counter.increment();
+        histogram.record(20);
+        assertEquals(1, metrics.snapshot().getCounter("a.count"));
+        assertEquals(20, metrics.snapshot().getHistogram("a.time_us").getMin());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(4L * (9999L * 10000L / 2), snapshot.getSum());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(9999, snapshot.getMax());
+    }
+}
@@ -0,0 +1,114 @@
+package org.mozilla.mozstumbler.service.stumblerthread.datahandling.base;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.mozstumbler.service.core.metrics.MetricsSnapshot;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
+import org.mozilla.mozstumbler.service.utils.Zipper;
+import org.mozilla.mozstumbler.svclocator.ServiceConfig;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.JavaSystemClock;
+import org.mozilla.mozstumbler.svclocator.services.log.ConsoleLogger;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+
+import java.io.File;
+import java.io.IOException;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/*
+ Plain JUnit, no Robolectric: the row storage has to run on a regular JVM.
+ */
+public class JSONRowsStorageManagerTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        ServiceConfig config = new ServiceConfig();
+        config.put(ILogger.class, new ConsoleLogger());
+        config.put(ISystemClock.class, new JavaSystemClock());
+        ServiceLocator.newRoot(config);
+
+        dir = File.createTempFile("rows", "test");
+        dir.delete();
+        dir.mkdirs();
+    }
+
+    private JSONRowsStorageManager create() {
+        return new JSONRowsStorageManager(dir.getPath(), null, 1024 * 1024, 1, "rows");
+    }
+
+    private static JSONObject row(int i) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("i", i);
+        return json;
+    }
+
+    @Test
+    public void testRowsInMemoryAreTheFirstBatch() throws JSONException {
+        JSONRowsStorageManager storage = create();
+        assertNull(storage.getFirstBatch());
+
+        storage.insertRow(row(1));
+        storage.insertRow(row(2));
+        assertTrue(storage.isDirEmpty());
+
+        SerializedJSONRows batch = storage.getFirstBatch();
+        assertEquals(SerializedJSONRows.StorageState.IN_MEMORY, batch.storageState);
+        assertEquals("{\"items\":[{\"i\":1},{\"i\":2}]}", Zipper.unzipData(batch.data));
+        assertTrue(storage.delete(batch));
+    }
+
+    @Test
+    public void testFullBuilderIsWrittenToDisk() throws JSONException {
+        JSONRowsStorageManager storage = create();
+        for (int i = 0; i < JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY; i++) {
+            storage.insertRow(row(i));
+        }
+        assertFalse(storage.isDirEmpty());
+
+        SerializedJSONRows batch = storage.getFirstBatch();
+        assertEquals(SerializedJSONRows.StorageState.ON_DISK, batch.storageState);
+        assertTrue(storage.delete(batch));
+        assertTrue(storage.isDirEmpty());
+    }
+
+    @Test
+    public void testJournaledRowsAreRecovered() throws JSONException {
+        create().insertRow(row(1));
+
+        // As if the process was killed before the row was written out
+        JSONRowsStorageManager storage = create();
+        storage.replayJournal();
+        assertFalse(storage.isDirEmpty());
+        SerializedJSONRows batch = storage.getFirstBatch();
+        assertEquals("{\"items\":[{\"i\":1}]}", Zipper.unzipData(batch.data));
+    }
+
+    @Test
+    public void testStorageStagesAreMeasured() throws JSONException {
+        PipelineMetrics.getInstance().reset();
+        JSONRowsStorageManager storage = create();
+        for (int i = 0; i < JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY; i++) {
+            storage.insertRow(row(i));
+        }
+        SerializedJSONRows batch = storage.getFirstBatch();
+
+        MetricsSnapshot snapshot = PipelineMetrics.getInstance().snapshot();
+        assertEquals(1, snapshot.getHistogram(PipelineMetrics.STORAGE_IN_MEMORY_MS).getCount());
+        assertEquals(1, snapshot.getHistogram(PipelineMetrics.STORAGE_SAVE_US).getCount());
+        assertEquals(batch.data.length, snapshot.getHistogram(PipelineMetrics.STORAGE_SAVE_BYTES).getMax());
+        assertEquals(batch.data.length, snapshot.getGauge(PipelineMetrics.STORAGE_BYTES_ON_DISK));
+        assertEquals(1, snapshot.getHistogram(PipelineMetrics.STORAGE_READ_US).getCount());
+
+        storage.delete(batch);
+        assertEquals(0, PipelineMetrics.getInstance().snapshot().getGauge(PipelineMetrics.STORAGE_BYTES_ON_DISK));
+    }
+}
@@ -0,0 +1,131 @@
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class TraceWriterTest {
+
+    private static final long STARTED = 1400000000000L;
+
+    private static JSONObject data(int i) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("i", i);
+        return json;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, JSONException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, STARTED);
+        writer.write(TraceEvent.KIND_LOCATION, STARTED + 10, data(1));
+        writer.write(TraceEvent.KIND_WIFI, STARTED + 510, data(2));
+        writer.write(TraceEvent.KIND_LOCATION_LOST, STARTED + 2000, null);
+        assertEquals(3, writer.getEventCount());
+        writer.close();
+
+        TraceReader reader = new TraceReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(STARTED, reader.getStartedMs());
+
+        TraceEvent event = reader.next();
+        assertEquals(TraceEvent.KIND_LOCATION, event.kind);
+        assertEquals(10, event.offsetMs);
+        assertEquals(1, event.data.getInt("i"));
+
+        event = reader.next();
+        assertEquals(TraceEvent.KIND_WIFI, event.kind);
+        assertEquals(510, event.offsetMs);
+        assertEquals(2, event.data.getInt("i"));
+
+        event = reader.next();
+        assertEquals(TraceEvent.KIND_LOCATION_LOST, event.kind);
+        assertEquals(2000, event.offsetMs);
+        assertEquals(0, event.data.length());
+
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testOffsetsNeverGoBackwards() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, STARTED);
+        writer.write(TraceEvent.KIND_PRESSURE, STARTED + 500, null);
+        // the wall clock was set back
+        writer.write(TraceEvent.KIND_PRESSURE, STARTED - 60000, null);
+        writer.close();
+
+        TraceReader reader = new TraceReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(500, reader.next().offsetMs);
+        assertEquals(500, reader.next().offsetMs);
+    }
+
+    @Test
+    public void testTraceThatWasNeverClosed() throws IOException, JSONException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out, STARTED);
+        for (int i = 0; i < 1000; i++) {
+            writer.write(TraceEvent.KIND_CELL, STARTED + i, data(i));
+        }
+        writer.close();
+
+        // Drop the gzip trailer and the end of the last block
+        byte[] bytes = out.toByteArray();
+        bytes = Arrays.copyOf(bytes, bytes.length - 100);
+
+        TraceReader reader = new TraceReader(new ByteArrayInputStream(bytes));
+        int count = 0;
+        TraceEvent event;
+        try {
+            while ((event = reader.next()) != null) {
+                assertEquals(count, event.data.getInt("i"));
+                count++;
+            }
+        } catch (IOException e) {
+            // A partial last line is reported as bad, everything before it is readable
+        }
+        assertTrue(count > 0 && count < 1000);
+    }
+
+    @Test
+    public void testNotATrace() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        gz.write("{\"format\":\"something-else\"}\n".getBytes("UTF-8"));
+        gz.close();
+        try {
+            new TraceReader(new ByteArrayInputStream(out.toByteArray()));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testPacer() {
+        TracePacer pacer = new TracePacer(1);
+        pacer.start(1000);
+        assertEquals(0, pacer.getDelayMs(0, 1000));
+        assertEquals(500, pacer.getDelayMs(500, 1000));
+        // behind schedule, don't wait
+        assertEquals(0, pacer.getDelayMs(500, 2000));
+
+        pacer = new TracePacer(10);
+        pacer.start(1000);
+        assertEquals(100, pacer.getDelayMs(1000, 1000));
+
+        pacer = new TracePacer(TracePacer.MAX_SPEED);
+        pacer.start(1000);
+        assertEquals(0, pacer.getDelayMs(60000, 1000));
+    }
+}
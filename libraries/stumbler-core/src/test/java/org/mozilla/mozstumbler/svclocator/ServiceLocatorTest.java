@@ -0,0 +1,155 @@
+package org.mozilla.mozstumbler.svclocator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.MockSystemClock;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class ServiceLocatorTest {
+
+    public interface IReader {
+        String read() throws IOException;
+
+        int size();
+    }
+
+    private static class FailingReader implements IReader {
+        @Override
+        public String read() throws IOException {
+            throw new IOException("no data");
+        }
+
+        @Override
+        public int size() {
+            return 3;
+        }
+    }
+
+    private static class RecordingLogger implements ILogger {
+        String last;
+
+        @Override
+        public void w(String logTag, String s) {
+            last = "w " + s;
+        }
+
+        @Override
+        public void e(String logTag, String s) {
+            last = "e " + s;
+        }
+
+        @Override
+        public String e(String logTag, String s, Throwable e) {
+            last = "e " + s;
+            return s;
+        }
+
+        @Override
+        public void i(String logTag, String s) {
+            last = "i " + s;
+        }
+
+        @Override
+        public void d(String logTag, String s) {
+            last = "d " + s;
+        }
+    }
+
+    private static MockSystemClock clock(long now) {
+        MockSystemClock clock = new MockSystemClock();
+        clock.setCurrentTime(now);
+        return clock;
+    }
+
+    @Before
+    public void setUp() {
+        ServiceLocator.newRoot(new ServiceConfig());
+    }
+
+    @Test
+    public void testHotServicesAreNotProxied() {
+        ServiceLocator locator = ServiceLocator.getInstance();
+        Object logger = locator.getService(ILogger.class);
+        Object clock = locator.getService(ISystemClock.class);
+        assertFalse(Proxy.isProxyClass(logger.getClass()));
+        assertFalse(Proxy.isProxyClass(clock.getClass()));
+        assertTrue(Proxy.isProxyClass(locator.getService(IReader.class).getClass()));
+
+        assertSame(logger, locator.getService(ILogger.class));
+        assertSame(clock, locator.getService(ISystemClock.class));
+        assertSame(locator.getService(IReader.class), locator.getService(IReader.class));
+    }
+
+    @Test
+    public void testUnboundServicesReturnDefaults() {
+        ServiceLocator locator = ServiceLocator.getInstance();
+        ISystemClock clock = (ISystemClock) locator.getService(ISystemClock.class);
+        ILogger logger = (ILogger) locator.getService(ILogger.class);
+        IReader reader = (IReader) locator.getService(IReader.class);
+
+        assertEquals(0, clock.currentTimeMillis());
+        logger.d("tag", "dropped");
+        assertNull(logger.e("tag", "dropped", new Exception()));
+        assertEquals(0, reader.size());
+    }
+
+    @Test
+    public void testBindingFollowsPutService() {
+        ServiceLocator locator = ServiceLocator.getInstance();
+        ISystemClock clock = (ISystemClock) locator.getService(ISystemClock.class);
+        assertEquals(0, clock.currentTimeMillis());
+
+        locator.putService(ISystemClock.class, clock(1000));
+        assertEquals(1000, clock.currentTimeMillis());
+
+        // Already bound, a replacement is still picked up
+        locator.putService(ISystemClock.class, clock(2000));
+        assertEquals(2000, clock.currentTimeMillis());
+
+        RecordingLogger recorder = new RecordingLogger();
+        ILogger logger = (ILogger) locator.getService(ILogger.class);
+        locator.putService(ILogger.class, recorder);
+        logger.i("tag", "hello");
+        assertEquals("i hello", recorder.last);
+    }
+
+    @Test
+    public void testBindingFollowsNewRoot() {
+        ServiceLocator.getInstance().putService(ISystemClock.class, clock(1000));
+        ISystemClock clock = (ISystemClock) ServiceLocator.getInstance().getService(ISystemClock.class);
+        IReader reader = (IReader) ServiceLocator.getInstance().getService(IReader.class);
+        assertEquals(1000, clock.currentTimeMillis());
+        assertEquals(0, reader.size());
+
+        ServiceConfig config = new ServiceConfig();
+        config.put(ISystemClock.class, clock(3000));
+        config.put(IReader.class, new FailingReader());
+        ServiceLocator.newRoot(config);
+
+        assertEquals(3000, clock.currentTimeMillis());
+        assertEquals(3, reader.size());
+    }
+
+    @Test
+    public void testProxyThrowsWhatTheServiceThrows() {
+        ServiceLocator.getInstance().putService(IReader.class, new FailingReader());
+        IReader reader = (IReader) ServiceLocator.getInstance().getService(IReader.class);
+        try {
+            reader.read();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertEquals("no data", e.getMessage());
+        }
+    }
+}
@@ -40,6 +40,7 @@ public class Prefs {
     private static final String MOTION_SENSOR_MIN_PAUSE_SECONDS = "motion_sensor_min_pause_sec";
 
     private static final String SAVE_STUMBLE_LOGS = "save_stumble_logs";
+    private static final String RECORD_TRACE = "record_trace";
 
     private static final String USE_OFFLINE_GEO = "use_offline_geo";
     private static final String USE_HIGH_POWER = "use_high_power";
@@ -160,6 +161,15 @@ public class Prefs {
         setBoolPref(SAVE_STUMBLE_LOGS, state);
     }
 
+    // Record what the Reporter receives to a trace, see TraceRecorder
+    public synchronized boolean isRecordTrace() {
+        return getBoolPrefWithDefault(RECORD_TRACE, false);
+    }
+
+    public synchronized void setRecordTrace(boolean state) {
+        setBoolPref(RECORD_TRACE, state);
+    }
+
 
     ///
     /// Privates
@@ -0,0 +1,166 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.http;
+
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/*
+ Owns the connection state shared by every request made through HttpUtil.
+
+ - A single SSLContext and NoSSLv3SocketFactory are created once and set on each
+   HttpsURLConnection. The platform keep-alive pool keys connections on the socket factory,
+   so a shared instance is what allows sockets to be reused, and the SSLContext's client
+   session cache allows TLS session resumption on new sockets.
+   Nothing is installed as the global default socket factory.
+ - The number of concurrent requests to a single host is capped, so the tile downloader
+   and uploader threads can't open an unbounded number of sockets to the same server.
+   The cap is below the 5 idle connections per host the platform keep-alive pool keeps by
+   default, so every connection a request ends with can go back to the pool. No system
+   properties are changed: the pool is shared with the rest of the process.
+
+ Callers must fully read and close the response streams (and not call disconnect() on
+ success) for a connection to return to the pool.
+ */
+public class HttpConnectionManager {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(HttpConnectionManager.class);
+
+    // At most the platform's default http.maxConnections of 5
+    public static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final int TLS_SESSION_CACHE_SIZE = 16;
+    private static final int TLS_SESSION_TIMEOUT_SECONDS = 60 * 60;
+
+    private static HttpConnectionManager sInstance;
+
+    private final ConcurrentHashMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<String, Semaphore>();
+    private final int mMaxConnectionsPerHost;
+    private SSLSocketFactory mSocketFactory;
+
+    public static synchronized HttpConnectionManager getInstance() {
+        if (sInstance == null) {
+            sInstance = new HttpConnectionManager(MAX_CONNECTIONS_PER_HOST);
+        }
+        return sInstance;
+    }
+
+    HttpConnectionManager(int maxConnectionsPerHost) {
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /*
+     Returns null if the TLS context can't be initialized.
+     */
+    private synchronized SSLSocketFactory getSocketFactory() {
+        if (mSocketFactory != null) {
+            return mSocketFactory;
+        }
+        try {
+            // Try to use the highest possible TLS protocol that this platform supports.
+            SSLContext sslcontext = SSLContext.getInstance(GlobalConstants.DEFAULT_PROTOCOLS[0]);
+            sslcontext.init(null, null, null);
+
+            SSLSessionContext sessions = sslcontext.getClientSessionContext();
+            if (sessions != null) {
+                sessions.setSessionCacheSize(TLS_SESSION_CACHE_SIZE);
+                sessions.setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+            }
+
+            mSocketFactory = new NoSSLv3SocketFactory(sslcontext.getSocketFactory());
+        } catch (Exception e) {
+            Log.e(LOG_TAG, "Error initializing context", e);
+        }
+        return mSocketFactory;
+    }
+
+    /*
+     Open a connection that uses the shared socket factory. Returns null if the TLS context
+     can't be initialized.
+     */
+    public URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            SSLSocketFactory factory = getSocketFactory();
+            if (factory == null) {
+                return null;
+            }
+            ((HttpsURLConnection) connection).setSSLSocketFactory(factory);
+        }
+        return connection;
+    }
+
+    /*
+     Block until a request slot for the host of this URL is free. Every call must be matched
+     by a call to release().
+     */
+    public void acquire(URL url) throws IOException {
+        try {
+            getPermits(url).acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for a connection to " + url.getHost());
+        }
+    }
+
+    public void release(URL url) {
+        getPermits(url).release();
+    }
+
+    /*
+     Wrap a response stream so that the host's request slot is released when the caller
+     closes it.
+     */
+    public InputStream releaseOnClose(final URL url, InputStream in) {
+        return new FilterInputStream(in) {
+            private boolean mReleased;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!mReleased) {
+                        mReleased = true;
+                        release(url);
+                    }
+                }
+            }
+        };
+    }
+
+    /*
+     For tests, the number of free request slots for the host of this URL.
+     */
+    int availablePermits(URL url) {
+        return getPermits(url).availablePermits();
+    }
+
+    private Semaphore getPermits(URL url) {
+        final String key = url.getProtocol() + "://" + url.getAuthority();
+        Semaphore permits = mHostPermits.get(key);
+        if (permits == null) {
+            permits = new Semaphore(mMaxConnectionsPerHost, true);
+            Semaphore existing = mHostPermits.putIfAbsent(key, permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits;
+    }
+}
@@ -17,8 +17,10 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -29,9 +31,7 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.HashMap;
 import java.util.Map;
-
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
+import java.util.zip.GZIPOutputStream;
 
 public class HttpUtil implements IHttpUtil {
     public final static int IO_BUFFER_SIZE = 8 * 1024;
@@ -40,6 +40,10 @@ public class HttpUtil implements IHttpUtil {
     private static final String LOG_TAG = LoggerUtil.makeLogTag(HttpUtil.class);
     private static final String USER_AGENT_HEADER = "User-Agent";
     private final String userAgent;
+    private final HttpConnectionManager mConnectionManager = HttpConnectionManager.getInstance();
+
+    // Marker for a request that failed on a stale keep-alive connection
+    private static final IResponse STALE_CONNECTION = new HTTPResponse(598, 0);
 
     @SuppressWarnings("unused")
     public HttpUtil() {
@@ -54,26 +58,16 @@ public class HttpUtil implements IHttpUtil {
 
     private URLConnection mozOpenConnection(URL l_url) throws IOException {
         try {
-            if (l_url.getProtocol().equals("http")) {
-                return l_url.openConnection();
-            }
-            // Try to use the highest possible TLS protocol that this platform supports.
-            SSLContext sslcontext = SSLContext.getInstance(GlobalConstants.DEFAULT_PROTOCOLS[0]);
-            sslcontext.init(null,
-                    null,
-                    null);
-
-            NoSSLv3SocketFactory factory = new NoSSLv3SocketFactory(sslcontext.getSocketFactory());
-            HttpsURLConnection.setDefaultSSLSocketFactory(factory);
-            return l_url.openConnection();
+            return mConnectionManager.openConnection(l_url);
         } catch (Exception e) {
-            Log.e(LOG_TAG, "Error initializing context", e);
+            Log.e(LOG_TAG, "Error opening connection", e);
             return null ;
         }
     }
 
     public String getUrlAsString(URL url) throws IOException {
         InputStream stream = null;
+        mConnectionManager.acquire(url);
         try {
             URLConnection connection = mozOpenConnection(url);
             stream = connection.getInputStream();
@@ -90,6 +84,7 @@ public class HttpUtil implements IHttpUtil {
             if (stream != null) {
                 stream.close();
             }
+            mConnectionManager.release(url);
         }
     }
 
@@ -100,8 +95,18 @@ public class HttpUtil implements IHttpUtil {
 
     @Override
     public InputStream getUrlAsStream(String url) throws IOException {
-        URLConnection connection = mozOpenConnection(new URL(url));
-        return connection.getInputStream();
+        final URL l_url = new URL(url);
+        mConnectionManager.acquire(l_url);
+        try {
+            URLConnection connection = mozOpenConnection(l_url);
+            return mConnectionManager.releaseOnClose(l_url, connection.getInputStream());
+        } catch (IOException e) {
+            mConnectionManager.release(l_url);
+            throw e;
+        } catch (RuntimeException e) {
+            mConnectionManager.release(l_url);
+            throw e;
+        }
     }
 
 
@@ -110,6 +115,7 @@ public class HttpUtil implements IHttpUtil {
         final byte[] buffer = new byte[bufferLength];
         InputStream inputStream = null;
         OutputStream outputStream = null;
+        mConnectionManager.acquire(url);
         try {
             URLConnection connection = mozOpenConnection(url);
             inputStream = connection.getInputStream();
@@ -122,11 +128,15 @@ public class HttpUtil implements IHttpUtil {
                 outputStream.write(buffer, 0, readLength);
             }
         } finally {
-            if (outputStream != null) {
-                outputStream.close();
-            }
-            if (inputStream != null) {
-                inputStream.close();
+            try {
+                if (outputStream != null) {
+                    outputStream.close();
+                }
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+            } finally {
+                mConnectionManager.release(url);
             }
         }
     }
@@ -138,7 +148,6 @@ public class HttpUtil implements IHttpUtil {
 
     private IResponse getHttpResponse(String urlString, Map<String, String> headers, String HTTP_METHOD) {
         URL url = null;
-        HttpURLConnection httpURLConnection = null;
 
         try {
             url = new URL(urlString);
@@ -151,6 +160,30 @@ public class HttpUtil implements IHttpUtil {
             headers = new HashMap<String, String>();
         }
 
+        try {
+            mConnectionManager.acquire(url);
+        } catch (IOException e) {
+            ClientLog.e(LOG_TAG, "Couldn't open a connection: ", e);
+            return new HTTPResponse(598, 0);
+        }
+
+        try {
+            IResponse response = getHttpResponse(url, headers, HTTP_METHOD, false);
+            // Workaround for a bug in Android HttpURLConnection prior to KitKat. When the library
+            // reuses a stale pooled connection, the request may fail with an EOFException.
+            // GET and HEAD are safe to retry on a fresh connection.
+            // http://stackoverflow.com/questions/15411213/android-httpsurlconnection-eofexception/17791819#17791819
+            if (response == STALE_CONNECTION) {
+                response = getHttpResponse(url, headers, HTTP_METHOD, true);
+            }
+            return (response == STALE_CONNECTION) ? new HTTPResponse(598, 0) : response;
+        } finally {
+            mConnectionManager.release(url);
+        }
+    }
+
+    private IResponse getHttpResponse(URL url, Map<String, String> headers, String HTTP_METHOD, boolean closeConnection) {
+        HttpURLConnection httpURLConnection = null;
         try {
             httpURLConnection = (HttpURLConnection) mozOpenConnection(url);
             if (HTTP_METHOD.toUpperCase().equals("HEAD")) {
@@ -164,10 +197,7 @@ public class HttpUtil implements IHttpUtil {
             return new HTTPResponse(598, 0);
         }
 
-        // Workaround for a bug in Android mHttpURLConnection. When the library
-        // reuses a stale connection, the connection may fail with an EOFException
-        // http://stackoverflow.com/questions/15411213/android-httpsurlconnection-eofexception/17791819#17791819
-        if (Build.VERSION.SDK_INT > 13 && Build.VERSION.SDK_INT < 19) {
+        if (closeConnection) {
             httpURLConnection.setRequestProperty("Connection", "Close");
         }
 
@@ -177,14 +207,21 @@ public class HttpUtil implements IHttpUtil {
         }
 
         try {
+            // Reading the body to the end hands the connection back to the keep-alive pool.
             return new HTTPResponse(httpURLConnection.getResponseCode(),
                     httpURLConnection.getHeaderFields(),
                     getContentBody(httpURLConnection),
                     0);
-        } catch (IOException e) {
+        } catch (EOFException e) {
+            httpURLConnection.disconnect();
+            if (!closeConnection && Build.VERSION.SDK_INT < 19) {
+                return STALE_CONNECTION;
+            }
             ClientLog.e(LOG_TAG, "Networking error", e);
-        } finally {
+        } catch (IOException e) {
+            // Don't let a broken socket go back into the pool
             httpURLConnection.disconnect();
+            ClientLog.e(LOG_TAG, "Networking error", e);
         }
         return new HTTPResponse(598, 0);
     }
@@ -197,24 +234,64 @@ public class HttpUtil implements IHttpUtil {
 
     @Override
     public IResponse post(String urlString, byte[] data, Map<String, String> headers, boolean precompressed) {
+        if (data == null) {
+            throw new IllegalArgumentException("Data must be not null");
+        }
 
-        URL url = null;
-        HttpURLConnection httpURLConnection = null;
+        byte[] wire_data = data;
+        boolean isGzipped = precompressed;
+        if (!precompressed) {
+            wire_data = Zipper.zipData(data);
+            if (wire_data != null) {
+                isGzipped = true;
+            } else {
+                ClientLog.w(LOG_TAG, "Couldn't compress data, falling back to raw data.");
+                wire_data = data;
+            }
+        }
+
+        return post(toURL(urlString), RequestBody.create(wire_data), headers, false, isGzipped);
+    }
 
+    @Override
+    public IResponse post(String urlString, RequestBody body, Map<String, String> headers, boolean precompressed) {
+        if (body == null) {
+            throw new IllegalArgumentException("Body must be not null");
+        }
+        return post(toURL(urlString), body, headers, !precompressed, precompressed);
+    }
+
+    private static URL toURL(String urlString) {
         try {
-            url = new URL(urlString);
+            return new URL(urlString);
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException("Invalid URL", e);
         }
+    }
 
-        if (data == null) {
-            throw new IllegalArgumentException("Data must be not null");
-        }
-
+    private IResponse post(URL url, RequestBody body, Map<String, String> headers,
+                           boolean compressOnTheFly, boolean isGzipped) {
         if (headers == null) {
             headers = new HashMap<String, String>();
         }
 
+        try {
+            mConnectionManager.acquire(url);
+        } catch (IOException e) {
+            ClientLog.e(LOG_TAG, "Couldn't open a connection: ", e);
+            return null;
+        }
+
+        try {
+            return sendPost(url, body, headers, compressOnTheFly, isGzipped);
+        } finally {
+            mConnectionManager.release(url);
+        }
+    }
+
+    private IResponse sendPost(URL url, RequestBody body, Map<String, String> headers,
+                               boolean compressOnTheFly, boolean isGzipped) {
+        HttpURLConnection httpURLConnection = null;
 
         try {
             httpURLConnection = (HttpURLConnection) mozOpenConnection(url);
@@ -235,6 +312,7 @@ public class HttpUtil implements IHttpUtil {
         // Workaround for a bug in Android mHttpURLConnection. When the library
         // reuses a stale connection, the connection may fail with an EOFException
         // http://stackoverflow.com/questions/15411213/android-httpsurlconnection-eofexception/17791819#17791819
+        // Unlike GET, a POST can't blindly be retried, so don't reuse connections on those versions.
         if (Build.VERSION.SDK_INT > 13 && Build.VERSION.SDK_INT < 19) {
             httpURLConnection.setRequestProperty("Connection", "Close");
         }
@@ -244,36 +322,67 @@ public class HttpUtil implements IHttpUtil {
             httpURLConnection.setRequestProperty(entry.getKey(), entry.getValue());
         }
 
-        byte[] wire_data = data;
-        if (!precompressed) {
-            wire_data = Zipper.zipData(data);
-            if (wire_data != null) {
-                httpURLConnection.setRequestProperty("Content-Encoding", "gzip");
-            } else {
-                ClientLog.w(LOG_TAG, "Couldn't compress data, falling back to raw data.");
-                wire_data = data;
-            }
-        } else {
+        if (compressOnTheFly || isGzipped) {
             httpURLConnection.setRequestProperty("Content-Encoding", "gzip");
         }
 
-        httpURLConnection.setFixedLengthStreamingMode(wire_data.length);
+        // The compressed length isn't known until the body has been written.
+        final long length = compressOnTheFly ? RequestBody.UNKNOWN_LENGTH : body.contentLength();
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            httpURLConnection.setFixedLengthStreamingMode((int) length);
+        } else {
+            httpURLConnection.setChunkedStreamingMode(IO_BUFFER_SIZE);
+        }
+
         try {
-            OutputStream out = new BufferedOutputStream(httpURLConnection.getOutputStream());
-            out.write(wire_data);
-            out.flush();
+            CountingOutputStream counter = new CountingOutputStream(httpURLConnection.getOutputStream());
+            OutputStream out = counter;
+            if (compressOnTheFly) {
+                out = new GZIPOutputStream(counter, IO_BUFFER_SIZE);
+            } else if (length < 0) {
+                out = new BufferedOutputStream(counter, IO_BUFFER_SIZE);
+            }
+            body.writeTo(out);
+            out.close();
             return new HTTPResponse(httpURLConnection.getResponseCode(),
                     httpURLConnection.getHeaderFields(),
                     getContentBody(httpURLConnection),
-                    wire_data.length);
+                    (int) counter.getCount());
         } catch (IOException e) {
-            ClientLog.e(LOG_TAG, "post error", e);
-        } finally {
+            // Don't let a broken socket go back into the pool
             httpURLConnection.disconnect();
+            ClientLog.e(LOG_TAG, "post error", e);
         }
         return null;
     }
 
+    /*
+     Counts the bytes that actually went over the wire, after compression.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            mCount += length;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+
     private byte[] getContentBody(HttpURLConnection httpURLConnection) throws IOException {
         InputStream in = null;
         try {
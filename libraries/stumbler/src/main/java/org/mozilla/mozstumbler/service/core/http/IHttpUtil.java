@@ -29,6 +29,17 @@ public interface IHttpUtil {
     */
     IResponse post(String urlString, byte[] data, Map<String, String> headers, boolean precompressed);
 
+    /*
+     POST a body that is written directly to the connection.
+
+    Unless precompressed is set, the body is gzipped as it is written, and sent with chunked
+    transfer encoding. A precompressed body of known length is sent with a fixed length.
+
+    Return a response object from the server
+    On IOException, this will return null.
+    */
+    IResponse post(String urlString, RequestBody body, Map<String, String> headers, boolean precompressed);
+
     IResponse get(String urlString, Map<String, String> headers);
 
     IResponse head(String latestUrl, Map<String, String> headers);
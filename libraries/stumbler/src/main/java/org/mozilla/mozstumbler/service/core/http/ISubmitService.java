@@ -4,4 +4,6 @@ import java.util.Map;
 
 public interface ISubmitService {
     IResponse submit(byte[] data, Map<String, String> headers, boolean precompressed);
+
+    IResponse submit(RequestBody body, Map<String, String> headers, boolean precompressed);
 }
@@ -0,0 +1,152 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.http;
+
+import org.mozilla.mozstumbler.service.utils.Zipper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ A stand-in for the MLS server, for replaying traces: every POST is accepted with a 200 after
+ a fixed latency, and its size and duration are recorded. Nothing leaves the device.
+
+ Bodies are written out (and compressed, unless precompressed) exactly as HttpUtil would put
+ them on the connection, so the cost of producing them is measured and bytesSent() is what
+ would have gone over the network.
+
+ Only POST is supported, anything else fails as if the network were down.
+ */
+public class LoopbackHttpUtil implements IHttpUtil {
+    private final long mLatencyMs;
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private final List<Long> mPostDurationsMs = Collections.synchronizedList(new ArrayList<Long>());
+
+    public LoopbackHttpUtil(long latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    public int getPostCount() {
+        return mPostDurationsMs.size();
+    }
+
+    /*
+     Durations of the POSTs so far, from the call to the response, in the order they finished.
+     */
+    public List<Long> getPostDurationsMs() {
+        synchronized (mPostDurationsMs) {
+            return new ArrayList<Long>(mPostDurationsMs);
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    private IResponse respond(long startNs, long bytes) {
+        if (mLatencyMs > 0) {
+            try {
+                Thread.sleep(mLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        mBytesReceived.addAndGet(bytes);
+        mPostDurationsMs.add((System.nanoTime() - startNs) / 1000000);
+        return new HTTPResponse(200, new HashMap<String, List<String>>(), new byte[0], (int) bytes);
+    }
+
+    @Override
+    public IResponse post(String urlString, byte[] data, Map<String, String> headers, boolean precompressed) {
+        if (data == null) {
+            throw new IllegalArgumentException("Data must be not null");
+        }
+        final long startNs = System.nanoTime();
+        byte[] wireData = data;
+        if (!precompressed) {
+            wireData = Zipper.zipData(data);
+            if (wireData == null) {
+                wireData = data;
+            }
+        }
+        return respond(startNs, wireData.length);
+    }
+
+    @Override
+    public IResponse post(String urlString, RequestBody body, Map<String, String> headers, boolean precompressed) {
+        if (body == null) {
+            throw new IllegalArgumentException("Body must be not null");
+        }
+        final long startNs = System.nanoTime();
+        final CountingOutputStream counter = new CountingOutputStream();
+        try {
+            if (precompressed) {
+                body.writeTo(counter);
+            } else {
+                GZIPOutputStream gzip = new GZIPOutputStream(counter);
+                body.writeTo(gzip);
+                gzip.finish();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return respond(startNs, counter.count);
+    }
+
+    @Override
+    public String getUrlAsString(URL url) throws IOException {
+        throw new IOException("Not supported by the loopback stand-in");
+    }
+
+    @Override
+    public String getUrlAsString(String url) throws IOException {
+        throw new IOException("Not supported by the loopback stand-in");
+    }
+
+    @Override
+    public InputStream getUrlAsStream(String url) throws IOException {
+        throw new IOException("Not supported by the loopback stand-in");
+    }
+
+    @Override
+    public File getUrlAsFile(URL url, File file) throws IOException {
+        throw new IOException("Not supported by the loopback stand-in");
+    }
+
+    @Override
+    public IResponse get(String urlString, Map<String, String> headers) {
+        return null;
+    }
+
+    @Override
+    public IResponse head(String latestUrl, Map<String, String> headers) {
+        return null;
+    }
+}
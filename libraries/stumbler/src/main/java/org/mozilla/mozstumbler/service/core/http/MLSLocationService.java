@@ -14,11 +14,20 @@ public class MLSLocationService implements ILocationService {
     public static final String EMAIL_HEADER = "X-Email";
     private static final String SEARCH_URL = "https://location.services.mozilla.com/v1/geolocate";
     private static final String SUBMIT_URL = "https://location.services.mozilla.com/v1/geosubmit";
-    final IHttpUtil httpDelegate = (IHttpUtil) ServiceLocator.getInstance().getService(IHttpUtil.class);
+    final IHttpUtil httpDelegate;
 
     private String mozApiKey;
 
-    public MLSLocationService() {}
+    public MLSLocationService() {
+        this((IHttpUtil) ServiceLocator.getInstance().getService(IHttpUtil.class));
+    }
+
+    /*
+     Send requests through httpDelegate instead of the IHttpUtil service.
+     */
+    public MLSLocationService(IHttpUtil httpDelegate) {
+        this.httpDelegate = httpDelegate;
+    }
 
     public IResponse submit(byte[] data, Map<String, String> headers, boolean precompressed) {
         if (data.length > 0 && data[0] == '/') {
@@ -35,6 +44,17 @@ public class MLSLocationService implements ILocationService {
         return httpDelegate.post(SUBMIT_URL + "?key=" + mozApiKey, data, headers, precompressed);
     }
 
+    public IResponse submit(RequestBody body, Map<String, String> headers, boolean precompressed) {
+        if (mozApiKey == null) {
+            Prefs p = Prefs.getInstanceWithoutContext();
+            if (p != null) {
+                mozApiKey = p.getMozApiKey();
+            }
+        }
+
+        return httpDelegate.post(SUBMIT_URL + "?key=" + mozApiKey, body, headers, precompressed);
+    }
+
 
     public IResponse search(JSONObject mlsGeoLocate, Map<String, String> headers, boolean precompressed) {
         if (mozApiKey == null) {
@@ -0,0 +1,110 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.core.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/*
+ Produces the body of a POST request directly onto the connection, so a large payload
+ doesn't need to be assembled (and copied again for compression) in memory first.
+
+ A body may be written more than once, i.e. if the request is retried, unless it wraps an
+ InputStream.
+ */
+public abstract class RequestBody {
+    public static final long UNKNOWN_LENGTH = -1;
+
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /*
+     Number of bytes writeTo() will produce, or UNKNOWN_LENGTH, in which case the request is
+     sent with chunked transfer encoding.
+     */
+    public long contentLength() {
+        return UNKNOWN_LENGTH;
+    }
+
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    public static RequestBody create(final byte[] data) {
+        return new RequestBody() {
+            @Override
+            public long contentLength() {
+                return data.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(data);
+            }
+        };
+    }
+
+    /*
+     The stream is closed once it has been written. Pass UNKNOWN_LENGTH if the length of the
+     stream isn't known up front.
+     */
+    public static RequestBody create(final InputStream in, final long length) {
+        return new RequestBody() {
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                try {
+                    final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    public static RequestBody create(File file) {
+        return create(file, 0, file.length());
+    }
+
+    /*
+     Send length bytes of the file, starting at offset.
+     */
+    public static RequestBody create(final File file, final long offset, final long length) {
+        return new RequestBody() {
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                RandomAccessFile f = new RandomAccessFile(file, "r");
+                try {
+                    f.seek(offset);
+                    final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    long remaining = length;
+                    while (remaining > 0) {
+                        int count = f.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (count == -1) {
+                            throw new IOException("Unexpected end of " + file.getName());
+                        }
+                        out.write(buffer, 0, count);
+                        remaining -= count;
+                    }
+                } finally {
+                    f.close();
+                }
+            }
+        };
+    }
+}
@@ -5,7 +5,39 @@
 
 package org.mozilla.mozstumbler.service.core.offline;
 
+import android.location.Location;
+
 import org.mozilla.mozstumbler.service.core.http.ILocationService;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface IOfflineLocationService extends ILocationService {
+
+    /*
+     Receives the results of searchBatch(). Methods are called on worker threads.
+     */
+    public interface BatchSearchCallback {
+        /*
+         location is null if the query has no solution. index is the position of the query
+         in the list passed to searchBatch(). Results arrive in no particular order.
+         */
+        void onResult(int index, Location location);
+
+        /*
+         Called once, after every result has been delivered.
+         */
+        void onBatchComplete();
+    }
+
+    /*
+     Resolve a single set of BSSIDs. Returns null if there is no solution.
+     */
+    Location locate(Collection<String> bssids);
+
+    /*
+     Resolve many sets of BSSIDs in parallel. Returns immediately, results are streamed to the
+     callback as they complete.
+     */
+    void searchBatch(List<? extends Collection<String>> bssidSets, BatchSearchCallback callback);
 }
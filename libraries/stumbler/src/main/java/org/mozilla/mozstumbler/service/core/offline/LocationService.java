@@ -9,12 +9,12 @@ import android.location.LocationManager;
 import android.os.Environment;
 
 import com.crankycoder.marisa.IntRecordTrie;
-import com.google.common.primitives.Ints;
 
-import org.json.JSONException;
 import org.json.JSONObject;
+import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.core.http.HTTPResponse;
 import org.mozilla.mozstumbler.service.core.http.IResponse;
+import org.mozilla.mozstumbler.service.core.http.RequestBody;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.MLSJSONObject;
 import org.mozilla.mozstumbler.service.utils.LocationAdapter;
 import org.mozilla.mozstumbler.svclocator.ServiceLocator;
@@ -22,42 +22,59 @@ import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LocationService implements IOfflineLocationService {
 
     private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
     private static final String LOG_TAG = LoggerUtil.makeLogTag(LocationService.class);
-    public static final String ADJ_PTS = "adj_pts";
-    public static final String LAT = "lat";
-    public static final String LON = "lon";
-
 
     private static final int ZOOM_LEVEL = 18;
 
     private static final int BSSID_DUPLICATES = 100;
-    private static final int TOTAL_POSSIBLE_TILES = 65536;
 
-    private IntRecordTrie trie;
+    private static final int BATCH_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static ExecutorService sBatchPool;
+
     private OrderedCityTiles city_tiles;
+    // null if the offline data isn't loaded
+    private TileSearch search;
 
     public LocationService() {
         try {
             // This won't work in real life.   Trie data files may not be on disk yet.
-            trie = loadTrie();
-            city_tiles = new OrderedCityTiles();
+            IntRecordTrie trie = loadTrie();
+            if (trie == null) {
+                return;
+            }
+            city_tiles = new OrderedCityTiles(
+                    new File(sdcardArchivePath() + "/" + OrderedCityTiles.ORDERED_CITY_CSV));
+            search = new TileSearch(new TrieTileIndex(trie), new TileScorer(city_tiles));
         } catch (Exception e) {
-            trie = null;
             city_tiles = null;
+            search = null;
             android.util.Log.e(LOG_TAG, "Error loading trie data.", e);
         }
     }
 
+    /*
+     For tests, search the given index in place of the trie.
+     */
+    LocationService(TileSearch.TileIndex index, OrderedCityTiles cityTiles) {
+        city_tiles = cityTiles;
+        search = new TileSearch(index, new TileScorer(cityTiles));
+    }
+
     public static String sdcardArchivePath() {
         return Environment.getExternalStorageDirectory() + File.separator + "StumblerOffline";
     }
@@ -68,6 +85,11 @@ public class LocationService implements IOfflineLocationService {
         return null;
     }
 
+    @Override
+    public IResponse submit(RequestBody body, Map<String, String> headers, boolean precompressed) {
+        return null;
+    }
+
     private IntRecordTrie loadTrie() {
         String fmt = "<" + new String(new char[BSSID_DUPLICATES]).replace("\0", "i");
         IntRecordTrie recordTrie = new IntRecordTrie(fmt);
@@ -82,251 +104,157 @@ public class LocationService implements IOfflineLocationService {
 
     @Override
     public IResponse search(JSONObject mlsGeoLocate, Map<String, String> headers, boolean precompressed) {
-        if (trie == null) {
+        if (search == null) {
             return null;
         }
 
-        MLSJSONObject mlsJson = null;
-        try {
-            mlsJson = new MLSJSONObject(mlsGeoLocate.toString());
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, "Can't make a MLSJSONObject!", e);
+        Log.i(LOG_TAG, "Offline location started!");
+        Location location = locate(MLSJSONObject.extractBSSIDs(mlsGeoLocate));
+        if (location == null) {
             return null;
         }
-        List<String> bssidList = mlsJson.extractBSSIDs();
-
-        Log.i(LOG_TAG, "Offline location started!");
-
-        int[] tile_points = new int[TOTAL_POSSIBLE_TILES];
-        int max_tilept = 0;
+        return locationFix(location);
+    }
 
-        // Build up a list
-        Log.i(LOG_TAG, "Start BSSID for offline geo");
-        for (String k : bssidList) {
-            Log.i(LOG_TAG, "Using BSSID = [" + k + "] ");
-            for (int tile_id : trie.getResultSet(k)) {
-                tile_points[tile_id] += 1;
-            }
+    @Override
+    public Location locate(Collection<String> bssids) {
+        if (search == null) {
+            return null;
         }
-        Log.i(LOG_TAG, "END BSSID for offline geo");
 
-
-        max_tilept = Ints.max(tile_points);
-        if (max_tilept <= 1) {
-            Log.i(LOG_TAG, "Can't find any solution to this set of BSSIDS");
+        int tile_id = search.locateTile(bssids);
+        if (tile_id == TileScorer.NO_SOLUTION) {
+            Log.i(LOG_TAG, "Can't find a solution");
             return null;
         }
 
-        Set<Integer> maxpt_tileset = new HashSet<Integer>();
-        for (int i = 0; i < tile_points.length; i++) {
-            if (tile_points[i] == max_tilept) {
-                maxpt_tileset.add(i);
-            }
+        SmartTile coord = city_tiles.getCoord(tile_id);
+        if (coord == null) {
+            Log.w(LOG_TAG, "Couldn't find co-ordinates for tile_id=[" + tile_id + "]");
+            return null;
         }
+        return toLocation(coord);
+    }
 
-        if (maxpt_tileset.size() == 1) {
-            Log.i(LOG_TAG, "Unique solution found: " + maxpt_tileset.toString());
-            for (int tile : maxpt_tileset) {
-                return locationFix(tile);
-            }
-        } else {
-            // We have to solve a tie breaker
-            // square the points for the max point array
-            for (int pt : maxpt_tileset) {
-                tile_points[pt] *= tile_points[pt];
-            }
-
-            int[] adj_tile_points = new int[TOTAL_POSSIBLE_TILES];
-
-            for (int tile : maxpt_tileset) {
-                int new_pts = 0;
-
-                for (int adj_tileid : adjacent_tile(tile)) {
-                    new_pts += tile_points[adj_tileid];
-                }
-
-                // Removed this in the refactored strategy code.  squaring is not needed.
-                // new_pts *= new_pts;
-                adj_tile_points[tile] = new_pts;
-            }
+    /*
+     searchBatch() calls getResultSet() from several threads at once. That relies on marisa
+     lookups being read only: the trie is mapped read only, and each lookup keeps its search
+     state in its own agent, so concurrent lookups need no lock.
+     */
+    private static final class TrieTileIndex implements TileSearch.TileIndex {
+        private final IntRecordTrie mTrie;
 
-            // Copy points over
-            for (int i = 0; i < adj_tile_points.length; i++) {
-                tile_points[i] += adj_tile_points[i];
-            }
+        TrieTileIndex(IntRecordTrie trie) {
+            mTrie = trie;
+        }
 
-            // Recompute the max tile
-            max_tilept = Ints.max(tile_points);
-            maxpt_tileset = new HashSet<Integer>();
-            for (int i = 0; i < tile_points.length; i++) {
-                if (tile_points[i] == max_tilept) {
-                    maxpt_tileset.add(i);
-                }
+        @Override
+        public void addHits(String bssid, TileScorer.Accumulator points) {
+            if (AppGlobals.isDebug) {
+                Log.d(LOG_TAG, "Using BSSID = [" + bssid + "] ");
             }
-            String msg = "Tie breaking solution: " +
-                    maxpt_tileset.toString() +
-                    ", " +
-                    maxpt_tileset.size() +
-                    " solutions were found.";
-
-            Log.i(LOG_TAG, msg);
-
-            if (maxpt_tileset.size() == 1) {
-                // There is a single solution.
-                for (int tile_id : maxpt_tileset) {
-                    return locationFix(tile_id);
-                }
-            } else {
-                // Add adjacent points
-                // TODO: check for adjacency between 2 or more tile_ids
-                // and use that as an average to figure out which single tile
-                // we should return
-                Log.i(LOG_TAG, "Multiple solutions- take the average: " + maxpt_tileset);
-
-                Set<Integer> tiebreaking_set = new HashSet<Integer>();
-                List<Integer> maxpt_tilelist = new ArrayList<Integer>(maxpt_tileset);
-                for (int i = 0; i < maxpt_tilelist.size(); i++) {
-                    Integer pt = maxpt_tilelist.get(i);
-
-                    List<Integer> adjacent_tilelist = adjacent_tile(pt);
-                    HashSet<Integer> adjacent_tileset = new HashSet<Integer>(adjacent_tilelist);
-                    adjacent_tileset.retainAll(new HashSet<Integer>(maxpt_tilelist.subList(i+1, maxpt_tilelist.size())));
-                    if (adjacent_tileset.size() > 0) {
-                        tiebreaking_set.add(pt);
-                    }
-                }
-                double final_lat = 0;
-                double final_lon = 0;
-                for (Integer tie_tileid: tiebreaking_set) {
-                    SmartTile tmp_coord = city_tiles.getCoord(tie_tileid);
-                    final_lat += (tmp_coord.getLocation().getLatitude() * 1.0 / tiebreaking_set.size());
-                    final_lon += (tmp_coord.getLocation().getLongitude() * 1.0 / tiebreaking_set.size());
-                }
-
-                SmartTile final_coord = new SmartTile(final_lat, final_lon);
-                Log.i(LOG_TAG, "Multiple solutions converging on : " + final_coord);
-                return locationFix(city_tiles.getTileID(final_coord));
+            for (int tile_id : mTrie.getResultSet(bssid)) {
+                points.addHit(tile_id);
             }
         }
-
-        Log.i(LOG_TAG, "Can't find a solution");
-        return null;
     }
 
-    private List<Integer> adjacent_tile(int tile_id) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
-
-        SmartTile tc = city_tiles.getCoord(tile_id);
-        if (tc == null) {
-            // No adjacent tiles could be found.
-            Log.w(LOG_TAG, "Couldn't find adjacent tiles for tile_id=[" + tile_id + "]");
-            return result;
-        }
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x - 1, tc.tile_y - 1);
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x, tc.tile_y - 1);
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x + 1, tc.tile_y - 1);
-
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x - 1, tc.tile_y);
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x + 1, tc.tile_y);
-
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x - 1, tc.tile_y + 1);
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x, tc.tile_y + 1);
-        safe_add_adjacent_tile(city_tiles, result, tc.tile_x + 1, tc.tile_y + 1);
-
-        return result;
+    private static Location toLocation(SmartTile tile) {
+        Location location = new Location(LocationManager.NETWORK_PROVIDER);
+        location.setAccuracy(150);
+        location.setLatitude(tile.tile2lat());
+        location.setLongitude(tile.tile2lon());
+        return location;
     }
 
     /*
-    This method only exists for the edges of a city. Edge tiles will have < 8 adjacent tiles.
+     The queries are split in contiguous chunks, a few per worker thread, so that threads that
+     finish early pick up remaining work. Each worker scores with its own TileScorer accumulator,
+     and all of them read the same memory mapped trie and city tiles.
      */
-    private void safe_add_adjacent_tile(OrderedCityTiles city_tiles, ArrayList<Integer> result, int tile_x, int tile_y) {
-        int tile_id = city_tiles.getTileID(new SmartTile(tile_x, tile_y));
-        if (tile_id == -1) {
-            Log.w(LOG_TAG, "Invalid tile lookup for tx[" + tile_x + "], ty[" + tile_y + "]");
+    @Override
+    public void searchBatch(final List<? extends Collection<String>> bssidSets,
+                            final BatchSearchCallback callback) {
+        final int total = bssidSets.size();
+        if (total == 0) {
+            callback.onBatchComplete();
             return;
         }
-        result.add(tile_id);
+
+        final ExecutorService pool = getBatchPool();
+        final int chunkSize = chunkSize(total, BATCH_THREADS);
+        final int chunks = (total + chunkSize - 1) / chunkSize;
+        final AtomicInteger remaining = new AtomicInteger(chunks);
+
+        for (int start = 0; start < total; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(total, start + chunkSize);
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = from; i < to; i++) {
+                            Location location = null;
+                            try {
+                                location = locate(bssidSets.get(i));
+                            } catch (RuntimeException e) {
+                                Log.e(LOG_TAG, "Error resolving batch query " + i, e);
+                            }
+                            try {
+                                callback.onResult(i, location);
+                            } catch (RuntimeException e) {
+                                // Keep delivering the rest of the chunk
+                                Log.e(LOG_TAG, "Error delivering batch result " + i, e);
+                            }
+                        }
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            callback.onBatchComplete();
+                        }
+                    }
+                }
+            });
+        }
     }
 
-    private IResponse locationFix(Integer tile_id) {
-        IResponse result = null;
+    /*
+     Number of queries per chunk of a batch of total queries, for a pool of threads.
+     */
+    static int chunkSize(int total, int threads) {
+        return Math.max(1, total / (threads * CHUNKS_PER_THREAD));
+    }
 
-        SmartTile coord = city_tiles.getCoord(tile_id);
-        if (coord == null) {
-            Log.w(LOG_TAG, "Couldn't find co-ordinates for tile_id=[" + tile_id + "]");
-            return null;
+    private static synchronized ExecutorService getBatchPool() {
+        if (sBatchPool == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(BATCH_THREADS, BATCH_THREADS,
+                    30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "OfflineGeolocate-" + mCount.incrementAndGet());
+                            t.setDaemon(true);
+                            t.setPriority(Thread.MIN_PRIORITY);
+                            return t;
+                        }
+                    });
+            // Don't keep idle threads (and their scoring accumulators) around between batches.
+            pool.allowCoreThreadTimeOut(true);
+            sBatchPool = pool;
         }
+        return sBatchPool;
+    }
 
-        Location roundTrip = coord.getLocation();
-        JSONObject jsonLocation = LocationAdapter.toJSON(roundTrip);
+    private IResponse locationFix(Location location) {
+        JSONObject jsonLocation = LocationAdapter.toJSON(location);
 
-        result = new HTTPResponse(200,
+        IResponse result = new HTTPResponse(200,
                 new HashMap<String, List<String>>(),
                 jsonLocation.toString().getBytes(),
                 0);
         Log.i(LOG_TAG, "Sending back location: " + jsonLocation.toString());
         return result;
     }
-
-    private Location adjust_center_with_adjacent_wifi(int center_tile_id, int center_height, int[] tile_points) {
-        SmartTile coord = city_tiles.getCoord(center_tile_id);
-        Location loc = coord.getLocation();
-        double c_lat = loc.getLatitude();
-        double c_lon = loc.getLongitude();
-
-        Log.i(LOG_TAG, "Center is at : " + c_lat + ", " + c_lon);
-
-        List<HashMap<String, Double>> weighted_lat_lon = new ArrayList<HashMap<String, Double>>();
-
-        for (int adj_tileid: adjacent_tile(center_tile_id)) {
-            SmartTile adj_coord = city_tiles.getCoord(adj_tileid);
-            int adj_pts = tile_points[adj_tileid];
-            if (adj_pts > 0) {
-                Location adj_loc = adj_coord.getLocation();
-                Log.i(LOG_TAG, "Extra points at: " + adj_tileid + ", " + adj_pts);
-                Log.i(LOG_TAG, "Lat Lon for "+
-                        adj_tileid+
-                        " is " +
-                        adj_loc.getLatitude() +
-                        ", " +
-                        adj_loc.getLongitude());
-
-                HashMap<String, Double> v = new HashMap<String, Double>();
-                v.put(ADJ_PTS, (double) adj_pts);
-                v.put(LAT, adj_loc.getLatitude());
-                v.put(LON, adj_loc.getLongitude());
-
-                weighted_lat_lon.add(v);
-            }
-        }
-
-        double w_lat = 0;
-        double w_lon = 0;
-
-        double total_shift_weight = 0;
-        for (HashMap<String, Double> v: weighted_lat_lon) {
-            w_lat += v.get(LAT) * v.get(ADJ_PTS);
-            w_lon += v.get(LON) * v.get(ADJ_PTS);
-            total_shift_weight += v.get(ADJ_PTS);
-        }
-
-        w_lat /= total_shift_weight;
-        w_lon /= total_shift_weight;
-        Log.i(LOG_TAG, "Adjacent w_lat, w_lon : " + w_lat + ", " + w_lon);
-
-        double n_lat = c_lat * 0.5 + w_lat * 0.5;
-        double n_lon = c_lon * 0.5 + w_lat * 0.5;
-
-        // There's only GPS, NETWORK and PASSIVE providers specified in
-        // LocationManager.
-        Location result = new Location(LocationManager.NETWORK_PROVIDER);
-        result.setLatitude(n_lat);
-        result.setLongitude(n_lon);
-        result.setAccuracy(150);
-
-        Log.i(LOG_TAG, "Recomputed lat/lon: ["+result.getLatitude()+"], ["+result.getLongitude()+"]");
-        return result;
-    }
-
-
 }
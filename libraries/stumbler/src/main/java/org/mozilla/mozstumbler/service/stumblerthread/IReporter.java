@@ -13,7 +13,7 @@ import android.content.Context;
  */
 public interface IReporter {
     /*
-     * There are 2 threads of control that can access the
+     * There are 3 threads of control that can access the
      * reporter.  
      *
      * The StumblerService (or ClientStumblerService)
@@ -22,9 +22,11 @@ public interface IReporter {
      * StumblerService::stopScanning() is called - usually from UI
      * events from an Activity.
      *
-     * The other thread of control is the Android intents pump,
-     * which calls into the Reporter class through onReceive via
-     * an Intent.
+     * Scanner results arrive on the ObservationBus stumbler thread.
+     *
+     * The last is the Android intents pump, which calls into the
+     * Reporter class through onReceive for service requests and
+     * flushes.
      * 
      */
 
@@ -0,0 +1,74 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread;
+
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.support.v4.content.LocalBroadcastManager;
+
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.GPSScanner;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.WifiScanner;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellScanner;
+
+import java.util.List;
+
+/*
+ Re-sends ObservationBus events as the local broadcasts the UI listens for.
+
+ The wifi and cell Intents only say that a scan happened (plus its time); nothing outside the
+ Reporter reads the results, so they are not copied into the Intent. GPS Intents are sent in
+ full, LocationChangeSensor needs the location.
+ */
+public class LocalBroadcastBusAdapter implements ObservationBus.WifiScanListener,
+        ObservationBus.CellScanListener, ObservationBus.GpsListener {
+
+    private final Context mAppContext;
+
+    public LocalBroadcastBusAdapter(Context context) {
+        mAppContext = context.getApplicationContext();
+    }
+
+    public void start() {
+        ObservationBus.getInstance().register(this, ObservationBus.Delivery.DIRECT);
+    }
+
+    public void stop() {
+        ObservationBus.getInstance().unregister(this);
+    }
+
+    @Override
+    public void onWifiScanned(List<ScanResult> results, long timeMs) {
+        Intent i = new Intent(WifiScanner.ACTION_WIFIS_SCANNED);
+        i.putExtra(WifiScanner.ACTION_WIFIS_SCANNED_ARG_TIME, timeMs);
+        LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(i);
+    }
+
+    @Override
+    public void onCellsScanned(List<CellInfo> cells, long timeMs) {
+        Intent i = new Intent(CellScanner.ACTION_CELLS_SCANNED);
+        i.putExtra(CellScanner.ACTION_CELLS_SCANNED_ARG_TIME, timeMs);
+        LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(i);
+    }
+
+    @Override
+    public void onNewLocation(Location location, long timeMs) {
+        Intent i = new Intent(GPSScanner.ACTION_GPS_UPDATED);
+        i.putExtra(Intent.EXTRA_SUBJECT, GPSScanner.SUBJECT_NEW_LOCATION);
+        i.putExtra(GPSScanner.NEW_LOCATION_ARG_LOCATION, location);
+        i.putExtra(GPSScanner.ACTION_ARG_TIME, timeMs);
+        LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(i);
+    }
+
+    @Override
+    public void onLocationLost(long timeMs) {
+        Intent i = new Intent(GPSScanner.ACTION_GPS_UPDATED);
+        i.putExtra(Intent.EXTRA_SUBJECT, GPSScanner.SUBJECT_LOCATION_LOST);
+        i.putExtra(GPSScanner.ACTION_ARG_TIME, timeMs);
+        LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(i);
+    }
+}
@@ -0,0 +1,355 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+
+import org.mozilla.mozstumbler.service.core.metrics.LatencyHistogram;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ In-process delivery of scanner results to the Reporter (and anything else that wants them),
+ without packing them into Intents.
+
+ Listeners implement one or more of the listener interfaces below and are registered with a
+ Delivery mode:
+ - DIRECT: called synchronously on the publishing thread, like sendBroadcastSync().
+ - STUMBLER_THREAD: events are put on a queue and delivered, in order, on a single
+   dedicated thread. Once the queue holds QUEUE_CAPACITY events, further Wi-Fi, cell and
+   pressure scans are dropped and counted, so a slow listener can never block a scanner.
+   GPS and flush events are never dropped: the Reporter needs every fix to start a bundle
+   and every flush to write one out, so they are queued even when the queue is full.
+
+ Publishers hand over ownership of the lists and objects they publish, and must not modify
+ them afterwards.
+
+ The scanner Intents (i.e. WifiScanner.ACTION_WIFIS_SCANNED) are still sent for the UI by
+ LocalBroadcastBusAdapter.
+ */
+public class ObservationBus {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(ObservationBus.class);
+
+    public static final int QUEUE_CAPACITY = 256;
+
+    private static final LatencyHistogram sQueueWaitUs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.BUS_QUEUE_WAIT_US);
+    private static final PipelineMetrics.Counter sDroppedEvents =
+            PipelineMetrics.getInstance().counter(PipelineMetrics.BUS_EVENTS_DROPPED);
+
+    public interface WifiScanListener {
+        void onWifiScanned(List<ScanResult> results, long timeMs);
+    }
+
+    public interface CellScanListener {
+        void onCellsScanned(List<CellInfo> cells, long timeMs);
+    }
+
+    public interface GpsListener {
+        void onNewLocation(Location location, long timeMs);
+
+        void onLocationLost(long timeMs);
+    }
+
+    public interface PressureListener {
+        void onPressureScanned(float hPa);
+    }
+
+    public interface FlushListener {
+        void onFlushRequested();
+    }
+
+    public enum Delivery { DIRECT, STUMBLER_THREAD }
+
+    private static final int EVENT_WIFI = 0;
+    private static final int EVENT_CELL = 1;
+    private static final int EVENT_LOCATION = 2;
+    private static final int EVENT_LOCATION_LOST = 3;
+    private static final int EVENT_PRESSURE = 4;
+    private static final int EVENT_FLUSH = 5;
+    private static final int EVENT_KINDS = 6;
+    // Not delivered to listeners, see drain()
+    private static final int EVENT_BARRIER = EVENT_KINDS;
+
+    private static final class Subscriber {
+        final Object listener;
+        final Delivery delivery;
+
+        Subscriber(Object listener, Delivery delivery) {
+            this.listener = listener;
+            this.delivery = delivery;
+        }
+    }
+
+    private static final class Event {
+        final int kind;
+        final Object payload;
+        final long timeMs;
+        final float value;
+        // System.nanoTime() when the event was queued for the stumbler thread
+        long queuedNs;
+
+        Event(int kind, Object payload, long timeMs, float value) {
+            this.kind = kind;
+            this.payload = payload;
+            this.timeMs = timeMs;
+            this.value = value;
+        }
+    }
+
+    private static ObservationBus sInstance;
+
+    // Per event kind, the subscribers for that kind
+    @SuppressWarnings("unchecked")
+    private final CopyOnWriteArrayList<Subscriber>[] mSubscribers = new CopyOnWriteArrayList[EVENT_KINDS];
+    // Per event kind, whether any subscriber wants STUMBLER_THREAD delivery. Read by
+    // publishers without the lock, so it is replaced rather than modified.
+    private volatile boolean[] mHasQueuedSubscribers = new boolean[EVENT_KINDS];
+    private final BlockingQueue<Event> mQueue = new LinkedBlockingQueue<Event>();
+    private final int mQueueCapacity;
+    private final AtomicLong mDroppedEvents = new AtomicLong();
+    private volatile Thread mStumblerThread;
+
+    public static synchronized ObservationBus getInstance() {
+        if (sInstance == null) {
+            sInstance = new ObservationBus(QUEUE_CAPACITY);
+        }
+        return sInstance;
+    }
+
+    /*
+     A bus of its own for a pipeline that must not see the scanners' events, or be seen by
+     their listeners (i.e. TraceReplayer). close() it when done.
+     */
+    public static ObservationBus createPrivateInstance() {
+        return new ObservationBus(QUEUE_CAPACITY);
+    }
+
+    ObservationBus(int queueCapacity) {
+        for (int i = 0; i < EVENT_KINDS; i++) {
+            mSubscribers[i] = new CopyOnWriteArrayList<Subscriber>();
+        }
+        mQueueCapacity = queueCapacity;
+    }
+
+    /*
+     Register a listener for every listener interface it implements. Registering a listener
+     twice has no effect.
+     */
+    public synchronized void register(Object listener, Delivery delivery) {
+        final Subscriber subscriber = new Subscriber(listener, delivery);
+        if (listener instanceof WifiScanListener) {
+            add(EVENT_WIFI, subscriber);
+        }
+        if (listener instanceof CellScanListener) {
+            add(EVENT_CELL, subscriber);
+        }
+        if (listener instanceof GpsListener) {
+            add(EVENT_LOCATION, subscriber);
+            add(EVENT_LOCATION_LOST, subscriber);
+        }
+        if (listener instanceof PressureListener) {
+            add(EVENT_PRESSURE, subscriber);
+        }
+        if (listener instanceof FlushListener) {
+            add(EVENT_FLUSH, subscriber);
+        }
+
+        if (delivery == Delivery.STUMBLER_THREAD && mStumblerThread == null) {
+            mStumblerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchQueuedEvents();
+                }
+            }, "StumblerThread");
+            mStumblerThread.setDaemon(true);
+            mStumblerThread.start();
+        }
+    }
+
+    public synchronized void unregister(Object listener) {
+        for (int kind = 0; kind < EVENT_KINDS; kind++) {
+            for (Subscriber s : mSubscribers[kind]) {
+                if (s.listener == listener) {
+                    mSubscribers[kind].remove(s);
+                }
+            }
+            updateHasQueuedSubscribers(kind);
+        }
+    }
+
+    /*
+     Stop the stumbler thread. Events still queued for it are not delivered.
+     */
+    public synchronized void close() {
+        if (mStumblerThread != null) {
+            mStumblerThread.interrupt();
+            mStumblerThread = null;
+        }
+    }
+
+    private void add(int kind, Subscriber subscriber) {
+        for (Subscriber s : mSubscribers[kind]) {
+            if (s.listener == subscriber.listener) {
+                return;
+            }
+        }
+        mSubscribers[kind].add(subscriber);
+        updateHasQueuedSubscribers(kind);
+    }
+
+    private void updateHasQueuedSubscribers(int kind) {
+        boolean hasQueued = false;
+        for (Subscriber s : mSubscribers[kind]) {
+            hasQueued |= (s.delivery == Delivery.STUMBLER_THREAD);
+        }
+        final boolean[] updated = mHasQueuedSubscribers.clone();
+        updated[kind] = hasQueued;
+        mHasQueuedSubscribers = updated;
+    }
+
+    /*
+     Number of events dropped because the stumbler thread queue was full.
+     */
+    public long getDroppedEventCount() {
+        return mDroppedEvents.get();
+    }
+
+    /*
+     Number of events waiting for the stumbler thread.
+     */
+    public int getQueuedEventCount() {
+        return mQueue.size();
+    }
+
+    public void publishWifiScan(List<ScanResult> results, long timeMs) {
+        publish(new Event(EVENT_WIFI, results, timeMs, 0));
+    }
+
+    public void publishCellScan(List<CellInfo> cells, long timeMs) {
+        publish(new Event(EVENT_CELL, cells, timeMs, 0));
+    }
+
+    public void publishNewLocation(Location location, long timeMs) {
+        publish(new Event(EVENT_LOCATION, location, timeMs, 0));
+    }
+
+    public void publishLocationLost(long timeMs) {
+        publish(new Event(EVENT_LOCATION_LOST, null, timeMs, 0));
+    }
+
+    public void publishPressure(float hPa) {
+        publish(new Event(EVENT_PRESSURE, null, 0, hPa));
+    }
+
+    public void publishFlushRequest() {
+        publish(new Event(EVENT_FLUSH, null, 0, 0));
+    }
+
+    private void publish(Event event) {
+        deliver(event, Delivery.DIRECT);
+
+        if (!mHasQueuedSubscribers[event.kind]) {
+            return;
+        }
+        event.queuedNs = System.nanoTime();
+        if (isDroppable(event.kind) && mQueue.size() >= mQueueCapacity) {
+            sDroppedEvents.increment();
+            final long dropped = mDroppedEvents.incrementAndGet();
+            if (dropped == 1 || dropped % 100 == 0) {
+                Log.w(LOG_TAG, "Stumbler thread queue full, " + dropped + " events dropped so far");
+            }
+            return;
+        }
+        mQueue.add(event);
+    }
+
+    private static boolean isDroppable(int kind) {
+        return kind == EVENT_WIFI || kind == EVENT_CELL || kind == EVENT_PRESSURE;
+    }
+
+    /*
+     Wait until every event published before this call has been delivered on the stumbler
+     thread, or until the timeout passes. Returns false on timeout.
+
+     Returns at once when called on the stumbler thread itself, or when nothing has ever
+     registered for STUMBLER_THREAD delivery.
+     */
+    public boolean drain(long timeoutMs) throws InterruptedException {
+        final Thread stumblerThread = mStumblerThread;
+        if (stumblerThread == null || stumblerThread == Thread.currentThread()) {
+            return true;
+        }
+        final CountDownLatch delivered = new CountDownLatch(1);
+        mQueue.add(new Event(EVENT_BARRIER, delivered, 0, 0));
+        return delivered.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatchQueuedEvents() {
+        while (true) {
+            Event event;
+            try {
+                event = mQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (event.kind == EVENT_BARRIER) {
+                ((CountDownLatch) event.payload).countDown();
+                continue;
+            }
+
+            sQueueWaitUs.record(PipelineMetrics.microsSince(event.queuedNs));
+            try {
+                deliver(event, Delivery.STUMBLER_THREAD);
+            } catch (RuntimeException e) {
+                // Don't let one bad event kill the thread
+                Log.e(LOG_TAG, "Error delivering event", e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliver(Event event, Delivery delivery) {
+        for (Subscriber s : mSubscribers[event.kind]) {
+            if (s.delivery != delivery) {
+                continue;
+            }
+            switch (event.kind) {
+                case EVENT_WIFI:
+                    ((WifiScanListener) s.listener).onWifiScanned((List<ScanResult>) event.payload, event.timeMs);
+                    break;
+                case EVENT_CELL:
+                    ((CellScanListener) s.listener).onCellsScanned((List<CellInfo>) event.payload, event.timeMs);
+                    break;
+                case EVENT_LOCATION:
+                    ((GpsListener) s.listener).onNewLocation((Location) event.payload, event.timeMs);
+                    break;
+                case EVENT_LOCATION_LOST:
+                    ((GpsListener) s.listener).onLocationLost(event.timeMs);
+                    break;
+                case EVENT_PRESSURE:
+                    ((PressureListener) s.listener).onPressureScanned(event.value);
+                    break;
+                case EVENT_FLUSH:
+                    ((FlushListener) s.listener).onFlushRequested();
+                    break;
+            }
+        }
+    }
+}
@@ -10,19 +10,21 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.location.Location;
 import android.net.wifi.ScanResult;
+import android.os.Looper;
 import android.support.v4.content.LocalBroadcastManager;
 
 import org.json.JSONException;
 import org.mozilla.mozstumbler.service.AppGlobals;
+import org.mozilla.mozstumbler.service.core.metrics.LatencyHistogram;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
 import org.mozilla.mozstumbler.service.core.logging.ClientLog;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageManager;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.IDataStorageManager;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.MLSJSONObject;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.StumblerBundle;
-import org.mozilla.mozstumbler.service.stumblerthread.scanners.GPSScanner;
-import org.mozilla.mozstumbler.service.stumblerthread.scanners.PressureScanner;
-import org.mozilla.mozstumbler.service.stumblerthread.scanners.WifiScanner;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.ScanCadence;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
-import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellScanner;
+import org.mozilla.mozstumbler.service.utils.LongIntHashMap;
 import org.mozilla.mozstumbler.svclocator.ServiceLocator;
 import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
@@ -31,15 +33,36 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-public final class Reporter extends BroadcastReceiver implements IReporter {
+/*
+ Collects scanner results into StumblerBundles. Scanner results arrive over the ObservationBus,
+ on the bus' stumbler thread; service requests and flushes from clients still arrive as local
+ broadcasts. Both paths take the Reporter lock.
+
+ The StumblerService's Reporter listens on the global bus and stores to the global
+ DataStorageManager. A private Reporter, made with a bus and storage of its own (as TraceReplayer
+ does), touches nothing else: it takes no service requests, doesn't announce its bundles to the
+ UI and doesn't feed the ScanCadence.
+ */
+public final class Reporter extends BroadcastReceiver implements IReporter,
+        ObservationBus.WifiScanListener, ObservationBus.CellScanListener,
+        ObservationBus.GpsListener, ObservationBus.PressureListener, ObservationBus.FlushListener {
 
     private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
     private static final String LOG_TAG = LoggerUtil.makeLogTag(Reporter.class);
 
+    private static final LatencyHistogram sFlushUs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.REPORTER_FLUSH_US);
+    private static final LatencyHistogram sGeosubmitUs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.REPORTER_GEOSUBMIT_US);
+    private static final PipelineMetrics.Counter sReports =
+            PipelineMetrics.getInstance().counter(PipelineMetrics.REPORTER_REPORTS);
+
     public static final String ACTION_FLUSH_TO_BUNDLE = AppGlobals.ACTION_NAMESPACE + ".FLUSH";
     public static final String ACTION_NEW_BUNDLE = AppGlobals.ACTION_NAMESPACE + ".NEW_BUNDLE";
     public static final String NEW_BUNDLE_ARG_BUNDLE = "bundle";
-    private final Set<String> mUniqueAPs = new HashSet<String>();
+    private static final long SHUTDOWN_DRAIN_TIMEOUT_MS = 2000;
+    // Packed BSSIDs, the value is unused
+    private final LongIntHashMap mUniqueAPs = new LongIntHashMap(256, 0);
     private final Set<String> mUniqueCells = new HashSet<String>();
     StumblerBundle mBundle;
     private boolean mHasGpsFix = false;
@@ -47,8 +70,21 @@ public final class Reporter extends BroadcastReceiver implements IReporter {
     private boolean mIsStarted = false;
     private Context mContext;
     private int mObservationCount = 0;
+    private final ObservationBus mBus;
+    // null for the global DataStorageManager
+    private final IDataStorageManager mStorage;
 
     public Reporter() {
+        this(ObservationBus.getInstance(), null);
+    }
+
+    public Reporter(ObservationBus bus, IDataStorageManager storage) {
+        mBus = bus;
+        mStorage = storage;
+    }
+
+    private boolean isPrivate() {
+        return mStorage != null;
     }
 
     public synchronized void startup(Context context) {
@@ -59,12 +95,12 @@ public final class Reporter extends BroadcastReceiver implements IReporter {
         mContext = context.getApplicationContext();
         mIsStarted = true;
         mBundle = null;
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(WifiScanner.ACTION_WIFIS_SCANNED);
-        intentFilter.addAction(CellScanner.ACTION_CELLS_SCANNED);
-        intentFilter.addAction(GPSScanner.ACTION_GPS_UPDATED);
-        intentFilter.addAction(PressureScanner.ACTION_PRESSURE_SCANNED);
+        mBus.register(this, ObservationBus.Delivery.STUMBLER_THREAD);
+        if (isPrivate()) {
+            return;
+        }
 
+        IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(StumblerServiceIntentActions.SVC_REQ_OBSERVATION_PT);
         intentFilter.addAction(StumblerServiceIntentActions.SVC_REQ_UNIQUE_CELL_COUNT);
         intentFilter.addAction(StumblerServiceIntentActions.SVC_REQ_UNIQUE_WIFI_COUNT);
@@ -75,51 +111,67 @@ public final class Reporter extends BroadcastReceiver implements IReporter {
                 intentFilter);
     }
 
-    public synchronized void shutdown() {
-        if (mContext == null) {
-            return;
+    public void shutdown() {
+        synchronized (this) {
+            if (mContext == null) {
+                return;
+            }
+            mIsStarted = false;
         }
 
-        mIsStarted = false;
-
         ClientLog.d(LOG_TAG, "shutdown");
-        flush();
-        LocalBroadcastManager.getInstance(mContext).unregisterReceiver(this);
+        // Let the stumbler thread deliver what the scanners already published before we stop
+        // listening. Not under the Reporter lock, the stumbler thread needs it to deliver.
+        try {
+            if (!mBus.drain(SHUTDOWN_DRAIN_TIMEOUT_MS)) {
+                ClientLog.w(LOG_TAG, "Timed out delivering queued observations at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            mBus.unregister(this);
+            flush();
+            if (!isPrivate()) {
+                LocalBroadcastManager.getInstance(mContext).unregisterReceiver(this);
+            }
+        }
     }
 
-    private void receivedWifiMessage(Intent intent) {
-        List<ScanResult> results = intent.getParcelableArrayListExtra(WifiScanner.ACTION_WIFIS_SCANNED_ARG_RESULTS);
+    @Override
+    public synchronized void onWifiScanned(List<ScanResult> results, long timeMs) {
         putWifiResults(results);
+        flushIfFull();
     }
 
-    private void receivedCellMessage(Intent intent) {
-        List<CellInfo> results = intent.getParcelableArrayListExtra(CellScanner.ACTION_CELLS_SCANNED_ARG_CELLS);
-        putCellResults(results);
+    @Override
+    public synchronized void onCellsScanned(List<CellInfo> cells, long timeMs) {
+        putCellResults(cells);
+        flushIfFull();
     }
 
-    private void receivedGpsMessage(Intent intent) {
-        String subject = intent.getStringExtra(Intent.EXTRA_SUBJECT);
-
-        if (subject != null && subject.equals(GPSScanner.SUBJECT_NEW_LOCATION)) {
-            Location newPosition = intent.getParcelableExtra(GPSScanner.NEW_LOCATION_ARG_LOCATION);
-            // Only create StumblerBundle instances if the position exists
-            if (newPosition != null) {
-                flush();
-                mBundle = new StumblerBundle(newPosition, mTrackSegment);
-                mHasGpsFix = true;
-            }
-        } else if (subject.equals(GPSScanner.SUBJECT_LOCATION_LOST) && mHasGpsFix) {
-            flush();
+    @Override
+    public synchronized void onNewLocation(Location location, long timeMs) {
+        flush();
+        mBundle = new StumblerBundle(location, mTrackSegment);
+        mHasGpsFix = true;
+    }
 
-            ClientLog.i(LOG_TAG, "Track segment ended: " + mTrackSegment);
-            mTrackSegment++;
-            mHasGpsFix = false;
+    @Override
+    public synchronized void onLocationLost(long timeMs) {
+        if (!mHasGpsFix) {
+            return;
         }
-    }
+        flush();
 
-    private void receivedPressureMessage(Intent intent) {
-        float hPa = intent.getFloatExtra(PressureScanner.ACTION_PRESSURE_SCANNED_PRESSURE, (float) 0.0);
+        ClientLog.i(LOG_TAG, "Track segment ended: " + mTrackSegment);
+        mTrackSegment++;
+        mHasGpsFix = false;
+    }
 
+    @Override
+    public synchronized void onPressureScanned(float hPa) {
         if (mBundle == null || hPa == 0.0) {
             return;
         }
@@ -128,35 +180,32 @@ public final class Reporter extends BroadcastReceiver implements IReporter {
     }
 
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public synchronized void onFlushRequested() {
+        flush();
+    }
+
+    @Override
+    public synchronized void onReceive(Context context, Intent intent) {
         String action = intent.getAction();
 
         if (action.equals(ACTION_FLUSH_TO_BUNDLE)) {
             flush();
-            return;
-        } else if (action.equals(WifiScanner.ACTION_WIFIS_SCANNED)) {
-            receivedWifiMessage(intent);
-        } else if (action.equals(CellScanner.ACTION_CELLS_SCANNED)) {
-            receivedCellMessage(intent);
-        } else if (action.equals(GPSScanner.ACTION_GPS_UPDATED)) {
-            // This is the common case
-            receivedGpsMessage(intent);
-        } else if (intent.getAction().equals(StumblerServiceIntentActions.SVC_REQ_OBSERVATION_PT)) {
+        } else if (action.equals(StumblerServiceIntentActions.SVC_REQ_OBSERVATION_PT)) {
             StumblerService.broadcastCount(mContext,
                     StumblerServiceIntentActions.SVC_RESP_OBSERVATION_PT,
                     getObservationCount());
-        } else if (intent.getAction().equals(StumblerServiceIntentActions.SVC_REQ_UNIQUE_CELL_COUNT)) {
+        } else if (action.equals(StumblerServiceIntentActions.SVC_REQ_UNIQUE_CELL_COUNT)) {
             StumblerService.broadcastCount(mContext,
                     StumblerServiceIntentActions.SVC_RESP_UNIQUE_CELL_COUNT,
                     getUniqueCellCount());
-        } else if (intent.getAction().equals(StumblerServiceIntentActions.SVC_REQ_UNIQUE_WIFI_COUNT)) {
+        } else if (action.equals(StumblerServiceIntentActions.SVC_REQ_UNIQUE_WIFI_COUNT)) {
             StumblerService.broadcastCount(mContext,
                     StumblerServiceIntentActions.SVC_RESP_UNIQUE_WIFI_COUNT,
                     getUniqueAPCount());
-        } else if (intent.getAction().equals(PressureScanner.ACTION_PRESSURE_SCANNED)) {
-            receivedPressureMessage(intent);
         }
+    }
 
+    private void flushIfFull() {
         if (mBundle != null &&
                 (mBundle.hasMaxWifisPerLocation() || mBundle.hasMaxCellsPerLocation())) {
             // no gps for a while, have too much data, just bundle it
@@ -196,6 +245,7 @@ public final class Reporter extends BroadcastReceiver implements IReporter {
             return;
         }
 
+        final long startNs = System.nanoTime();
         MLSJSONObject geoSubmitJSON;
         try {
             geoSubmitJSON = mBundle.toMLSGeosubmit();
@@ -204,34 +254,56 @@ public final class Reporter extends BroadcastReceiver implements IReporter {
             mBundle = null;
             return;
         }
+        sGeosubmitUs.record(PipelineMetrics.microsSince(startNs));
 
         if (geoSubmitJSON.radioCount() > 0) {
-            DataStorageManager.getInstance().insert(geoSubmitJSON);
+            ((mStorage != null) ? mStorage : DataStorageManager.getInstance()).insert(geoSubmitJSON);
+            sReports.increment();
             mObservationCount++;
-            mUniqueAPs.addAll(mBundle.getUnmodifiableWifiData().keySet());
-            mUniqueCells.addAll(mBundle.getUnmodifiableCellData().keySet());
+            int newAPs = 0;
+            for (int i = 0; i < mBundle.getWifiCount(); i++) {
+                final long bssid = mBundle.getWifiBSSID(i);
+                if (!mUniqueAPs.containsKey(bssid)) {
+                    mUniqueAPs.put(bssid, 1);
+                    newAPs++;
+                }
+            }
+            if (!isPrivate()) {
+                ScanCadence.getInstance().onBundleFlushed(mBundle.getWifiCount(), newAPs);
+            }
+            for (int i = 0; i < mBundle.getCellCount(); i++) {
+                mUniqueCells.add(mBundle.getCellKey(i));
+            }
         }
 
-        Intent i = new Intent(ACTION_NEW_BUNDLE);
-        i.putExtra(NEW_BUNDLE_ARG_BUNDLE, mBundle);
-        i.putExtra(AppGlobals.ACTION_ARG_TIME, System.currentTimeMillis());
-        LocalBroadcastManager.getInstance(mContext).sendBroadcastSync(i);
+        if (!isPrivate()) {
+            Intent i = new Intent(ACTION_NEW_BUNDLE);
+            i.putExtra(NEW_BUNDLE_ARG_BUNDLE, mBundle);
+            i.putExtra(AppGlobals.ACTION_ARG_TIME, System.currentTimeMillis());
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                LocalBroadcastManager.getInstance(mContext).sendBroadcastSync(i);
+            } else {
+                // From the stumbler thread, the UI receivers expect to be called on the main thread.
+                LocalBroadcastManager.getInstance(mContext).sendBroadcast(i);
+            }
+        }
 
         mBundle = null;
+        sFlushUs.record(PipelineMetrics.microsSince(startNs));
     }
 
     private int getObservationCount() {
-        // this is only updated during flush() which is only called from onReceive
+        // this is only updated during flush(), under the Reporter lock
         return mObservationCount;
     }
 
     private int getUniqueAPCount() {
-        // this is only updated during flush() which is only called from onReceive
+        // this is only updated during flush(), under the Reporter lock
         return mUniqueAPs.size();
     }
 
     private int getUniqueCellCount() {
-        // this is only updated during flush() which is only called from onReceive
+        // this is only updated during flush(), under the Reporter lock
         return mUniqueCells.size();
     }
 }
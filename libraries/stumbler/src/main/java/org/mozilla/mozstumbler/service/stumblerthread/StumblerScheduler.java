@@ -0,0 +1,100 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread;
+
+import android.os.Process;
+
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/*
+ The one thread the scanners use for their timers: scan cadence and the flush deadline.
+ A java.util.Timer is a thread of its own, and one was being created on every GPS fix.
+
+ Tasks are short (start a scan, publish an event), so a single low priority thread is
+ enough. Scheduling returns a ScheduledFuture, cancel it with cancel(false).
+
+ StumblerService owns the thread: it is started on first use and shutdown() stops it when
+ the service goes away. Scheduling after shutdown() starts a new one.
+ */
+public class StumblerScheduler {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(StumblerScheduler.class);
+
+    private static StumblerScheduler sInstance;
+
+    private ScheduledExecutorService mExecutor;
+
+    public static synchronized StumblerScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new StumblerScheduler();
+        }
+        return sInstance;
+    }
+
+    StumblerScheduler() {}
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (mExecutor == null) {
+            mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "StumblerScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return getExecutor().schedule(guard(task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     Like Timer.schedule(task, delay, period): each run is periodMs after the previous one ended.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelayMs, long periodMs) {
+        return getExecutor().scheduleWithFixedDelay(guard(task), initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     Cancel everything pending and stop the thread.
+     */
+    public synchronized void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    // An exception would otherwise silently cancel a periodic task, log it and carry on.
+    private static Runnable guard(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Scheduled task failed: " + e.toString());
+                }
+            }
+        };
+    }
+}
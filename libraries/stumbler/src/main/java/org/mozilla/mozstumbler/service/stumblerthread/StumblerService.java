@@ -15,10 +15,12 @@ import android.support.v4.content.LocalBroadcastManager;
 
 import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.stumblerthread.blocklist.WifiBlockListUpdater;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageManager;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.IDataStorageManager;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.StorageIsEmptyTracker;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.ScanManager;
+import org.mozilla.mozstumbler.service.stumblerthread.trace.TraceRecorder;
 import org.mozilla.mozstumbler.service.uploadthread.UploadAlarmReceiver;
 import org.mozilla.mozstumbler.service.utils.NetworkInfo;
 import org.mozilla.mozstumbler.service.utils.PersistentIntentService;
@@ -26,6 +28,7 @@ import org.mozilla.mozstumbler.svclocator.ServiceLocator;
 import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 // In stand-alone service mode (a.k.a passive scanning mode), this is created from PassiveServiceReceiver (by calling startService).
@@ -43,6 +46,8 @@ public class StumblerService extends PersistentIntentService
     public static final String ACTION_EXTRA_USER_AGENT = ACTION_BASE + ".USER_AGENT";
     public static final String ACTION_NOT_FROM_HOST_APP = ACTION_BASE + ".NOT_FROM_HOST";
     public static final AtomicBoolean sFirefoxStumblingEnabled = new AtomicBoolean();
+    // Set from init() until onDestroy()
+    private static final AtomicBoolean sIsRunning = new AtomicBoolean();
     // This is a delay before the single-shot upload is attempted. The number is arbitrary
     // and used to avoid startup tasks bunching up.
     private static final int DELAY_IN_SEC_BEFORE_STARTING_UPLOAD_IN_PASSIVE_MODE = 2;
@@ -52,6 +57,7 @@ public class StumblerService extends PersistentIntentService
     private static final long PASSIVE_UPLOAD_FREQ_GUARD_MSEC = 5 * 60 * 1000;
     protected final ScanManager mScanManager = new ScanManager();
     protected final IReporter mReporter = new Reporter();
+    protected final TraceRecorder mTraceRecorder = new TraceRecorder();
 
 
     private final AtomicBoolean initializeIntentFilters = new AtomicBoolean(false);
@@ -95,6 +101,13 @@ public class StumblerService extends PersistentIntentService
         super(name);
     }
 
+    /*
+     Whether a StumblerService has been started, and not yet destroyed.
+     */
+    public static boolean isRunning() {
+        return sIsRunning.get();
+    }
+
     private synchronized boolean isStopped() {
         return mScanManager.isStopped();
     }
@@ -140,8 +153,17 @@ public class StumblerService extends PersistentIntentService
         // that call Prefs.getInstanceWithoutContext()
         Prefs.getInstance(this);
         DataStorageManager.createGlobalInstance(this, this);
+        sIsRunning.set(true);
+        WifiBlockListUpdater.start(this);
 
         mReporter.startup(this);
+        if (Prefs.getInstance(this).isRecordTrace()) {
+            try {
+                mTraceRecorder.start(DataStorageManager.getSystemStorageDir(this));
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Can't record a trace", e);
+            }
+        }
         mScanManager.initContext(this.getApplicationContext());
     }
 
@@ -156,6 +178,7 @@ public class StumblerService extends PersistentIntentService
     @Override
     public void onDestroy() {
         super.onDestroy();
+        sIsRunning.set(false);
 
         if (isStopped()) {
             return;
@@ -178,12 +201,14 @@ public class StumblerService extends PersistentIntentService
                 if (DataStorageManager.getInstance() != null) {
                     DataStorageManager.getInstance().saveCachedReportsToDisk();
                 }
+                mTraceRecorder.stop();
                 return null;
             }
         }.execute();
 
         mReporter.shutdown();
         mScanManager.stopScanning();
+        StumblerScheduler.getInstance().shutdown();
     }
 
     // This is the entry point for the stumbler thread.
@@ -7,50 +7,51 @@ package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
 import android.net.wifi.ScanResult;
 import android.util.Log;
 
+import org.mozilla.mozstumbler.service.utils.MacAddress;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
-import java.util.Locale;
-import java.util.regex.Pattern;
-
+/*
+ BSSIDs are checked as packed longs (see MacAddress), so filtering a scan result is a parse and
+ a few integer compares, with no regex and no allocation for well formed BSSIDs.
+ */
 public final class BSSIDBlockList {
     private static final String LOG_TAG = LoggerUtil.makeLogTag(BSSIDBlockList.class);
-    private static final String NULL_BSSID = "000000000000";
-    private static final String WILDCARD_BSSID = "ffffffffffff";
-    private static final Pattern BSSID_PATTERN = Pattern.compile("([0-9a-f]{12})");
+    private static final long NULL_BSSID = 0L;
+    private static final long WILDCARD_BSSID = 0xffffffffffffL;
 
     private BSSIDBlockList() {
     }
 
     public static boolean contains(ScanResult scanResult) {
-        String BSSID = scanResult.BSSID;
-        if (BSSID == null || NULL_BSSID.equals(BSSID) || WILDCARD_BSSID.equals(BSSID)) {
+        return contains(MacAddress.parse(scanResult.BSSID), scanResult.BSSID);
+    }
+
+    /*
+     bssid is the result of MacAddress.parse(BSSID); BSSID is only used for logging.
+     */
+    public static boolean contains(long bssid, String BSSID) {
+        if (bssid == MacAddress.INVALID) {
+            if (BSSID != null) {
+                Log.w(LOG_TAG, "", new IllegalArgumentException("Unexpected BSSID format: " + BSSID));
+            }
             return true; // blocked!
         }
 
-        if (!isCanonicalBSSID(BSSID)) {
-            Log.w(LOG_TAG, "", new IllegalArgumentException("Unexpected BSSID format: " + BSSID));
+        if (bssid == NULL_BSSID || bssid == WILDCARD_BSSID) {
             return true; // blocked!
         }
 
-        return false; // OK
+        return WifiBlockList.getActive().isBlockedOUI(bssid);
     }
 
     public static String canonicalizeBSSID(String BSSID) {
-        if (BSSID == null) {
-            return "";
-        }
-
-        if (isCanonicalBSSID(BSSID)) {
-            return BSSID;
-        }
-
-        // Some devices may return BSSIDs with ':', '-' or '.' delimiters.
-        BSSID = BSSID.toLowerCase(Locale.US).replaceAll("[\\-\\.:]", "");
-
-        return isCanonicalBSSID(BSSID) ? BSSID : "";
+        return canonicalizeBSSID(BSSID, MacAddress.parse(BSSID));
     }
 
-    private static boolean isCanonicalBSSID(String BSSID) {
-        return BSSID_PATTERN.matcher(BSSID).matches();
+    /*
+     For callers that already parsed the BSSID. Only allocates if the BSSID isn't canonical.
+     */
+    public static String canonicalizeBSSID(String BSSID, long bssid) {
+        return MacAddress.canonicalize(BSSID, bssid);
     }
 }
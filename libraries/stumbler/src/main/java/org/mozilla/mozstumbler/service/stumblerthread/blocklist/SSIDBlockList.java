@@ -23,6 +23,6 @@ public final class SSIDBlockList {
             return true; // no SSID?
         }
 
-        return false; // OK
+        return WifiBlockList.getActive().isBlockedSSID(SSID);
     }
 }
@@ -0,0 +1,177 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/*
+ A block list stored as JSON in the app's files directory:
+
+   {
+     "version": 3,
+     "ssid_prefixes": ["AndroidAP", ...],
+     "ssid_suffixes": ["_ShuttleWiFi", ...],
+     "bssid_ouis": ["00:1a:2b", ...]
+   }
+
+ The version must be greater than DefaultWifiBlockList.VERSION for the file to be used. Missing
+ lists are empty.
+
+ Reading and replacing the file are synchronized on this class, and only install a list that is
+ newer than the active one. An update can't be overwritten on disk by an older concurrent one,
+ or leave a different list on disk than in use.
+ */
+public final class WifiBlockListFile implements WifiBlockListInterface {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(WifiBlockListFile.class);
+
+    public static final String FILENAME = "wifi_blocklist.json";
+    private static final Charset ENCODING = Charset.forName("UTF-8");
+
+    static final String KEY_VERSION = "version";
+    static final String KEY_SSID_PREFIXES = "ssid_prefixes";
+    static final String KEY_SSID_SUFFIXES = "ssid_suffixes";
+    static final String KEY_BSSID_OUIS = "bssid_ouis";
+
+    private final int mVersion;
+    private final String[] mSsidPrefixes;
+    private final String[] mSsidSuffixes;
+    private final String[] mBssidOuis;
+
+    WifiBlockListFile(byte[] contents) throws JSONException {
+        JSONObject json = new JSONObject(new String(contents, ENCODING));
+        mVersion = json.getInt(KEY_VERSION);
+        mSsidPrefixes = getStrings(json, KEY_SSID_PREFIXES);
+        mSsidSuffixes = getStrings(json, KEY_SSID_SUFFIXES);
+        mBssidOuis = getStrings(json, KEY_BSSID_OUIS);
+    }
+
+    private static String[] getStrings(JSONObject json, String key) throws JSONException {
+        JSONArray array = json.optJSONArray(key);
+        if (array == null) {
+            return new String[0];
+        }
+        String[] strings = new String[array.length()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = array.getString(i);
+        }
+        return strings;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    @Override
+    public String[] getSsidPrefixList() {
+        return mSsidPrefixes.clone();
+    }
+
+    @Override
+    public String[] getSsidSuffixList() {
+        return mSsidSuffixes.clone();
+    }
+
+    @Override
+    public String[] getBssidOuiList() {
+        return mBssidOuis.clone();
+    }
+
+    public WifiBlockList compile() {
+        return WifiBlockList.compile(this, mVersion);
+    }
+
+    public static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILENAME);
+    }
+
+    /*
+     Install the built in list, if nothing newer is active. No disk I/O.
+     */
+    public static void installDefault() {
+        WifiBlockList.install(WifiBlockList.compile(new DefaultWifiBlockList(), DefaultWifiBlockList.VERSION));
+    }
+
+    /*
+     Install the best block list available: the file if there is a valid one, otherwise the
+     built in list. Does nothing if the active list is already as new. Safe to call repeatedly.
+     Reads the file, call it off the main thread.
+     */
+    public static synchronized void loadActive(Context context) {
+        installDefault();
+
+        final File file = getFile(context);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            WifiBlockList.install(new WifiBlockListFile(readFile(file)).compile());
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read " + file.getName() + ": " + e.toString());
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Bad " + file.getName() + ": " + e.toString());
+        }
+    }
+
+    /*
+     Validate a new block list, save it over the old file and make it the active list.
+     Returns false, leaving everything as it was, if it isn't newer than the active list.
+     */
+    public static synchronized boolean update(Context context, byte[] contents) throws IOException, JSONException {
+        final WifiBlockListFile lists = new WifiBlockListFile(contents);
+        if (lists.getVersion() <= WifiBlockList.getActive().getVersion()) {
+            return false;
+        }
+        final WifiBlockList compiled = lists.compile();
+
+        final File file = getFile(context);
+        final File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(contents);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp.getName());
+        }
+
+        return WifiBlockList.install(compiled);
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final byte[] contents = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < contents.length) {
+                final int read = in.read(contents, offset, contents.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return contents;
+    }
+}
@@ -0,0 +1,87 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.blocklist;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.core.http.IHttpUtil;
+import org.mozilla.mozstumbler.service.core.http.IResponse;
+import org.mozilla.mozstumbler.service.utils.NetworkInfo;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.IOException;
+
+/*
+ Keeps the Wi-Fi block list current: loads the saved file, then downloads the published list
+ and saves it with WifiBlockListFile.update() when it is newer. Both run on a background thread
+ started by start(), so StumblerService.init() doesn't wait on the disk or the network.
+ */
+public class WifiBlockListUpdater {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(WifiBlockListUpdater.class);
+
+    // docs/wifi_blocklist.json in the repository
+    public static final String BLOCKLIST_URL = "https://raw.githubusercontent.com/mozilla/MozStumbler/master/docs/wifi_blocklist.json";
+    public static final long UPDATE_CHECK_FREQ_MS = 24 * 60 * 60 * 1000; // 1 day
+    static long sLastUpdateCheck = 0;
+
+    /*
+     Install the built in list now, then load the file and check for an update in the background.
+     */
+    public static void start(Context context) {
+        WifiBlockListFile.installDefault();
+
+        final Context appContext = context.getApplicationContext();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                WifiBlockListFile.loadActive(appContext);
+                checkForUpdate(appContext);
+            }
+        }, "WifiBlockListUpdater");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /*
+     Download the published list and install it if it is newer than the active one. Skipped if
+     a check was made in the last UPDATE_CHECK_FREQ_MS, or the network may not be used. Returns
+     true if a new list was installed. Blocks on the network.
+     */
+    static boolean checkForUpdate(Context context) {
+        ISystemClock clock = (ISystemClock) ServiceLocator.getInstance().getService(ISystemClock.class);
+        synchronized (WifiBlockListUpdater.class) {
+            if (clock.currentTimeMillis() - sLastUpdateCheck < UPDATE_CHECK_FREQ_MS) {
+                return false;
+            }
+            NetworkInfo networkInfo = new NetworkInfo(context);
+            if (!networkInfo.isConnected() ||
+                (Prefs.getInstance(context).getUseWifiOnly() && !networkInfo.isWifiAvailable())) {
+                return false;
+            }
+            sLastUpdateCheck = clock.currentTimeMillis();
+        }
+
+        IHttpUtil httpUtil = (IHttpUtil) ServiceLocator.getInstance().getService(IHttpUtil.class);
+        IResponse response = httpUtil.get(BLOCKLIST_URL, null);
+        if (response == null || response.httpStatusCode() != IResponse.HTTP_OK) {
+            return false;
+        }
+
+        try {
+            return WifiBlockListFile.update(context, response.bodyBytes());
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't save the block list: " + e.toString());
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Bad block list from " + BLOCKLIST_URL + ": " + e.toString());
+        }
+        return false;
+    }
+}
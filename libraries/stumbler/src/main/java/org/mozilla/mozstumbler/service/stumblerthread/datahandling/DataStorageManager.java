@@ -5,7 +5,13 @@
 package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
 
 import android.content.Context;
+import android.os.Build;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.core.logging.ClientLog;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.JSONRowsStorageManager;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRowsList;
@@ -44,14 +50,36 @@ public class DataStorageManager extends JSONRowsStorageManager implements IDataS
 
     protected DataStorageManager(Context c, StorageIsEmptyTracker tracker,
                        long maxBytesStoredOnDisk, int maxWeeksDataStored) {
-        super(c, tracker, maxBytesStoredOnDisk, maxWeeksDataStored, "reports");
+        super(getSystemStorageDir(c), tracker, maxBytesStoredOnDisk, maxWeeksDataStored, "reports");
         FILENAME_PREFIX = "report";
         mPersistedOnDiskUploadStats = new PersistedStats(getSystemStorageDir(c), c);
-        mInMemoryActiveJSONRows = new ReportBatchBuilder();
+        // Streaming rows into the gzip buffer needs SYNC_FLUSH to peek at pending rows
+        mInMemoryActiveJSONRows = new ReportBatchBuilder(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT);
+        replayJournal();
+    }
+
+    public static String getSystemStorageDir(Context c) {
+        File dir = c.getFilesDir();
+
+        if (!dir.exists()) {
+            boolean ok = dir.mkdirs();
+            if (!ok) {
+                ClientLog.w(LOG_TAG, "getSystemStorageDir: error in mkdirs()");
+                Log.e(LOG_TAG, "Error creating storage directory: ["+dir.getAbsolutePath()+"]");
+            }
+        }
+
+        return dir.getPath();
     }
 
-    public static synchronized void createGlobalInstance(Context context, StorageIsEmptyTracker tracker) {
-        DataStorageManager.createGlobalInstance(context, tracker,
+    @Override
+    protected boolean isSaveStumbleLogs() {
+        return Prefs.getInstanceWithoutContext().isSaveStumbleLogs();
+    }
+
+    public static synchronized DataStorageManager createGlobalInstance(Context context, StorageIsEmptyTracker tracker) {
+        return DataStorageManager.createGlobalInstance(context, tracker,
                 DataStorageConstants.DEFAULT_MAX_BYTES_STORED_ON_DISK, DataStorageConstants.DEFAULT_MAX_WEEKS_DATA_ON_DISK);
     }
 
@@ -63,6 +91,15 @@ public class DataStorageManager extends JSONRowsStorageManager implements IDataS
         return sInstance;
     }
 
+    /*
+     A DataStorageManager in context.getFilesDir() that isn't the global instance, for a pipeline
+     that must not share the service's reports (i.e. TraceReplayer).
+     */
+    public static DataStorageManager createPrivateInstance(Context context, StorageIsEmptyTracker tracker) {
+        return new DataStorageManager(context, tracker,
+                DataStorageConstants.DEFAULT_MAX_BYTES_STORED_ON_DISK, DataStorageConstants.DEFAULT_MAX_WEEKS_DATA_ON_DISK);
+    }
+
     // This method only exists to help with unit testing when we need
     // to switch the singleton version of the DataStorageManager.
     public static void removeInstance() {
@@ -150,6 +187,11 @@ public class DataStorageManager extends JSONRowsStorageManager implements IDataS
         return new File(mStorageDir, name);
     }
 
+    @Override
+    protected JSONObject createRowFromJournal(String row) throws JSONException {
+        return new MLSJSONObject(row);
+    }
+
     @Override
     public void insert(MLSJSONObject geoSubmitObj) {
         super.insertRow(geoSubmitObj);
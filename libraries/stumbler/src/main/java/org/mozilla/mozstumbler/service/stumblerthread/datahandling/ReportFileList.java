@@ -4,14 +4,16 @@
 
 package org.mozilla.mozstumbler.service.stumblerthread.datahandling;
 
-import org.mozilla.mozstumbler.service.AppGlobals;
-import org.mozilla.mozstumbler.service.core.logging.ClientLog;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRowsList;
 
 import java.io.File;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/*
+ The report, wifi and cell counts are parsed from each file name once, when the file
+ enters or leaves the index, and kept as running totals.
+ */
 public class ReportFileList extends SerializedJSONRowsList {
     protected int mReportCount;
     protected int mWifiCount;
@@ -45,27 +47,31 @@ public class ReportFileList extends SerializedJSONRowsList {
         super(storageDir);
     }
 
-    public ReportFileList(ReportFileList other) {
-        super(other);
-        mReportCount = other.mReportCount;
-        mWifiCount = other.mWifiCount;
-        mCellCount = other.mCellCount;
+    @Override
+    protected void onEntryAdded(String name, long bytes) {
+        super.onEntryAdded(name, bytes);
+        tallyCounts(name, 1);
     }
 
     @Override
-    public void update() {
-        super.update();
+    protected void onEntryRemoved(String name, long bytes) {
+        super.onEntryRemoved(name, bytes);
+        tallyCounts(name, -1);
+    }
 
-        mFilesOnDiskBytes = mReportCount = mWifiCount = mCellCount = 0;
-        for (File f : mFiles) {
-            AtomicInteger obs = new AtomicInteger();
-            AtomicInteger wifi = new AtomicInteger();
-            AtomicInteger cell = new AtomicInteger();
-            getCountsFromFilename(f, obs, wifi, cell);
-            mReportCount += obs.get();
-            mWifiCount += wifi.get();
-            mCellCount += cell.get();
-            mFilesOnDiskBytes += f.length();
+    @Override
+    protected void onEntriesCleared() {
+        super.onEntriesCleared();
+        mReportCount = mWifiCount = mCellCount = 0;
+    }
+
+    private void tallyCounts(String name, int sign) {
+        try {
+            mReportCount += sign * (int) DataStorageManager.getLongFromFilename(name, DataStorageManager.SEP_REPORT_COUNT);
+            mWifiCount += sign * (int) DataStorageManager.getLongFromFilename(name, DataStorageManager.SEP_WIFI_COUNT);
+            mCellCount += sign * (int) DataStorageManager.getLongFromFilename(name, DataStorageManager.SEP_CELL_COUNT);
+        } catch (RuntimeException e) {
+            // Not a report file, it doesn't count towards the queue.
         }
     }
 
@@ -8,23 +8,24 @@ import android.annotation.TargetApi;
 import android.location.Location;
 import android.net.wifi.ScanResult;
 import android.os.Build;
-import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
+import org.mozilla.mozstumbler.service.utils.MacAddress;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Map;
-import java.util.TreeMap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 /**
  * A StumblerBundle contains stumbling data related to a single GPS lat/long fix.
+ *
+ * The fix and the wifi and cell observations are copied into a BundleRecords as they are
+ * added; the ScanResult and CellInfo objects are not kept.
  */
 public final class StumblerBundle implements Parcelable {
     /* The maximum number of Wi-Fi access points in a single observation. */
@@ -33,14 +34,21 @@ public final class StumblerBundle implements Parcelable {
     public static final int MAX_CELLS_PER_LOCATION = 50;
     private final Location mGpsPosition;
     private int mTrackSegment = -1;
-    private final TreeMap<String, ScanResult> mWifiData;
-    private final TreeMap<String, CellInfo> mCellData;
-    private float mPressureHPA;
+    private final BundleRecords mRecords;
 
     public StumblerBundle(Location position) {
         mGpsPosition = position;
-        mWifiData = new TreeMap<String, ScanResult>();
-        mCellData = new TreeMap<String, CellInfo>();
+        mRecords = new BundleRecords(MAX_WIFIS_PER_LOCATION);
+        if (position != null) {
+            mRecords.setFix(position.getLatitude(), position.getLongitude(), position.getTime(),
+                    position.getBearing(), position.getSpeed());
+            if (position.hasAltitude()) {
+                mRecords.setAltitude(position.getAltitude());
+            }
+            if (position.hasAccuracy()) {
+                mRecords.setAccuracy(position.getAccuracy());
+            }
+        }
     }
 
     public StumblerBundle(Location position, int trackSegment) {
@@ -55,20 +63,14 @@ public final class StumblerBundle implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel out, int flags) {
-        Bundle wifiBundle = new Bundle(ScanResult.class.getClassLoader());
-        Collection<String> scans = mWifiData.keySet();
-        for (String s : scans) {
-            wifiBundle.putParcelable(s, mWifiData.get(s));
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            mRecords.writeRecordsTo(new DataOutputStream(records));
+        } catch (IOException e) {
+            // Can't happen, the stream is in memory
+            throw new IllegalStateException(e);
         }
-
-        Bundle cellBundle = new Bundle(CellInfo.class.getClassLoader());
-        Collection<String> cells = mCellData.keySet();
-        for (String c : cells) {
-            cellBundle.putParcelable(c, mCellData.get(c));
-        }
-
-        out.writeBundle(wifiBundle);
-        out.writeBundle(cellBundle);
+        out.writeByteArray(records.toByteArray());
         out.writeParcelable(mGpsPosition, 0);
         out.writeInt(mTrackSegment);
     }
@@ -82,174 +84,83 @@ public final class StumblerBundle implements Parcelable {
     }
 
     public boolean hasRadioData() {
-        boolean hasCellData = mCellData != null && !mCellData.isEmpty();
-        boolean hasWifiData = mWifiData != null && !mWifiData.isEmpty();
-        return hasCellData || hasWifiData;
+        return mRecords.getCellCount() > 0 || mRecords.getWifiCount() > 0;
     }
 
-    public Map<String, ScanResult> getUnmodifiableWifiData() {
-        if (mWifiData == null) {
-            return null;
-        }
-        return Collections.unmodifiableMap(mWifiData);
+    public int getWifiCount() {
+        return mRecords.getWifiCount();
     }
 
-    public Map<String, CellInfo> getUnmodifiableCellData() {
-        if (mCellData == null) {
-            return null;
-        }
-        return Collections.unmodifiableMap(mCellData);
+    /*
+     The BSSID of a wifi observation, as packed by MacAddress.parse(). 0 <= index < getWifiCount()
+     */
+    public long getWifiBSSID(int index) {
+        return mRecords.getWifiBSSID(index);
     }
 
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    public MLSJSONObject toMLSGeosubmit() throws JSONException {
-        MLSJSONObject headerFields = new MLSJSONObject();
-        headerFields.put(DataStorageConstants.ReportsColumns.LAT, Math.floor(mGpsPosition.getLatitude() * 1.0E6) / 1.0E6);
-        headerFields.put(DataStorageConstants.ReportsColumns.LON, Math.floor(mGpsPosition.getLongitude() * 1.0E6) / 1.0E6);
-        headerFields.put(DataStorageConstants.ReportsColumns.TIME, mGpsPosition.getTime());
-        headerFields.put(DataStorageConstants.ReportsColumns.HEADING,mGpsPosition.getBearing());
-        headerFields.put(DataStorageConstants.ReportsColumns.SPEED,  mGpsPosition.getSpeed());
-        if (mPressureHPA != 0.0) {
-            headerFields.put(DataStorageConstants.ReportsColumns.PRESSURE,  mPressureHPA);
-        }
-
-        if (mCellData.size() > 0) {
-            JSONArray cellJSON = new JSONArray();
-
-            for (CellInfo c : mCellData.values()) {
-                JSONObject obj = c.toJSONObject();
-                cellJSON.put(obj);
-            }
-            headerFields.put(DataStorageConstants.ReportsColumns.CELL, cellJSON);
-        }
-
-        if (mWifiData.size() > 0) {
-            JSONArray wifis = new JSONArray();
-            long gpsTimeSinceBootInMS = 0;
-
-            if (Build.VERSION.SDK_INT >= 17) {
-                gpsTimeSinceBootInMS = (mGpsPosition.getElapsedRealtimeNanos() / 1000000);
-            }
-
-            for (ScanResult scanResult : mWifiData.values()) {
-                JSONObject wifiEntry = new JSONObject();
-                wifiEntry.put("macAddress", scanResult.BSSID);
-                if (scanResult.frequency != 0) {
-                    wifiEntry.put("frequency", scanResult.frequency);
-                }
-                if (scanResult.level != 0) {
-                    wifiEntry.put("signalStrength", scanResult.level);
-                }
-
-                if (Build.VERSION.SDK_INT >= 17) {
-                    long wifiTimeSinceBootInMS = (scanResult.timestamp / 1000);
-                    long ageMS =  wifiTimeSinceBootInMS - gpsTimeSinceBootInMS;
-                    wifiEntry.put("age", ageMS);
-                }
-
-                wifis.put(wifiEntry);
-            }
-            headerFields.put(DataStorageConstants.ReportsColumns.WIFI, wifis);
-        }
-
-        if (mGpsPosition.hasAltitude()) {
-            headerFields.put(DataStorageConstants.ReportsColumns.ALTITUDE, (float) mGpsPosition.getAltitude());
-        }
-        if (mGpsPosition.hasAccuracy()) {
-            // Note that Android does not support an accuracy measurement specific to altitude
-            headerFields.put(DataStorageConstants.ReportsColumns.ACCURACY, mGpsPosition.getAccuracy());
-        }
-
-        return headerFields;
+    public int getCellCount() {
+        return mRecords.getCellCount();
     }
 
-    public JSONObject toMLSGeolocate() throws JSONException {
-        JSONObject headerFields = new JSONObject();
-
-        JSONObject fallbackPayload = new JSONObject();
-        fallbackPayload.put("lacf", false);
-        fallbackPayload.put("ipf", false);
-        headerFields.put("fallbacks", fallbackPayload);
-
-        headerFields.put(DataStorageConstants.ReportsColumns.LAT, Math.floor(mGpsPosition.getLatitude() * 1.0E6) / 1.0E6);
-        headerFields.put(DataStorageConstants.ReportsColumns.LON, Math.floor(mGpsPosition.getLongitude() * 1.0E6) / 1.0E6);
-        headerFields.put(DataStorageConstants.ReportsColumns.TIME, mGpsPosition.getTime());
-
-        /* Skip adding 'heading'
-
-            The heading field denotes the direction of travel of the device and is specified in
-            degrees, where 0° ≤ heading < 360°, counting clockwise relative to the true north.
-            If the device cannot provide heading information or the device is stationary,
-            the field should be omitted.
-
-            Adding heading is tricky and problematic.  We might be able to do this by taking a delta
-            between two relatively high precision locations, but I'm skeptical that the
-        */
-
-        if (mCellData.size() > 0) {
-            headerFields.put(DataStorageConstants.ReportsColumns.RADIO, firstRadioType());
-
-            JSONArray cellJSON = new JSONArray();
-
-            for (CellInfo c : mCellData.values()) {
-                JSONObject obj = c.toJSONObject();
-                cellJSON.put(obj);
-            }
-            headerFields.put(DataStorageConstants.ReportsColumns.CELL, cellJSON);
-        }
-
-        if (mWifiData.size() > 0) {
-            JSONArray wifis = new JSONArray();
-            for (ScanResult s : mWifiData.values()) {
-                JSONObject wifiEntry = new JSONObject();
-                wifiEntry.put("macAddress", s.BSSID);
-                if (s.frequency != 0) {
-                    wifiEntry.put("frequency", s.frequency);
-                }
-                if (s.level != 0) {
-                    wifiEntry.put("signalStrength", s.level);
-                }
-                wifis.put(wifiEntry);
-            }
-            headerFields.put(DataStorageConstants.ReportsColumns.WIFI, wifis);
-        }
+    /*
+     The key a cell observation was added with. 0 <= index < getCellCount()
+     */
+    public String getCellKey(int index) {
+        return mRecords.getCellKey(index);
+    }
 
-        return headerFields;
+    public MLSJSONObject toMLSGeosubmit() throws JSONException {
+        return mRecords.toMLSGeosubmit();
     }
 
-    private String firstRadioType() {
-        return mCellData.firstEntry().getValue().getCellRadio();
+    public JSONObject toMLSGeolocate() throws JSONException {
+        return mRecords.toMLSGeolocate();
     }
 
     public boolean hasMaxWifisPerLocation() {
-        return mWifiData.size() == MAX_WIFIS_PER_LOCATION;
+        return mRecords.isWifiFull();
     }
 
     public boolean hasMaxCellsPerLocation() {
-        return mCellData.size() == MAX_CELLS_PER_LOCATION;
+        return mRecords.getCellCount() == MAX_CELLS_PER_LOCATION;
     }
 
+    /*
+     The key is the BSSID of the result. Results with a key that isn't a MAC address are dropped,
+     the scanner never reports those.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
     public void addWifiData(String key, ScanResult result) {
-        if (mWifiData.size() == MAX_WIFIS_PER_LOCATION) {
+        if (mRecords.isWifiFull()) {
             AppGlobals.guiLogInfo("Max wifi limit reached for this location, ignoring data.");
             return;
         }
-        if (!mWifiData.containsKey(key)) {
-            mWifiData.put(key, result);
+        final long bssid = MacAddress.parse(key);
+        if (bssid == MacAddress.INVALID) {
+            return;
         }
+
+        int age = BundleRecords.NO_AGE;
+        if (Build.VERSION.SDK_INT >= 17) {
+            long gpsTimeSinceBootInMS = (mGpsPosition.getElapsedRealtimeNanos() / 1000000);
+            long wifiTimeSinceBootInMS = (result.timestamp / 1000);
+            long ageMS = wifiTimeSinceBootInMS - gpsTimeSinceBootInMS;
+            age = (int) Math.max(Math.min(ageMS, Integer.MAX_VALUE), Integer.MIN_VALUE + 1);
+        }
+        mRecords.addWifi(bssid, result.BSSID, result.frequency, result.level, age);
     }
 
     public void addCellData(String key, CellInfo result) {
-        if (mCellData.size() > MAX_CELLS_PER_LOCATION) {
+        if (mRecords.getCellCount() > MAX_CELLS_PER_LOCATION) {
             AppGlobals.guiLogInfo("Max cell limit reached for this location, ignoring data.");
             return;
         }
-        if (!mCellData.containsKey(key)) {
-            mCellData.put(key, result);
-        }
+        mRecords.addCell(key, result.getCellRadio(), result.getMcc(), result.getMnc(),
+                result.getLac(), result.getCid(), result.getPsc(), result.getSignalStrength(),
+                result.getAsu(), result.getTa());
     }
 
     public void addPressure(float hPa) {
-        mPressureHPA = hPa;
+        mRecords.setPressure(hPa);
     }
 }
@@ -5,7 +5,6 @@
 package org.mozilla.mozstumbler.service.stumblerthread.scanners;
 
 import android.content.Context;
-import android.content.Intent;
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.Location;
@@ -13,12 +12,12 @@ import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationProvider;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.AppGlobals.ActiveOrPassiveStumbling;
 import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
 import org.mozilla.mozstumbler.service.utils.TelemetryWrapper;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
@@ -33,8 +32,6 @@ public class GPSScanner implements LocationListener, IHaltable {
 
     private static final String LOG_TAG = LoggerUtil.makeLogTag(GPSScanner.class);
     private static final long ACTIVE_MODE_GPS_MIN_UPDATE_TIME_MS = 2000;
-    private static final float ACTIVE_MODE_GPS_MIN_UPDATE_DISTANCE_M = 30;
-    private static final float HIGH_POWER_ACTIVE_MODE_GPS_MIN_UPDATE_DISTANCE_M = 15;
     private static final long PASSIVE_GPS_MIN_UPDATE_FREQ_MS = 3000;
     private static final float PASSIVE_GPS_MOVEMENT_MIN_DELTA_M = 30;
     private final StumblerFilter stumbleFilter = new StumblerFilter();
@@ -45,6 +42,7 @@ public class GPSScanner implements LocationListener, IHaltable {
     private int mLocationCount;
     private Location mLocation = new Location("internal");
     private boolean mIsPassiveMode;
+    private float mMinUpdateDistanceM;
 
     public GPSScanner(Context context, ScanManager scanManager) {
         mContext = context;
@@ -94,10 +92,7 @@ public class GPSScanner implements LocationListener, IHaltable {
         final boolean highPower = Prefs.getInstance(mContext).isHighPowerMode();
         Log.i(LOG_TAG, "high power mode " + (highPower ? "enabled" : "disabled"));
 
-        lm.requestLocationUpdates(LocationManager.GPS_PROVIDER,
-                ACTIVE_MODE_GPS_MIN_UPDATE_TIME_MS,
-                (highPower ? HIGH_POWER_ACTIVE_MODE_GPS_MIN_UPDATE_DISTANCE_M : ACTIVE_MODE_GPS_MIN_UPDATE_DISTANCE_M),
-                this);
+        requestActiveModeUpdates(lm);
 
         reportLocationLost();
 
@@ -126,6 +121,14 @@ public class GPSScanner implements LocationListener, IHaltable {
         lm.addGpsStatusListener(mGPSListener);
     }
 
+    private void requestActiveModeUpdates(LocationManager lm) {
+        mMinUpdateDistanceM = ScanCadence.getInstance().getGpsMinDistanceM();
+        lm.requestLocationUpdates(LocationManager.GPS_PROVIDER,
+                ACTIVE_MODE_GPS_MIN_UPDATE_TIME_MS,
+                mMinUpdateDistanceM,
+                this);
+    }
+
     public void stop() {
         LocationManager lm = getLocationManager();
         lm.removeUpdates(this);
@@ -200,6 +203,14 @@ public class GPSScanner implements LocationListener, IHaltable {
 
         mLocation = location;
 
+        final ScanCadence cadence = ScanCadence.getInstance();
+        cadence.onLocation(location.getLatitude(), location.getLongitude(), location.getTime(),
+                location.hasSpeed() ? location.getSpeed() : -1);
+        if (!mIsPassiveMode && cadence.getGpsMinDistanceM() != mMinUpdateDistanceM) {
+            // Replaces the current request for this listener
+            requestActiveModeUpdates(getLocationManager());
+        }
+
         reportNewLocationReceived(location);
         mLocationCount++;
 
@@ -235,17 +246,10 @@ public class GPSScanner implements LocationListener, IHaltable {
     }
 
     private void reportNewLocationReceived(Location location) {
-        Intent i = new Intent(ACTION_GPS_UPDATED);
-        i.putExtra(Intent.EXTRA_SUBJECT, SUBJECT_NEW_LOCATION);
-        i.putExtra(NEW_LOCATION_ARG_LOCATION, location);
-        i.putExtra(ACTION_ARG_TIME, System.currentTimeMillis());
-        LocalBroadcastManager.getInstance(mContext).sendBroadcastSync(i);
+        ObservationBus.getInstance().publishNewLocation(location, System.currentTimeMillis());
     }
 
     private void reportLocationLost() {
-        Intent i = new Intent(ACTION_GPS_UPDATED);
-        i.putExtra(Intent.EXTRA_SUBJECT, SUBJECT_LOCATION_LOST);
-        i.putExtra(ACTION_ARG_TIME, System.currentTimeMillis());
-        LocalBroadcastManager.getInstance(mContext).sendBroadcastSync(i);
+        ObservationBus.getInstance().publishLocationLost(System.currentTimeMillis());
     }
 }
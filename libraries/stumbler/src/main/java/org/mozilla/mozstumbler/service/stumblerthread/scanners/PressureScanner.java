@@ -2,22 +2,19 @@ package org.mozilla.mozstumbler.service.stumblerthread.scanners;
 
 import android.app.Service;
 import android.content.Context;
-import android.content.Intent;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.support.v4.content.LocalBroadcastManager;
 
 import org.mozilla.mozstumbler.service.AppGlobals;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
 
 /**
  * Created by victorng on 2016-04-07.
  */
 public class PressureScanner implements SensorEventListener, IHaltable {
     public static final String ACTION_BASE = AppGlobals.ACTION_NAMESPACE + ".PressureScanner.";
-    public static final String ACTION_PRESSURE_SCANNED = ACTION_BASE + "PRESSURE_SCANNED";
-    public static final String ACTION_PRESSURE_SCANNED_PRESSURE = ACTION_BASE + ".pressure_reading";
 
     private final Context mAppContext;
 
@@ -56,9 +53,7 @@ public class PressureScanner implements SensorEventListener, IHaltable {
     public void onSensorChanged(SensorEvent event) {
         if (event != null && event.values != null && event.values.length > 0) {
             float millibars_of_pressure = event.values[0];
-            Intent i = new Intent(ACTION_PRESSURE_SCANNED);
-            i.putExtra(ACTION_PRESSURE_SCANNED_PRESSURE, millibars_of_pressure);
-            LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(i);
+            ObservationBus.getInstance().publishPressure(millibars_of_pressure);
         }
 
     }
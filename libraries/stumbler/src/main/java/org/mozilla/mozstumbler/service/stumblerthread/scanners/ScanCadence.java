@@ -0,0 +1,271 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.scanners;
+
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
+
+import java.util.Locale;
+
+/*
+ Decides how often the scanners run, from what recent scans have been worth.
+
+ - Novelty: the fraction of Wi-Fi APs in each flushed bundle that the Reporter had not seen
+   before, smoothed over the last few bundles. Starts at 1, i.e. new territory.
+ - Speed: from the GPS fix, or from the distance to the previous fix when it has no speed.
+ - Battery: low and not charging.
+
+ In new territory the scanners run at the fixed rates they always had (the high power rates if
+ that is on). On a route that has been stumbled before the Wi-Fi and cell intervals stretch up
+ to NOVELTY_BACKOFF times, only one Wi-Fi scan is made per GPS fix and the GPS distance doubles.
+ Walking pace and a low battery stretch the intervals further.
+
+ Stats are kept for the scans made against the scans the fixed rates would have made, and for
+ the new APs found per Wi-Fi scan. They are published as the scan.* gauges of PipelineMetrics on
+ every change, and cleared by resetStats() when scanning starts. The novelty is kept across
+ sessions, it describes the route rather than the session.
+ */
+public class ScanCadence {
+    static final long WIFI_MIN_UPDATE_TIME_MS = 4000;
+    static final long HIGH_POWER_WIFI_MIN_UPDATE_TIME_MS = 2000;
+    static final int MAX_SCANS_PER_GPS = 2;
+    static final int HIGH_POWER_MAX_SCANS_PER_GPS = 3;
+    static final long CELL_MIN_UPDATE_TIME_MS = 1000;
+    static final float GPS_MIN_UPDATE_DISTANCE_M = 30;
+    static final float HIGH_POWER_GPS_MIN_UPDATE_DISTANCE_M = 15;
+
+    static final long MAX_WIFI_INTERVAL_MS = 30000;
+    static final long MAX_CELL_INTERVAL_MS = 10000;
+
+    // Smoothing of the per bundle novelty, higher follows changes faster
+    static final float NOVELTY_WEIGHT = 0.3f;
+    // Below this the route is considered already stumbled
+    static final float REPEAT_ROUTE_NOVELTY = 0.1f;
+    // Interval multiplier at zero novelty
+    static final float NOVELTY_BACKOFF = 3.0f;
+    // Below this speed (~5 km/h) the surroundings change slowly
+    static final float WALKING_SPEED_MPS = 1.5f;
+    static final float WALKING_BACKOFF = 1.5f;
+    static final float LOW_BATTERY_BACKOFF = 2.0f;
+
+    private static final PipelineMetrics.Gauge sNoveltyPct =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_NOVELTY_PCT);
+    private static final PipelineMetrics.Gauge sWifiIntervalMs =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_WIFI_INTERVAL_MS);
+    private static final PipelineMetrics.Gauge sWifiScans =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_WIFI_SCANS);
+    private static final PipelineMetrics.Gauge sWifiScansSaved =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_WIFI_SCANS_SAVED);
+    private static final PipelineMetrics.Gauge sCellIntervalMs =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_CELL_INTERVAL_MS);
+    private static final PipelineMetrics.Gauge sCellScans =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_CELL_SCANS);
+    private static final PipelineMetrics.Gauge sCellScansSaved =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_CELL_SCANS_SAVED);
+    private static final PipelineMetrics.Gauge sNewAPs =
+            PipelineMetrics.getInstance().gauge(PipelineMetrics.SCAN_NEW_APS);
+
+    private static ScanCadence sInstance;
+
+    private boolean mHighPower;
+    private boolean mBatteryLow;
+    private float mNovelty = 1.0f;
+    private float mSpeedMps = -1;
+    private long mLastFixTimeMs;
+    private double mLastFixLat;
+    private double mLastFixLon;
+
+    private long mWifiScans;
+    private long mWifiScansBaseline;
+    private long mCellScans;
+    private long mCellScansBaseline;
+    private long mNewAPs;
+
+    public static synchronized ScanCadence getInstance() {
+        if (sInstance == null) {
+            sInstance = new ScanCadence();
+        }
+        return sInstance;
+    }
+
+    ScanCadence() {}
+
+    public synchronized void setHighPower(boolean highPower) {
+        mHighPower = highPower;
+        publishStats();
+    }
+
+    public synchronized void setBatteryLow(boolean low) {
+        mBatteryLow = low;
+        publishStats();
+    }
+
+    /*
+     A new GPS fix. speedMps < 0 if the fix has no speed.
+     */
+    public synchronized void onLocation(double lat, double lon, long timeMs, float speedMps) {
+        if (speedMps >= 0) {
+            mSpeedMps = speedMps;
+        } else if (mLastFixTimeMs > 0 && timeMs > mLastFixTimeMs) {
+            mSpeedMps = (float) (distanceM(mLastFixLat, mLastFixLon, lat, lon) * 1000.0 / (timeMs - mLastFixTimeMs));
+        }
+        mLastFixLat = lat;
+        mLastFixLon = lon;
+        mLastFixTimeMs = timeMs;
+        publishStats();
+    }
+
+    /*
+     A bundle was flushed with wifiCount APs, newCount of them seen for the first time.
+     */
+    public synchronized void onBundleFlushed(int wifiCount, int newCount) {
+        if (wifiCount <= 0) {
+            return;
+        }
+        mNewAPs += newCount;
+        mNovelty += NOVELTY_WEIGHT * (((float) newCount / wifiCount) - mNovelty);
+        publishStats();
+    }
+
+    /*
+     Scanning restarts on each GPS fix: record what the fixed rates would have done.
+     */
+    public synchronized void onScanRound() {
+        mWifiScansBaseline += mHighPower ? HIGH_POWER_MAX_SCANS_PER_GPS : MAX_SCANS_PER_GPS;
+        mCellScansBaseline += MAX_SCANS_PER_GPS;
+        publishStats();
+    }
+
+    public synchronized void onWifiScan() {
+        mWifiScans++;
+        publishStats();
+    }
+
+    public synchronized void onCellScan() {
+        mCellScans++;
+        publishStats();
+    }
+
+    private float backoff() {
+        float factor = 1 + (NOVELTY_BACKOFF - 1) * (1 - Math.max(0, Math.min(1, mNovelty)));
+        if (mSpeedMps >= 0 && mSpeedMps < WALKING_SPEED_MPS) {
+            factor *= WALKING_BACKOFF;
+        }
+        if (mBatteryLow) {
+            factor *= LOW_BATTERY_BACKOFF;
+        }
+        return factor;
+    }
+
+    private boolean isRepeatRoute() {
+        return mNovelty < REPEAT_ROUTE_NOVELTY;
+    }
+
+    public synchronized long getWifiIntervalMs() {
+        final long base = mHighPower ? HIGH_POWER_WIFI_MIN_UPDATE_TIME_MS : WIFI_MIN_UPDATE_TIME_MS;
+        return Math.min(MAX_WIFI_INTERVAL_MS, Math.round(base * backoff()));
+    }
+
+    public synchronized int getMaxWifiScansPerFix() {
+        if (isRepeatRoute()) {
+            return 1;
+        }
+        return mHighPower ? HIGH_POWER_MAX_SCANS_PER_GPS : MAX_SCANS_PER_GPS;
+    }
+
+    public synchronized long getCellIntervalMs() {
+        return Math.min(MAX_CELL_INTERVAL_MS, Math.round(CELL_MIN_UPDATE_TIME_MS * backoff()));
+    }
+
+    public synchronized int getMaxCellScansPerFix() {
+        return isRepeatRoute() ? 1 : MAX_SCANS_PER_GPS;
+    }
+
+    public synchronized float getGpsMinDistanceM() {
+        final float base = mHighPower ? HIGH_POWER_GPS_MIN_UPDATE_DISTANCE_M : GPS_MIN_UPDATE_DISTANCE_M;
+        return isRepeatRoute() ? base * 2 : base;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(this);
+    }
+
+    /*
+     A new scanning session: clear the scan counts, but keep what is known about the route.
+     */
+    public synchronized void resetStats() {
+        mWifiScans = mWifiScansBaseline = 0;
+        mCellScans = mCellScansBaseline = 0;
+        mNewAPs = 0;
+        publishStats();
+    }
+
+    public synchronized void reset() {
+        mNovelty = 1.0f;
+        mSpeedMps = -1;
+        mLastFixTimeMs = 0;
+        resetStats();
+    }
+
+    private void publishStats() {
+        final Stats stats = new Stats(this);
+        sNoveltyPct.set(Math.round(stats.novelty * 100));
+        sWifiIntervalMs.set(stats.wifiIntervalMs);
+        sWifiScans.set(stats.wifiScans);
+        sWifiScansSaved.set(stats.wifiScansSaved);
+        sCellIntervalMs.set(stats.cellIntervalMs);
+        sCellScans.set(stats.cellScans);
+        sCellScansSaved.set(stats.cellScansSaved);
+        sNewAPs.set(stats.newAPs);
+    }
+
+    // Equirectangular approximation, plenty for the distance between consecutive fixes
+    private static double distanceM(double lat1, double lon1, double lat2, double lon2) {
+        final double earthRadiusM = 6371000;
+        final double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        final double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * earthRadiusM;
+    }
+
+    /*
+     A snapshot of the cadence and what it has saved. Scan counts are since resetStats().
+     The fixed rate baseline is an upper bound: it assumes every round ran to its maximum.
+     */
+    public static final class Stats {
+        public final float novelty;
+        public final float speedMps;
+        public final long wifiIntervalMs;
+        public final long cellIntervalMs;
+        public final long wifiScans;
+        public final long wifiScansSaved;
+        public final long cellScans;
+        public final long cellScansSaved;
+        public final long newAPs;
+
+        private Stats(ScanCadence cadence) {
+            novelty = cadence.mNovelty;
+            speedMps = cadence.mSpeedMps;
+            wifiIntervalMs = cadence.getWifiIntervalMs();
+            cellIntervalMs = cadence.getCellIntervalMs();
+            wifiScans = cadence.mWifiScans;
+            wifiScansSaved = Math.max(0, cadence.mWifiScansBaseline - cadence.mWifiScans);
+            cellScans = cadence.mCellScans;
+            cellScansSaved = Math.max(0, cadence.mCellScansBaseline - cadence.mCellScans);
+            newAPs = cadence.mNewAPs;
+        }
+
+        public float getNewAPsPerWifiScan() {
+            return (wifiScans == 0) ? 0 : (float) newAPs / wifiScans;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "novelty %.2f, speed %.1f m/s, wifi every %d ms (%d scans, %d saved), " +
+                    "cell every %d ms (%d scans, %d saved), %.2f new APs per wifi scan",
+                    novelty, speedMps, wifiIntervalMs, wifiScans, wifiScansSaved,
+                    cellIntervalMs, cellScans, cellScansSaved, getNewAPsPerWifiScan());
+        }
+    }
+}
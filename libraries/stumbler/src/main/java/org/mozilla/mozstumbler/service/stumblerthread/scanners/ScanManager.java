@@ -14,7 +14,9 @@ import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.AppGlobals.ActiveOrPassiveStumbling;
 import org.mozilla.mozstumbler.service.Prefs;
 import org.mozilla.mozstumbler.service.core.logging.ClientLog;
-import org.mozilla.mozstumbler.service.stumblerthread.Reporter;
+import org.mozilla.mozstumbler.service.stumblerthread.LocalBroadcastBusAdapter;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
+import org.mozilla.mozstumbler.service.stumblerthread.StumblerScheduler;
 import org.mozilla.mozstumbler.service.stumblerthread.motiondetection.LocationChangeSensor;
 import org.mozilla.mozstumbler.service.stumblerthread.motiondetection.MotionSensor;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellScanner;
@@ -23,10 +25,8 @@ import org.mozilla.mozstumbler.svclocator.ServiceLocator;
 import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
-import java.util.Date;
 import java.util.LinkedList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 
 public class ScanManager {
     public static final String ACTION_SCAN_PAUSED_USER_MOTIONLESS = AppGlobals.ACTION_NAMESPACE + ".NOTIFY_USER_MOTIONLESS";
@@ -56,15 +56,21 @@ public class ScanManager {
     private static final String LOG_TAG = LoggerUtil.makeLogTag(ScanManager.class);
 
     private static Context mAppContext;
-    private Timer mFlushTimer;
+    private ScheduledFuture<?> mFlushTimer;
 
     // how often to flush a leftover bundle to the reports table
     // If there is a bundle, and nothing happens for 10sec, then flush it
-    // MAX_SCANS_PER_GPS    is 2
-    // CELL_MIN_UPDATE_TIME is 1sec
-    // WIFI_MIN_UPDATE_TIME is 4sec
+    // In new territory ScanCadence scans at most 2 times per GPS fix,
+    // every 1sec for cells and every 4sec for wifi
     private static final int FLUSH_RATE_MS = 10000; // 10 sec
 
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            ObservationBus.getInstance().publishFlushRequest();
+        }
+    };
+
     private GPSScanner mGPSScanner;
     private WifiScanner mWifiScanner;
     private CellScanner mCellScanner;
@@ -85,8 +91,18 @@ public class ScanManager {
             mPassiveModeBatteryState = isLow ? PassiveModeBatteryState.LOW : PassiveModeBatteryState.OK;
         }
     };
+    // Below this the scan cadence backs off, in any stumbling mode
+    private static final int CADENCE_LOW_BATTERY_PCT = 30;
+    private BatteryCheckReceiver mCadenceBatteryChecker;
+    private final BatteryCheckReceiver.BatteryCheckCallback mCadenceBatteryCallback = new BatteryCheckReceiver.BatteryCheckCallback() {
+        @Override
+        public void batteryCheckCallback(BatteryCheckReceiver receiver) {
+            ScanCadence.getInstance().setBatteryLow(receiver.isBatteryNotChargingAndLessThan(CADENCE_LOW_BATTERY_PCT));
+        }
+    };
     private LocationChangeSensor mLocationChangeSensor;
     private MotionSensor mMotionSensor;
+    private LocalBroadcastBusAdapter mBroadcastAdapter;
 
 
     private ScannerState mScannerState = ScannerState.STOPPED;
@@ -120,7 +136,8 @@ public class ScanManager {
 
             broadcastScanState(ScannerState.STOPPED);
 
-            startScanning();
+            // Same session, the scan stats carry on
+            startScanning(false);
             mMotionSensor.stop();
 
             Intent sendIntent = new Intent(ACTION_SCAN_UNPAUSED_USER_MOVED);
@@ -155,27 +172,16 @@ public class ScanManager {
             return;
         }
 
+        ScanCadence.getInstance().onScanRound();
         mWifiScanner.start();
         mCellScanner.start();
         mPressureScanner.start();
 
+        // Push the flush deadline back, this runs on every fix so it must not create a thread
         if (mFlushTimer != null) {
-            mFlushTimer.cancel();
+            mFlushTimer.cancel(false);
         }
-
-        Date when = new Date();
-        when.setTime(when.getTime() + FLUSH_RATE_MS);
-        mFlushTimer = new Timer();
-        mFlushTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                Intent flush = new Intent(Reporter.ACTION_FLUSH_TO_BUNDLE);
-                if (mAppContext == null) {
-                    return;
-                }
-                LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(flush);
-            }
-        }, when);
+        mFlushTimer = StumblerScheduler.getInstance().schedule(mFlushTask, FLUSH_RATE_MS);
     }
 
     public synchronized boolean isPassiveMode() {
@@ -198,6 +204,10 @@ public class ScanManager {
     }
 
     public synchronized void startScanning() {
+        startScanning(true);
+    }
+
+    private synchronized void startScanning(boolean isNewSession) {
         ClientLog.d(LOG_TAG, "ScanManager::startScanning");
 
         if (!isStopped()) {
@@ -206,6 +216,12 @@ public class ScanManager {
 
         broadcastScanState(ScannerState.STARTED);
 
+        // Scanner results go to the Reporter over the ObservationBus, the UI still wants the Intents
+        if (mBroadcastAdapter == null) {
+            mBroadcastAdapter = new LocalBroadcastBusAdapter(mAppContext);
+        }
+        mBroadcastAdapter.start();
+
         if (mLocationChangeSensor == null) {
             mLocationChangeSensor = new LocationChangeSensor(mAppContext, mDetectUserIdleReceiver);
         }
@@ -231,6 +247,15 @@ public class ScanManager {
             }
         }
 
+        if (isNewSession) {
+            ScanCadence.getInstance().resetStats();
+        }
+        ScanCadence.getInstance().setHighPower(Prefs.getInstance(mAppContext).isHighPowerMode());
+        if (mCadenceBatteryChecker == null) {
+            mCadenceBatteryChecker = new BatteryCheckReceiver(mAppContext, mCadenceBatteryCallback);
+        }
+        mCadenceBatteryChecker.start();
+
         mGPSScanner = new GPSScanner(mAppContext, this);
         mWifiScanner = new WifiScanner(mAppContext);
         mCellScanner = new CellScanner(mAppContext);
@@ -266,7 +291,16 @@ public class ScanManager {
             mPassiveModeBatteryChecker.stop();
         }
 
-        return stopAllScanners();
+        if (mCadenceBatteryChecker != null) {
+            mCadenceBatteryChecker.stop();
+        }
+
+        boolean stopped = stopAllScanners();
+        if (mBroadcastAdapter != null) {
+            mBroadcastAdapter.stop();
+        }
+        ClientLog.d(LOG_TAG, "Scan cadence: " + ScanCadence.getInstance().getStats());
+        return stopped;
     }
 
     private boolean stopAllScanners() {
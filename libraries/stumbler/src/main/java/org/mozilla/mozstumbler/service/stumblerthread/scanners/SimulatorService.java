@@ -163,7 +163,10 @@ public class SimulatorService implements ISimulatorService {
         return result;
     }
 
-    private ScanResult makeScanResult() throws IllegalAccessException,
+    /*
+     ScanResult has no public constructor, TraceReplayer uses this too.
+     */
+    public static ScanResult makeScanResult() throws IllegalAccessException,
             InstantiationException,
             InvocationTargetException {
 
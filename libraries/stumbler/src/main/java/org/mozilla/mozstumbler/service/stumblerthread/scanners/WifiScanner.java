@@ -9,25 +9,24 @@ import android.content.Intent;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiManager.WifiLock;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import org.mozilla.mozstumbler.service.AppGlobals;
-import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
+import org.mozilla.mozstumbler.service.stumblerthread.StumblerScheduler;
 import org.mozilla.mozstumbler.service.stumblerthread.blocklist.BSSIDBlockList;
 import org.mozilla.mozstumbler.service.stumblerthread.blocklist.SSIDBlockList;
+import org.mozilla.mozstumbler.service.utils.MacAddress;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class WifiScanner implements IHaltable {
     public static final String ACTION_BASE = AppGlobals.ACTION_NAMESPACE + ".WifiScanner.";
     public static final String ACTION_WIFIS_SCANNED = ACTION_BASE + "WIFIS_SCANNED";
-    public static final String ACTION_WIFIS_SCANNED_ARG_RESULTS = "scan_results";
     public static final String ACTION_WIFIS_SCANNED_ARG_TIME = AppGlobals.ACTION_ARG_TIME;
 
     public static final int STATUS_IDLE = 0;
@@ -35,16 +34,12 @@ public class WifiScanner implements IHaltable {
     public static final int STATUS_WIFI_DISABLED = -1;
 
     private static final String LOG_TAG = LoggerUtil.makeLogTag(WifiScanner.class);
-    private static final int MAX_SCANS_PER_GPS = 2;
-    private static final int HIGH_POWER_MAX_SCANS_PER_GPS = 3;
-    private static final long WIFI_MIN_UPDATE_TIME = 4000; // milliseconds
-    private static final long HIGH_POWER_WIFI_MIN_UPDATE_TIME = 2000; // milliseconds
     private final Context mAppContext;
     private final WifiManagerProxy wifiManagerProxy;
     private boolean mStarted;
     private AtomicInteger mScanCount = new AtomicInteger();
     private WifiLock mWifiLock;
-    private Timer mWifiScanTimer;
+    private ScheduledFuture<?> mWifiScanTimer;
     private AtomicInteger mVisibleAPs = new AtomicInteger();
 
     public WifiScanner(Context appContext) {
@@ -53,11 +48,19 @@ public class WifiScanner implements IHaltable {
     }
 
     public static boolean shouldLog(ScanResult scanResult) {
+        return shouldLog(scanResult, MacAddress.parse(scanResult.BSSID));
+    }
+
+    /*
+     bssid is scanResult.BSSID as parsed by MacAddress.parse(), so it is only parsed once per scan
+     result.
+     */
+    private static boolean shouldLog(ScanResult scanResult, long bssid) {
         if (SSIDBlockList.isOptOut(scanResult)) {
             Log.d(LOG_TAG, "Blocked opt-out SSID");
             return false;
         }
-        if (BSSIDBlockList.contains(scanResult)) {
+        if (BSSIDBlockList.contains(bssid, scanResult.BSSID)) {
             Log.w(LOG_TAG, "Blocked BSSID: " + scanResult);
             return false;
         }
@@ -116,9 +119,10 @@ public class WifiScanner implements IHaltable {
             }
             final ArrayList<ScanResult> scanResults = new ArrayList<ScanResult>();
             for (ScanResult scanResult : scanResultList) {
-                scanResult.BSSID = BSSIDBlockList.canonicalizeBSSID(scanResult.BSSID);
+                final long bssid = MacAddress.parse(scanResult.BSSID);
+                scanResult.BSSID = BSSIDBlockList.canonicalizeBSSID(scanResult.BSSID, bssid);
 
-                if (shouldLog(scanResult)) {
+                if (shouldLog(scanResult, bssid)) {
                     // Once we've checked that we want this scan result, we can safely discard
                     // the SSID and capabilities.
                     scanResult.SSID = "";
@@ -157,26 +161,37 @@ public class WifiScanner implements IHaltable {
         mWifiLock = wifiManagerProxy.createWifiLock();
         mWifiLock.acquire();
 
-        final boolean highPower = Prefs.getInstance(mAppContext).isHighPowerMode();
-        final long updateTime = highPower ? HIGH_POWER_WIFI_MIN_UPDATE_TIME : WIFI_MIN_UPDATE_TIME;
-        final long maxScans = highPower ? HIGH_POWER_MAX_SCANS_PER_GPS : MAX_SCANS_PER_GPS;
-
         // Ensure that we are constantly scanning for new access points.
-        mWifiScanTimer = new Timer();
-        mWifiScanTimer.schedule(new TimerTask() {
-
-            @Override
-            public void run() {
-                if (mScanCount.incrementAndGet() > maxScans) {
-                    stop(); // set mWifiScanTimer to null
-                    return;
-                }
-                if (AppGlobals.isDebug) {
-                    Log.d(LOG_TAG, "WiFi Scanning Timer fired");
-                }
-                wifiManagerProxy.runWifiScan();
+        scheduleScan(0);
+    }
+
+    // Each scan schedules the next, ScanCadence can change the interval between them.
+    private final Runnable mScanTask = new Runnable() {
+        @Override
+        public void run() {
+            final ScanCadence cadence = ScanCadence.getInstance();
+            if (mScanCount.incrementAndGet() > cadence.getMaxWifiScansPerFix()) {
+                stop(); // set mWifiScanTimer to null
+                return;
             }
-        }, 0, updateTime);
+            if (AppGlobals.isDebug) {
+                Log.d(LOG_TAG, "WiFi Scanning Timer fired");
+            }
+            wifiManagerProxy.runWifiScan();
+            cadence.onWifiScan();
+            scheduleNextScan(cadence.getWifiIntervalMs());
+        }
+    };
+
+    private void scheduleScan(long delayMs) {
+        mWifiScanTimer = StumblerScheduler.getInstance().schedule(mScanTask, delayMs);
+    }
+
+    private synchronized void scheduleNextScan(long delayMs) {
+        // Unless deactivatePeriodicScan() ran in the meantime
+        if (mWifiScanTimer != null) {
+            scheduleScan(delayMs);
+        }
     }
 
     synchronized void deactivatePeriodicScan() {
@@ -191,7 +206,7 @@ public class WifiScanner implements IHaltable {
         mWifiLock.release();
         mWifiLock = null;
 
-        mWifiScanTimer.cancel();
+        mWifiScanTimer.cancel(false);
         mWifiScanTimer = null;
     }
 
@@ -200,10 +215,7 @@ public class WifiScanner implements IHaltable {
             return;
         }
 
-        Intent i = new Intent(ACTION_WIFIS_SCANNED);
-        i.putParcelableArrayListExtra(ACTION_WIFIS_SCANNED_ARG_RESULTS, scanResults);
-        i.putExtra(ACTION_WIFIS_SCANNED_ARG_TIME, System.currentTimeMillis());
-        LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(i);
+        ObservationBus.getInstance().publishWifiScan(scanResults, System.currentTimeMillis());
     }
 
     public void onProxyReceive(Context c, Intent intent) {
@@ -223,8 +235,9 @@ public class WifiScanner implements IHaltable {
 
             final ArrayList<ScanResult> scanResults = new ArrayList<ScanResult>();
             for (ScanResult scanResult : scanResultList) {
-                scanResult.BSSID = BSSIDBlockList.canonicalizeBSSID(scanResult.BSSID);
-                if (shouldLog(scanResult)) {
+                final long bssid = MacAddress.parse(scanResult.BSSID);
+                scanResult.BSSID = BSSIDBlockList.canonicalizeBSSID(scanResult.BSSID, bssid);
+                if (shouldLog(scanResult, bssid)) {
                     scanResults.add(scanResult);
                 }
             }
@@ -156,6 +156,18 @@ public class CellInfo implements Parcelable {
         return mPsc;
     }
 
+    public int getSignalStrength() {
+        return mSignalStrength;
+    }
+
+    public int getAsu() {
+        return mAsu;
+    }
+
+    public int getTa() {
+        return mTa;
+    }
+
     public JSONObject toJSONObject() {
         final JSONObject obj = new JSONObject();
 
@@ -187,6 +199,23 @@ public class CellInfo implements Parcelable {
         return obj;
     }
 
+    /*
+     The inverse of toJSONObject(), fields it leaves out are unknown.
+     */
+    public static CellInfo fromJSONObject(JSONObject obj) throws JSONException {
+        CellInfo cell = new CellInfo();
+        cell.mCellRadio = obj.getString("radioType");
+        cell.mCid = obj.getInt("cellId");
+        cell.mLac = obj.getInt("locationAreaCode");
+        cell.mMcc = obj.getInt("mobileCountryCode");
+        cell.mMnc = obj.getInt("mobileNetworkCode");
+        cell.mSignalStrength = obj.optInt("signalStrength", UNKNOWN_SIGNAL_STRENGTH);
+        cell.mTa = obj.optInt("timingAdvance", UNKNOWN_CID);
+        cell.mPsc = obj.optInt("psc", UNKNOWN_CID);
+        cell.mAsu = obj.optInt("asu", UNKNOWN_ASU);
+        return cell;
+    }
+
     public String getCellIdentity() {
         return getCellRadio()
                 + " " + getMcc()
@@ -9,37 +9,35 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
-import android.os.Message;
 import android.support.v4.content.LocalBroadcastManager;
 
 import org.mozilla.mozstumbler.service.AppGlobals;
 import org.mozilla.mozstumbler.service.Prefs;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
 import org.mozilla.mozstumbler.service.stumblerthread.Reporter;
+import org.mozilla.mozstumbler.service.stumblerthread.StumblerScheduler;
 import org.mozilla.mozstumbler.service.stumblerthread.scanners.IHaltable;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.ScanCadence;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class CellScanner implements IHaltable {
     public static final String ACTION_BASE = AppGlobals.ACTION_NAMESPACE + ".CellScanner.";
     public static final String ACTION_CELLS_SCANNED = ACTION_BASE + "CELLS_SCANNED";
-    public static final String ACTION_CELLS_SCANNED_ARG_CELLS = "cells";
     public static final String ACTION_CELLS_SCANNED_ARG_TIME = AppGlobals.ACTION_ARG_TIME;
 
-    private static final int MAX_SCANS_PER_GPS = 2;
-    private static final long CELL_MIN_UPDATE_TIME = 1000; // milliseconds
-
     private final Context mAppContext;
     private final Set<String> mVisibleCells = new HashSet<String>();
     private final ReportFlushedReceiver mReportFlushedReceiver = new ReportFlushedReceiver();
     private final AtomicBoolean mReportWasFlushed = new AtomicBoolean();
     private final ISimpleCellScanner mSimpleCellScanner;
-    private Timer mCellScanTimer;
+    private ScheduledFuture<?> mCellScanTimer;
     private Handler mBroadcastScannedHandler;
     private AtomicInteger mScanCount = new AtomicInteger();
 
@@ -70,56 +68,62 @@ public class CellScanner implements IHaltable {
         LocalBroadcastManager.getInstance(mAppContext).registerReceiver(mReportFlushedReceiver,
                 new IntentFilter(Reporter.ACTION_NEW_BUNDLE));
 
-        // This is to ensure the broadcast happens from the same thread the CellScanner start() is on
-        mBroadcastScannedHandler = new Handler() {
-            @Override
-            public void handleMessage(Message msg) {
-                Intent intent = (Intent) msg.obj;
-                LocalBroadcastManager.getInstance(mAppContext).sendBroadcastSync(intent);
-            }
-        };
+        // This is to ensure the results are published from the same thread the CellScanner start() is on
+        mBroadcastScannedHandler = new Handler();
 
         mSimpleCellScanner.start();
 
-        mCellScanTimer = new Timer();
-
-        mCellScanTimer.schedule(new TimerTask() {
-
-            @Override
-            public void run() {
-                if (!mSimpleCellScanner.isStarted()) {
-                    return;
-                }
+        mCellScanTimer = StumblerScheduler.getInstance().schedule(mScanTask, 0);
+    }
 
-                if (mScanCount.incrementAndGet() > MAX_SCANS_PER_GPS) {
+    // Each run schedules the next, ScanCadence can change the interval between them.
+    private final Runnable mScanTask = new Runnable() {
+        @Override
+        public void run() {
+            final ScanCadence cadence = ScanCadence.getInstance();
+            if (mSimpleCellScanner.isStarted()) {
+                if (mScanCount.incrementAndGet() > cadence.getMaxCellScansPerFix()) {
                     stop();
                     return;
                 }
+                scan();
+                cadence.onCellScan();
+            }
+            scheduleNextScan(cadence.getCellIntervalMs());
+        }
+    };
 
-                final long curTime = System.currentTimeMillis();
-                ArrayList<CellInfo> cells = new ArrayList<CellInfo>(mSimpleCellScanner.getCellInfo());
+    private synchronized void scheduleNextScan(long delayMs) {
+        // Unless stop() ran in the meantime
+        if (mCellScanTimer != null) {
+            mCellScanTimer = StumblerScheduler.getInstance().schedule(mScanTask, delayMs);
+        }
+    }
 
-                if (mReportWasFlushed.getAndSet(false)) {
-                    clearCells();
-                }
+    private void scan() {
+        final long curTime = System.currentTimeMillis();
+        ArrayList<CellInfo> cells = new ArrayList<CellInfo>(mSimpleCellScanner.getCellInfo());
 
-                if (cells.isEmpty()) {
-                    return;
-                }
+        if (mReportWasFlushed.getAndSet(false)) {
+            clearCells();
+        }
 
-                for (CellInfo cell : cells) {
-                    addToCells(cell.getCellIdentity());
-                }
+        if (cells.isEmpty()) {
+            return;
+        }
+
+        for (CellInfo cell : cells) {
+            addToCells(cell.getCellIdentity());
+        }
 
-                Intent intent = new Intent(ACTION_CELLS_SCANNED);
-                intent.putParcelableArrayListExtra(ACTION_CELLS_SCANNED_ARG_CELLS, cells);
-                intent.putExtra(ACTION_CELLS_SCANNED_ARG_TIME, curTime);
-                // send to handler, so broadcast is not from timer thread
-                Message message = new Message();
-                message.obj = intent;
-                mBroadcastScannedHandler.sendMessage(message);
+        final List<CellInfo> scanned = cells;
+        // post to handler, so results are not published from the scheduler thread
+        mBroadcastScannedHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                ObservationBus.getInstance().publishCellScan(scanned, curTime);
             }
-        }, 0, CELL_MIN_UPDATE_TIME);
+        });
     }
 
     private synchronized void clearCells() {
@@ -134,7 +138,7 @@ public class CellScanner implements IHaltable {
         LocalBroadcastManager.getInstance(mAppContext).unregisterReceiver(mReportFlushedReceiver);
 
         if (mCellScanTimer != null) {
-            mCellScanTimer.cancel();
+            mCellScanTimer.cancel(false);
             mCellScanTimer = null;
         }
         mSimpleCellScanner.stop();
@@ -0,0 +1,220 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.ISystemClock;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/*
+ Records every GPS fix, wifi scan, cell scan and pressure reading the Reporter receives to a
+ trace, which TraceReplayer can feed back through the pipeline later.
+
+ The recorder listens on the ObservationBus' stumbler thread, same as the Reporter, so it sees
+ exactly what the Reporter sees, in the same order, and the scanners never wait on the disk.
+ If the trace can't be written, recording stops.
+ */
+public class TraceRecorder implements ObservationBus.WifiScanListener, ObservationBus.CellScanListener,
+        ObservationBus.GpsListener, ObservationBus.PressureListener {
+
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(TraceRecorder.class);
+
+    public static final String TRACE_DIR = "traces";
+    static final String TRACE_SUFFIX = ".jsonl.gz";
+
+    // Keys of the event data, shared with TraceReplayer
+    static final String KEY_TIME = "time";
+    static final String KEY_LOCATION = "location";
+    static final String KEY_RESULTS = "results";
+    static final String KEY_CELLS = "cells";
+    static final String KEY_PRESSURE = "hPa";
+
+    private final ISystemClock mClock = (ISystemClock) ServiceLocator.getInstance().getService(ISystemClock.class);
+    private TraceWriter mWriter;
+    private File mFile;
+
+    /*
+     Start recording to a new trace in baseDir/TRACE_DIR.
+     */
+    public synchronized void start(String baseDir) throws IOException {
+        if (mWriter != null) {
+            return;
+        }
+
+        final long now = mClock.currentTimeMillis();
+        final File dir = new File(baseDir, TRACE_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        mFile = new File(dir, "trace-t" + now + TRACE_SUFFIX);
+        mWriter = new TraceWriter(mFile, now);
+        ObservationBus.getInstance().register(this, ObservationBus.Delivery.STUMBLER_THREAD);
+        Log.i(LOG_TAG, "Recording trace to " + mFile);
+    }
+
+    public synchronized void stop() {
+        if (mWriter == null) {
+            return;
+        }
+
+        ObservationBus.getInstance().unregister(this);
+        try {
+            mWriter.close();
+            Log.i(LOG_TAG, "Recorded " + mWriter.getEventCount() + " events to " + mFile);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing trace", e);
+        }
+        mWriter = null;
+    }
+
+    /*
+     The traces recorded in baseDir/TRACE_DIR, newest first.
+     */
+    public static List<File> listTraces(String baseDir) {
+        final List<File> traces = new ArrayList<File>();
+        final File[] files = new File(baseDir, TRACE_DIR).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(TRACE_SUFFIX)) {
+                    traces.add(file);
+                }
+            }
+        }
+        Collections.sort(traces, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                // The name holds the start time
+                return rhs.getName().compareTo(lhs.getName());
+            }
+        });
+        return traces;
+    }
+
+    public synchronized boolean isRecording() {
+        return mWriter != null;
+    }
+
+    public synchronized File getFile() {
+        return mFile;
+    }
+
+    private synchronized void write(String kind, JSONObject data) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.write(kind, mClock.currentTimeMillis(), data);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing trace, recording stopped", e);
+            stop();
+        }
+    }
+
+    @Override
+    public void onWifiScanned(List<ScanResult> results, long timeMs) {
+        try {
+            JSONArray array = new JSONArray();
+            for (ScanResult result : results) {
+                array.put(toJSON(result));
+            }
+            write(TraceEvent.KIND_WIFI, new JSONObject().put(KEY_TIME, timeMs).put(KEY_RESULTS, array));
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Can't record wifi scan: " + e);
+        }
+    }
+
+    @Override
+    public void onCellsScanned(List<CellInfo> cells, long timeMs) {
+        try {
+            JSONArray array = new JSONArray();
+            for (CellInfo cell : cells) {
+                array.put(cell.toJSONObject());
+            }
+            write(TraceEvent.KIND_CELL, new JSONObject().put(KEY_TIME, timeMs).put(KEY_CELLS, array));
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Can't record cell scan: " + e);
+        }
+    }
+
+    @Override
+    public void onNewLocation(Location location, long timeMs) {
+        try {
+            write(TraceEvent.KIND_LOCATION,
+                    new JSONObject().put(KEY_TIME, timeMs).put(KEY_LOCATION, toJSON(location)));
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Can't record location: " + e);
+        }
+    }
+
+    @Override
+    public void onLocationLost(long timeMs) {
+        try {
+            write(TraceEvent.KIND_LOCATION_LOST, new JSONObject().put(KEY_TIME, timeMs));
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Can't record location lost: " + e);
+        }
+    }
+
+    @Override
+    public void onPressureScanned(float hPa) {
+        try {
+            write(TraceEvent.KIND_PRESSURE, new JSONObject().put(KEY_PRESSURE, (double) hPa));
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Can't record pressure: " + e);
+        }
+    }
+
+    static JSONObject toJSON(Location location) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("provider", location.getProvider());
+        json.put("lat", location.getLatitude());
+        json.put("lon", location.getLongitude());
+        json.put("time", location.getTime());
+        if (location.hasAccuracy()) {
+            json.put("accuracy", (double) location.getAccuracy());
+        }
+        if (location.hasAltitude()) {
+            json.put("altitude", location.getAltitude());
+        }
+        if (location.hasBearing()) {
+            json.put("bearing", (double) location.getBearing());
+        }
+        if (location.hasSpeed()) {
+            json.put("speed", (double) location.getSpeed());
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            json.put("elapsedRealtimeNanos", location.getElapsedRealtimeNanos());
+        }
+        return json;
+    }
+
+    static JSONObject toJSON(ScanResult result) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("bssid", result.BSSID);
+        json.put("ssid", result.SSID);
+        json.put("capabilities", result.capabilities);
+        json.put("level", result.level);
+        json.put("frequency", result.frequency);
+        return json;
+    }
+}
@@ -0,0 +1,373 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.stumblerthread.trace;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.wifi.ScanResult;
+import android.os.Build;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.mozstumbler.service.core.http.ISubmitService;
+import org.mozilla.mozstumbler.service.core.http.LoopbackHttpUtil;
+import org.mozilla.mozstumbler.service.core.http.MLSLocationService;
+import org.mozilla.mozstumbler.service.stumblerthread.ObservationBus;
+import org.mozilla.mozstumbler.service.stumblerthread.Reporter;
+import org.mozilla.mozstumbler.service.stumblerthread.StumblerService;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageManager;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.SimulatorService;
+import org.mozilla.mozstumbler.service.stumblerthread.scanners.cellscanner.CellInfo;
+import org.mozilla.mozstumbler.service.uploadthread.AsyncUploadParam;
+import org.mozilla.mozstumbler.service.uploadthread.AsyncUploader;
+import org.mozilla.mozstumbler.service.uploadthread.AsyncUploaderMLS;
+import org.mozilla.mozstumbler.svclocator.ServiceLocator;
+import org.mozilla.mozstumbler.svclocator.services.log.ILogger;
+import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ Feeds a recorded trace back through the whole pipeline: ObservationBus -> Reporter ->
+ DataStorageManager -> AsyncUploaderMLS, against a LoopbackHttpUtil instead of the MLS server,
+ and reports throughput and upload latency.
+
+ Events are replayed at the speed given (1 is as recorded, MAX_SPEED doesn't wait between
+ events). An upload is started every UPLOAD_INTERVAL_MS of trace time, as the upload alarm does
+ while stumbling, and a last one once every event has been stored. At any speed, replay waits
+ for the stumbler thread when its queue is half full, so events aren't dropped just because
+ replay is faster than any scanner.
+
+ Replay builds a pipeline of its own: a private ObservationBus, a private Reporter, and a
+ DataStorageManager in a scratch directory that only the replay uploader reads. The uploader's
+ MLSLocationService posts to the stand-in, so the replayed reports are never sent anywhere, and
+ the reports already queued aren't touched. Nothing else can reach this pipeline, but replay still
+ refuses to start while the StumblerService runs or an upload is in progress, so the numbers
+ aren't skewed by them. While replay runs, its uploads hold AsyncUploader.isUploading, so real
+ uploads wait for the next try.
+
+ replay() blocks, don't call it from the main thread.
+ */
+public class TraceReplayer {
+    private static final ILogger Log = (ILogger) ServiceLocator.getInstance().getService(ILogger.class);
+    private static final String LOG_TAG = LoggerUtil.makeLogTag(TraceReplayer.class);
+
+    public static final double MAX_SPEED = TracePacer.MAX_SPEED;
+    public static final long UPLOAD_INTERVAL_MS = 5 * 60 * 1000;
+    static final String REPLAY_DIR = "trace-replay";
+    private static final long DRAIN_TIMEOUT_MS = 60 * 1000;
+    // Replays share the scratch directory, so only one runs at a time
+    private static final AtomicBoolean sIsReplaying = new AtomicBoolean();
+
+    public static class Result {
+        public int eventCount;
+        public long traceDurationMs;
+        public long replayDurationMs;
+        public long droppedEventCount;
+        public int uploadCount;
+        public int postCount;
+        public long bytesUploaded;
+        public int reportsLeft;
+        // POST durations, sorted
+        public List<Long> postDurationsMs = new ArrayList<Long>();
+
+        public double getEventsPerSecond() {
+            return (replayDurationMs == 0) ? 0 : eventCount * 1000.0 / replayDurationMs;
+        }
+
+        public long getPostDurationPercentileMs(int percentile) {
+            if (postDurationsMs.isEmpty()) {
+                return 0;
+            }
+            final int i = (int) Math.ceil(percentile / 100.0 * postDurationsMs.size()) - 1;
+            return postDurationsMs.get(Math.max(0, Math.min(i, postDurationsMs.size() - 1)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d events (%d s of trace) in %d ms, %.1f events/s, %d dropped; " +
+                    "%d uploads, %d POSTs, %d bytes, POST p50/p95/max %d/%d/%d ms; %d reports left",
+                    eventCount, traceDurationMs / 1000, replayDurationMs, getEventsPerSecond(), droppedEventCount,
+                    uploadCount, postCount, bytesUploaded,
+                    getPostDurationPercentileMs(50), getPostDurationPercentileMs(95), getPostDurationPercentileMs(100),
+                    reportsLeft);
+        }
+    }
+
+    private final Context mContext;
+    private final double mSpeed;
+    private final long mPostLatencyMs;
+    private volatile boolean mCancelled;
+
+    /*
+     postLatencyMs is how long the stand-in server takes to answer each POST.
+     */
+    public TraceReplayer(Context context, double speed, long postLatencyMs) {
+        mContext = context.getApplicationContext();
+        mSpeed = speed;
+        mPostLatencyMs = postLatencyMs;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /*
+     Replay a trace recorded by TraceRecorder. Throws IllegalStateException if the
+     StumblerService is running, an upload is in progress or another replay is running.
+     */
+    public Result replay(File trace) throws IOException {
+        final TraceReader reader = new TraceReader(trace);
+        try {
+            return replay(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public Result replay(TraceReader reader) throws IOException {
+        if (StumblerService.isRunning()) {
+            throw new IllegalStateException("Stop stumbling before replaying a trace");
+        }
+        if (AsyncUploader.isUploading.get()) {
+            throw new IllegalStateException("Wait for the upload to finish before replaying a trace");
+        }
+        if (!sIsReplaying.compareAndSet(false, true)) {
+            throw new IllegalStateException("A trace is already being replayed");
+        }
+        try {
+            return replayPrivately(reader);
+        } finally {
+            sIsReplaying.set(false);
+        }
+    }
+
+    private Result replayPrivately(TraceReader reader) throws IOException {
+        final LoopbackHttpUtil http = new LoopbackHttpUtil(mPostLatencyMs);
+
+        final File dir = new File(mContext.getCacheDir(), REPLAY_DIR);
+        deleteRecursively(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Can't create " + dir);
+        }
+        // The storage and its stats go to the scratch directory
+        final Context replayContext = new ContextWrapper(mContext) {
+            @Override
+            public File getFilesDir() {
+                return dir;
+            }
+        };
+
+        final ObservationBus bus = ObservationBus.createPrivateInstance();
+        final DataStorageManager storage = DataStorageManager.createPrivateInstance(replayContext, null);
+        final Reporter reporter = new Reporter(bus, storage);
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final ObservationBus.FlushListener flushListener = new ObservationBus.FlushListener() {
+            @Override
+            public void onFlushRequested() {
+                flushed.countDown();
+            }
+        };
+        final ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+        final Result result = new Result();
+
+        try {
+            final ISubmitService submitter = new MLSLocationService(http);
+            final AsyncUploaderMLS uploader = new AsyncUploaderMLS(storage, mContext) {
+                @Override
+                protected ISubmitService getSubmitter() {
+                    return submitter;
+                }
+
+                @Override
+                protected void tallyCompleted(HashMap<String, Integer> tally, long totalBytesSent) {
+                    // Not the user's upload stats, and not an upload the UI should hear about
+                }
+
+                @Override
+                protected boolean isCountedInSessionTotal() {
+                    return false;
+                }
+            };
+            final AsyncUploadParam uploadParam = new AsyncUploadParam(false, true);
+            final Runnable upload = new Runnable() {
+                @Override
+                public void run() {
+                    if (uploader.uploadNow(uploadParam)) {
+                        synchronized (result) {
+                            result.uploadCount++;
+                        }
+                    }
+                }
+            };
+
+            reporter.startup(replayContext);
+            // Registered after the Reporter, so it hears the final flush request after the Reporter
+            bus.register(flushListener, ObservationBus.Delivery.STUMBLER_THREAD);
+
+            final TracePacer pacer = new TracePacer(mSpeed);
+            final long startMs = System.nanoTime() / 1000000;
+            pacer.start(startMs);
+            long nextUploadOffsetMs = UPLOAD_INTERVAL_MS;
+
+            TraceEvent event;
+            while (!mCancelled && (event = reader.next()) != null) {
+                waitUntil(pacer, event.offsetMs);
+                waitForQueue(bus, ObservationBus.QUEUE_CAPACITY / 2);
+                try {
+                    publish(bus, event);
+                } catch (JSONException e) {
+                    Log.w(LOG_TAG, "Skipping bad " + event.kind + " event: " + e);
+                    continue;
+                }
+                result.eventCount++;
+                result.traceDurationMs = event.offsetMs;
+
+                if (event.offsetMs >= nextUploadOffsetMs) {
+                    nextUploadOffsetMs += UPLOAD_INTERVAL_MS;
+                    uploadExecutor.execute(upload);
+                }
+            }
+
+            bus.publishFlushRequest();
+            if (!flushed.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Timed out waiting for the stumbler thread");
+            }
+            result.replayDurationMs = System.nanoTime() / 1000000 - startMs;
+            result.droppedEventCount = bus.getDroppedEventCount();
+
+            // Drain everything that was stored
+            uploadExecutor.execute(upload);
+            uploadExecutor.shutdown();
+            uploadExecutor.awaitTermination(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            result.postCount = http.getPostCount();
+            result.bytesUploaded = http.getBytesReceived();
+            result.postDurationsMs = http.getPostDurationsMs();
+            Collections.sort(result.postDurationsMs);
+            result.reportsLeft = storage.getQueuedReportCount();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Replay interrupted");
+        } finally {
+            uploadExecutor.shutdownNow();
+            bus.unregister(flushListener);
+            reporter.shutdown();
+            bus.close();
+        }
+
+        Log.i(LOG_TAG, "Replayed at " + (mSpeed == MAX_SPEED ? "max speed" : mSpeed + "x") + ": " + result);
+        return result;
+    }
+
+    private void waitUntil(TracePacer pacer, long offsetMs) throws InterruptedException {
+        long delayMs = pacer.getDelayMs(offsetMs, System.nanoTime() / 1000000);
+        while (delayMs > 0 && !mCancelled) {
+            // Wake up now and then to notice cancel()
+            Thread.sleep(Math.min(delayMs, 1000));
+            delayMs = pacer.getDelayMs(offsetMs, System.nanoTime() / 1000000);
+        }
+    }
+
+    private static void waitForQueue(ObservationBus bus, int maxQueued) throws InterruptedException {
+        while (bus.getQueuedEventCount() >= maxQueued) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void publish(ObservationBus bus, TraceEvent event) throws JSONException {
+        final JSONObject data = event.data;
+        if (TraceEvent.KIND_LOCATION.equals(event.kind)) {
+            bus.publishNewLocation(toLocation(data.getJSONObject(TraceRecorder.KEY_LOCATION)),
+                    data.getLong(TraceRecorder.KEY_TIME));
+        } else if (TraceEvent.KIND_LOCATION_LOST.equals(event.kind)) {
+            bus.publishLocationLost(data.getLong(TraceRecorder.KEY_TIME));
+        } else if (TraceEvent.KIND_WIFI.equals(event.kind)) {
+            final JSONArray array = data.getJSONArray(TraceRecorder.KEY_RESULTS);
+            final List<ScanResult> results = new ArrayList<ScanResult>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                results.add(toScanResult(array.getJSONObject(i)));
+            }
+            bus.publishWifiScan(results, data.getLong(TraceRecorder.KEY_TIME));
+        } else if (TraceEvent.KIND_CELL.equals(event.kind)) {
+            final JSONArray array = data.getJSONArray(TraceRecorder.KEY_CELLS);
+            final List<CellInfo> cells = new ArrayList<CellInfo>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                cells.add(CellInfo.fromJSONObject(array.getJSONObject(i)));
+            }
+            bus.publishCellScan(cells, data.getLong(TraceRecorder.KEY_TIME));
+        } else if (TraceEvent.KIND_PRESSURE.equals(event.kind)) {
+            bus.publishPressure((float) data.getDouble(TraceRecorder.KEY_PRESSURE));
+        } else {
+            throw new JSONException("Unknown event kind");
+        }
+    }
+
+    static Location toLocation(JSONObject json) throws JSONException {
+        Location location = new Location(json.optString("provider", LocationManager.GPS_PROVIDER));
+        location.setLatitude(json.getDouble("lat"));
+        location.setLongitude(json.getDouble("lon"));
+        location.setTime(json.getLong("time"));
+        if (json.has("accuracy")) {
+            location.setAccuracy((float) json.getDouble("accuracy"));
+        }
+        if (json.has("altitude")) {
+            location.setAltitude(json.getDouble("altitude"));
+        }
+        if (json.has("bearing")) {
+            location.setBearing((float) json.getDouble("bearing"));
+        }
+        if (json.has("speed")) {
+            location.setSpeed((float) json.getDouble("speed"));
+        }
+        if (json.has("elapsedRealtimeNanos") && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            location.setElapsedRealtimeNanos(json.getLong("elapsedRealtimeNanos"));
+        }
+        return location;
+    }
+
+    static ScanResult toScanResult(JSONObject json) throws JSONException {
+        ScanResult result;
+        try {
+            result = SimulatorService.makeScanResult();
+        } catch (Exception e) {
+            throw new JSONException("Can't create a ScanResult: " + e);
+        }
+        if (result == null) {
+            throw new JSONException("Can't create a ScanResult");
+        }
+        result.BSSID = json.getString("bssid");
+        result.SSID = json.has("ssid") ? json.getString("ssid") : null;
+        result.capabilities = json.optString("capabilities", "");
+        result.level = json.getInt("level");
+        result.frequency = json.getInt("frequency");
+        return result;
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -12,14 +12,29 @@ import org.mozilla.mozstumbler.service.Prefs;
 import org.mozilla.mozstumbler.service.core.http.HTTPResponse;
 import org.mozilla.mozstumbler.service.core.http.IResponse;
 import org.mozilla.mozstumbler.service.core.http.ISubmitService;
+import org.mozilla.mozstumbler.service.core.metrics.LatencyHistogram;
+import org.mozilla.mozstumbler.service.core.metrics.PipelineMetrics;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.ReportBatch;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.JSONRowsStorageManager;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
 import org.mozilla.mozstumbler.service.utils.Zipper;
 import org.mozilla.mozstumbler.svclocator.services.log.LoggerUtil;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /* Only one at a time may be uploading. If executed while another upload is in progress
@@ -44,6 +59,22 @@ public abstract class AsyncUploader extends AsyncTask<AsyncUploadParam, AsyncPro
     public static final AtomicLong sTotalBytesUploadedThisSession = new AtomicLong();
     public static final AtomicBoolean isUploading = new AtomicBoolean();
     private static final String LOG_TAG = LoggerUtil.makeLogTag(AsyncUploader.class);
+    private static final LatencyHistogram sPostUs =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.UPLOAD_POST_US);
+    private static final LatencyHistogram sBytesPerObservation =
+            PipelineMetrics.getInstance().histogram(PipelineMetrics.UPLOAD_BYTES_PER_OBSERVATION);
+    private static final PipelineMetrics.Counter sBytesUploaded =
+            PipelineMetrics.getInstance().counter(PipelineMetrics.UPLOAD_BYTES);
+    private static final PipelineMetrics.Counter sFailedUploads =
+            PipelineMetrics.getInstance().counter(PipelineMetrics.UPLOAD_FAILURES);
+    // Batches read from storage ahead of the POSTs, when pipelining
+    static final int PREFETCH_BATCHES = 4;
+    static final int MAX_UPLOADS_IN_FLIGHT = 3;
+    // How long the pipeline threads are kept for the next upload run
+    private static final long PIPELINE_THREAD_KEEP_ALIVE_MS = 5 * 60 * 1000;
+    private static ThreadPoolExecutor sPipelinePool;
+    private static final SerializedJSONRows END_OF_BATCHES =
+            new SerializedJSONRows(new byte[0], SerializedJSONRows.StorageState.IN_MEMORY);
     private static AsyncUploaderListener sAsyncListener;
     protected final JSONRowsStorageManager storageManager;
 
@@ -89,6 +120,22 @@ public abstract class AsyncUploader extends AsyncTask<AsyncUploadParam, AsyncPro
         return null;
     }
 
+    /*
+     Upload on the calling thread, for callers that are already off the main thread (i.e.
+     TraceReplayer). Returns false without uploading if another upload is in progress.
+     */
+    public boolean uploadNow(AsyncUploadParam param) {
+        if (!isUploading.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            uploadReports(param);
+        } finally {
+            isUploading.set(false);
+        }
+        return true;
+    }
+
     /*
     The android framework calls this only on the UI thread
     */
@@ -106,68 +153,390 @@ public abstract class AsyncUploader extends AsyncTask<AsyncUploadParam, AsyncPro
     }
 
     private void uploadReports(AsyncUploadParam param) {
-        long totalBytesSent = 0;
-        HashMap<String, Integer> tally = new HashMap<String, Integer>();
-
         if (!checkCanUpload(param)) {
             return;
         }
 
-        SerializedJSONRows batch = storageManager.getFirstBatch();
         HashMap<String, String> headers = getHeaders(param);
+        UploadTally tally = new UploadTally();
+
+        // Only pipeline when draining over wifi, on a metered connection the sequential
+        // loop keeps the amount of data in flight (and wasted on failure) to a minimum.
+        if (param.isWifiAvailable && getMaxUploadsInFlight() > 1) {
+            uploadReportsPipelined(headers, tally);
+        } else {
+            uploadReportsSequentially(headers, tally);
+        }
 
-        Prefs prefs = Prefs.getInstanceWithoutContext();
+        if (tally.saveInMemoryToDiskWhenDone) {
+            storageManager.saveAllInMemoryToDisk();
+        }
+
+        if (isCountedInSessionTotal()) {
+            sTotalBytesUploadedThisSession.addAndGet(tally.totalBytesSent);
+        }
+
+        tallyCompleted(tally.values, tally.totalBytesSent);
+    }
+
+    private void uploadReportsSequentially(HashMap<String, String> headers, UploadTally tally) {
+        BatchReader reader = new BatchReader(createBatchMerger());
+        SerializedJSONRows batch = reader.next();
         while (batch != null) {
-            IResponse result = null;
-            if (prefs != null && prefs.isSimulateStumble()) {
-
-                result = new HTTPResponse(200,
-                        new HashMap<String, List<String>>(),
-                        new byte[0],
-                        batch.data.length);
-                Log.i(LOG_TAG, "Simulation skipped upload.");
+            if (isValidBatch(batch)) {
+                handleResult(batch, postBatch(batch, headers), tally, headers);
             } else {
-                result = getSubmitter().submit(batch.data, headers, true);
+                handleResult(batch, null, tally, headers, true);
             }
+            if (tally.saveInMemoryToDiskWhenDone) {
+                storageManager.saveAllInMemoryToDisk();
+                tally.saveInMemoryToDiskWhenDone = false;
+            }
+            batch = reader.next();
+        }
+    }
 
-            if (result != null && result.isSuccessCode2XX()) {
-                totalBytesSent += result.bytesSent();
+    /*
+     Reads batches from storage, and if a merger is set, coalesces consecutive report batches
+     into a single payload.
+     */
+    private class BatchReader {
+        private final ReportBatchMerger mMerger;
+        private boolean mStarted;
+        private SerializedJSONRows mPending;
+
+        BatchReader(ReportBatchMerger merger) {
+            mMerger = merger;
+        }
 
-                String logMsg = "submit: [HTTP Status:" + result.httpStatusCode() + "], [Bytes Sent:" + result.bytesSent() + "]";
-                AppGlobals.guiLogInfo(logMsg, "#FFFFCC", true, false);
-                Log.d(LOG_TAG, logMsg);
+        private SerializedJSONRows read() {
+            if (!mStarted) {
+                mStarted = true;
+                return storageManager.getFirstBatch();
+            }
+            return storageManager.getNextBatch();
+        }
 
-                batch.tally(tally);
+        SerializedJSONRows next() {
+            if (mMerger == null) {
+                return read();
+            }
 
-                storageManager.delete(batch);
-            } else {
-                String logMsg = "HTTP error unknown";
-                if (result != null) {
-                    logMsg = "HTTP non-success code: " + result.httpStatusCode();
+            while (true) {
+                SerializedJSONRows batch = mPending;
+                mPending = null;
+                if (batch == null) {
+                    batch = read();
+                    if (batch == null) {
+                        return mMerger.finish();
+                    }
+                }
+
+                if (!ReportBatchMerger.isMergeable(batch)) {
+                    // Can't be merged, send it on its own.
+                    if (mMerger.isEmpty()) {
+                        return batch;
+                    }
+                    mPending = batch;
+                    return mMerger.finish();
                 }
 
-                if (result != null && result.isErrorCode400BadRequest()) {
-                    logMsg += ", 400 Error, deleting bad report";
-                    if (AppGlobals.guiLogMessageBuffer != null) { // if true, this is a GUI app
-                        String unzipped = Zipper.unzipData(batch.data);
-                        if (unzipped == null) {
-                            unzipped = "Corrupt gzip data found.";
+                ReportBatch reportBatch = (ReportBatch) batch;
+                if (!mMerger.fits(reportBatch)) {
+                    mPending = batch;
+                    return mMerger.finish();
+                }
+                mMerger.add(reportBatch);
+            }
+        }
+    }
+
+    /*
+     Return a merger to coalesce queued batches into fewer requests, or null to send every
+     batch on its own.
+     */
+    protected ReportBatchMerger createBatchMerger() {
+        return null;
+    }
+
+    /*
+     A reader thread loads and validates up to PREFETCH_BATCHES batches ahead, while
+     getMaxUploadsInFlight() poster threads drain them. Each batch is handled exactly like in the
+     sequential loop, except that saving the in-memory reports to disk after a failure is deferred
+     until every poster is done, as an in-memory batch may still be in flight.
+
+     The reader and posters run on a shared pool, so consecutive runs reuse the same threads.
+     */
+    private void uploadReportsPipelined(final HashMap<String, String> headers, final UploadTally tally) {
+        final BlockingQueue<SerializedJSONRows> prefetched =
+                new ArrayBlockingQueue<SerializedJSONRows>(PREFETCH_BATCHES);
+        final int posterCount = getMaxUploadsInFlight();
+        final BatchReader batchReader = new BatchReader(createBatchMerger());
+
+        final Runnable reader = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SerializedJSONRows batch = batchReader.next();
+                    while (batch != null) {
+                        if (isValidBatch(batch)) {
+                            prefetched.put(batch);
+                        } else {
+                            handleResult(batch, null, tally, headers, true);
                         }
-                        AppGlobals.guiLogInfo(unzipped, "red", false, true);
+                        batch = batchReader.next();
+                    }
+                } catch (InterruptedException e) {
+                    Log.w(LOG_TAG, "Upload prefetch interrupted");
+                } finally {
+                    for (int i = 0; i < posterCount; i++) {
+                        putUninterruptibly(prefetched, END_OF_BATCHES);
                     }
-                    storageManager.delete(batch);
-                } else {
-                    storageManager.saveAllInMemoryToDisk();
                 }
-                AppGlobals.guiLogError(logMsg);
             }
+        };
+
+        final Runnable poster = new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    SerializedJSONRows batch;
+                    try {
+                        batch = prefetched.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (batch == END_OF_BATCHES) {
+                        return;
+                    }
+                    try {
+                        handleResult(batch, postBatch(batch, headers), tally, headers);
+                    } catch (RuntimeException e) {
+                        // Keep draining, the reader would block on a full queue otherwise.
+                        // The batch isn't deleted, it is sent again on the next run.
+                        Log.e(LOG_TAG, "Error uploading batch", e);
+                        synchronized (tally) {
+                            tally.saveInMemoryToDiskWhenDone = true;
+                        }
+                    }
+                }
+            }
+        };
 
-            batch = storageManager.getNextBatch();
+        final ExecutorService pool = getPipelinePool(posterCount + 1);
+        final List<Future<?>> tasks = new ArrayList<Future<?>>(posterCount + 1);
+        for (int i = 0; i < posterCount; i++) {
+            tasks.add(pool.submit(poster));
         }
+        tasks.add(pool.submit(reader));
+
+        try {
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Upload pipeline failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Interrupted while waiting on uploads");
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        sTotalBytesUploadedThisSession.addAndGet(totalBytesSent);
+    /*
+     Threads for the pipelined uploads, created on demand and kept for a while after a run.
+     Only one upload runs at a time, and the pool is sized for all of its tasks, so the reader
+     and posters never wait on each other for a thread.
+     */
+    private static synchronized ExecutorService getPipelinePool(int threads) {
+        if (sPipelinePool == null) {
+            sPipelinePool = new ThreadPoolExecutor(threads, threads,
+                    PIPELINE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger mCount = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "AsyncUploader-" + mCount.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            sPipelinePool.allowCoreThreadTimeOut(true);
+        } else if (sPipelinePool.getCorePoolSize() < threads) {
+            sPipelinePool.setMaximumPoolSize(threads);
+            sPipelinePool.setCorePoolSize(threads);
+        }
+        return sPipelinePool;
+    }
 
-        tallyCompleted(tally, totalBytesSent);
+    private static void putUninterruptibly(BlockingQueue<SerializedJSONRows> queue, SerializedJSONRows item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deleteBatch(SerializedJSONRows batch) {
+        if (batch instanceof ReportBatchMerger.MergedReportBatch) {
+            for (SerializedJSONRows source : ((ReportBatchMerger.MergedReportBatch) batch).sources) {
+                storageManager.delete(source);
+            }
+            return;
+        }
+        storageManager.delete(batch);
+    }
+
+    /*
+     The server rejected a merged payload. Split the sources in two and send each half, until
+     the bad file is isolated and deleted like any other rejected batch.
+     */
+    private void bisectRejectedBatch(ReportBatchMerger.MergedReportBatch merged, UploadTally tally,
+                                     HashMap<String, String> headers) {
+        final List<ReportBatch> sources = merged.sources;
+        final int mid = sources.size() / 2;
+        Log.d(LOG_TAG, "Merged batch of " + sources.size() + " files rejected, bisecting");
+
+        for (List<ReportBatch> half : Arrays.asList(sources.subList(0, mid), sources.subList(mid, sources.size()))) {
+            resendSources(half, tally, headers);
+        }
+    }
+
+    /*
+     A merged payload failed because some of its files couldn't be unzipped. Delete those like
+     any other corrupt batch, and send the rest again.
+     */
+    private void dropCorruptSources(ReportBatchMerger.MergedReportBatch merged, UploadTally tally,
+                                    HashMap<String, String> headers) {
+        final List<ReportBatch> corrupt = merged.getCorruptSources();
+        final List<ReportBatch> remaining = new ArrayList<ReportBatch>(merged.sources);
+        remaining.removeAll(corrupt);
+        Log.d(LOG_TAG, "Merged batch has " + corrupt.size() + " corrupt files, resending the rest");
+
+        for (ReportBatch source : corrupt) {
+            handleResult(source, null, tally, headers, true);
+        }
+        resendSources(remaining, tally, headers);
+    }
+
+    private void resendSources(List<ReportBatch> sources, UploadTally tally, HashMap<String, String> headers) {
+        if (sources.isEmpty()) {
+            return;
+        }
+        SerializedJSONRows batch = ReportBatchMerger.merge(sources);
+        if (batch == null) {
+            // Can't re-read one of the files, fall back to sending each file on its own.
+            for (ReportBatch source : sources) {
+                handleResult(source, postBatch(source, headers), tally, headers);
+            }
+            return;
+        }
+        handleResult(batch, postBatch(batch, headers), tally, headers);
+    }
+
+    private static boolean isValidBatch(SerializedJSONRows batch) {
+        if (batch instanceof ReportBatchMerger.MergedReportBatch) {
+            // The sources are checked as they are streamed, see dropCorruptSources()
+            return true;
+        }
+        // Batches are always gzipped, check the gzip magic number.
+        return batch.data != null && batch.data.length > 2 &&
+                batch.data[0] == (byte) 0x1f && batch.data[1] == (byte) 0x8b;
+    }
+
+    private IResponse postBatch(SerializedJSONRows batch, HashMap<String, String> headers) {
+        final boolean isMerged = batch instanceof ReportBatchMerger.MergedReportBatch;
+        Prefs prefs = Prefs.getInstanceWithoutContext();
+        if (prefs != null && prefs.isSimulateStumble()) {
+            Log.i(LOG_TAG, "Simulation skipped upload.");
+            return new HTTPResponse(200,
+                    new HashMap<String, List<String>>(),
+                    new byte[0],
+                    isMerged ? ((ReportBatchMerger.MergedReportBatch) batch).zippedBytes : batch.data.length);
+        }
+        final long startNs = System.nanoTime();
+        final IResponse result;
+        if (isMerged) {
+            // Streamed from the source files and compressed on the fly
+            result = getSubmitter().submit(((ReportBatchMerger.MergedReportBatch) batch).getBody(), headers, false);
+        } else {
+            result = getSubmitter().submit(batch.data, headers, true);
+        }
+        sPostUs.record(PipelineMetrics.microsSince(startNs));
+        return result;
+    }
+
+    private void handleResult(SerializedJSONRows batch, IResponse result, UploadTally tally,
+                              HashMap<String, String> headers) {
+        handleResult(batch, result, tally, headers, false);
+    }
+
+    private void handleResult(SerializedJSONRows batch, IResponse result, UploadTally tally,
+                              HashMap<String, String> headers, boolean isCorrupt) {
+        if (batch instanceof ReportBatchMerger.MergedReportBatch &&
+            result != null && result.isErrorCode400BadRequest()) {
+            bisectRejectedBatch((ReportBatchMerger.MergedReportBatch) batch, tally, headers);
+            return;
+        }
+        if (batch instanceof ReportBatchMerger.MergedReportBatch && result == null &&
+            !((ReportBatchMerger.MergedReportBatch) batch).getCorruptSources().isEmpty()) {
+            dropCorruptSources((ReportBatchMerger.MergedReportBatch) batch, tally, headers);
+            return;
+        }
+
+        if (result != null && result.isSuccessCode2XX()) {
+            String logMsg = "submit: [HTTP Status:" + result.httpStatusCode() + "], [Bytes Sent:" + result.bytesSent() + "]";
+            AppGlobals.guiLogInfo(logMsg, "#FFFFCC", true, false);
+            Log.d(LOG_TAG, logMsg);
+
+            synchronized (tally) {
+                tally.totalBytesSent += result.bytesSent();
+                batch.tally(tally.values);
+            }
+            sBytesUploaded.add(result.bytesSent());
+            if (batch instanceof ReportBatch && ((ReportBatch) batch).reportCount > 0) {
+                sBytesPerObservation.record(result.bytesSent() / ((ReportBatch) batch).reportCount);
+            }
+
+            deleteBatch(batch);
+        } else {
+            sFailedUploads.increment();
+            String logMsg = "HTTP error unknown";
+            if (result != null) {
+                logMsg = "HTTP non-success code: " + result.httpStatusCode();
+            }
+
+            if (isCorrupt || (result != null && result.isErrorCode400BadRequest())) {
+                logMsg = isCorrupt ? "Corrupt report found, deleting bad report" :
+                        logMsg + ", 400 Error, deleting bad report";
+                if (AppGlobals.guiLogMessageBuffer != null) { // if true, this is a GUI app
+                    String unzipped = isCorrupt ? null : Zipper.unzipData(batch.data);
+                    if (unzipped == null) {
+                        unzipped = "Corrupt gzip data found.";
+                    }
+                    AppGlobals.guiLogInfo(unzipped, "red", false, true);
+                }
+                deleteBatch(batch);
+            } else {
+                synchronized (tally) {
+                    tally.saveInMemoryToDiskWhenDone = true;
+                }
+            }
+            AppGlobals.guiLogError(logMsg);
+        }
     }
 
     protected boolean checkCanUpload(AsyncUploadParam param) {
@@ -183,8 +552,31 @@ public abstract class AsyncUploader extends AsyncTask<AsyncUploadParam, AsyncPro
     protected void tallyCompleted(HashMap<String, Integer> tallyValues, long totalBytesSent) {
     }
 
+    /*
+     Whether the bytes sent go to sTotalBytesUploadedThisSession, which the UI shows as the
+     user's uploads. Not for uploads of anything else (i.e. TraceReplayer's).
+     */
+    protected boolean isCountedInSessionTotal() {
+        return true;
+    }
+
     protected abstract HashMap<String,String> getHeaders(AsyncUploadParam param);
 
+    /*
+     The number of concurrent POSTs used when draining the queue over wifi.
+     Returning 1 disables pipelining.
+     */
+    protected int getMaxUploadsInFlight() {
+        return MAX_UPLOADS_IN_FLIGHT;
+    }
+
+    // Results of a single upload run, shared by the poster threads.
+    private static class UploadTally {
+        final HashMap<String, Integer> values = new HashMap<String, Integer>();
+        long totalBytesSent;
+        boolean saveInMemoryToDiskWhenDone;
+    }
+
     public interface AsyncUploaderListener {
         // This is called by Android on the UI thread
         public void onUploadProgress(boolean isUploading);
@@ -9,12 +9,14 @@ import org.mozilla.mozstumbler.service.core.http.ILocationService;
 import org.mozilla.mozstumbler.service.core.http.ISubmitService;
 import org.mozilla.mozstumbler.service.core.http.MLSLocationService;
 import org.mozilla.mozstumbler.service.stumblerthread.datahandling.DataStorageManager;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.ReportBatch;
 import org.mozilla.mozstumbler.svclocator.ServiceLocator;
 
 import java.util.HashMap;
 
 public class AsyncUploaderMLS extends AsyncUploader {
-    public static final String OBSERVATIONS_TALLY = "observations", CELLS_TALLY = "cells", WIFIS_TALLY = "wifis";
+    public static final String OBSERVATIONS_TALLY = ReportBatch.OBSERVATIONS_TALLY,
+            CELLS_TALLY = ReportBatch.CELLS_TALLY, WIFIS_TALLY = ReportBatch.WIFIS_TALLY;
     private final Context mContext;
 
     public static final String ACTION_MLS_UPLOAD_COMPLETED = AppGlobals.ACTION_NAMESPACE + ".action_mls_upload_executed";
@@ -29,6 +31,11 @@ public class AsyncUploaderMLS extends AsyncUploader {
         return (ILocationService) ServiceLocator.getInstance().getService(ILocationService.class);
     }
 
+    @Override
+    protected ReportBatchMerger createBatchMerger() {
+        return new ReportBatchMerger();
+    }
+
     @Override
     protected HashMap<String,String> getHeaders(AsyncUploadParam param) {
         HashMap<String,String> headers = new HashMap<String, String>();
@@ -0,0 +1,282 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+
+package org.mozilla.mozstumbler.service.uploadthread;
+
+import org.mozilla.mozstumbler.service.core.http.RequestBody;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.ReportBatch;
+import org.mozilla.mozstumbler.service.stumblerthread.datahandling.base.SerializedJSONRows;
+import org.mozilla.mozstumbler.service.utils.Zipper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/*
+ Combines the "items" arrays of several queued ReportBatch files into a single geosubmit
+ payload, so that one HTTP request carries many small batches.
+
+ Each report file holds at most JSONRowsObjectBuilder.MAX_ROWS_IN_MEMORY rows, which makes the
+ per-request overhead (headers, TLS records, server round trip) dominate on a large backlog.
+
+ The merged payload remembers its sources (see MergedReportBatch) so that exactly those are
+ deleted after a successful upload. It is never assembled in memory: getBody() unzips each
+ source in turn straight into the request, which compresses it again on the fly.
+
+ A source is only unzipped in full while the body is written. Before that, isMergeable() reads
+ just enough of it to check the start of the JSON, and the source's reportCount says whether it
+ has any items. A source found corrupt while writing the body fails the request, and is listed
+ by getCorruptSources() so the uploader can drop it.
+
+ Not thread safe, use one instance per thread.
+ */
+public class ReportBatchMerger {
+    public static final int DEFAULT_MAX_ROWS = 500;
+    // Budget on the gzipped bytes of the sources, which is what goes over the wire
+    public static final int DEFAULT_MAX_ZIPPED_BYTES = 64 * 1024;
+
+    private static final byte[] JSON_PREFIX = "{\"items\":[".getBytes();
+    private static final byte[] JSON_SUFFIX = "]}".getBytes();
+
+    /*
+     A source batch couldn't be read, as opposed to the request failing.
+     */
+    public static class CorruptBatchException extends IOException {
+        public CorruptBatchException(String message) {
+            super(message);
+        }
+    }
+
+    /*
+     A payload built from several report files. It has no data of its own, use getBody().
+     */
+    public static class MergedReportBatch extends ReportBatch {
+        public final List<ReportBatch> sources;
+        // Sum of the gzipped sizes of the sources
+        public final int zippedBytes;
+        // The sources that hold at least one item
+        private final List<ReportBatch> mItemSources;
+        private final List<ReportBatch> mCorruptSources = new CopyOnWriteArrayList<ReportBatch>();
+
+        MergedReportBatch(List<ReportBatch> sources, List<ReportBatch> itemSources,
+                          int reportCount, int wifiCount, int cellCount, int zippedBytes) {
+            super(null, StorageState.IN_MEMORY, reportCount, wifiCount, cellCount);
+            this.sources = Collections.unmodifiableList(sources);
+            this.zippedBytes = zippedBytes;
+            mItemSources = itemSources;
+        }
+
+        /*
+         The uncompressed JSON payload. The body can be written any number of times.
+         */
+        public RequestBody getBody() {
+            return new RequestBody() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    out.write(JSON_PREFIX);
+                    boolean first = true;
+                    for (ReportBatch source : mItemSources) {
+                        if (!first) {
+                            out.write(',');
+                        }
+                        first = false;
+                        try {
+                            copyItems(source, out);
+                        } catch (CorruptBatchException e) {
+                            if (!mCorruptSources.contains(source)) {
+                                mCorruptSources.add(source);
+                            }
+                            throw e;
+                        }
+                    }
+                    out.write(JSON_SUFFIX);
+                }
+            };
+        }
+
+        /*
+         The sources found corrupt while writing the body.
+         */
+        public List<ReportBatch> getCorruptSources() {
+            return mCorruptSources;
+        }
+    }
+
+    private final int mMaxRows;
+    private final int mMaxZippedBytes;
+    private final List<ReportBatch> mSources = new ArrayList<ReportBatch>();
+    private final List<ReportBatch> mItemSources = new ArrayList<ReportBatch>();
+    private int mRows;
+    private int mZippedBytes;
+    private int mWifis;
+    private int mCells;
+
+    public ReportBatchMerger() {
+        this(DEFAULT_MAX_ROWS, DEFAULT_MAX_ZIPPED_BYTES);
+    }
+
+    public ReportBatchMerger(int maxRows, int maxZippedBytes) {
+        mMaxRows = maxRows;
+        mMaxZippedBytes = maxZippedBytes;
+    }
+
+    /*
+     Whether a batch can be merged: a report batch that unzips to the start of a geosubmit
+     payload. Only the first few bytes are unzipped, the rest is checked by copyItems().
+     */
+    public static boolean isMergeable(SerializedJSONRows batch) {
+        if (!(batch instanceof ReportBatch) || batch.data == null) {
+            return false;
+        }
+        try {
+            InputStream in = unzip(batch.data);
+            try {
+                return Arrays.equals(JSON_PREFIX, readPrefix(in));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static InputStream unzip(byte[] data) throws CorruptBatchException {
+        try {
+            return new GZIPInputStream(new ByteArrayInputStream(data));
+        } catch (IOException e) {
+            throw new CorruptBatchException("Can't unzip report batch: " + e);
+        }
+    }
+
+    private static int read(InputStream in, byte[] buffer, int offset, int length)
+            throws CorruptBatchException {
+        try {
+            return in.read(buffer, offset, length);
+        } catch (IOException e) {
+            throw new CorruptBatchException("Can't unzip report batch: " + e);
+        }
+    }
+
+    private static byte[] readPrefix(InputStream in) throws CorruptBatchException {
+        final byte[] prefix = new byte[JSON_PREFIX.length];
+        int read = 0;
+        while (read < prefix.length) {
+            final int count = read(in, prefix, read, prefix.length - read);
+            if (count == -1) {
+                throw new CorruptBatchException("Truncated report batch");
+            }
+            read += count;
+        }
+        return prefix;
+    }
+
+    public boolean isEmpty() {
+        return mSources.isEmpty();
+    }
+
+    /*
+     A batch always fits into an empty merge, so an oversized file is still sent on its own.
+     */
+    public boolean fits(ReportBatch batch) {
+        return isEmpty() ||
+                (mRows + batch.reportCount <= mMaxRows &&
+                 mZippedBytes + batch.data.length <= mMaxZippedBytes);
+    }
+
+    /*
+     Copy the contents of the items array of a gzipped report batch, i.e. everything between
+     JSON_PREFIX and JSON_SUFFIX, without unzipping it into memory first. Throws
+     CorruptBatchException if the batch can't be unzipped or isn't a geosubmit payload, and
+     IOException if out fails.
+     */
+    static void copyItems(ReportBatch batch, OutputStream out) throws IOException {
+        final int suffixLength = JSON_SUFFIX.length;
+
+        InputStream in = unzip(batch.data);
+        try {
+            if (!Arrays.equals(JSON_PREFIX, readPrefix(in))) {
+                throw new CorruptBatchException("Not a geosubmit payload");
+            }
+
+            // The last suffixLength bytes read are held back, as they may be the suffix.
+            final byte[] buffer = new byte[8 * 1024];
+            int held = 0;
+            int count;
+            while ((count = read(in, buffer, held, buffer.length - held)) != -1) {
+                final int available = held + count;
+                final int writable = available - suffixLength;
+                if (writable <= 0) {
+                    held = available;
+                    continue;
+                }
+                out.write(buffer, 0, writable);
+                System.arraycopy(buffer, writable, buffer, 0, suffixLength);
+                held = suffixLength;
+            }
+            if (held != suffixLength || !Arrays.equals(JSON_SUFFIX, Arrays.copyOf(buffer, suffixLength))) {
+                throw new CorruptBatchException("Report batch doesn't end the items array");
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     Add a batch that isMergeable(). A batch with no reports adds no items.
+     */
+    public void add(ReportBatch batch) {
+        if (batch.reportCount > 0) {
+            mItemSources.add(batch);
+        }
+        mRows += batch.reportCount;
+        mSources.add(batch);
+        mZippedBytes += batch.data.length;
+        mWifis += batch.wifiCount;
+        mCells += batch.cellCount;
+    }
+
+    /*
+     Returns the merged batch and resets the merger. A single source is returned as is.
+     */
+    public SerializedJSONRows finish() {
+        if (isEmpty()) {
+            return null;
+        }
+
+        SerializedJSONRows result;
+        if (mSources.size() == 1) {
+            result = mSources.get(0);
+        } else {
+            result = new MergedReportBatch(new ArrayList<ReportBatch>(mSources),
+                    new ArrayList<ReportBatch>(mItemSources), mRows, mWifis, mCells, mZippedBytes);
+        }
+
+        mSources.clear();
+        mItemSources.clear();
+        mRows = mZippedBytes = mWifis = mCells = 0;
+        return result;
+    }
+
+    /*
+     Merge a fixed set of batches, ignoring the budget. Used to bisect a merged batch that
+     was rejected by the server. Returns null if one of the batches can't be read.
+     */
+    public static SerializedJSONRows merge(List<ReportBatch> batches) {
+        ReportBatchMerger merger = new ReportBatchMerger(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        for (ReportBatch batch : batches) {
+            if (!isMergeable(batch)) {
+                return null;
+            }
+            merger.add(batch);
+        }
+        return merger.finish();
+    }
+}
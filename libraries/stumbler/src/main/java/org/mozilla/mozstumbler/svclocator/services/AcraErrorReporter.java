@@ -0,0 +1,14 @@
+/* This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/. */
+package org.mozilla.mozstumbler.svclocator.services;
+
+import org.acra.ACRA;
+
+public class AcraErrorReporter implements IErrorReporter {
+
+    @Override
+    public void handleSilentException(Throwable e) {
+        ACRA.getErrorReporter().handleSilentException(e);
+    }
+}
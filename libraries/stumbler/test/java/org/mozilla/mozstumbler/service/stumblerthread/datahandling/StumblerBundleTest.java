@@ -30,6 +30,7 @@ import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
 
@@ -252,6 +253,37 @@ public class StumblerBundleTest {
         JSONAssert.assertEquals(expectedJson, actualJson, true);
     }
 
+    @Test
+    public void testDuplicatesDroppedAndSorted() throws JSONException {
+        Location mockLocation = new Location(LocationManager.GPS_PROVIDER);
+        StumblerBundle bundle = new StumblerBundle(mockLocation);
+
+        for (String bssid: new String[]{"23456789abcd", "0123456789ab", "23456789abcd", "not a bssid"}) {
+            bundle.addWifiData(bssid, createScanResult(bssid, "", -70, 2412, 0));
+        }
+        assertEquals(2, bundle.getWifiCount());
+        assertEquals(0x0123456789abL, bundle.getWifiBSSID(0));
+        assertEquals(0x23456789abcdL, bundle.getWifiBSSID(1));
+
+        CellInfo lte = createLteCellInfo(208, 1, 12345, CellInfo.UNKNOWN_CID, 2, 31, 1);
+        CellInfo gsm = new CellInfo();
+        gsm.setGsmCellInfo(208, 1, 3, 4, 20);
+        bundle.addCellData(lte.getCellIdentity(), lte);
+        bundle.addCellData(gsm.getCellIdentity(), gsm);
+        bundle.addCellData(lte.getCellIdentity(), lte);
+        assertEquals(2, bundle.getCellCount());
+        // Same order as the cell keys sort in
+        assertEquals(gsm.getCellIdentity(), bundle.getCellKey(0));
+
+        JSONObject geolocate = bundle.toMLSGeolocate();
+        assertEquals(CellInfo.CELL_RADIO_GSM, geolocate.getString(DataStorageConstants.ReportsColumns.RADIO));
+        JSONArray wifis = geolocate.getJSONArray(DataStorageConstants.ReportsColumns.WIFI);
+        assertEquals("0123456789ab", wifis.getJSONObject(0).getString("macAddress"));
+        assertEquals(-70, wifis.getJSONObject(0).getInt("signalStrength"));
+        assertEquals(2412, wifis.getJSONObject(0).getInt("frequency"));
+        assertEquals("23456789abcd", wifis.getJSONObject(1).getString("macAddress"));
+    }
+
     public static CellInfo createLteCellInfo(int mcc,
                                              int mnc,
                                              int cid,